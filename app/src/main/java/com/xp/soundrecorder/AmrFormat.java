@@ -0,0 +1,70 @@
+package com.xp.soundrecorder;
+
+/**
+ * AMR 存储格式（RFC 4867 第 5 节）的常量和帧长度表
+ */
+public final class AmrFormat {
+
+    public static final int TYPE_NONE = 0;
+
+    public static final int TYPE_NB = 1;
+
+    public static final int TYPE_WB = 2;
+
+    public static final int FRAME_DURATION_MS = 20;
+
+    private static final byte[] MAGIC_NB = {'#', '!', 'A', 'M', 'R', '\n'};
+
+    private static final byte[] MAGIC_WB = {'#', '!', 'A', 'M', 'R', '-', 'W', 'B', '\n'};
+
+    /**
+     * 按帧类型索引的帧长度，包含 1 字节帧头，保留的类型按只有帧头处理
+     */
+    private static final int[] FRAME_SIZE_NB = {13, 14, 16, 18, 20, 21, 27, 32, 6, 1, 1, 1, 1, 1, 1, 1};
+
+    private static final int[] FRAME_SIZE_WB = {18, 24, 33, 37, 41, 47, 51, 59, 61, 6, 1, 1, 1, 1, 1, 1};
+
+    private AmrFormat() {
+    }
+
+    /**
+     * 根据文件开头的字节判断 AMR 类型
+     */
+    public static int detect(byte[] head, int length) {
+        if (startsWith(head, length, MAGIC_WB)) {
+            return TYPE_WB;
+        } else if (startsWith(head, length, MAGIC_NB)) {
+            return TYPE_NB;
+        }
+        return TYPE_NONE;
+    }
+
+    public static int magicLength(int type) {
+        return type == TYPE_WB ? MAGIC_WB.length : MAGIC_NB.length;
+    }
+
+    public static int sampleRate(int type) {
+        return type == TYPE_WB ? 16000 : 8000;
+    }
+
+    /**
+     * @param frameHeader 帧头字节
+     * @return 包含帧头在内的整帧字节数
+     */
+    public static int frameSize(int type, int frameHeader) {
+        int frameType = (frameHeader >> 3) & 0x0F;
+        return type == TYPE_WB ? FRAME_SIZE_WB[frameType] : FRAME_SIZE_NB[frameType];
+    }
+
+    private static boolean startsWith(byte[] head, int length, byte[] magic) {
+        if (length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (head[i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,200 @@
+package com.xp.soundrecorder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * 按 RFC 4867 的存储格式逐帧扫描 AMR-NB/AMR-WB 文件，只读帧头、跳过语音数据就能得到精确时长。
+ * AMR 文件没有定位表，这里一次顺序扫描记下每秒第一帧的字节偏移，之后按时间换算偏移是 O(1) 的。
+ * 扫描按大块读入后在内存中跳帧，速度取决于磁盘读取速度；索引只占每秒 8 字节
+ */
+public class AmrFrameIndex {
+
+    public static final int FRAMES_PER_ENTRY = 1000 / AmrFormat.FRAME_DURATION_MS;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * {@link AmrFormat#TYPE_NB} 或 {@link AmrFormat#TYPE_WB}
+     */
+    private final int mType;
+
+    /**
+     * 第 i 项是第 i * {@link #FRAMES_PER_ENTRY} 帧的起始偏移
+     */
+    private final long[] mOffsets;
+
+    private final int mEntryCount;
+
+    private final long mFrameCount;
+
+    private final long mDataEnd;
+
+    private AmrFrameIndex(int type, long[] offsets, int entryCount, long frameCount,
+                          long dataEnd) {
+        mType = type;
+        mOffsets = offsets;
+        mEntryCount = entryCount;
+        mFrameCount = frameCount;
+        mDataEnd = dataEnd;
+    }
+
+    public static AmrFrameIndex build(File file) throws IOException {
+        // 内部按大块读取，不需要再套一层缓冲流
+        InputStream in = new FileInputStream(file);
+        try {
+            return build(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 最后一帧不完整时不计入
+     */
+    public static AmrFrameIndex build(InputStream in) throws IOException {
+        int type = readMagic(in);
+        long base = AmrFormat.magicLength(type);
+        long[] offsets = new long[64];
+        int entryCount = 0;
+        long frames = 0;
+        long dataEnd = base;
+        // 跨越缓冲区边界的帧在下一块中还要跳过的字节数
+        long pending = 0;
+
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int length;
+        while ((length = in.read(buffer)) >= 0) {
+            int position = 0;
+            if (pending > 0) {
+                int consumed = (int) Math.min(pending, length);
+                position = consumed;
+                pending -= consumed;
+                if (pending == 0) {
+                    frames++;
+                    dataEnd = base + position;
+                }
+            }
+            while (position < length) {
+                if (frames % FRAMES_PER_ENTRY == 0) {
+                    if (entryCount == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, entryCount * 2);
+                    }
+                    offsets[entryCount++] = base + position;
+                }
+                int end = position + AmrFormat.frameSize(type, buffer[position] & 0xFF);
+                if (end <= length) {
+                    position = end;
+                    frames++;
+                    dataEnd = base + position;
+                } else {
+                    pending = end - length;
+                    position = length;
+                }
+            }
+            base += length;
+        }
+        // 不完整的最后一帧可能已经占了一项索引
+        entryCount = (int) Math.min(entryCount, (frames + FRAMES_PER_ENTRY - 1) / FRAMES_PER_ENTRY);
+        return new AmrFrameIndex(type, offsets, entryCount, frames, dataEnd);
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public int getSampleRate() {
+        return AmrFormat.sampleRate(mType);
+    }
+
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    public long getDurationMillis() {
+        return mFrameCount * AmrFormat.FRAME_DURATION_MS;
+    }
+
+    /**
+     * 最后一个完整帧的结束偏移
+     */
+    public long getDataEnd() {
+        return mDataEnd;
+    }
+
+    /**
+     * 包含指定时间的帧序号，超出范围时取首尾
+     */
+    public long frameForTime(long positionMillis) {
+        long frame = positionMillis / AmrFormat.FRAME_DURATION_MS;
+        return Math.max(0, Math.min(frame, mFrameCount - 1));
+    }
+
+    /**
+     * 指定时间所在那一秒的第一帧的偏移，O(1)；没有任何帧时返回数据起点
+     */
+    public long offsetForTime(long positionMillis) {
+        if (mEntryCount == 0) {
+            return mDataEnd;
+        }
+        long entry = frameForTime(positionMillis) / FRAMES_PER_ENTRY;
+        return mOffsets[(int) Math.min(entry, mEntryCount - 1)];
+    }
+
+    /**
+     * 精确定位到某一帧：从索引项开始最多再读 {@link #FRAMES_PER_ENTRY} - 1 个帧头
+     */
+    public long offsetOfFrame(long frame, RandomAccessFile file) throws IOException {
+        if (mEntryCount == 0) {
+            return mDataEnd;
+        }
+        frame = Math.max(0, Math.min(frame, mFrameCount - 1));
+        long offset = mOffsets[(int) (frame / FRAMES_PER_ENTRY)];
+        for (long i = frame % FRAMES_PER_ENTRY; i > 0; i--) {
+            file.seek(offset);
+            offset += AmrFormat.frameSize(mType, file.readUnsignedByte());
+        }
+        return offset;
+    }
+
+    /**
+     * 读取并校验文件头，只消耗文件头本身的字节
+     */
+    private static int readMagic(InputStream in) throws IOException {
+        byte[] head = new byte[AmrFormat.magicLength(AmrFormat.TYPE_WB)];
+        int length = readFully(in, head, 0, AmrFormat.magicLength(AmrFormat.TYPE_NB));
+        int type = AmrFormat.detect(head, length);
+        if (type == AmrFormat.TYPE_NONE) {
+            length += readFully(in, head, length, head.length - length);
+            type = AmrFormat.detect(head, length);
+        }
+        if (type == AmrFormat.TYPE_NONE) {
+            throw new IOException("Not an AMR file");
+        }
+        return type;
+    }
+
+    private static int readFully(InputStream in, byte[] buffer, int offset, int length)
+            throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = in.read(buffer, offset + total, length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * AMR 只有单声道
+     */
+    public AudioMetadata toMetadata() {
+        return new AudioMetadata(getDurationMillis(), getSampleRate(), 1);
+    }
+}
@@ -0,0 +1,119 @@
+package com.xp.soundrecorder;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 在采集线程和真正的写文件 {@link PcmSink} 之间放一个 {@link PcmRingBuffer}，
+ * 由单独的写线程把数据成块地写入下游，存储卡 flush 变慢时采集线程不会被阻塞
+ */
+public class AsyncPcmSink implements PcmSink {
+
+    /**
+     * 缓冲区为空时写线程的休眠时间
+     */
+    private static final long IDLE_PARK_NANOS = 5 * 1000 * 1000L;
+
+    private static final int DRAIN_BLOCK_SIZE = 16 * 1024;
+
+    private final PcmSink mDownstream;
+
+    private final PcmRingBuffer mRingBuffer;
+
+    private final short[] mDrainBuffer;
+
+    private Thread mWriterThread;
+
+    private volatile boolean mClosing;
+
+    private volatile IOException mWriteError;
+
+    public AsyncPcmSink(PcmSink downstream, int capacity) {
+        mDownstream = downstream;
+        mRingBuffer = new PcmRingBuffer(PcmRingBuffer.roundUpToPowerOfTwo(capacity));
+        mDrainBuffer = new short[Math.min(DRAIN_BLOCK_SIZE, mRingBuffer.capacity())];
+    }
+
+    /**
+     * 按给定时长计算环形缓冲区容量
+     */
+    public static int capacityFor(int sampleRate, int channelCount, int millis) {
+        return (int) ((long) sampleRate * channelCount * millis / 1000);
+    }
+
+    public PcmRingBuffer getRingBuffer() {
+        return mRingBuffer;
+    }
+
+    @Override
+    public void open(int sampleRate, int channelCount) throws IOException {
+        mDownstream.open(sampleRate, channelCount);
+        mClosing = false;
+        mWriteError = null;
+        mWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, "PcmWriter");
+        mWriterThread.start();
+    }
+
+    @Override
+    public void write(short[] samples, int length) throws IOException {
+        IOException error = mWriteError;
+        if (error != null) {
+            throw new IOException("Writer thread failed", error);
+        }
+        if (!mRingBuffer.write(samples, 0, length)) {
+            // 缓冲区满了，这一块已经丢弃并计入 overrun，不能阻塞采集线程，只把写线程叫醒
+            LockSupport.unpark(mWriterThread);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mWriterThread == null) {
+            return;
+        }
+        mClosing = true;
+        LockSupport.unpark(mWriterThread);
+        boolean interrupted = false;
+        while (mWriterThread.isAlive()) {
+            try {
+                mWriterThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        mWriterThread = null;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        mDownstream.close();
+        if (mWriteError != null) {
+            throw mWriteError;
+        }
+    }
+
+    private void drainLoop() {
+        final short[] buffer = mDrainBuffer;
+        try {
+            while (true) {
+                // 先读标志再读数据，保证关闭前写入的数据都能被写完
+                boolean closing = mClosing;
+                int count = mRingBuffer.read(buffer, 0, buffer.length);
+                if (count > 0) {
+                    mDownstream.write(buffer, count);
+                } else if (closing) {
+                    break;
+                } else {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+        } catch (IOException e) {
+            mWriteError = e;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.xp.soundrecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * 从文件头读出的时长、采样率和声道数，不经过 MediaPlayer 等系统媒体框架
+ */
+public class AudioMetadata {
+
+    /**
+     * 时长，单位毫秒
+     */
+    public final long durationMillis;
+
+    public final int sampleRate;
+
+    public final int channelCount;
+
+    public AudioMetadata(long durationMillis, int sampleRate, int channelCount) {
+        this.durationMillis = durationMillis;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+    }
+
+    /**
+     * 按格式选择对应的解析器
+     *
+     * @param format {@link RecordingFormat} 中的取值
+     */
+    public static AudioMetadata read(File file, int format) throws IOException {
+        switch (format) {
+            case RecordingFormat.AMR_NB:
+            case RecordingFormat.AMR_WB:
+                return AmrFrameIndex.build(file).toMetadata();
+            case RecordingFormat.THREE_GPP:
+                return Mp4Parser.parse(file);
+            case RecordingFormat.WAV:
+                WavReader reader = new WavReader(file);
+                try {
+                    return new AudioMetadata(reader.getDurationMillis(), reader.getSampleRate(),
+                            reader.getChannelCount());
+                } finally {
+                    reader.close();
+                }
+            case RecordingFormat.FLAC:
+                return readFlacStreamInfo(file);
+            default:
+                throw new IOException("Unsupported format " + format + ": " + file);
+        }
+    }
+
+    /**
+     * FLAC 文件开头紧跟着 STREAMINFO 块，里面有采样率、声道数和总帧数
+     */
+    private static AudioMetadata readFlacStreamInfo(File file) throws IOException {
+        byte[] header = new byte[FlacFileWriter.HEADER_SIZE];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.readFully(header);
+        } finally {
+            raf.close();
+        }
+        if ((header[4] & 0x7F) != 0) {
+            throw new IOException("Missing STREAMINFO: " + file);
+        }
+        // STREAMINFO 第 10 字节起依次是 20 位采样率、3 位声道数减一、5 位位深减一、36 位总帧数
+        long packed = 0;
+        for (int i = 0; i < 8; i++) {
+            packed = (packed << 8) | (header[8 + 10 + i] & 0xFF);
+        }
+        int sampleRate = (int) (packed >>> 44);
+        int channelCount = (int) ((packed >>> 41) & 0x7) + 1;
+        long totalFrames = packed & 0xFFFFFFFFFL;
+        if (sampleRate == 0) {
+            throw new IOException("Invalid STREAMINFO: " + file);
+        }
+        return new AudioMetadata(totalFrames * 1000 / sampleRate, sampleRate, channelCount);
+    }
+
+    @Override
+    public String toString() {
+        return durationMillis + "ms " + sampleRate + "Hz " + channelCount + "ch";
+    }
+}
@@ -0,0 +1,34 @@
+package com.xp.soundrecorder;
+
+import java.io.IOException;
+
+/**
+ * PCM 播放输出，{@link PcmPlayer} 通过它写出 16 位交错采样
+ */
+public interface AudioOutput {
+
+    void open(int sampleRate, int channelCount) throws IOException;
+
+    /**
+     * 阻塞写入，缓冲区满时等待
+     *
+     * @return 写入的 short 个数，负数表示写入出错
+     */
+    int write(short[] buffer, int offset, int length);
+
+    void play();
+
+    void pause();
+
+    /**
+     * 丢弃已写入但还没有播放的数据，只在暂停时有效
+     */
+    void flush();
+
+    /**
+     * 已经播放出去的帧数，只增不减；flush 之后是否归零由实现决定
+     */
+    long getPlayedFrames();
+
+    void release();
+}
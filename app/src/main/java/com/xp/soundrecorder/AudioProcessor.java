@@ -0,0 +1,20 @@
+package com.xp.soundrecorder;
+
+/**
+ * 录音链路中的一个处理环节，由 {@link AudioProcessorChain} 在写线程中依次调用。
+ * 采样为交错存放的 float，满幅为 ±1。所有状态在 configure 中分配，process 中不能分配内存
+ */
+public interface AudioProcessor {
+
+    /**
+     * 每次录音开始前调用，按采样率和声道数预先分配状态
+     */
+    void configure(int sampleRate, int channelCount);
+
+    /**
+     * 原地处理一块数据
+     *
+     * @param frames 帧数，采样个数为 frames 乘以声道数
+     */
+    void process(float[] samples, int frames);
+}
@@ -0,0 +1,120 @@
+package com.xp.soundrecorder;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按顺序运行一组 {@link AudioProcessor}，处理后的数据写给下游。放在 {@link AsyncPcmSink} 之后，
+ * 处理在写线程中进行，不占用采集线程。转换缓冲区在构造时分配，每块数据不分配内存。
+ * 每个处理环节的耗时单独统计，可以在任意线程读取
+ */
+public class AudioProcessorChain implements PcmSink {
+
+    private static final float SHORT_SCALE = 32768f;
+
+    private final PcmSink mDownstream;
+
+    private final AudioProcessor[] mProcessors;
+
+    private final float[] mFloatBuffer;
+
+    private final short[] mShortBuffer;
+
+    private final AtomicLongArray mProcessingNanos;
+
+    private volatile long mProcessedFrames;
+
+    private int mSampleRate;
+
+    private int mChannelCount = 1;
+
+    /**
+     * @param maxBlockSamples 每次处理的最大采样数，更大的数据块会被拆开处理
+     */
+    public AudioProcessorChain(PcmSink downstream, int maxBlockSamples,
+                               AudioProcessor... processors) {
+        mDownstream = downstream;
+        mProcessors = processors;
+        mFloatBuffer = new float[maxBlockSamples];
+        mShortBuffer = new short[maxBlockSamples];
+        mProcessingNanos = new AtomicLongArray(processors.length);
+    }
+
+    public int getProcessorCount() {
+        return mProcessors.length;
+    }
+
+    public AudioProcessor getProcessor(int index) {
+        return mProcessors[index];
+    }
+
+    /**
+     * 本次录音中该处理环节累计的耗时
+     */
+    public long getProcessingNanos(int index) {
+        return mProcessingNanos.get(index);
+    }
+
+    public long getProcessedFrames() {
+        return mProcessedFrames;
+    }
+
+    /**
+     * 该处理环节的耗时占处理过的音频时长的比例，0.01 表示占用一个核的 1%
+     */
+    public float getLoad(int index) {
+        long frames = mProcessedFrames;
+        if (frames == 0 || mSampleRate == 0) {
+            return 0f;
+        }
+        return (float) (mProcessingNanos.get(index) / (frames * 1e9 / mSampleRate));
+    }
+
+    @Override
+    public void open(int sampleRate, int channelCount) throws IOException {
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mProcessedFrames = 0;
+        for (int i = 0; i < mProcessors.length; i++) {
+            mProcessors[i].configure(sampleRate, channelCount);
+            mProcessingNanos.set(i, 0);
+        }
+        mDownstream.open(sampleRate, channelCount);
+    }
+
+    @Override
+    public void write(short[] samples, int length) throws IOException {
+        int maxBlock = mFloatBuffer.length - mFloatBuffer.length % mChannelCount;
+        for (int offset = 0; offset < length; offset += maxBlock) {
+            writeBlock(samples, offset, Math.min(maxBlock, length - offset));
+        }
+    }
+
+    private void writeBlock(short[] samples, int offset, int length) throws IOException {
+        final float[] floats = mFloatBuffer;
+        final short[] shorts = mShortBuffer;
+        for (int i = 0; i < length; i++) {
+            floats[i] = samples[offset + i] / SHORT_SCALE;
+        }
+
+        int frames = length / mChannelCount;
+        for (int i = 0; i < mProcessors.length; i++) {
+            long start = System.nanoTime();
+            mProcessors[i].process(floats, frames);
+            mProcessingNanos.addAndGet(i, System.nanoTime() - start);
+        }
+
+        for (int i = 0; i < length; i++) {
+            float value = floats[i] * SHORT_SCALE;
+            shorts[i] = value >= Short.MAX_VALUE ? Short.MAX_VALUE
+                    : value <= Short.MIN_VALUE ? Short.MIN_VALUE : (short) value;
+        }
+        mDownstream.write(shorts, length);
+        mProcessedFrames += frames;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mDownstream.close();
+    }
+}
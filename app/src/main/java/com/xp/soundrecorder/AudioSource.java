@@ -0,0 +1,26 @@
+package com.xp.soundrecorder;
+
+import java.io.IOException;
+
+/**
+ * PCM 采集源，{@link PcmCaptureEngine} 通过它读取 16 位交错采样
+ */
+public interface AudioSource {
+
+    int getSampleRate();
+
+    int getChannelCount();
+
+    void start() throws IOException;
+
+    /**
+     * 阻塞读取采样
+     *
+     * @return 读取到的 short 个数，负数表示读取出错
+     */
+    int read(short[] buffer, int offset, int length);
+
+    void stop();
+
+    void release();
+}
@@ -0,0 +1,65 @@
+package com.xp.soundrecorder;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+
+import java.io.IOException;
+
+public class AudioTrackOutput implements AudioOutput {
+
+    private AudioTrack mAudioTrack;
+
+    @Override
+    public void open(int sampleRate, int channelCount) throws IOException {
+        int channelConfig = channelCount == 2 ? AudioFormat.CHANNEL_OUT_STEREO
+                : AudioFormat.CHANNEL_OUT_MONO;
+        int minBufferSize = AudioTrack.getMinBufferSize(sampleRate, channelConfig,
+                AudioFormat.ENCODING_PCM_16BIT);
+        if (minBufferSize <= 0) {
+            throw new IOException("Unsupported playback config: " + sampleRate + "Hz");
+        }
+
+        // 缓冲区取最小值的两倍，写线程被短暂抢占时不会断音
+        mAudioTrack = new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate, channelConfig,
+                AudioFormat.ENCODING_PCM_16BIT, minBufferSize * 2, AudioTrack.MODE_STREAM);
+        if (mAudioTrack.getState() != AudioTrack.STATE_INITIALIZED) {
+            release();
+            throw new IOException("AudioTrack init failed");
+        }
+    }
+
+    @Override
+    public int write(short[] buffer, int offset, int length) {
+        return mAudioTrack.write(buffer, offset, length);
+    }
+
+    @Override
+    public void play() {
+        mAudioTrack.play();
+    }
+
+    @Override
+    public void pause() {
+        mAudioTrack.pause();
+    }
+
+    @Override
+    public void flush() {
+        mAudioTrack.flush();
+    }
+
+    @Override
+    public long getPlayedFrames() {
+        // 播放头是无符号 32 位计数
+        return mAudioTrack.getPlaybackHeadPosition() & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void release() {
+        if (mAudioTrack != null) {
+            mAudioTrack.release();
+            mAudioTrack = null;
+        }
+    }
+}
@@ -2,4 +2,20 @@ package com.xp.soundrecorder;
 
 public class Constant {
 
+    /**
+     * 播放速度可选的档位，点击速度按钮时依次切换
+     */
+    public static final float[] PLAYBACK_SPEEDS = {1f, 1.25f, 1.5f, 2f, 3f};
+
+    /**
+     * @return 下一档播放速度，最后一档之后回到原速
+     */
+    public static float nextPlaybackSpeed(float speed) {
+        for (int i = 0; i < PLAYBACK_SPEEDS.length - 1; i++) {
+            if (speed < PLAYBACK_SPEEDS[i + 1]) {
+                return PLAYBACK_SPEEDS[i + 1];
+            }
+        }
+        return PLAYBACK_SPEEDS[0];
+    }
 }
@@ -0,0 +1,87 @@
+package com.xp.soundrecorder;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 录音开始前为文件预留空间，空间不足时在开始时就失败，而不是录到一半被迫停止。
+ * Android 5.0 以上先用 fallocate，文件系统不支持时（如 FAT 格式的 SD 卡）按大块写零扩展文件，
+ * 一次分配大段连续空间也能减少碎片，保持顺序写入的速度
+ */
+final class FilePreallocator {
+
+    /**
+     * 写零扩展时每次写入的大小
+     */
+    private static final int EXTEND_CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * 预分配失败，通常是空间不足
+     */
+    static class PreallocationException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        PreallocationException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private FilePreallocator() {
+    }
+
+    /**
+     * 把文件扩展到 length 字节，不改变 channel 的当前位置。文件已经更长时什么也不做
+     */
+    static void preallocate(RandomAccessFile file, long length) throws IOException {
+        FileChannel channel = file.getChannel();
+        long size = channel.size();
+        if (length <= size) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                && fallocate(file, size, length - size)) {
+            return;
+        }
+        extend(channel, size, length);
+    }
+
+    /**
+     * @return 是否成功，文件系统不支持时返回 false
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static boolean fallocate(RandomAccessFile file, long offset, long length)
+            throws IOException {
+        try {
+            Os.posix_fallocate(file.getFD(), offset, length);
+            return true;
+        } catch (ErrnoException e) {
+            if (e.errno == OsConstants.ENOSPC) {
+                throw new PreallocationException("No space for " + length + " bytes", e);
+            }
+            return false;
+        }
+    }
+
+    private static void extend(FileChannel channel, long from, long to) throws IOException {
+        ByteBuffer zeros = ByteBuffer.allocateDirect((int) Math.min(EXTEND_CHUNK_SIZE, to - from));
+        long position = from;
+        try {
+            while (position < to) {
+                zeros.clear();
+                zeros.limit((int) Math.min(zeros.capacity(), to - position));
+                position += channel.write(zeros, position);
+            }
+        } catch (IOException e) {
+            // 已经写入的部分留给调用方删除文件时一起清理
+            throw new PreallocationException("Extend to " + to + " bytes failed", e);
+        }
+    }
+}
@@ -0,0 +1,799 @@
+package com.xp.soundrecorder;
+
+import java.util.Arrays;
+
+/**
+ * 纯 Java 的 FLAC 帧编码器，只支持 16 位采样、固定块大小。每个声道分别尝试常量、固定多项式预测
+ * 和 LPC 预测，残差用分区 Rice 编码，选择最短的一种，都不划算时退回原样存储。
+ * 压缩级别越高尝试的预测阶数和分区越多，压缩率越高也越耗 CPU。
+ * 所有工作缓冲区在构造时分配，编码过程中不再分配内存，只能在一个线程中使用
+ */
+public class FlacEncoder {
+
+    public static final int MIN_LEVEL = 0;
+
+    public static final int MAX_LEVEL = 8;
+
+    public static final int DEFAULT_LEVEL = 5;
+
+    public static final int BITS_PER_SAMPLE = 16;
+
+    /**
+     * 各压缩级别的块大小、固定预测最高阶数、LPC 最高阶数和 Rice 最大分区阶数
+     */
+    private static final int[] BLOCK_SIZES = {1152, 1152, 1152, 4096, 4096, 4096, 4096, 4096, 4096};
+
+    private static final int[] MAX_FIXED_ORDERS = {2, 4, 4, 4, 4, 4, 4, 4, 4};
+
+    private static final int[] MAX_LPC_ORDERS = {0, 0, 0, 6, 8, 8, 8, 12, 12};
+
+    private static final int[] MAX_PARTITION_ORDERS = {3, 3, 4, 4, 4, 5, 6, 6, 8};
+
+    /**
+     * 从这一级开始逐个尝试 LPC 阶数，更低的级别只用最高阶
+     */
+    private static final int EXHAUSTIVE_LPC_LEVEL = 7;
+
+    private static final int MAX_FIXED_ORDER = 4;
+
+    private static final int MAX_RICE_PARAMETER = 14;
+
+    private static final int MAX_LPC_SHIFT = 15;
+
+    private static final int SUBFRAME_CONSTANT = 0;
+
+    private static final int SUBFRAME_VERBATIM = 1;
+
+    private static final int SUBFRAME_FIXED = 8;
+
+    private static final int SUBFRAME_LPC = 32;
+
+    private static final int[] CRC8_TABLE = new int[256];
+
+    private static final int[] CRC16_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc8 = i;
+            int crc16 = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc8 = (crc8 & 0x80) != 0 ? (crc8 << 1) ^ 0x07 : crc8 << 1;
+                crc16 = (crc16 & 0x8000) != 0 ? (crc16 << 1) ^ 0x8005 : crc16 << 1;
+            }
+            CRC8_TABLE[i] = crc8 & 0xFF;
+            CRC16_TABLE[i] = crc16 & 0xFFFF;
+        }
+    }
+
+    private final int mSampleRate;
+
+    private final int mChannelCount;
+
+    private final int mBlockSize;
+
+    private final int mMaxFixedOrder;
+
+    private final int mMaxLpcOrder;
+
+    private final int mMaxPartitionOrder;
+
+    private final boolean mExhaustiveLpc;
+
+    private final int mLpcPrecision;
+
+    private final byte[] mFrame;
+
+    private int mBitPosition;
+
+    private long mBitBuffer;
+
+    private int mBitCount;
+
+    private final long[] mFixedSums = new long[MAX_FIXED_ORDER + 1];
+
+    private final int[] mResidual;
+
+    private final int[] mBestResidual;
+
+    private final double[] mWindow;
+
+    private final double[] mWindowed;
+
+    private final double[] mAutocorrelation;
+
+    /**
+     * Levinson-Durbin 递推得到的各阶 LPC 系数，mLpc[order - 1] 为该阶的系数
+     */
+    private final double[][] mLpc;
+
+    private final int[] mQlp;
+
+    private final int[] mBestQlp;
+
+    private int mBestShift;
+
+    /**
+     * 各分区阶数下每个分区的 Rice 参数和残差和
+     */
+    private final int[][] mRiceParameters;
+
+    private final long[] mPartitionSums;
+
+    private int mBestPartitionOrder;
+
+    private final int[] mBestRiceParameters;
+
+    private final int[] mCandidateRiceParameters;
+
+    private int mCandidatePartitionOrder;
+
+    /**
+     * @param level 压缩级别 {@link #MIN_LEVEL} ~ {@link #MAX_LEVEL}
+     */
+    public FlacEncoder(int sampleRate, int channelCount, int level) {
+        if (channelCount < 1 || channelCount > 8) {
+            throw new IllegalArgumentException("Unsupported channel count " + channelCount);
+        }
+        level = Math.max(MIN_LEVEL, Math.min(MAX_LEVEL, level));
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mBlockSize = BLOCK_SIZES[level];
+        mMaxFixedOrder = MAX_FIXED_ORDERS[level];
+        mMaxLpcOrder = MAX_LPC_ORDERS[level];
+        mMaxPartitionOrder = MAX_PARTITION_ORDERS[level];
+        mExhaustiveLpc = level >= EXHAUSTIVE_LPC_LEVEL;
+        mLpcPrecision = lpcPrecision(mBlockSize);
+
+        // 原样存储的大小加上帧头、子帧头和对齐的余量，Rice 编码只在更短时才会被选中
+        mFrame = new byte[mBlockSize * channelCount * BITS_PER_SAMPLE / 8 + channelCount * 8 + 64];
+        mResidual = new int[mBlockSize];
+        mBestResidual = new int[mBlockSize];
+        mWindow = tukeyWindow(mBlockSize);
+        mWindowed = new double[mBlockSize];
+        mAutocorrelation = new double[mMaxLpcOrder + 1];
+        mLpc = new double[Math.max(1, mMaxLpcOrder)][Math.max(1, mMaxLpcOrder)];
+        mQlp = new int[Math.max(1, mMaxLpcOrder)];
+        mBestQlp = new int[Math.max(1, mMaxLpcOrder)];
+        mRiceParameters = new int[mMaxPartitionOrder + 1][1 << mMaxPartitionOrder];
+        mPartitionSums = new long[1 << mMaxPartitionOrder];
+        mBestRiceParameters = new int[1 << mMaxPartitionOrder];
+        mCandidateRiceParameters = new int[1 << mMaxPartitionOrder];
+    }
+
+    public int getBlockSize() {
+        return mBlockSize;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * 编码结果所在的缓冲区，在下一次编码之前有效
+     */
+    public byte[] getFrameBuffer() {
+        return mFrame;
+    }
+
+    /**
+     * 编码一帧
+     *
+     * @param samples     每个声道一个数组，长度至少为 blockSize
+     * @param blockSize   本帧的帧数，只有最后一帧可以小于 {@link #getBlockSize()}
+     * @param frameNumber 从 0 开始的帧序号
+     * @return 编码后的字节数
+     */
+    public int encodeFrame(int[][] samples, int blockSize, int frameNumber) {
+        if (blockSize <= 0 || blockSize > mBlockSize) {
+            throw new IllegalArgumentException("Invalid block size " + blockSize);
+        }
+        mBitPosition = 0;
+        mBitBuffer = 0;
+        mBitCount = 0;
+
+        writeFrameHeader(blockSize, frameNumber);
+        for (int c = 0; c < mChannelCount; c++) {
+            writeSubframe(samples[c], blockSize);
+        }
+        flushBits();
+        int length = mBitPosition;
+        int crc = crc16(mFrame, 0, length);
+        mFrame[length++] = (byte) (crc >> 8);
+        mFrame[length++] = (byte) crc;
+        return length;
+    }
+
+    /**
+     * 生成 STREAMINFO 元数据块的 34 字节内容
+     *
+     * @param totalFrames 总帧数（每帧包含所有声道），未知时为 0
+     */
+    public static byte[] streamInfo(int sampleRate, int channelCount, int blockSize,
+                                    int minFrameSize, int maxFrameSize, long totalFrames) {
+        byte[] info = new byte[34];
+        info[0] = (byte) (blockSize >> 8);
+        info[1] = (byte) blockSize;
+        info[2] = (byte) (blockSize >> 8);
+        info[3] = (byte) blockSize;
+        info[4] = (byte) (minFrameSize >> 16);
+        info[5] = (byte) (minFrameSize >> 8);
+        info[6] = (byte) minFrameSize;
+        info[7] = (byte) (maxFrameSize >> 16);
+        info[8] = (byte) (maxFrameSize >> 8);
+        info[9] = (byte) maxFrameSize;
+        // 20 位采样率、3 位声道数减一、5 位位深减一、36 位总帧数
+        long packed = ((long) sampleRate << 44) | ((long) (channelCount - 1) << 41)
+                | ((long) (BITS_PER_SAMPLE - 1) << 36) | (totalFrames & 0xFFFFFFFFFL);
+        for (int i = 0; i < 8; i++) {
+            info[10 + i] = (byte) (packed >>> (56 - i * 8));
+        }
+        // MD5 全 0 表示没有计算
+        return info;
+    }
+
+    // ---------- 帧头 ----------
+
+    private void writeFrameHeader(int blockSize, int frameNumber) {
+        int blockSizeCode = blockSizeCode(blockSize);
+        int sampleRateCode = sampleRateCode(mSampleRate);
+        writeBits(0xFFF8, 16);
+        writeBits(blockSizeCode, 4);
+        writeBits(sampleRateCode, 4);
+        // 各声道独立编码，16 位采样
+        writeBits(mChannelCount - 1, 4);
+        writeBits(4, 3);
+        writeBits(0, 1);
+        writeUtf8(frameNumber);
+        if (blockSizeCode == 6) {
+            writeBits(blockSize - 1, 8);
+        } else if (blockSizeCode == 7) {
+            writeBits(blockSize - 1, 16);
+        }
+        flushBits();
+        mFrame[mBitPosition] = (byte) crc8(mFrame, 0, mBitPosition);
+        mBitPosition++;
+    }
+
+    private static int blockSizeCode(int blockSize) {
+        switch (blockSize) {
+            case 192:
+                return 1;
+            case 576:
+                return 2;
+            case 1152:
+                return 3;
+            case 2304:
+                return 4;
+            case 4608:
+                return 5;
+            case 256:
+                return 8;
+            case 512:
+                return 9;
+            case 1024:
+                return 10;
+            case 2048:
+                return 11;
+            case 4096:
+                return 12;
+            case 8192:
+                return 13;
+            case 16384:
+                return 14;
+            case 32768:
+                return 15;
+            default:
+                return blockSize <= 256 ? 6 : 7;
+        }
+    }
+
+    /**
+     * 常用采样率直接编码在帧头中，其他采样率从 STREAMINFO 读取
+     */
+    private static int sampleRateCode(int sampleRate) {
+        switch (sampleRate) {
+            case 8000:
+                return 4;
+            case 16000:
+                return 5;
+            case 22050:
+                return 6;
+            case 24000:
+                return 7;
+            case 32000:
+                return 8;
+            case 44100:
+                return 9;
+            case 48000:
+                return 10;
+            case 96000:
+                return 11;
+            default:
+                return 0;
+        }
+    }
+
+    private void writeUtf8(int value) {
+        if (value < 0x80) {
+            writeBits(value, 8);
+            return;
+        }
+        int bytes = value < 0x800 ? 2 : value < 0x10000 ? 3 : value < 0x200000 ? 4
+                : value < 0x4000000 ? 5 : 6;
+        int shift = (bytes - 1) * 6;
+        writeBits((0xFF00 >> bytes) & 0xFF | (value >>> shift), 8);
+        while (shift > 0) {
+            shift -= 6;
+            writeBits(0x80 | ((value >>> shift) & 0x3F), 8);
+        }
+    }
+
+    // ---------- 子帧 ----------
+
+    private void writeSubframe(int[] samples, int blockSize) {
+        if (isConstant(samples, blockSize)) {
+            writeBits(SUBFRAME_CONSTANT << 1, 8);
+            writeSigned(samples[0], BITS_PER_SAMPLE);
+            return;
+        }
+
+        long verbatimBits = (long) blockSize * BITS_PER_SAMPLE;
+        long bestBits = verbatimBits;
+        int bestType = SUBFRAME_VERBATIM;
+        int bestOrder = 0;
+
+        int fixedOrder = bestFixedOrder(samples, blockSize);
+        if (fixedOrder >= 0) {
+            long bits = (long) fixedOrder * BITS_PER_SAMPLE
+                    + residualBits(mResidual, blockSize, fixedOrder);
+            if (bits < bestBits) {
+                bestBits = bits;
+                bestType = SUBFRAME_FIXED;
+                bestOrder = fixedOrder;
+                keepCandidate(blockSize);
+            }
+        }
+
+        if (mMaxLpcOrder > 0 && blockSize > mMaxLpcOrder * 2) {
+            int maxOrder = computeLpc(samples, blockSize);
+            int firstOrder = mExhaustiveLpc ? 1 : maxOrder;
+            for (int order = firstOrder; order <= maxOrder; order++) {
+                int shift = quantizeLpc(mLpc[order - 1], order);
+                if (shift < 0) {
+                    continue;
+                }
+                lpcResidual(samples, blockSize, mQlp, order, shift, mResidual);
+                long bits = (long) order * BITS_PER_SAMPLE + 4 + 5 + (long) order * mLpcPrecision
+                        + residualBits(mResidual, blockSize, order);
+                if (bits < bestBits) {
+                    bestBits = bits;
+                    bestType = SUBFRAME_LPC;
+                    bestOrder = order;
+                    mBestShift = shift;
+                    System.arraycopy(mQlp, 0, mBestQlp, 0, order);
+                    keepCandidate(blockSize);
+                }
+            }
+        }
+
+        switch (bestType) {
+            case SUBFRAME_FIXED:
+                writeBits((SUBFRAME_FIXED | bestOrder) << 1, 8);
+                writeWarmup(samples, bestOrder);
+                writeResidual(blockSize, bestOrder);
+                break;
+            case SUBFRAME_LPC:
+                writeBits((SUBFRAME_LPC | (bestOrder - 1)) << 1, 8);
+                writeWarmup(samples, bestOrder);
+                writeBits(mLpcPrecision - 1, 4);
+                writeSigned(mBestShift, 5);
+                for (int i = 0; i < bestOrder; i++) {
+                    writeSigned(mBestQlp[i], mLpcPrecision);
+                }
+                writeResidual(blockSize, bestOrder);
+                break;
+            default:
+                writeBits(SUBFRAME_VERBATIM << 1, 8);
+                for (int i = 0; i < blockSize; i++) {
+                    writeSigned(samples[i], BITS_PER_SAMPLE);
+                }
+                break;
+        }
+    }
+
+    private static boolean isConstant(int[] samples, int blockSize) {
+        int first = samples[0];
+        for (int i = 1; i < blockSize; i++) {
+            if (samples[i] != first) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeWarmup(int[] samples, int order) {
+        for (int i = 0; i < order; i++) {
+            writeSigned(samples[i], BITS_PER_SAMPLE);
+        }
+    }
+
+    /**
+     * 当前残差和它的 Rice 分区参数作为目前最好的结果保存下来
+     */
+    private void keepCandidate(int blockSize) {
+        System.arraycopy(mResidual, 0, mBestResidual, 0, blockSize);
+        mBestPartitionOrder = mCandidatePartitionOrder;
+        System.arraycopy(mCandidateRiceParameters, 0, mBestRiceParameters, 0,
+                1 << mCandidatePartitionOrder);
+    }
+
+    /**
+     * 按残差绝对值之和选出固定预测的阶数，残差留在 mResidual 中
+     *
+     * @return 块太短无法预测时返回 -1
+     */
+    private int bestFixedOrder(int[] samples, int blockSize) {
+        int maxOrder = Math.min(mMaxFixedOrder, blockSize - 1);
+        if (maxOrder < 0) {
+            return -1;
+        }
+        final long[] sums = mFixedSums;
+        Arrays.fill(sums, 0);
+        for (int i = MAX_FIXED_ORDER; i < blockSize; i++) {
+            int x = samples[i];
+            int d1 = x - samples[i - 1];
+            int d2 = d1 - (samples[i - 1] - samples[i - 2]);
+            int d3 = d2 - (samples[i - 1] - 2 * samples[i - 2] + samples[i - 3]);
+            int d4 = d3 - (samples[i - 1] - 3 * samples[i - 2] + 3 * samples[i - 3] - samples[i - 4]);
+            sums[0] += Math.abs(x);
+            sums[1] += Math.abs(d1);
+            sums[2] += Math.abs(d2);
+            sums[3] += Math.abs(d3);
+            sums[4] += Math.abs(d4);
+        }
+        int best = 0;
+        for (int order = 1; order <= maxOrder; order++) {
+            if (sums[order] < sums[best]) {
+                best = order;
+            }
+        }
+        fixedResidual(samples, blockSize, best, mResidual);
+        return best;
+    }
+
+    static void fixedResidual(int[] x, int blockSize, int order, int[] residual) {
+        switch (order) {
+            case 0:
+                System.arraycopy(x, 0, residual, 0, blockSize);
+                break;
+            case 1:
+                for (int i = 1; i < blockSize; i++) {
+                    residual[i] = x[i] - x[i - 1];
+                }
+                break;
+            case 2:
+                for (int i = 2; i < blockSize; i++) {
+                    residual[i] = x[i] - 2 * x[i - 1] + x[i - 2];
+                }
+                break;
+            case 3:
+                for (int i = 3; i < blockSize; i++) {
+                    residual[i] = x[i] - 3 * x[i - 1] + 3 * x[i - 2] - x[i - 3];
+                }
+                break;
+            default:
+                for (int i = 4; i < blockSize; i++) {
+                    residual[i] = x[i] - 4 * x[i - 1] + 6 * x[i - 2] - 4 * x[i - 3] + x[i - 4];
+                }
+                break;
+        }
+    }
+
+    // ---------- LPC ----------
+
+    /**
+     * 加窗后计算自相关，再用 Levinson-Durbin 递推出 1 ~ maxOrder 阶的系数
+     *
+     * @return 实际可用的最高阶数，信号全为 0 等退化情况下可能小于设定值
+     */
+    private int computeLpc(int[] samples, int blockSize) {
+        final double[] windowed = mWindowed;
+        if (blockSize == mBlockSize) {
+            for (int i = 0; i < blockSize; i++) {
+                windowed[i] = samples[i] * mWindow[i];
+            }
+        } else {
+            for (int i = 0; i < blockSize; i++) {
+                windowed[i] = samples[i] * tukey(i, blockSize);
+            }
+        }
+
+        int maxOrder = mMaxLpcOrder;
+        final double[] autoc = mAutocorrelation;
+        for (int lag = 0; lag <= maxOrder; lag++) {
+            double sum = 0;
+            for (int i = lag; i < blockSize; i++) {
+                sum += windowed[i] * windowed[i - lag];
+            }
+            autoc[lag] = sum;
+        }
+        if (autoc[0] == 0) {
+            return 0;
+        }
+
+        double error = autoc[0];
+        for (int order = 1; order <= maxOrder; order++) {
+            double[] current = mLpc[order - 1];
+            double reflection = -autoc[order];
+            if (order > 1) {
+                double[] previous = mLpc[order - 2];
+                for (int j = 0; j < order - 1; j++) {
+                    reflection -= previous[j] * autoc[order - 1 - j];
+                }
+                reflection /= error;
+                for (int j = 0; j < order - 1; j++) {
+                    current[j] = previous[j] + reflection * previous[order - 2 - j];
+                }
+            } else {
+                reflection /= error;
+            }
+            current[order - 1] = reflection;
+            error *= 1 - reflection * reflection;
+            if (error <= 0) {
+                return order;
+            }
+        }
+        return maxOrder;
+    }
+
+    /**
+     * 把 LPC 系数量化为整数，存入 mQlp。递推得到的是 x[n] + sum(a[j] * x[n-j-1]) 形式的系数，这里取反
+     *
+     * @return 量化的移位位数，系数无法用允许的移位表示时返回 -1
+     */
+    private int quantizeLpc(double[] lpc, int order) {
+        double max = 0;
+        for (int i = 0; i < order; i++) {
+            max = Math.max(max, Math.abs(lpc[i]));
+        }
+        if (max <= 0) {
+            return -1;
+        }
+        int log2max = Math.getExponent(max);
+        int shift = mLpcPrecision - 2 - log2max;
+        if (shift > MAX_LPC_SHIFT) {
+            shift = MAX_LPC_SHIFT;
+        }
+        if (shift < 0) {
+            return -1;
+        }
+        int limit = (1 << (mLpcPrecision - 1)) - 1;
+        double error = 0;
+        double scale = 1 << shift;
+        for (int i = 0; i < order; i++) {
+            error += -lpc[i] * scale;
+            long q = Math.round(error);
+            if (q > limit) {
+                q = limit;
+            } else if (q < -limit - 1) {
+                q = -limit - 1;
+            }
+            error -= q;
+            mQlp[i] = (int) q;
+        }
+        return shift;
+    }
+
+    static void lpcResidual(int[] x, int blockSize, int[] qlp, int order, int shift,
+                            int[] residual) {
+        for (int i = order; i < blockSize; i++) {
+            long sum = 0;
+            for (int j = 0; j < order; j++) {
+                sum += (long) qlp[j] * x[i - j - 1];
+            }
+            residual[i] = x[i] - (int) (sum >> shift);
+        }
+    }
+
+    private static int lpcPrecision(int blockSize) {
+        if (blockSize <= 192) {
+            return 7;
+        } else if (blockSize <= 384) {
+            return 8;
+        } else if (blockSize <= 576) {
+            return 9;
+        } else if (blockSize <= 1152) {
+            return 10;
+        } else if (blockSize <= 2304) {
+            return 11;
+        }
+        return 12;
+    }
+
+    private static double[] tukeyWindow(int size) {
+        double[] window = new double[size];
+        for (int i = 0; i < size; i++) {
+            window[i] = tukey(i, size);
+        }
+        return window;
+    }
+
+    /**
+     * Tukey(0.5) 窗，两端各四分之一做余弦过渡
+     */
+    private static double tukey(int i, int size) {
+        int taper = size / 4;
+        if (taper == 0 || (i >= taper && i < size - taper)) {
+            return 1;
+        }
+        int distance = i < taper ? i : size - 1 - i;
+        return 0.5 - 0.5 * Math.cos(Math.PI * distance / taper);
+    }
+
+    // ---------- Rice 编码 ----------
+
+    /**
+     * 估算残差用分区 Rice 编码需要的位数，选出的分区阶数和参数放在 mCandidate* 中
+     */
+    private long residualBits(int[] residual, int blockSize, int order) {
+        int maxPartitionOrder = mMaxPartitionOrder;
+        while (maxPartitionOrder > 0 && ((blockSize & ((1 << maxPartitionOrder) - 1)) != 0
+                || (blockSize >> maxPartitionOrder) <= order)) {
+            maxPartitionOrder--;
+        }
+
+        // 最细分区的残差和，粗分区由相邻分区合并得到
+        int partitions = 1 << maxPartitionOrder;
+        int partitionSize = blockSize >> maxPartitionOrder;
+        long[] sums = mPartitionSums;
+        int index = order;
+        for (int p = 0; p < partitions; p++) {
+            int end = (p + 1) * partitionSize;
+            long sum = 0;
+            for (; index < end; index++) {
+                int r = residual[index];
+                sum += (r << 1) ^ (r >> 31);
+            }
+            sums[p] = sum;
+        }
+
+        long bestBits = Long.MAX_VALUE;
+        int bestOrder = 0;
+        for (int partitionOrder = maxPartitionOrder; partitionOrder >= 0; partitionOrder--) {
+            int count = 1 << partitionOrder;
+            if (partitionOrder < maxPartitionOrder) {
+                for (int p = 0; p < count; p++) {
+                    sums[p] = sums[2 * p] + sums[2 * p + 1];
+                }
+            }
+            int size = blockSize >> partitionOrder;
+            long bits = 0;
+            int[] parameters = mRiceParameters[partitionOrder];
+            for (int p = 0; p < count; p++) {
+                int samples = p == 0 ? size - order : size;
+                int parameter = riceParameter(sums[p], samples);
+                parameters[p] = parameter;
+                bits += 4 + riceBits(sums[p], samples, parameter);
+            }
+            if (bits < bestBits) {
+                bestBits = bits;
+                bestOrder = partitionOrder;
+            }
+        }
+        mCandidatePartitionOrder = bestOrder;
+        System.arraycopy(mRiceParameters[bestOrder], 0, mCandidateRiceParameters, 0,
+                1 << bestOrder);
+        // 编码方式 2 位、分区阶数 4 位
+        return 6 + bestBits;
+    }
+
+    /**
+     * 按平均值选出 Rice 参数，再和相邻参数比较
+     */
+    private static int riceParameter(long sum, int samples) {
+        if (samples == 0) {
+            return 0;
+        }
+        int parameter = 0;
+        while (parameter < MAX_RICE_PARAMETER && ((long) samples << (parameter + 1)) < sum) {
+            parameter++;
+        }
+        if (parameter > 0 && riceBits(sum, samples, parameter - 1)
+                < riceBits(sum, samples, parameter)) {
+            parameter--;
+        }
+        return parameter;
+    }
+
+    /**
+     * 上界估算，实际编码长度不会超过这个值
+     */
+    private static long riceBits(long sum, int samples, int parameter) {
+        return (long) samples * (parameter + 1) + (sum >> parameter);
+    }
+
+    private void writeResidual(int blockSize, int order) {
+        int partitionOrder = mBestPartitionOrder;
+        writeBits(0, 2);
+        writeBits(partitionOrder, 4);
+        int partitions = 1 << partitionOrder;
+        int size = blockSize >> partitionOrder;
+        int index = order;
+        final int[] residual = mBestResidual;
+        for (int p = 0; p < partitions; p++) {
+            int parameter = mBestRiceParameters[p];
+            writeBits(parameter, 4);
+            int end = (p + 1) * size;
+            for (; index < end; index++) {
+                int r = residual[index];
+                int u = (r << 1) ^ (r >> 31);
+                writeUnary(u >>> parameter);
+                if (parameter > 0) {
+                    writeBits(u & ((1 << parameter) - 1), parameter);
+                }
+            }
+        }
+    }
+
+    // ---------- 位写入 ----------
+
+    private void writeBits(int value, int bits) {
+        mBitBuffer = (mBitBuffer << bits) | (value & ((1L << bits) - 1));
+        mBitCount += bits;
+        while (mBitCount >= 8) {
+            mBitCount -= 8;
+            mFrame[mBitPosition++] = (byte) (mBitBuffer >>> mBitCount);
+        }
+    }
+
+    private void writeSigned(int value, int bits) {
+        writeBits(value, bits);
+    }
+
+    /**
+     * 写 value 个 0 再写一个 1
+     */
+    private void writeUnary(int value) {
+        while (value >= 32) {
+            writeBits(0, 32);
+            value -= 32;
+        }
+        writeBits(1, value + 1);
+    }
+
+    /**
+     * 补 0 到字节边界
+     */
+    private void flushBits() {
+        if (mBitCount > 0) {
+            writeBits(0, 8 - mBitCount);
+        }
+    }
+
+    static int crc8(byte[] data, int offset, int length) {
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            crc = CRC8_TABLE[(crc ^ data[i]) & 0xFF];
+        }
+        return crc;
+    }
+
+    static int crc16(byte[] data, int offset, int length) {
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            crc = crc16(crc, data[i]);
+        }
+        return crc;
+    }
+
+    /**
+     * 在已有的 CRC-16 上继续累加一个字节。整帧连同末尾的 CRC 一起计算的结果为 0
+     */
+    static int crc16(int crc, byte value) {
+        return ((crc << 8) ^ CRC16_TABLE[((crc >> 8) ^ value) & 0xFF]) & 0xFFFF;
+    }
+}
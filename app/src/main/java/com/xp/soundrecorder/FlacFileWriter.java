@@ -0,0 +1,264 @@
+package com.xp.soundrecorder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 通过 FileChannel 流式写入 FLAC 文件。开始时写入 STREAMINFO 占位，停止时原地回填总帧数和帧大小范围。
+ * 编码在调用 write 的线程中完成，录音时由 {@link AsyncPcmSink} 的写入线程调用，不占用采集线程
+ */
+public class FlacFileWriter implements PcmFileWriter {
+
+    /**
+     * "fLaC" 标记、元数据块头和 34 字节的 STREAMINFO
+     */
+    public static final int HEADER_SIZE = 4 + 4 + 34;
+
+    static final int STREAMINFO_OFFSET = 8;
+
+    private static final int METADATA_STREAMINFO = 0;
+
+    private static final int WRITE_BLOCK_SIZE = 256 * 1024;
+
+    private final String mPath;
+
+    private final int mCompressionLevel;
+
+    private FlacEncoder mEncoder;
+
+    private RandomAccessFile mFile;
+
+    private FileChannel mChannel;
+
+    private ByteBuffer mByteBuffer;
+
+    /**
+     * 按声道拆开的一帧待编码数据
+     */
+    private int[][] mBlock;
+
+    private int mBlockFrames;
+
+    private int mChannelCount;
+
+    private int mFrameNumber;
+
+    private volatile long mTotalFrames;
+
+    private int mMinFrameSize;
+
+    private int mMaxFrameSize;
+
+    private volatile long mDataBytes;
+
+    private volatile long mSyncedBytes;
+
+    private long mCheckpointIntervalNanos;
+
+    private long mLastCheckpointNanos;
+
+    private WriteCounter mWriteCounter;
+
+    private long mPreallocatedLength;
+
+    public FlacFileWriter(String path, int compressionLevel) {
+        mPath = path;
+        mCompressionLevel = compressionLevel;
+    }
+
+    @Override
+    public void setCheckpointInterval(long millis) {
+        mCheckpointIntervalNanos = millis * 1000 * 1000;
+    }
+
+    @Override
+    public void setWriteCounter(WriteCounter counter) {
+        mWriteCounter = counter;
+    }
+
+    @Override
+    public void setPreallocatedLength(long length) {
+        mPreallocatedLength = length;
+    }
+
+    @Override
+    public void open(int sampleRate, int channelCount) throws IOException {
+        if (mEncoder == null || mEncoder.getSampleRate() != sampleRate
+                || mEncoder.getChannelCount() != channelCount) {
+            mEncoder = new FlacEncoder(sampleRate, channelCount, mCompressionLevel);
+            mBlock = new int[channelCount][mEncoder.getBlockSize()];
+        }
+        if (mByteBuffer == null) {
+            mByteBuffer = ByteBuffer.allocateDirect(WRITE_BLOCK_SIZE);
+        }
+        mByteBuffer.clear();
+        mChannelCount = channelCount;
+        mBlockFrames = 0;
+        mFrameNumber = 0;
+        mTotalFrames = 0;
+        mMinFrameSize = Integer.MAX_VALUE;
+        mMaxFrameSize = 0;
+        mDataBytes = 0;
+        mSyncedBytes = 0;
+        mLastCheckpointNanos = System.nanoTime();
+
+        mFile = new RandomAccessFile(mPath, "rw");
+        mChannel = mFile.getChannel();
+        mChannel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put((byte) 'f').put((byte) 'L').put((byte) 'a').put((byte) 'C');
+        // 最后一个元数据块，类型 STREAMINFO，长度 34
+        header.put((byte) (0x80 | METADATA_STREAMINFO)).put((byte) 0).put((byte) 0).put((byte) 34);
+        header.put(streamInfo());
+        header.flip();
+        writeFully(header, 0);
+        mChannel.position(HEADER_SIZE);
+        if (mPreallocatedLength > 0) {
+            try {
+                FilePreallocator.preallocate(mFile, mPreallocatedLength);
+            } catch (IOException e) {
+                mFile.close();
+                mFile = null;
+                mChannel = null;
+                throw e;
+            }
+        }
+        if (mWriteCounter != null) {
+            mWriteCounter.add(HEADER_SIZE);
+        }
+    }
+
+    @Override
+    public void write(short[] samples, int length) throws IOException {
+        final int channels = mChannelCount;
+        final int blockSize = mEncoder.getBlockSize();
+        final int[][] block = mBlock;
+        int frames = length / channels;
+        int index = 0;
+        for (int i = 0; i < frames; i++) {
+            for (int c = 0; c < channels; c++) {
+                block[c][mBlockFrames] = samples[index++];
+            }
+            if (++mBlockFrames == blockSize) {
+                encodeBlock();
+            }
+        }
+        checkpointIfDue();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mChannel == null) {
+            return;
+        }
+        try {
+            if (mBlockFrames > 0) {
+                encodeBlock();
+            }
+            flushBuffer();
+            if (mPreallocatedLength > 0) {
+                // 截掉预分配但没有用到的部分
+                mChannel.truncate(HEADER_SIZE + mDataBytes);
+            }
+            patchStreamInfo();
+            mChannel.force(true);
+            mSyncedBytes = mDataBytes;
+        } finally {
+            mFile.close();
+            mFile = null;
+            mChannel = null;
+        }
+    }
+
+    /**
+     * 已编码的 PCM 帧数
+     */
+    public long getTotalFrames() {
+        return mTotalFrames;
+    }
+
+    /**
+     * 已写入磁盘的压缩数据字节数，不含文件头，可以在其他线程读取
+     */
+    public long getDataBytes() {
+        return mDataBytes;
+    }
+
+    public long getSyncedBytes() {
+        return mSyncedBytes;
+    }
+
+    @Override
+    public long getCommittedLength() {
+        return HEADER_SIZE + mSyncedBytes;
+    }
+
+    /**
+     * 压缩后大小与 16 位 PCM 大小之比，还没有数据时返回 1
+     */
+    public float getCompressionRatio() {
+        long pcmBytes = mTotalFrames * mChannelCount * 2;
+        long dataBytes = mDataBytes;
+        return pcmBytes > 0 && dataBytes > 0 ? (float) dataBytes / pcmBytes : 1f;
+    }
+
+    private void encodeBlock() throws IOException {
+        int size = mEncoder.encodeFrame(mBlock, mBlockFrames, mFrameNumber++);
+        // 缓冲区放不下这一帧时先把之前的帧写出去，缓冲区中总是完整的帧
+        if (mByteBuffer.remaining() < size) {
+            flushBuffer();
+        }
+        mByteBuffer.put(mEncoder.getFrameBuffer(), 0, size);
+        mTotalFrames += mBlockFrames;
+        mBlockFrames = 0;
+        mMinFrameSize = Math.min(mMinFrameSize, size);
+        mMaxFrameSize = Math.max(mMaxFrameSize, size);
+        if (mWriteCounter != null) {
+            mWriteCounter.add(size);
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        mByteBuffer.flip();
+        int bytes = mByteBuffer.remaining();
+        while (mByteBuffer.hasRemaining()) {
+            mChannel.write(mByteBuffer);
+        }
+        mByteBuffer.clear();
+        mDataBytes += bytes;
+    }
+
+    /**
+     * 到了检查点间隔就把缓冲区中已编码的帧写出，回填文件头后再 fsync，
+     * 低采样率时缓冲区要很久才能写满，不能等到那时才做检查点
+     */
+    private void checkpointIfDue() throws IOException {
+        if (mCheckpointIntervalNanos <= 0
+                || System.nanoTime() - mLastCheckpointNanos < mCheckpointIntervalNanos) {
+            return;
+        }
+        flushBuffer();
+        patchStreamInfo();
+        mChannel.force(false);
+        mSyncedBytes = mDataBytes;
+        mLastCheckpointNanos = System.nanoTime();
+    }
+
+    private void patchStreamInfo() throws IOException {
+        writeFully(ByteBuffer.wrap(streamInfo()), STREAMINFO_OFFSET);
+    }
+
+    private byte[] streamInfo() {
+        return FlacEncoder.streamInfo(mEncoder.getSampleRate(), mChannelCount,
+                mEncoder.getBlockSize(), mMaxFrameSize > 0 ? mMinFrameSize : 0, mMaxFrameSize,
+                mTotalFrames);
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += mChannel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.xp.soundrecorder;
+
+/**
+ * 固定增益，修改增益时在一块数据内平滑过渡，避免产生咔哒声
+ */
+public class GainProcessor implements AudioProcessor {
+
+    private volatile float mTargetGain;
+
+    private float mGain;
+
+    private int mChannelCount;
+
+    public GainProcessor(float gainDb) {
+        setGainDb(gainDb);
+        mGain = mTargetGain;
+    }
+
+    /**
+     * 可以在任意线程调用，从下一块数据开始生效
+     */
+    public void setGainDb(float gainDb) {
+        mTargetGain = dbToLinear(gainDb);
+    }
+
+    public float getGainDb() {
+        return (float) (20 * Math.log10(mTargetGain));
+    }
+
+    static float dbToLinear(float db) {
+        return (float) Math.pow(10, db / 20);
+    }
+
+    @Override
+    public void configure(int sampleRate, int channelCount) {
+        mChannelCount = channelCount;
+        mGain = mTargetGain;
+    }
+
+    @Override
+    public void process(float[] samples, int frames) {
+        final int channels = mChannelCount;
+        final float target = mTargetGain;
+        float gain = mGain;
+        float step = frames > 0 ? (target - gain) / frames : 0;
+        for (int i = 0; i < frames; i++) {
+            gain += step;
+            for (int c = 0; c < channels; c++) {
+                samples[i * channels + c] *= gain;
+            }
+        }
+        mGain = target;
+    }
+}
@@ -0,0 +1,65 @@
+package com.xp.soundrecorder;
+
+/**
+ * 二阶巴特沃斯高通滤波，去掉直流偏移和低频的风噪、操作噪声
+ */
+public class HighPassFilter implements AudioProcessor {
+
+    private final float mCutoffHz;
+
+    private int mChannelCount;
+
+    private float mB0;
+
+    private float mB1;
+
+    private float mB2;
+
+    private float mA1;
+
+    private float mA2;
+
+    /**
+     * 每个声道的滤波器状态（直接 II 型转置），依次为 z1、z2
+     */
+    private float[] mState;
+
+    public HighPassFilter(float cutoffHz) {
+        mCutoffHz = cutoffHz;
+    }
+
+    @Override
+    public void configure(int sampleRate, int channelCount) {
+        mChannelCount = channelCount;
+        mState = new float[channelCount * 2];
+
+        double omega = 2 * Math.PI * Math.min(mCutoffHz, sampleRate * 0.45) / sampleRate;
+        double cos = Math.cos(omega);
+        double alpha = Math.sin(omega) / (2 * Math.sqrt(0.5));
+        double a0 = 1 + alpha;
+        mB0 = (float) ((1 + cos) / 2 / a0);
+        mB1 = (float) (-(1 + cos) / a0);
+        mB2 = mB0;
+        mA1 = (float) (-2 * cos / a0);
+        mA2 = (float) ((1 - alpha) / a0);
+    }
+
+    @Override
+    public void process(float[] samples, int frames) {
+        final int channels = mChannelCount;
+        final float[] state = mState;
+        for (int c = 0; c < channels; c++) {
+            float z1 = state[c * 2];
+            float z2 = state[c * 2 + 1];
+            for (int i = c; i < frames * channels; i += channels) {
+                float in = samples[i];
+                float out = mB0 * in + z1;
+                z1 = mB1 * in - mA1 * out + z2;
+                z2 = mB2 * in - mA2 * out;
+                samples[i] = out;
+            }
+            state[c * 2] = z1;
+            state[c * 2 + 1] = z2;
+        }
+    }
+}
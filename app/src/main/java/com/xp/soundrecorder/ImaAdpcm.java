@@ -0,0 +1,188 @@
+package com.xp.soundrecorder;
+
+/**
+ * WAV 中的 IMA ADPCM（格式标签 0x11）编解码。每个采样压缩为 4 位，按块存储：
+ * 块头是每个声道 4 字节（第一个采样和步长索引），之后每 4 字节存放一个声道的 8 个采样，低 4 位在前。
+ * 每块独立解码，可以按块定位。都是静态方法，不分配内存
+ */
+public final class ImaAdpcm {
+
+    public static final int WAVE_FORMAT_IMA_ADPCM = 0x11;
+
+    public static final int BITS_PER_SAMPLE = 4;
+
+    /**
+     * 每个声道的块头长度
+     */
+    private static final int CHANNEL_HEADER_SIZE = 4;
+
+    private static final int[] STEP_TABLE = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45, 50, 55,
+            60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+            337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963, 1060, 1166, 1282, 1411,
+            1552, 1707, 1878, 2066, 2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358,
+            5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899, 15289, 16818, 18500,
+            20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    private static final int[] INDEX_TABLE = {
+            -1, -1, -1, -1, 2, 4, 6, 8, -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    private static final int MAX_STEP_INDEX = STEP_TABLE.length - 1;
+
+    private ImaAdpcm() {
+    }
+
+    /**
+     * 按采样率选择块大小，和常见编码器一致：11 kHz 及以下每声道 256 字节，采样率每翻一倍块大小也翻倍
+     */
+    public static int blockAlign(int sampleRate, int channelCount) {
+        int multiplier = Math.max(1, sampleRate / 11025);
+        return 256 * multiplier * channelCount;
+    }
+
+    /**
+     * 每块包含的帧数：块头中的一个采样加上数据部分每字节两个采样
+     */
+    public static int samplesPerBlock(int blockAlign, int channelCount) {
+        return (blockAlign - CHANNEL_HEADER_SIZE * channelCount) * 2 / channelCount + 1;
+    }
+
+    /**
+     * 编码后每秒的字节数，不含文件头。块大小固定，所以码率是精确的
+     */
+    public static double byteRate(int sampleRate, int channelCount) {
+        int blockAlign = blockAlign(sampleRate, channelCount);
+        return (double) sampleRate * blockAlign / samplesPerBlock(blockAlign, channelCount);
+    }
+
+    /**
+     * 编码后的码率，单位 bit/s，用于估算剩余录音时间
+     */
+    public static int bitRate(int sampleRate, int channelCount) {
+        return (int) Math.round(byteRate(sampleRate, channelCount) * 8);
+    }
+
+    /**
+     * 编码一块
+     *
+     * @param samples   交错的 16 位采样，从 offset 开始至少有 samplesPerBlock 帧
+     * @param stepIndex 每个声道的步长索引，编码后更新，下一块接着使用
+     * @param out       输出，从 outOffset 开始写入 blockAlign 字节
+     */
+    public static void encodeBlock(short[] samples, int offset, int channelCount,
+                                   int blockAlign, int[] stepIndex, byte[] out, int outOffset) {
+        int samplesPerBlock = samplesPerBlock(blockAlign, channelCount);
+        for (int c = 0; c < channelCount; c++) {
+            int header = outOffset + c * CHANNEL_HEADER_SIZE;
+            int first = samples[offset + c];
+            out[header] = (byte) first;
+            out[header + 1] = (byte) (first >> 8);
+            out[header + 2] = (byte) stepIndex[c];
+            out[header + 3] = 0;
+
+            int predictor = first;
+            int index = stepIndex[c];
+            // 每个声道的数据以 4 字节为一组和其他声道交替存放
+            int group = outOffset + channelCount * CHANNEL_HEADER_SIZE + c * 4;
+            for (int i = 1; i < samplesPerBlock; i += 8) {
+                for (int k = 0; k < 4; k++) {
+                    int low = samples[offset + (i + k * 2) * channelCount + c];
+                    int high = samples[offset + (i + k * 2 + 1) * channelCount + c];
+
+                    int step = STEP_TABLE[index];
+                    int nibble = encodeNibble(low - predictor, step);
+                    predictor = clamp(predictor + delta(nibble, step));
+                    index = nextIndex(index, nibble);
+                    int code = nibble;
+
+                    step = STEP_TABLE[index];
+                    nibble = encodeNibble(high - predictor, step);
+                    predictor = clamp(predictor + delta(nibble, step));
+                    index = nextIndex(index, nibble);
+                    out[group + k] = (byte) (code | nibble << 4);
+                }
+                group += channelCount * 4;
+            }
+            stepIndex[c] = index;
+        }
+    }
+
+    /**
+     * 解码一块，输出 samplesPerBlock 帧交错的 16 位采样
+     */
+    public static void decodeBlock(byte[] in, int inOffset, int channelCount, int blockAlign,
+                                   short[] out, int outOffset) {
+        int samplesPerBlock = samplesPerBlock(blockAlign, channelCount);
+        for (int c = 0; c < channelCount; c++) {
+            int header = inOffset + c * CHANNEL_HEADER_SIZE;
+            int predictor = (short) ((in[header] & 0xFF) | in[header + 1] << 8);
+            int index = Math.max(0, Math.min(MAX_STEP_INDEX, in[header + 2] & 0xFF));
+            out[outOffset + c] = (short) predictor;
+
+            int group = inOffset + channelCount * CHANNEL_HEADER_SIZE + c * 4;
+            for (int i = 1; i < samplesPerBlock; i += 8) {
+                for (int k = 0; k < 8; k++) {
+                    int nibble = (in[group + (k >> 1)] >> ((k & 1) * 4)) & 0xF;
+                    predictor = clamp(predictor + delta(nibble, STEP_TABLE[index]));
+                    index = nextIndex(index, nibble);
+                    out[outOffset + (i + k) * channelCount + c] = (short) predictor;
+                }
+                group += channelCount * 4;
+            }
+        }
+    }
+
+    /**
+     * 用步长的 1、1/2、1/4 逐位逼近差值，最高位是符号
+     */
+    private static int encodeNibble(int diff, int step) {
+        int nibble = 0;
+        if (diff < 0) {
+            nibble = 8;
+            diff = -diff;
+        }
+        if (diff >= step) {
+            nibble |= 4;
+            diff -= step;
+        }
+        step >>= 1;
+        if (diff >= step) {
+            nibble |= 2;
+            diff -= step;
+        }
+        step >>= 1;
+        if (diff >= step) {
+            nibble |= 1;
+        }
+        return nibble;
+    }
+
+    /**
+     * 编码和解码共用，保证两边的预测值完全一致
+     */
+    private static int delta(int nibble, int step) {
+        int delta = step >> 3;
+        if ((nibble & 4) != 0) {
+            delta += step;
+        }
+        if ((nibble & 2) != 0) {
+            delta += step >> 1;
+        }
+        if ((nibble & 1) != 0) {
+            delta += step >> 2;
+        }
+        return (nibble & 8) != 0 ? -delta : delta;
+    }
+
+    private static int nextIndex(int index, int nibble) {
+        index += INDEX_TABLE[nibble];
+        return index < 0 ? 0 : index > MAX_STEP_INDEX ? MAX_STEP_INDEX : index;
+    }
+
+    private static int clamp(int sample) {
+        return sample < Short.MIN_VALUE ? Short.MIN_VALUE
+                : sample > Short.MAX_VALUE ? Short.MAX_VALUE : sample;
+    }
+}
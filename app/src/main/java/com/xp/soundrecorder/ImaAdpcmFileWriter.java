@@ -0,0 +1,279 @@
+package com.xp.soundrecorder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * 通过 FileChannel 流式写入 IMA ADPCM 的 WAV 文件，每凑满一块就编码，停止时补齐最后一块并回填文件头。
+ * 4 位 ADPCM 的文件约为 16 位 PCM 的四分之一，16 kHz 单声道不到 4 GB 就能录 140 小时以上，
+ * 所以不支持 RF64，文件头也比 {@link WavFileWriter} 简单
+ */
+public class ImaAdpcmFileWriter implements PcmFileWriter {
+
+    public static final int HEADER_SIZE = 60;
+
+    static final int BLOCK_ALIGN_OFFSET = 32;
+
+    static final int SAMPLES_PER_BLOCK_OFFSET = 38;
+
+    private static final int FACT_SAMPLES_OFFSET = 48;
+
+    private static final int DATA_SIZE_OFFSET = 56;
+
+    private static final int WRITE_BLOCK_SIZE = 256 * 1024;
+
+    private final String mPath;
+
+    private RandomAccessFile mFile;
+
+    private FileChannel mChannel;
+
+    private ByteBuffer mByteBuffer;
+
+    private int mChannelCount;
+
+    private int mBlockAlign;
+
+    private int mSamplesPerBlock;
+
+    /**
+     * 凑满一块之前的交错采样
+     */
+    private short[] mPending;
+
+    private int mPendingSamples;
+
+    private byte[] mEncoded;
+
+    private int[] mStepIndex;
+
+    private long mFrames;
+
+    private volatile long mDataBytes;
+
+    private volatile long mSyncedBytes;
+
+    private long mCheckpointIntervalNanos;
+
+    private long mLastCheckpointNanos;
+
+    private WriteCounter mWriteCounter;
+
+    private long mPreallocatedLength;
+
+    public ImaAdpcmFileWriter(String path) {
+        mPath = path;
+    }
+
+    @Override
+    public void setCheckpointInterval(long millis) {
+        mCheckpointIntervalNanos = millis * 1000 * 1000;
+    }
+
+    @Override
+    public void setWriteCounter(WriteCounter counter) {
+        mWriteCounter = counter;
+    }
+
+    @Override
+    public void setPreallocatedLength(long length) {
+        mPreallocatedLength = length;
+    }
+
+    @Override
+    public void open(int sampleRate, int channelCount) throws IOException {
+        int blockAlign = ImaAdpcm.blockAlign(sampleRate, channelCount);
+        if (mPending == null || blockAlign != mBlockAlign || channelCount != mChannelCount) {
+            mSamplesPerBlock = ImaAdpcm.samplesPerBlock(blockAlign, channelCount);
+            mPending = new short[mSamplesPerBlock * channelCount];
+            mEncoded = new byte[blockAlign];
+            mStepIndex = new int[channelCount];
+        }
+        mChannelCount = channelCount;
+        mBlockAlign = blockAlign;
+        mPendingSamples = 0;
+        mFrames = 0;
+        mDataBytes = 0;
+        mSyncedBytes = 0;
+        for (int c = 0; c < channelCount; c++) {
+            mStepIndex[c] = 0;
+        }
+        mLastCheckpointNanos = System.nanoTime();
+
+        mFile = new RandomAccessFile(mPath, "rw");
+        mChannel = mFile.getChannel();
+        mChannel.truncate(0);
+        ByteBuffer header = buildHeader(sampleRate, channelCount);
+        while (header.hasRemaining()) {
+            mChannel.write(header);
+        }
+        if (mPreallocatedLength > 0) {
+            try {
+                FilePreallocator.preallocate(mFile, mPreallocatedLength);
+            } catch (IOException e) {
+                mFile.close();
+                mFile = null;
+                mChannel = null;
+                throw e;
+            }
+        }
+        if (mWriteCounter != null) {
+            mWriteCounter.add(HEADER_SIZE);
+        }
+
+        if (mByteBuffer == null) {
+            mByteBuffer = ByteBuffer.allocateDirect(WRITE_BLOCK_SIZE / blockAlign * blockAlign);
+        }
+        mByteBuffer.clear();
+    }
+
+    @Override
+    public void write(short[] samples, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int count = Math.min(length - offset, mPending.length - mPendingSamples);
+            System.arraycopy(samples, offset, mPending, mPendingSamples, count);
+            mPendingSamples += count;
+            offset += count;
+            if (mPendingSamples == mPending.length) {
+                encodeBlock(mSamplesPerBlock);
+            }
+        }
+        checkpointIfDue();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mChannel == null) {
+            return;
+        }
+        try {
+            int frames = mPendingSamples / mChannelCount;
+            if (frames > 0) {
+                // 用最后一帧补齐，fact 块中记录实际帧数，解码时丢掉补齐的部分
+                for (int i = frames * mChannelCount; i < mPending.length; i++) {
+                    mPending[i] = mPending[i - mChannelCount];
+                }
+                encodeBlock(frames);
+            }
+            flushBuffer();
+            if (mPreallocatedLength > 0) {
+                // 截掉预分配但没有用到的部分
+                mChannel.truncate(HEADER_SIZE + mDataBytes);
+            }
+            patchHeader(mChannel, mDataBytes, mFrames);
+            mChannel.force(true);
+            mSyncedBytes = mDataBytes;
+        } finally {
+            mFile.close();
+            mFile = null;
+            mChannel = null;
+        }
+    }
+
+    /**
+     * 已写入磁盘的编码数据字节数，可以在其他线程读取
+     */
+    public long getDataBytes() {
+        return mDataBytes;
+    }
+
+    public long getSyncedBytes() {
+        return mSyncedBytes;
+    }
+
+    @Override
+    public long getCommittedLength() {
+        return HEADER_SIZE + mSyncedBytes;
+    }
+
+    private void encodeBlock(int frames) throws IOException {
+        ImaAdpcm.encodeBlock(mPending, 0, mChannelCount, mBlockAlign, mStepIndex, mEncoded, 0);
+        mPendingSamples = 0;
+        if (mByteBuffer.remaining() < mBlockAlign) {
+            flushBuffer();
+        }
+        mByteBuffer.put(mEncoded);
+        mFrames += frames;
+        if (mWriteCounter != null) {
+            mWriteCounter.add(mBlockAlign);
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        mByteBuffer.flip();
+        int bytes = mByteBuffer.remaining();
+        while (mByteBuffer.hasRemaining()) {
+            mChannel.write(mByteBuffer);
+        }
+        mByteBuffer.clear();
+        mDataBytes += bytes;
+    }
+
+    /**
+     * 到了检查点间隔就把缓冲区中已编码的块写出，回填文件头后再 fsync，
+     * 低采样率时缓冲区要很久才能写满，不能等到那时才做检查点
+     */
+    private void checkpointIfDue() throws IOException {
+        if (mCheckpointIntervalNanos <= 0
+                || System.nanoTime() - mLastCheckpointNanos < mCheckpointIntervalNanos) {
+            return;
+        }
+        flushBuffer();
+        patchHeader(mChannel, mDataBytes, mDataBytes / mBlockAlign * mSamplesPerBlock);
+        mChannel.force(false);
+        mSyncedBytes = mDataBytes;
+        mLastCheckpointNanos = System.nanoTime();
+    }
+
+    static ByteBuffer buildHeader(int sampleRate, int channelCount) {
+        int blockAlign = ImaAdpcm.blockAlign(sampleRate, channelCount);
+        int samplesPerBlock = ImaAdpcm.samplesPerBlock(blockAlign, channelCount);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(fourCc("RIFF")).putInt(HEADER_SIZE - 8).put(fourCc("WAVE"));
+        header.put(fourCc("fmt ")).putInt(20)
+                .putShort((short) ImaAdpcm.WAVE_FORMAT_IMA_ADPCM)
+                .putShort((short) channelCount)
+                .putInt(sampleRate)
+                .putInt((int) Math.round(ImaAdpcm.byteRate(sampleRate, channelCount)))
+                .putShort((short) blockAlign)
+                .putShort((short) ImaAdpcm.BITS_PER_SAMPLE)
+                .putShort((short) 2)
+                .putShort((short) samplesPerBlock);
+        // 非 PCM 格式需要 fact 块记录总帧数
+        header.put(fourCc("fact")).putInt(4).putInt(0);
+        header.put(fourCc("data")).putInt(0);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * 根据实际数据长度和帧数回填文件头
+     */
+    static void patchHeader(FileChannel channel, long dataBytes, long frames) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt((int) (HEADER_SIZE - 8 + dataBytes)).flip();
+        writeFully(channel, buffer, 4);
+        buffer.clear();
+        buffer.putInt((int) frames).flip();
+        writeFully(channel, buffer, FACT_SAMPLES_OFFSET);
+        buffer.clear();
+        buffer.putInt((int) dataBytes).flip();
+        writeFully(channel, buffer, DATA_SIZE_OFFSET);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static byte[] fourCc(String id) {
+        return new byte[]{(byte) id.charAt(0), (byte) id.charAt(1), (byte) id.charAt(2),
+                (byte) id.charAt(3)};
+    }
+}
@@ -0,0 +1,125 @@
+package com.xp.soundrecorder;
+
+/**
+ * 在采集线程中按块计算峰值、RMS 和削波次数，通过顺序锁（seqlock）发布给 UI 线程。
+ * 写入端只有采集线程一个，发布时不加锁也不分配对象；读取端读到正在更新的数据时重试
+ */
+public class LevelMeter implements PcmSink {
+
+    public static final int FULL_SCALE = 32768;
+
+    private static final int MAX_READ_RETRIES = 8;
+
+    /**
+     * 由读取方持有并复用的电平快照
+     */
+    public static class Levels {
+        /**
+         * 最近一块数据的峰值，0 ~ {@link #FULL_SCALE}
+         */
+        public int peak;
+        /**
+         * 最近一块数据的均方根值，0 ~ 1
+         */
+        public float rms;
+        /**
+         * 录音开始以来削波的采样数
+         */
+        public long clipCount;
+        /**
+         * 录音开始以来处理的帧数，可以用来判断数据是否有更新
+         */
+        public long frames;
+    }
+
+    private volatile int mSequence;
+
+    private volatile int mPeak;
+
+    private volatile float mRms;
+
+    private volatile long mClipCount;
+
+    private volatile long mFrames;
+
+    private int mChannelCount = 1;
+
+    private long mClipTotal;
+
+    private long mFrameTotal;
+
+    @Override
+    public void open(int sampleRate, int channelCount) {
+        mChannelCount = channelCount;
+        mClipTotal = 0;
+        mFrameTotal = 0;
+        publish(0, 0f);
+    }
+
+    @Override
+    public void write(short[] samples, int length) {
+        if (length <= 0) {
+            return;
+        }
+        int peak = 0;
+        long sumSquares = 0;
+        int clips = 0;
+        for (int i = 0; i < length; i++) {
+            int sample = samples[i];
+            sumSquares += sample * sample;
+            if (sample < 0) {
+                sample = -sample;
+            }
+            if (sample > peak) {
+                peak = sample;
+            }
+            if (sample >= FULL_SCALE - 1) {
+                clips++;
+            }
+        }
+        mClipTotal += clips;
+        mFrameTotal += length / mChannelCount;
+        publish(peak, (float) (Math.sqrt((double) sumSquares / length) / FULL_SCALE));
+    }
+
+    @Override
+    public void close() {
+        publish(0, 0f);
+    }
+
+    /**
+     * 读取最新的电平，可以在任意线程调用
+     *
+     * @return 多次重试后仍然读不到一致的数据时返回 false，out 保持不变
+     */
+    public boolean read(Levels out) {
+        for (int i = 0; i < MAX_READ_RETRIES; i++) {
+            int before = mSequence;
+            if ((before & 1) != 0) {
+                continue;
+            }
+            int peak = mPeak;
+            float rms = mRms;
+            long clipCount = mClipCount;
+            long frames = mFrames;
+            if (mSequence == before) {
+                out.peak = peak;
+                out.rms = rms;
+                out.clipCount = clipCount;
+                out.frames = frames;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void publish(int peak, float rms) {
+        // 奇数表示正在写入；所有字段都是 volatile，读写顺序不会被重排
+        mSequence++;
+        mPeak = peak;
+        mRms = rms;
+        mClipCount = mClipTotal;
+        mFrames = mFrameTotal;
+        mSequence++;
+    }
+}
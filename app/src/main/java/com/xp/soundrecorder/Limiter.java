@@ -0,0 +1,99 @@
+package com.xp.soundrecorder;
+
+/**
+ * 带前瞻的峰值限制器：信号延迟几毫秒输出，增益在峰值到达之前就已经降下来，输出不会超过上限。
+ * 各声道共用一个增益
+ */
+public class Limiter implements AudioProcessor {
+
+    private static final float LOOKAHEAD_MILLIS = 2f;
+
+    private static final float RELEASE_MILLIS = 80f;
+
+    private final float mCeiling;
+
+    private int mChannelCount;
+
+    private float mReleaseCoefficient;
+
+    private float mAttackStep;
+
+    /**
+     * 前瞻延迟线，交错存放
+     */
+    private float[] mDelay;
+
+    private int mDelayFrames;
+
+    private int mDelayPosition;
+
+    /**
+     * 延迟线中每一帧各声道的最大绝对值
+     */
+    private float[] mDelayPeaks;
+
+    private float mGain = 1f;
+
+    /**
+     * @param ceilingDb 输出上限，相对满幅，通常为 -1 dB 左右
+     */
+    public Limiter(float ceilingDb) {
+        mCeiling = GainProcessor.dbToLinear(ceilingDb);
+    }
+
+    @Override
+    public void configure(int sampleRate, int channelCount) {
+        mChannelCount = channelCount;
+        mDelayFrames = Math.max(1, (int) (LOOKAHEAD_MILLIS * sampleRate / 1000));
+        mDelay = new float[mDelayFrames * channelCount];
+        mDelayPeaks = new float[mDelayFrames];
+        mDelayPosition = 0;
+        mReleaseCoefficient = NoiseGate.coefficient(RELEASE_MILLIS, sampleRate);
+        // 增益在前瞻时间内线性降到位
+        mAttackStep = 1f / mDelayFrames;
+        mGain = 1f;
+    }
+
+    @Override
+    public void process(float[] samples, int frames) {
+        final int channels = mChannelCount;
+        final float[] delay = mDelay;
+        final float[] peaks = mDelayPeaks;
+        float gain = mGain;
+        int position = mDelayPosition;
+        for (int i = 0; i < frames; i++) {
+            int base = i * channels;
+            float peak = 0f;
+            for (int c = 0; c < channels; c++) {
+                peak = Math.max(peak, Math.abs(samples[base + c]));
+            }
+            peaks[position] = peak;
+
+            // 延迟线中最大峰值需要的增益，延迟线很短，直接遍历
+            float maxPeak = 0f;
+            for (int k = 0; k < peaks.length; k++) {
+                if (peaks[k] > maxPeak) {
+                    maxPeak = peaks[k];
+                }
+            }
+            float target = maxPeak > mCeiling ? mCeiling / maxPeak : 1f;
+            if (target < gain) {
+                gain = Math.max(target, gain - mAttackStep);
+            } else {
+                gain = target + (gain - target) * mReleaseCoefficient;
+            }
+
+            int delayBase = position * channels;
+            for (int c = 0; c < channels; c++) {
+                float delayed = delay[delayBase + c];
+                delay[delayBase + c] = samples[base + c];
+                float out = delayed * gain;
+                // 增益来不及降下来时的最后保护
+                samples[base + c] = out > mCeiling ? mCeiling : out < -mCeiling ? -mCeiling : out;
+            }
+            position = position + 1 == mDelayFrames ? 0 : position + 1;
+        }
+        mGain = gain;
+        mDelayPosition = position;
+    }
+}
@@ -15,17 +15,18 @@ import android.os.Environment;
 import android.os.Handler;
 import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
+import android.view.Choreographer;
 import android.view.KeyEvent;
 import android.view.View;
-import android.view.ViewGroup;
 import android.widget.ImageButton;
-import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
 import java.util.Objects;
 
 import butterknife.BindView;
@@ -46,14 +47,59 @@ public class MainActivity extends AppCompatActivity implements Recorder.OnStateC
 
     private static final String FILE_EXTENSION_3GPP = ".3gpp";
 
+    public static final String AUDIO_WAV = "audio/wav";
+
+    private static final String FILE_EXTENSION_WAV = ".wav";
+
+    public static final String AUDIO_FLAC = "audio/flac";
+
+    private static final String FILE_EXTENSION_FLAC = ".flac";
+
+    /**
+     * IMA ADPCM 同样保存为 .wav 文件
+     */
+    public static final String AUDIO_IMA_ADPCM = "audio/x-ima-adpcm";
+
+    private static final String FORMAT_LABEL_IMA_ADPCM = "ADPCM";
+
     public static final int BITRATE_AMR = 2 * 1024 * 8;
 
     public static final int BITRATE_3GPP = 20 * 1024 * 8;
 
+    public static final int BITRATE_WAV = 44100 * 16;
+
+    /**
+     * FLAC 按未压缩计算，只在写入计数还没有测出实际速度时作为估算剩余时间的后备
+     */
+    public static final int BITRATE_FLAC = BITRATE_WAV;
+
+    /**
+     * 长时间录音用 16 kHz，块大小固定，码率是精确的
+     */
+    private static final int IMA_ADPCM_SAMPLE_RATE = 16000;
+
+    public static final int BITRATE_IMA_ADPCM = ImaAdpcm.bitRate(IMA_ADPCM_SAMPLE_RATE, 1);
+
+    /**
+     * 标题栏中依次切换的录音格式
+     */
+    private static final String[] REQUESTED_TYPES = {AUDIO_AMR, AUDIO_3GPP, AUDIO_WAV, AUDIO_FLAC,
+            AUDIO_IMA_ADPCM};
+
     private static final int SEEK_BAR_MAX = 10000;
 
+    /**
+     * 分段录音每段的时长，长时间录音时单个文件不会太大，进程被杀也只影响最后一段
+     */
+    private static final int SEGMENT_MINUTES = 30;
+
     private String mRequestedType = AUDIO_AMR;
 
+    /**
+     * PCM 格式按 {@link #SEGMENT_MINUTES} 分段录音，AMR 和 3GPP 由 MediaRecorder 写文件，不支持分段
+     */
+    private boolean mSegmented;
+
     private Recorder mRecorder;
 
     private RecorderReceiver mReceiver;
@@ -85,23 +131,18 @@ public class MainActivity extends AppCompatActivity implements Recorder.OnStateC
         }
     };
 
-    private Runnable mUpdateSeekBar = new Runnable() {
+    /**
+     * 播放时每帧按播放时钟推算位置，同时驱动进度条和计时器
+     */
+    private Choreographer.FrameCallback mPlaybackFrameCallback = new Choreographer.FrameCallback() {
         @Override
-        public void run() {
+        public void doFrame(long frameTimeNanos) {
             if (!mStopUiUpdate) {
-                updateSeekBar();
+                updatePlaybackPosition(frameTimeNanos);
             }
         }
     };
 
-    private Runnable mUpdateVUMeter = new Runnable() {
-        @Override
-        public void run() {
-            if (!mStopUiUpdate) {
-                updateVUMeterView();
-            }
-        }
-    };
     @BindView(R.id.ib_new)
     ImageButton ibNew;
     @BindView(R.id.ib_finish)
@@ -119,20 +160,30 @@ public class MainActivity extends AppCompatActivity implements Recorder.OnStateC
 
     @BindView(R.id.et_fileName)
     RecordNameEditText etFileName;
-    @BindView(R.id.ll_timeCalculator)
-    LinearLayout llTimeCalculator;
-    @BindView(R.id.ll_vuMeter)
-    LinearLayout llVuMeter;
+    @BindView(R.id.timer_view)
+    TimerView timerView;
+    @BindView(R.id.vu_meter)
+    VuMeterView vuMeter;
     @BindView(R.id.ll_playSeekBar)
     LinearLayout llPlaySeekBar;
     @BindView(R.id.tv_startTime)
     TextView tvStartTime;
     @BindView(R.id.tv_totalTime)
     TextView tvTotalTime;
+    @BindView(R.id.tv_speed)
+    TextView tvSpeed;
+    @BindView(R.id.tv_format)
+    TextView tvFormat;
+    @BindView(R.id.tv_segment)
+    TextView tvSegment;
     @BindView(R.id.sb_play)
     SeekBar sbPlay;
+    @BindView(R.id.waveform)
+    WaveformView waveformView;
+
+    private File mWaveformFile;
 
-    private int mPreviousVUMax;
+    private RecorderAmplitudeSource mAmplitudeSource;
 
     private boolean mStopUiUpdate;
 
@@ -148,6 +199,7 @@ public class MainActivity extends AppCompatActivity implements Recorder.OnStateC
     private void init() {
         mRecorder = new Recorder(this);
         mRecorder.setOnStateChangedListener(this);
+        mAmplitudeSource = new RecorderAmplitudeSource(mRecorder);
         mReceiver = new RecorderReceiver();
         mRemainingTimeCalculator = new RemainingTimeCalculator();
         initResourceRefs();
@@ -170,10 +222,20 @@ public class MainActivity extends AppCompatActivity implements Recorder.OnStateC
             }
         });
 
+        vuMeter.setAmplitudeSource(mAmplitudeSource);
+
         sbPlay.setMax(SEEK_BAR_MAX);
         sbPlay.setOnSeekBarChangeListener(mSeekBarChangeListener);
+        waveformView.setOnSeekListener(new WaveformView.OnSeekListener() {
+            @Override
+            public void onSeek(long positionMillis) {
+                mRecorder.startPlaybackAt(positionMillis);
+                mLastButtonId = 0;
+            }
+        });
 
         mTimerFormat = getResources().getString(R.string.timer_format);
+        updateSpeedView();
 
         if (mShowFinishButton) {
             ibNew.setVisibility(View.GONE);
@@ -186,14 +248,51 @@ public class MainActivity extends AppCompatActivity implements Recorder.OnStateC
     }
 
     private void resetFileNameEditText() {
-        String extension = "";
+        etFileName.initFileName(mRecorder.getRecordDir(), getRequestedExtension(),
+                mShowFinishButton);
+    }
+
+    private String getRequestedExtension() {
         if (AUDIO_AMR.equals(mRequestedType)) {
-            extension = FILE_EXTENSION_AMR;
+            return FILE_EXTENSION_AMR;
         } else if (AUDIO_3GPP.equals(mRequestedType)) {
-            extension = FILE_EXTENSION_3GPP;
+            return FILE_EXTENSION_3GPP;
+        } else if (AUDIO_WAV.equals(mRequestedType) || AUDIO_IMA_ADPCM.equals(mRequestedType)) {
+            return FILE_EXTENSION_WAV;
+        } else if (AUDIO_FLAC.equals(mRequestedType)) {
+            return FILE_EXTENSION_FLAC;
         }
+        return "";
+    }
+
+    private int getRequestedBitRate() {
+        if (AUDIO_3GPP.equals(mRequestedType)) {
+            return BITRATE_3GPP;
+        } else if (AUDIO_WAV.equals(mRequestedType)) {
+            return BITRATE_WAV;
+        } else if (AUDIO_FLAC.equals(mRequestedType)) {
+            return BITRATE_FLAC;
+        } else if (AUDIO_IMA_ADPCM.equals(mRequestedType)) {
+            return BITRATE_IMA_ADPCM;
+        }
+        return BITRATE_AMR;
+    }
 
-        etFileName.initFileName(mRecorder.getRecordDir(), extension, mShowFinishButton);
+    /**
+     * 正在进行的录音可能是用其他格式开始的，按文件扩展名恢复
+     */
+    private void restoreRequestedType(File file) {
+        String requestedType = mRequestedType;
+        if (file.getName().endsWith(getRequestedExtension())) {
+            return;
+        }
+        for (String type : REQUESTED_TYPES) {
+            mRequestedType = type;
+            if (file.getName().endsWith(getRequestedExtension())) {
+                return;
+            }
+        }
+        mRequestedType = requestedType;
     }
 
     @OnClick({R.id.ib_new, R.id.ib_record, R.id.ib_stop,
@@ -254,6 +353,60 @@ public class MainActivity extends AppCompatActivity implements Recorder.OnStateC
         startActivity(new Intent(MainActivity.this, RecordActivity.class));
     }
 
+    @OnClick(R.id.tv_speed)
+    public void clickToChangeSpeed() {
+        mRecorder.setPlaybackSpeed(Constant.nextPlaybackSpeed(mRecorder.getPlaybackSpeed()));
+        updateSpeedView();
+    }
+
+    private void updateSpeedView() {
+        tvSpeed.setText(getString(R.string.playback_speed,
+                String.valueOf(mRecorder.getPlaybackSpeed())));
+    }
+
+    @OnClick(R.id.tv_format)
+    public void clickToChangeFormat() {
+        if (mRecorder.state() != Recorder.IDLE_STATE || mRecorder.sampleLength() > 0) {
+            return;
+        }
+        int index = 0;
+        for (int i = 0; i < REQUESTED_TYPES.length; i++) {
+            if (REQUESTED_TYPES[i].equals(mRequestedType)) {
+                index = i;
+            }
+        }
+        mRequestedType = REQUESTED_TYPES[(index + 1) % REQUESTED_TYPES.length];
+        resetFileNameEditText();
+        updateFormatView();
+    }
+
+    @OnClick(R.id.tv_segment)
+    public void clickToToggleSegment() {
+        if (mRecorder.state() != Recorder.IDLE_STATE || mRecorder.sampleLength() > 0
+                || !isPcmRequestedType()) {
+            return;
+        }
+        mSegmented = !mSegmented;
+        updateFormatView();
+    }
+
+    private void updateFormatView() {
+        boolean idle = mRecorder.state() == Recorder.IDLE_STATE && mRecorder.sampleLength() == 0;
+        tvFormat.setText(AUDIO_IMA_ADPCM.equals(mRequestedType) ? FORMAT_LABEL_IMA_ADPCM
+                : getRequestedExtension().substring(1).toUpperCase(Locale.US));
+        tvFormat.setEnabled(idle);
+        boolean pcm = isPcmRequestedType();
+        tvSegment.setVisibility(pcm ? View.VISIBLE : View.GONE);
+        tvSegment.setText(mSegmented ? getString(R.string.record_segmented, SEGMENT_MINUTES)
+                : getString(R.string.record_single_file));
+        tvSegment.setEnabled(idle && pcm);
+    }
+
+    private boolean isPcmRequestedType() {
+        return AUDIO_WAV.equals(mRequestedType) || AUDIO_FLAC.equals(mRequestedType)
+                || AUDIO_IMA_ADPCM.equals(mRequestedType);
+    }
+
     @Override
     public void onStateChanged(int state) {
         if (state == Recorder.PLAYING_STATE || state == Recorder.RECORDING_STATE) {
@@ -307,16 +460,45 @@ public class MainActivity extends AppCompatActivity implements Recorder.OnStateC
                 mRemainingTimeCalculator.setBitRate(BITRATE_3GPP);
                 mRecorder.startRecording(MediaRecorder.OutputFormat.THREE_GPP, etFileName
                         .getText().toString(), FILE_EXTENSION_3GPP, true, mMaxFileSize);
+            } else if (AUDIO_WAV.equals(mRequestedType)) {
+                mRemainingTimeCalculator.setBitRate(BITRATE_WAV);
+                startPcmRecording(Recorder.OUTPUT_FORMAT_WAV, FILE_EXTENSION_WAV, true);
+            } else if (AUDIO_FLAC.equals(mRequestedType)) {
+                mRemainingTimeCalculator.setBitRate(BITRATE_FLAC);
+                startPcmRecording(Recorder.OUTPUT_FORMAT_FLAC, FILE_EXTENSION_FLAC, true);
+            } else if (AUDIO_IMA_ADPCM.equals(mRequestedType)) {
+                mRemainingTimeCalculator.setBitRate(BITRATE_IMA_ADPCM);
+                // 非高质量模式使用 16 kHz 采样
+                startPcmRecording(Recorder.OUTPUT_FORMAT_IMA_ADPCM, FILE_EXTENSION_WAV, false);
             } else {
                 throw new IllegalArgumentException("Invalid output file type requested");
             }
 
-            if (mMaxFileSize != -1) {
-                mRemainingTimeCalculator.setFileSizeLimit(mRecorder.sampleFile(), mMaxFileSize);
+            if (mMaxFileSize != -1 && !(mSegmented && isPcmRequestedType())) {
+                mRemainingTimeCalculator.setFileSizeLimit(
+                        RecordingJournal.partFile(mRecorder.sampleFile()), mMaxFileSize);
+                if (!AUDIO_AMR.equals(mRequestedType) && !AUDIO_3GPP.equals(mRequestedType)) {
+                    // PCM 录音开始时预分配了整个文件，这部分空间不会被别的文件占用
+                    mRemainingTimeCalculator.setPreallocatedLength(mMaxFileSize);
+                }
             }
         }
     }
 
+    /**
+     * 分段录音到达时长或 mMaxFileSize 时切换到下一个文件而不是停止，录音一直持续到手动停止
+     */
+    private void startPcmRecording(int outputFileFormat, String extension, boolean highQuality) {
+        String name = etFileName.getText().toString();
+        if (mSegmented) {
+            mRecorder.startSegmentedRecording(outputFileFormat, name, extension, highQuality,
+                    SEGMENT_MINUTES * 60 * 1000L, mMaxFileSize != -1 ? mMaxFileSize : 0, 0);
+        } else {
+            mRecorder.startRecording(Recorder.ENGINE_PCM, outputFileFormat, name, extension,
+                    highQuality, mMaxFileSize);
+        }
+    }
+
     @Override
     public boolean onKeyDown(int keyCode, KeyEvent event) {
         if (keyCode == KeyEvent.KEYCODE_BACK) {
@@ -326,6 +508,7 @@ public class MainActivity extends AppCompatActivity implements Recorder.OnStateC
                     finish();
                     break;
                 case Recorder.PLAYING_STATE:
+                case Recorder.PREPARING_STATE:
                     mRecorder.stop();
                     break;
                 case Recorder.RECORDING_STATE:
@@ -354,7 +537,8 @@ public class MainActivity extends AppCompatActivity implements Recorder.OnStateC
         }
 
         if (mRecorder.state() == Recorder.RECORDING_STATE) {
-            String preExtension = AUDIO_AMR.equals(mRequestedType) ? FILE_EXTENSION_AMR : FILE_EXTENSION_3GPP;
+            restoreRequestedType(mRecorder.sampleFile());
+            String preExtension = getRequestedExtension();
             if (!mRecorder.sampleFile().getName().endsWith(preExtension)) {
                 mRecorder.reset();
                 resetFileNameEditText();
@@ -363,11 +547,7 @@ public class MainActivity extends AppCompatActivity implements Recorder.OnStateC
                     String fileName = mRecorder.sampleFile().getName().replace(preExtension, "");
                     etFileName.setText(fileName);
                 }
-                if (AUDIO_AMR.equals(mRequestedType)) {
-                    mRemainingTimeCalculator.setBitRate(BITRATE_AMR);
-                } else if (AUDIO_3GPP.equals(mRequestedType)) {
-                    mRemainingTimeCalculator.setBitRate(BITRATE_3GPP);
-                }
+                mRemainingTimeCalculator.setBitRate(getRequestedBitRate());
             }
         } else {
             File file = mRecorder.sampleFile();
@@ -407,6 +587,8 @@ public class MainActivity extends AppCompatActivity implements Recorder.OnStateC
         }
 
         mStopUiUpdate = true;
+        vuMeter.stop();
+        Choreographer.getInstance().removeFrameCallback(mPlaybackFrameCallback);
 
         if (RecorderService.isRecording()) {
             Intent intent = new Intent(this, RecorderService.class);
@@ -445,8 +627,7 @@ public class MainActivity extends AppCompatActivity implements Recorder.OnStateC
     }
 
     private void showOverwriteConfirmDialogIfConflicts() {
-        String fileName = etFileName.getText().toString()
-                + (AUDIO_AMR.equals(mRequestedType) ? FILE_EXTENSION_AMR : FILE_EXTENSION_3GPP);
+        String fileName = etFileName.getText().toString() + getRequestedExtension();
 
         if (mRecorder.isRecordExisted(fileName) && !mShowFinishButton) {
             AlertDialog.Builder dialogBuilder = new AlertDialog.Builder(this);
@@ -473,95 +654,71 @@ public class MainActivity extends AppCompatActivity implements Recorder.OnStateC
 
     @Override
     public void onDestroy() {
+        mRecorder.releasePlayer();
+        waveformView.setData(null, null);
         unbinder.unbind();
         super.onDestroy();
     }
 
-    private ImageView getTimerImage(char number) {
-        ImageView image = new ImageView(this);
-        ViewGroup.LayoutParams lp = new ViewGroup.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
-        if (number != ':') {
-            image.setBackgroundResource(R.drawable.background_number);
-        }
-        switch (number) {
-            case '0':
-                image.setImageResource(R.mipmap.number_0);
-                break;
-            case '1':
-                image.setImageResource(R.mipmap.number_1);
-                break;
-            case '2':
-                image.setImageResource(R.mipmap.number_2);
-                break;
-            case '3':
-                image.setImageResource(R.mipmap.number_3);
-                break;
-            case '4':
-                image.setImageResource(R.mipmap.number_4);
-                break;
-            case '5':
-                image.setImageResource(R.mipmap.number_5);
-                break;
-            case '6':
-                image.setImageResource(R.mipmap.number_6);
-                break;
-            case '7':
-                image.setImageResource(R.mipmap.number_7);
-                break;
-            case '8':
-                image.setImageResource(R.mipmap.number_8);
-                break;
-            case '9':
-                image.setImageResource(R.mipmap.number_9);
-                break;
-            case ':':
-                image.setImageResource(R.mipmap.colon);
-                break;
-            default:
-                break;
-        }
-        image.setLayoutParams(lp);
-        return image;
-    }
-
     private void updateTimerView() {
-        int state = mRecorder.state();
+        timerView.setSeconds(mRecorder.progress());
 
-        boolean ongoing = state == Recorder.RECORDING_STATE || state == Recorder.PLAYING_STATE;
-
-        long time = mRecorder.progress();
-        String timeStr = String.format(mTimerFormat, time / 60, time % 60);
-        llTimeCalculator.removeAllViews();
-        for (int i = 0; i < timeStr.length(); i++) {
-            llTimeCalculator.addView(getTimerImage(timeStr.charAt(i)));
-        }
-
-        if (state == Recorder.RECORDING_STATE) {
+        // 播放时计时器由 mPlaybackFrameCallback 刷新
+        if (mRecorder.state() == Recorder.RECORDING_STATE) {
             updateTimeRemaining();
-        }
-
-        if (ongoing) {
             mHandler.postDelayed(mUpdateTimer, 500);
         }
     }
 
     private void setTimerView(float progress) {
-        long time = (long) (progress * mRecorder.sampleLength());
-        String timeStr = String.format(mTimerFormat, time / 60, time % 60);
-        llTimeCalculator.removeAllViews();
-        for (int i = 0; i < timeStr.length(); i++) {
-            llTimeCalculator.addView(getTimerImage(timeStr.charAt(i)));
-        }
+        timerView.setSeconds((long) (progress * mRecorder.sampleLength()));
     }
 
     private void updateSeekBar() {
+        Choreographer.getInstance().removeFrameCallback(mPlaybackFrameCallback);
+        updatePlaybackPosition(System.nanoTime());
+    }
+
+    private void updatePlaybackPosition(long frameTimeNanos) {
         if (mRecorder.state() == Recorder.PLAYING_STATE) {
-            sbPlay.setProgress((int) (SEEK_BAR_MAX * mRecorder.playProgress()));
-            mHandler.postDelayed(mUpdateSeekBar, 10);
+            long position = mRecorder.playPosition(frameTimeNanos);
+            long duration = mRecorder.playDuration();
+            if (duration > 0) {
+                sbPlay.setProgress((int) (SEEK_BAR_MAX * position / duration));
+                waveformView.setProgress((float) position / duration);
+            }
+            timerView.setSeconds(position / 1000);
+            Choreographer.getInstance().postFrameCallback(mPlaybackFrameCallback);
+        }
+    }
+
+    private void updateWaveformView() {
+        File sampleFile = mRecorder.sampleFile();
+        if (waveformView.getVisibility() != View.VISIBLE || sampleFile == null) {
+            return;
         }
+        if (sampleFile.equals(mWaveformFile)) {
+            return;
+        }
+        mWaveformFile = sampleFile;
+        waveformView.setPeaks(null);
+        PeakGenerator.getInstance().load(sampleFile, true, new PeakGenerator.Callback() {
+            @Override
+            public void onPeaksLoaded(File audio, PeakFile peaks, SampleSource samples) {
+                if (audio.equals(mWaveformFile) && !isFinishing()) {
+                    waveformView.setData(peaks, samples);
+                } else if (samples != null) {
+                    try {
+                        samples.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        });
     }
 
     private void updateTimeRemaining() {
+        mRemainingTimeCalculator.setWriteCounter(RecorderService.getWriteCounter());
         long t = mRemainingTimeCalculator.timeRemaining();
 
         if (t <= 0) {
@@ -585,46 +742,10 @@ public class MainActivity extends AppCompatActivity implements Recorder.OnStateC
     }
 
     private void updateVUMeterView() {
-        final int maxVuSize = 11;
-        boolean[] showVUArray = new boolean[maxVuSize];
-
-        if (llVuMeter.getVisibility() == View.VISIBLE
-                && mRecorder.state() == Recorder.RECORDING_STATE) {
-            int vuSize = maxVuSize * mRecorder.getMaxAmplitude() / 32768;
-            if (vuSize >= maxVuSize) {
-                vuSize = maxVuSize - 1;
-            }
-
-            if (vuSize >= mPreviousVUMax) {
-                mPreviousVUMax = vuSize;
-            } else if (mPreviousVUMax > 0) {
-                mPreviousVUMax--;
-            }
-
-            for (int i = 0; i < maxVuSize; i++) {
-                showVUArray[i] = i <= vuSize || i == mPreviousVUMax;
-            }
-
-            mHandler.postDelayed(mUpdateVUMeter, 100);
-        } else if (llVuMeter.getVisibility() == View.VISIBLE) {
-            mPreviousVUMax = 0;
-            for (int i = 0; i < maxVuSize; i++) {
-                showVUArray[i] = false;
-            }
-        }
-
-        if (llVuMeter.getVisibility() == View.VISIBLE) {
-            llVuMeter.removeAllViews();
-            for (boolean show : showVUArray) {
-                ImageView imageView = new ImageView(this);
-                imageView.setBackgroundResource(R.drawable.background_vumeter);
-                if (show) {
-                    imageView.setImageResource(R.mipmap.icon_vumeter);
-                }
-                imageView.setLayoutParams(new LinearLayout.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT,
-                        ViewGroup.LayoutParams.WRAP_CONTENT));
-                llVuMeter.addView(imageView);
-            }
+        if (!mStopUiUpdate && mRecorder.state() == Recorder.RECORDING_STATE) {
+            vuMeter.start();
+        } else {
+            vuMeter.stop();
         }
     }
 
@@ -643,8 +764,9 @@ public class MainActivity extends AppCompatActivity implements Recorder.OnStateC
                     ibDelete.setEnabled(false);
                     ibRecord.requestFocus();
 
-                    llVuMeter.setVisibility(View.VISIBLE);
+                    vuMeter.setVisibility(View.VISIBLE);
                     llPlaySeekBar.setVisibility(View.GONE);
+                    waveformView.setVisibility(View.GONE);
                 } else {
                     ibNew.setEnabled(true);
                     ibNew.setVisibility(View.VISIBLE);
@@ -655,8 +777,9 @@ public class MainActivity extends AppCompatActivity implements Recorder.OnStateC
                     ibDelete.setEnabled(true);
                     ibPause.requestFocus();
 
-                    llVuMeter.setVisibility(View.GONE);
+                    vuMeter.setVisibility(View.GONE);
                     llPlaySeekBar.setVisibility(View.VISIBLE);
+                    waveformView.setVisibility(View.VISIBLE);
                     tvStartTime.setText(String.format(mTimerFormat, 0, 0));
                     tvTotalTime.setText(String.format(mTimerFormat, mRecorder.sampleLength() / 60,
                             mRecorder.sampleLength() % 60));
@@ -667,6 +790,7 @@ public class MainActivity extends AppCompatActivity implements Recorder.OnStateC
                 if (mRecorder.sampleLength() > 0) {
                     if (mRecorder.state() != Recorder.PLAYING_PAUSED_STATE) {
                         sbPlay.setProgress(0);
+                        waveformView.setProgress(0);
                     }
                 }
 
@@ -688,13 +812,16 @@ public class MainActivity extends AppCompatActivity implements Recorder.OnStateC
                 ibPause.setVisibility(View.GONE);
                 ibDelete.setEnabled(false);
                 ibStop.requestFocus();
-                llVuMeter.setVisibility(View.VISIBLE);
+                vuMeter.setVisibility(View.VISIBLE);
                 llPlaySeekBar.setVisibility(View.GONE);
+                waveformView.setVisibility(View.GONE);
                 etFileName.setEnabled(false);
 
-                mPreviousVUMax = 0;
+                // 可能覆盖录制同一个文件，停止后重新加载波形
+                mWaveformFile = null;
                 break;
 
+            case Recorder.PREPARING_STATE:
             case Recorder.PLAYING_STATE:
                 ibNew.setEnabled(false);
                 ibNew.setVisibility(View.VISIBLE);
@@ -704,8 +831,9 @@ public class MainActivity extends AppCompatActivity implements Recorder.OnStateC
                 ibPause.setVisibility(View.VISIBLE);
                 ibDelete.setEnabled(false);
                 ibPause.requestFocus();
-                llVuMeter.setVisibility(View.GONE);
+                vuMeter.setVisibility(View.GONE);
                 llPlaySeekBar.setVisibility(View.VISIBLE);
+                waveformView.setVisibility(View.VISIBLE);
                 etFileName.setEnabled(false);
 
                 break;
@@ -716,7 +844,8 @@ public class MainActivity extends AppCompatActivity implements Recorder.OnStateC
         updateTimerView();
         updateSeekBar();
         updateVUMeterView();
-
+        updateWaveformView();
+        updateFormatView();
     }
 
     private SeekBar.OnSeekBarChangeListener mSeekBarChangeListener = new SeekBar.OnSeekBarChangeListener() {
@@ -735,6 +864,7 @@ public class MainActivity extends AppCompatActivity implements Recorder.OnStateC
         public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
             if (fromUser) {
                 setTimerView(((float) progress) / SEEK_BAR_MAX);
+                waveformView.setProgress(((float) progress) / SEEK_BAR_MAX);
                 mLastButtonId = 0;
             }
         }
@@ -0,0 +1,125 @@
+package com.xp.soundrecorder;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 用 MediaExtractor 和 MediaCodec 把 AMR、AAC 等压缩格式解码为 16 位 PCM，在调用线程中同步执行
+ */
+public final class MediaPcmDecoder {
+
+    private static final long TIMEOUT_US = 10 * 1000;
+
+    private MediaPcmDecoder() {
+    }
+
+    /**
+     * 解码第一条音轨并依次写给 sink，会负责打开和关闭 sink
+     */
+    public static void decode(File file, PcmSink sink) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        boolean sinkOpened = false;
+        boolean success = false;
+        try {
+            extractor.setDataSource(file.getAbsolutePath());
+            MediaFormat format = null;
+            String mime = null;
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat trackFormat = extractor.getTrackFormat(i);
+                String trackMime = trackFormat.getString(MediaFormat.KEY_MIME);
+                if (trackMime != null && trackMime.startsWith("audio/")) {
+                    extractor.selectTrack(i);
+                    format = trackFormat;
+                    mime = trackMime;
+                    break;
+                }
+            }
+            if (format == null) {
+                throw new IOException("No audio track in " + file);
+            }
+
+            codec = MediaCodec.createDecoderByType(mime);
+            codec.configure(format, null, null, 0);
+            codec.start();
+            ByteBuffer[] inputBuffers = codec.getInputBuffers();
+            ByteBuffer[] outputBuffers = codec.getOutputBuffers();
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            short[] samples = new short[0];
+            boolean inputDone = false;
+
+            while (true) {
+                if (!inputDone) {
+                    int inputIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+                    if (inputIndex >= 0) {
+                        int size = extractor.readSampleData(inputBuffers[inputIndex], 0);
+                        if (size < 0) {
+                            codec.queueInputBuffer(inputIndex, 0, 0, 0,
+                                    MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            codec.queueInputBuffer(inputIndex, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+
+                int outputIndex = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+                if (outputIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                    outputBuffers = codec.getOutputBuffers();
+                } else if (outputIndex >= 0) {
+                    if (info.size > 0) {
+                        if (!sinkOpened) {
+                            MediaFormat outputFormat = codec.getOutputFormat();
+                            sink.open(outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                                    outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+                            sinkOpened = true;
+                        }
+                        int count = info.size / 2;
+                        if (samples.length < count) {
+                            samples = new short[count];
+                        }
+                        ByteBuffer buffer = outputBuffers[outputIndex];
+                        buffer.position(info.offset);
+                        buffer.limit(info.offset + info.size);
+                        buffer.slice().order(ByteOrder.nativeOrder()).asShortBuffer()
+                                .get(samples, 0, count);
+                        sink.write(samples, count);
+                    }
+                    codec.releaseOutputBuffer(outputIndex, false);
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                        break;
+                    }
+                }
+            }
+            success = true;
+        } catch (IllegalStateException e) {
+            throw new IOException("Failed to decode " + file, e);
+        } finally {
+            if (codec != null) {
+                try {
+                    codec.stop();
+                } catch (IllegalStateException ignored) {
+                }
+                codec.release();
+            }
+            extractor.release();
+            if (sinkOpened) {
+                if (success) {
+                    sink.close();
+                } else {
+                    try {
+                        sink.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+    }
+}
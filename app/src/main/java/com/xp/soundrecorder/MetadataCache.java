@@ -0,0 +1,194 @@
+package com.xp.soundrecorder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 文件元数据的两级缓存：内存中按最近使用淘汰，同时保存到磁盘文件，下次启动不必重新解析。
+ * 以路径为键，文件大小或修改时间变化后缓存失效。所有方法都是线程安全的
+ */
+public class MetadataCache {
+
+    private static final int MAGIC = 0x4D455441; // "META"
+
+    private static final int VERSION = 1;
+
+    private final File mFile;
+
+    private final LinkedHashMap<String, CacheEntry> mEntries;
+
+    private boolean mDirty;
+
+    private static class CacheEntry {
+        final long size;
+        final long lastModified;
+        final AudioMetadata metadata;
+
+        CacheEntry(long size, long lastModified, AudioMetadata metadata) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.metadata = metadata;
+        }
+    }
+
+    /**
+     * @param file       缓存文件，为 null 时只缓存在内存中
+     * @param maxEntries 最多保存的条目数
+     */
+    public MetadataCache(File file, final int maxEntries) {
+        mFile = file;
+        mEntries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * 从磁盘读取缓存，文件不存在或损坏时从空缓存开始
+     */
+    public synchronized void load() {
+        if (mFile == null || !mFile.isFile()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                AudioMetadata metadata = new AudioMetadata(in.readLong(), in.readInt(),
+                        in.readInt());
+                mEntries.put(path, new CacheEntry(size, lastModified, metadata));
+            }
+        } catch (IOException e) {
+            mEntries.clear();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * 有改动时写回磁盘，先写临时文件再重命名，写到一半被打断也不会损坏原文件
+     */
+    public void save() throws IOException {
+        List<String> paths;
+        List<CacheEntry> entries;
+        synchronized (this) {
+            if (mFile == null || !mDirty) {
+                return;
+            }
+            paths = new ArrayList<>(mEntries.keySet());
+            entries = new ArrayList<>(mEntries.values());
+            mDirty = false;
+        }
+        File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                CacheEntry entry = entries.get(i);
+                out.writeUTF(paths.get(i));
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastModified);
+                out.writeLong(entry.metadata.durationMillis);
+                out.writeInt(entry.metadata.sampleRate);
+                out.writeInt(entry.metadata.channelCount);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(mFile)) {
+            tmp.delete();
+            synchronized (this) {
+                mDirty = true;
+            }
+            throw new IOException("rename " + tmp + " failed");
+        }
+    }
+
+    /**
+     * @return 缓存中大小和修改时间都匹配的元数据，没有时返回 null
+     */
+    public synchronized AudioMetadata get(File file, long size, long lastModified) {
+        CacheEntry entry = mEntries.get(file.getAbsolutePath());
+        if (entry == null) {
+            return null;
+        }
+        if (entry.size != size || entry.lastModified != lastModified) {
+            mEntries.remove(file.getAbsolutePath());
+            mDirty = true;
+            return null;
+        }
+        return entry.metadata;
+    }
+
+    public synchronized void put(File file, long size, long lastModified, AudioMetadata metadata) {
+        mEntries.put(file.getAbsolutePath(), new CacheEntry(size, lastModified, metadata));
+        mDirty = true;
+    }
+
+    /**
+     * 优先使用缓存，没有时解析文件头并放入缓存
+     *
+     * @return 解析失败时返回 null
+     */
+    public AudioMetadata getOrRead(File file, int format) {
+        long size = file.length();
+        long lastModified = file.lastModified();
+        AudioMetadata metadata = get(file, size, lastModified);
+        if (metadata == null) {
+            try {
+                metadata = AudioMetadata.read(file, format);
+            } catch (IOException | RuntimeException e) {
+                return null;
+            }
+            put(file, size, lastModified, metadata);
+        }
+        return metadata;
+    }
+
+    /**
+     * 把元数据填入 record，解析失败时保持原值
+     */
+    public void fill(RecordEntity record) {
+        AudioMetadata metadata = getOrRead(record.getPath(), record.getFormat());
+        if (metadata != null) {
+            record.setDuration(metadata.durationMillis);
+            record.setSampleRate(metadata.sampleRate);
+            record.setChannelCount(metadata.channelCount);
+        }
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    private static void closeQuietly(DataInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
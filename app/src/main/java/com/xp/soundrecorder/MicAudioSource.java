@@ -0,0 +1,106 @@
+package com.xp.soundrecorder;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.os.Process;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadFactory;
+
+public class MicAudioSource implements AudioSource {
+
+    /**
+     * 采集线程使用音频优先级，避免被 UI 和 IO 线程抢占
+     */
+    public static final ThreadFactory URGENT_AUDIO_THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+                    r.run();
+                }
+            }, "MicCapture");
+        }
+    };
+
+    private final int mSampleRate;
+
+    private final int mChannelCount;
+
+    private AudioRecord mAudioRecord;
+
+    public MicAudioSource(int sampleRate, int channelCount) {
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    @Override
+    public void start() throws IOException {
+        int channelConfig = mChannelCount == 2 ? AudioFormat.CHANNEL_IN_STEREO
+                : AudioFormat.CHANNEL_IN_MONO;
+        int minBufferSize = AudioRecord.getMinBufferSize(mSampleRate, channelConfig,
+                AudioFormat.ENCODING_PCM_16BIT);
+        if (minBufferSize <= 0) {
+            throw new IOException("Unsupported capture config: " + mSampleRate + "Hz");
+        }
+
+        // 缓冲区取最小值的两倍，给采集线程的调度抖动留出余量
+        mAudioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, mSampleRate, channelConfig,
+                AudioFormat.ENCODING_PCM_16BIT, minBufferSize * 2);
+        if (mAudioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            release();
+            throw new IOException("AudioRecord init failed");
+        }
+
+        try {
+            mAudioRecord.startRecording();
+        } catch (IllegalStateException e) {
+            release();
+            throw new IOException(e);
+        }
+        if (mAudioRecord.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) {
+            // 麦克风被其他应用占用（如通话中）时不会抛异常，只是不进入录音状态
+            release();
+            throw new IOException("Microphone is busy");
+        }
+    }
+
+    @Override
+    public int read(short[] buffer, int offset, int length) {
+        if (mAudioRecord == null) {
+            return AudioRecord.ERROR_INVALID_OPERATION;
+        }
+        return mAudioRecord.read(buffer, offset, length);
+    }
+
+    @Override
+    public void stop() {
+        if (mAudioRecord != null) {
+            try {
+                mAudioRecord.stop();
+            } catch (IllegalStateException e) {
+            }
+        }
+    }
+
+    @Override
+    public void release() {
+        if (mAudioRecord != null) {
+            mAudioRecord.release();
+            mAudioRecord = null;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.xp.soundrecorder;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * 解析 3GPP/MP4（ISO BMFF）文件的 moov 盒子，从音轨的 mdhd 得到精确时长，从 stsd 得到采样率和声道数。
+ * 只按盒子长度跳转，不读取媒体数据，moov 放在文件末尾也不影响
+ */
+public class Mp4Parser {
+
+    private static final int TYPE_MOOV = fourCc("moov");
+
+    private static final int TYPE_MVHD = fourCc("mvhd");
+
+    private static final int TYPE_TRAK = fourCc("trak");
+
+    private static final int TYPE_MDIA = fourCc("mdia");
+
+    private static final int TYPE_MDHD = fourCc("mdhd");
+
+    private static final int TYPE_HDLR = fourCc("hdlr");
+
+    private static final int TYPE_MINF = fourCc("minf");
+
+    private static final int TYPE_STBL = fourCc("stbl");
+
+    private static final int TYPE_STSD = fourCc("stsd");
+
+    private static final int HANDLER_SOUND = fourCc("soun");
+
+    private static final int ENTRY_SAMR = fourCc("samr");
+
+    private static final int ENTRY_SAWB = fourCc("sawb");
+
+    /**
+     * 音轨信息，未解析到的字段为 0
+     */
+    private static class Track {
+        int handler;
+        long timescale;
+        long duration;
+        int sampleRate;
+        int channelCount;
+    }
+
+    private final RandomAccessFile mFile;
+
+    private long mMovieTimescale;
+
+    private long mMovieDuration;
+
+    private Track mAudioTrack;
+
+    private Mp4Parser(RandomAccessFile file) {
+        mFile = file;
+    }
+
+    public static AudioMetadata parse(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return new Mp4Parser(raf).parse();
+        } finally {
+            raf.close();
+        }
+    }
+
+    private AudioMetadata parse() throws IOException {
+        long end = mFile.length();
+        long position = 0;
+        boolean foundMoov = false;
+        while (position + 8 <= end) {
+            long[] box = readBoxHeader(position, end);
+            if (box[1] == TYPE_MOOV) {
+                parseMoov(box[2], box[3]);
+                foundMoov = true;
+                break;
+            }
+            position = box[3];
+        }
+        if (!foundMoov) {
+            throw new IOException("No moov box");
+        }
+
+        Track track = mAudioTrack;
+        if (track == null) {
+            throw new IOException("No audio track");
+        }
+        long durationMillis;
+        if (track.timescale > 0) {
+            durationMillis = track.duration * 1000 / track.timescale;
+        } else if (mMovieTimescale > 0) {
+            durationMillis = mMovieDuration * 1000 / mMovieTimescale;
+        } else {
+            throw new IOException("No timescale");
+        }
+        int sampleRate = track.sampleRate > 0 ? track.sampleRate : (int) track.timescale;
+        return new AudioMetadata(durationMillis, sampleRate, track.channelCount);
+    }
+
+    private void parseMoov(long start, long end) throws IOException {
+        long position = start;
+        while (position + 8 <= end) {
+            long[] box = readBoxHeader(position, end);
+            if (box[1] == TYPE_MVHD) {
+                mFile.seek(box[2]);
+                int version = mFile.readUnsignedByte();
+                mFile.skipBytes(3 + (version == 1 ? 16 : 8));
+                mMovieTimescale = readUInt32();
+                mMovieDuration = version == 1 ? mFile.readLong() : readUInt32();
+            } else if (box[1] == TYPE_TRAK && mAudioTrack == null) {
+                Track track = new Track();
+                parseContainer(box[2], box[3], track);
+                if (track.handler == HANDLER_SOUND) {
+                    mAudioTrack = track;
+                }
+            }
+            position = box[3];
+        }
+    }
+
+    /**
+     * 在 trak 中递归查找 mdhd、hdlr 和 stsd
+     */
+    private void parseContainer(long start, long end, Track track) throws IOException {
+        long position = start;
+        while (position + 8 <= end) {
+            long[] box = readBoxHeader(position, end);
+            int type = (int) box[1];
+            if (type == TYPE_MDIA || type == TYPE_MINF || type == TYPE_STBL) {
+                parseContainer(box[2], box[3], track);
+            } else if (type == TYPE_MDHD) {
+                mFile.seek(box[2]);
+                int version = mFile.readUnsignedByte();
+                mFile.skipBytes(3 + (version == 1 ? 16 : 8));
+                track.timescale = readUInt32();
+                track.duration = version == 1 ? mFile.readLong() : readUInt32();
+            } else if (type == TYPE_HDLR) {
+                mFile.seek(box[2] + 8);
+                track.handler = mFile.readInt();
+            } else if (type == TYPE_STSD) {
+                readSampleEntry(box[2], track);
+            }
+            position = box[3];
+        }
+    }
+
+    private void readSampleEntry(long position, Track track) throws IOException {
+        // stsd：版本和标志 4 字节、条目数 4 字节，之后是第一个 AudioSampleEntry
+        mFile.seek(position + 8);
+        mFile.readInt();
+        int entryType = mFile.readInt();
+        // 保留 6 字节、数据引用索引 2 字节、保留 8 字节
+        mFile.skipBytes(16);
+        int channelCount = mFile.readUnsignedShort();
+        mFile.skipBytes(6);
+        track.sampleRate = (int) (readUInt32() >>> 16);
+        // 3GPP 规定 AMR 条目的声道数字段固定写 2 并且应被忽略，AMR 只有单声道
+        track.channelCount = entryType == ENTRY_SAMR || entryType == ENTRY_SAWB ? 1 : channelCount;
+    }
+
+    /**
+     * @return {盒子起点, 类型, 内容起点, 盒子终点}
+     */
+    private long[] readBoxHeader(long position, long parentEnd) throws IOException {
+        mFile.seek(position);
+        long size = readUInt32();
+        int type = mFile.readInt();
+        long contentStart = position + 8;
+        if (size == 1) {
+            size = mFile.readLong();
+            contentStart += 8;
+        } else if (size == 0) {
+            size = parentEnd - position;
+        }
+        long end = position + size;
+        if (size < contentStart - position || end > parentEnd) {
+            throw new EOFException("Invalid box size " + size + " at " + position);
+        }
+        return new long[]{position, type, contentStart, end};
+    }
+
+    private long readUInt32() throws IOException {
+        return mFile.readInt() & 0xFFFFFFFFL;
+    }
+
+    private static int fourCc(String id) {
+        return id.charAt(0) << 24 | id.charAt(1) << 16 | id.charAt(2) << 8 | id.charAt(3);
+    }
+}
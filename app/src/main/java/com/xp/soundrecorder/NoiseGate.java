@@ -0,0 +1,101 @@
+package com.xp.soundrecorder;
+
+/**
+ * 噪声门：电平低于阈值并持续一段时间后把信号衰减到底噪增益，电平回到阈值以上时快速打开。
+ * 各声道共用一个包络，保持声道之间的平衡
+ */
+public class NoiseGate implements AudioProcessor {
+
+    private static final float ATTACK_MILLIS = 1f;
+
+    private static final float RELEASE_MILLIS = 100f;
+
+    private static final float HOLD_MILLIS = 50f;
+
+    private static final float ENVELOPE_RELEASE_MILLIS = 20f;
+
+    private final float mThreshold;
+
+    private final float mFloorGain;
+
+    private int mChannelCount;
+
+    private float mAttackCoefficient;
+
+    private float mReleaseCoefficient;
+
+    private float mEnvelopeCoefficient;
+
+    private int mHoldFrames;
+
+    private float mEnvelope;
+
+    private float mGain;
+
+    private int mHoldRemaining;
+
+    /**
+     * @param thresholdDb 打开门的电平，相对满幅
+     * @param rangeDb     关门时的衰减量，正数
+     */
+    public NoiseGate(float thresholdDb, float rangeDb) {
+        mThreshold = GainProcessor.dbToLinear(thresholdDb);
+        mFloorGain = GainProcessor.dbToLinear(-rangeDb);
+    }
+
+    @Override
+    public void configure(int sampleRate, int channelCount) {
+        mChannelCount = channelCount;
+        mAttackCoefficient = coefficient(ATTACK_MILLIS, sampleRate);
+        mReleaseCoefficient = coefficient(RELEASE_MILLIS, sampleRate);
+        mEnvelopeCoefficient = coefficient(ENVELOPE_RELEASE_MILLIS, sampleRate);
+        mHoldFrames = (int) (HOLD_MILLIS * sampleRate / 1000);
+        mEnvelope = 0f;
+        mGain = mFloorGain;
+        mHoldRemaining = 0;
+    }
+
+    /**
+     * 一阶平滑系数，经过 millis 毫秒后差距衰减到约 37%
+     */
+    static float coefficient(float millis, int sampleRate) {
+        return (float) Math.exp(-1000.0 / (millis * sampleRate));
+    }
+
+    @Override
+    public void process(float[] samples, int frames) {
+        final int channels = mChannelCount;
+        float envelope = mEnvelope;
+        float gain = mGain;
+        int holdRemaining = mHoldRemaining;
+        for (int i = 0; i < frames; i++) {
+            float peak = 0f;
+            for (int c = 0; c < channels; c++) {
+                peak = Math.max(peak, Math.abs(samples[i * channels + c]));
+            }
+            // 峰值包络：上升立即跟随，下降平滑
+            envelope = peak > envelope ? peak
+                    : peak + (envelope - peak) * mEnvelopeCoefficient;
+
+            float target;
+            if (envelope >= mThreshold) {
+                holdRemaining = mHoldFrames;
+                target = 1f;
+            } else if (holdRemaining > 0) {
+                holdRemaining--;
+                target = 1f;
+            } else {
+                target = mFloorGain;
+            }
+            float coefficient = target > gain ? mAttackCoefficient : mReleaseCoefficient;
+            gain = target + (gain - target) * coefficient;
+
+            for (int c = 0; c < channels; c++) {
+                samples[i * channels + c] *= gain;
+            }
+        }
+        mEnvelope = envelope;
+        mGain = gain;
+        mHoldRemaining = holdRemaining;
+    }
+}
@@ -0,0 +1,207 @@
+package com.xp.soundrecorder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 基于 {@link AudioSource} 的 PCM 采集引擎，在独立线程中循环读取采样并分发给各个 {@link PcmSink}。
+ * 采集缓冲区在构造时分配，循环中不再分配内存
+ */
+public class PcmCaptureEngine {
+
+    public static final int ERROR_SOURCE = 1;
+
+    public static final int ERROR_SINK = 2;
+
+    /**
+     * 连续读取失败超过该次数认为采集源已不可用
+     */
+    private static final int MAX_CONSECUTIVE_READ_ERRORS = 5;
+
+    public interface OnErrorListener {
+        /**
+         * 在采集线程中回调，回调之后引擎会自行结束采集
+         */
+        void onCaptureError(int error);
+    }
+
+    private static final ThreadFactory DEFAULT_THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "PcmCapture");
+            thread.setPriority(Thread.MAX_PRIORITY);
+            return thread;
+        }
+    };
+
+    private final AudioSource mSource;
+
+    private final ThreadFactory mThreadFactory;
+
+    private final short[] mBuffer;
+
+    private final List<PcmSink> mSinks = new ArrayList<>();
+
+    private OnErrorListener mOnErrorListener;
+
+    private Thread mCaptureThread;
+
+    private volatile boolean mRunning;
+
+    private volatile long mCapturedFrames;
+
+    private volatile long mReadErrors;
+
+    public PcmCaptureEngine(AudioSource source, int framesPerBlock) {
+        this(source, framesPerBlock, DEFAULT_THREAD_FACTORY);
+    }
+
+    public PcmCaptureEngine(AudioSource source, int framesPerBlock, ThreadFactory threadFactory) {
+        mSource = source;
+        mThreadFactory = threadFactory;
+        mBuffer = new short[framesPerBlock * source.getChannelCount()];
+    }
+
+    public void addSink(PcmSink sink) {
+        if (mCaptureThread != null) {
+            throw new IllegalStateException("Sinks must be added before start");
+        }
+        mSinks.add(sink);
+    }
+
+    public void setOnErrorListener(OnErrorListener listener) {
+        mOnErrorListener = listener;
+    }
+
+    public AudioSource getSource() {
+        return mSource;
+    }
+
+    /**
+     * 打开所有输出并启动采集源，任何一步失败都会回滚已打开的部分并抛出异常
+     */
+    public synchronized void start() throws IOException {
+        if (mCaptureThread != null) {
+            throw new IllegalStateException("Engine already started");
+        }
+
+        int opened = 0;
+        try {
+            for (PcmSink sink : mSinks) {
+                sink.open(mSource.getSampleRate(), mSource.getChannelCount());
+                opened++;
+            }
+            mSource.start();
+        } catch (IOException | RuntimeException e) {
+            mSource.release();
+            for (int i = 0; i < opened; i++) {
+                closeQuietly(mSinks.get(i));
+            }
+            throw e;
+        }
+
+        mRunning = true;
+        mCaptureThread = mThreadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                captureLoop();
+            }
+        });
+        mCaptureThread.start();
+    }
+
+    /**
+     * 停止采集并等待采集线程写完最后一块数据、关闭所有输出
+     */
+    public synchronized void stop() {
+        mRunning = false;
+        if (mCaptureThread != null && mCaptureThread != Thread.currentThread()) {
+            boolean interrupted = false;
+            while (mCaptureThread.isAlive()) {
+                try {
+                    mCaptureThread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    public long getCapturedFrames() {
+        return mCapturedFrames;
+    }
+
+    /**
+     * 读取失败的次数，每次失败都意味着丢失了一段音频
+     */
+    public long getReadErrors() {
+        return mReadErrors;
+    }
+
+    private void captureLoop() {
+        final short[] buffer = mBuffer;
+        final int channelCount = mSource.getChannelCount();
+        final int sinkCount = mSinks.size();
+        int error = 0;
+        int consecutiveErrors = 0;
+
+        while (mRunning) {
+            int read = mSource.read(buffer, 0, buffer.length);
+            if (read < 0) {
+                mReadErrors++;
+                if (++consecutiveErrors >= MAX_CONSECUTIVE_READ_ERRORS) {
+                    error = ERROR_SOURCE;
+                    break;
+                }
+                continue;
+            }
+            consecutiveErrors = 0;
+            if (read == 0) {
+                continue;
+            }
+
+            try {
+                for (int i = 0; i < sinkCount; i++) {
+                    mSinks.get(i).write(buffer, read);
+                }
+            } catch (IOException e) {
+                error = ERROR_SINK;
+                break;
+            }
+            mCapturedFrames += read / channelCount;
+        }
+
+        mRunning = false;
+        mSource.stop();
+        mSource.release();
+        for (int i = 0; i < sinkCount; i++) {
+            try {
+                mSinks.get(i).close();
+            } catch (IOException e) {
+                if (error == 0) {
+                    error = ERROR_SINK;
+                }
+            }
+        }
+
+        if (error != 0 && mOnErrorListener != null) {
+            mOnErrorListener.onCaptureError(error);
+        }
+    }
+
+    private static void closeQuietly(PcmSink sink) {
+        try {
+            sink.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
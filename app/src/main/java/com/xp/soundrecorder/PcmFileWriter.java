@@ -0,0 +1,28 @@
+package com.xp.soundrecorder;
+
+/**
+ * 把 PCM 写入录音文件的 {@link PcmSink}，各种输出格式的写入器共用的设置
+ */
+public interface PcmFileWriter extends PcmSink {
+
+    /**
+     * 设置后每隔指定时间 fsync 一次并回填文件头，进程被杀时最多丢失一个间隔的数据
+     */
+    void setCheckpointInterval(long millis);
+
+    /**
+     * 设置后每写入一块都累加到计数中，包括还在缓冲区中的数据，用于估算剩余时间
+     */
+    void setWriteCounter(WriteCounter counter);
+
+    /**
+     * 打开时把文件预分配到指定长度，空间不足时 open 抛出异常，关闭时截掉没有用到的部分。
+     * 小于等于 0 时不预分配
+     */
+    void setPreallocatedLength(long length);
+
+    /**
+     * 最近一次检查点时已确认落盘的文件长度，包括文件头，可以在其他线程读取
+     */
+    long getCommittedLength();
+}
@@ -0,0 +1,526 @@
+package com.xp.soundrecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 不经过 MediaPlayer 直接播放 16 位 PCM 的 WAV 文件：数据块按窗口内存映射，由独立线程分块写给
+ * {@link AudioOutput}。IMA ADPCM 的 WAV 文件由 {@link WavReader} 解码后写出。定位精确到帧，播放位置由输出的已播放帧数推算。
+ * 速度不是 1 时数据先经过 {@link TimeStretcher} 变速不变调再写出。
+ * 除了 {@link Listener} 的回调在播放线程中，其余方法可以在任意线程调用
+ */
+public class PcmPlayer {
+
+    /**
+     * 每次写给输出的帧数，约 10 毫秒，定位和暂停的响应延迟不超过一块
+     */
+    private static final int BLOCK_MILLIS = 10;
+
+    /**
+     * 内存映射窗口大小，超过 2 GB 的 RF64 文件也只映射其中一段
+     */
+    private static final int MAP_WINDOW_BYTES = 8 * 1024 * 1024;
+
+    /**
+     * 数据全部写完后等待播放完的轮询间隔
+     */
+    private static final long DRAIN_POLL_MILLIS = 5;
+
+    public interface Listener {
+        void onPlaybackCompleted(PcmPlayer player);
+
+        void onPlaybackError(PcmPlayer player);
+    }
+
+    private static final ThreadFactory DEFAULT_THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "PcmPlayback");
+            thread.setPriority(Thread.MAX_PRIORITY);
+            return thread;
+        }
+    };
+
+    private final RandomAccessFile mFile;
+
+    private final FileChannel mChannel;
+
+    private final AudioOutput mOutput;
+
+    private final ThreadFactory mThreadFactory;
+
+    private final int mSampleRate;
+
+    private final int mChannelCount;
+
+    private final long mDataOffset;
+
+    private final long mFrameCount;
+
+    /**
+     * 需要解码的文件由它读取，16 位 PCM 时为 null
+     */
+    private final WavReader mDecoder;
+
+    private final TimeStretcher mStretcher;
+
+    private final Object mLock = new Object();
+
+    private Listener mListener;
+
+    private Thread mThread;
+
+    private ShortBuffer mWindow;
+
+    private long mWindowStartFrame;
+
+    private long mWindowFrames;
+
+    // 以下字段由 mLock 保护
+
+    private boolean mPlaying;
+
+    private boolean mReleased;
+
+    /**
+     * 设置的播放速度，在下一次定位时生效
+     */
+    private float mRate = 1f;
+
+    /**
+     * 当前这次定位之后实际使用的速度
+     */
+    private float mStretchRate = 1f;
+
+    /**
+     * 数据读完之后变速的尾部是否已经写出
+     */
+    private boolean mStretchFlushed;
+
+    /**
+     * 待处理的定位目标帧，没有时为 -1
+     */
+    private long mPendingSeekFrame = -1;
+
+    /**
+     * 最近一次定位的目标帧，播放位置从这里开始累加
+     */
+    private long mBaseFrame;
+
+    /**
+     * 定位时输出的已播放帧数
+     */
+    private long mBasePlayedFrames;
+
+    /**
+     * 下一次要写出的帧
+     */
+    private long mWriteFrame;
+
+    /**
+     * 定位之后写给输出的帧数，变速时和读取的帧数不同，用来判断是否播放完
+     */
+    private long mOutputFrames;
+
+    public PcmPlayer(File file, AudioOutput output) throws IOException {
+        this(file, output, DEFAULT_THREAD_FACTORY);
+    }
+
+    /**
+     * 解析文件头并映射数据，支持 16 位 PCM 和 IMA ADPCM
+     */
+    public PcmPlayer(File file, AudioOutput output, ThreadFactory threadFactory)
+            throws IOException {
+        WavReader reader = new WavReader(file);
+        if (!reader.isSupported()) {
+            reader.close();
+            throw new IOException("Unsupported WAV encoding in " + file);
+        }
+        mSampleRate = reader.getSampleRate();
+        mChannelCount = reader.getChannelCount();
+        mDataOffset = reader.getDataOffset();
+        mFrameCount = reader.getFrameCount();
+        if (reader.isPcm16()) {
+            reader.close();
+            mDecoder = null;
+        } else {
+            mDecoder = reader;
+        }
+        mOutput = output;
+        mThreadFactory = threadFactory;
+        mFile = new RandomAccessFile(file, "r");
+        mChannel = mFile.getChannel();
+        mStretcher = new TimeStretcher(mSampleRate, mChannelCount);
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    public long getDurationMillis() {
+        return framesToMillis(mFrameCount);
+    }
+
+    /**
+     * 第一次调用时打开输出并启动播放线程
+     */
+    public void start() throws IOException {
+        synchronized (mLock) {
+            if (mReleased) {
+                throw new IllegalStateException("Player released");
+            }
+            if (mThread == null) {
+                mOutput.open(mSampleRate, mChannelCount);
+                mThread = mThreadFactory.newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        playbackLoop();
+                    }
+                });
+                mThread.start();
+            }
+            if (mWriteFrame >= mFrameCount && mPendingSeekFrame < 0) {
+                // 已经播放到结尾，从头开始
+                mPendingSeekFrame = 0;
+            }
+            mPlaying = true;
+            mOutput.play();
+            mLock.notifyAll();
+        }
+    }
+
+    public void pause() {
+        synchronized (mLock) {
+            if (!mPlaying) {
+                return;
+            }
+            mPlaying = false;
+            if (mThread != null) {
+                mOutput.pause();
+            }
+        }
+    }
+
+    public boolean isPlaying() {
+        synchronized (mLock) {
+            return mPlaying;
+        }
+    }
+
+    /**
+     * 定位到指定帧，下一块数据就从这一帧开始写出
+     */
+    public void seekToFrame(long frame) {
+        synchronized (mLock) {
+            mPendingSeekFrame = Math.max(0, Math.min(frame, mFrameCount));
+            if (mThread != null) {
+                // 清空输出让阻塞中的写入尽快返回，播放线程随后完成定位
+                mOutput.pause();
+                mOutput.flush();
+                if (mPlaying) {
+                    mOutput.play();
+                }
+            } else {
+                applySeekLocked();
+            }
+            mLock.notifyAll();
+        }
+    }
+
+    public void seekTo(long positionMillis) {
+        seekToFrame(positionMillis * mSampleRate / 1000);
+    }
+
+    /**
+     * 修改播放速度，音调不变。相当于在当前位置重新定位，已经写给输出的数据会被丢弃
+     */
+    public void setRate(float rate) {
+        rate = Math.max(TimeStretcher.MIN_RATE, Math.min(TimeStretcher.MAX_RATE, rate));
+        synchronized (mLock) {
+            if (rate == mRate) {
+                return;
+            }
+            long position = getPositionFramesLocked();
+            mRate = rate;
+            seekToFrame(position);
+        }
+    }
+
+    public float getRate() {
+        synchronized (mLock) {
+            return mRate;
+        }
+    }
+
+    /**
+     * 当前播放到的帧
+     */
+    public long getPositionFrames() {
+        synchronized (mLock) {
+            return getPositionFramesLocked();
+        }
+    }
+
+    private long getPositionFramesLocked() {
+        if (mPendingSeekFrame >= 0) {
+            return mPendingSeekFrame;
+        }
+        if (mThread == null) {
+            return mBaseFrame;
+        }
+        long played = Math.max(0, mOutput.getPlayedFrames() - mBasePlayedFrames);
+        return Math.min(mBaseFrame + (long) (played * mStretchRate),
+                Math.min(mWriteFrame, mFrameCount));
+    }
+
+    public long getPosition() {
+        return framesToMillis(getPositionFrames());
+    }
+
+    /**
+     * 停止播放线程并释放输出和文件
+     */
+    public void release() {
+        Thread thread;
+        synchronized (mLock) {
+            if (mReleased) {
+                return;
+            }
+            mReleased = true;
+            mPlaying = false;
+            thread = mThread;
+            if (thread != null) {
+                mOutput.pause();
+                mOutput.flush();
+            }
+            mLock.notifyAll();
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (thread != null) {
+            mOutput.release();
+        }
+        try {
+            mFile.close();
+        } catch (IOException ignored) {
+        }
+        if (mDecoder != null) {
+            try {
+                mDecoder.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private long framesToMillis(long frames) {
+        return frames * 1000 / mSampleRate;
+    }
+
+    private void applySeekLocked() {
+        mBaseFrame = mPendingSeekFrame;
+        mWriteFrame = mPendingSeekFrame;
+        mBasePlayedFrames = mThread != null ? mOutput.getPlayedFrames() : 0;
+        mPendingSeekFrame = -1;
+        mOutputFrames = 0;
+        mStretchRate = mRate;
+        mStretchFlushed = false;
+        mStretcher.clear();
+        mStretcher.setRate(mRate);
+    }
+
+    private void playbackLoop() {
+        int blockFrames = Math.max(1, mSampleRate * BLOCK_MILLIS / 1000);
+        short[] buffer = new short[blockFrames * mChannelCount];
+        short[] stretched = new short[blockFrames * mChannelCount];
+        boolean error = false;
+        boolean completed = false;
+
+        while (true) {
+            long writeFrame;
+            int frames;
+            boolean stretching;
+            boolean flushStretcher = false;
+            synchronized (mLock) {
+                if (mPendingSeekFrame >= 0) {
+                    // 定位期间写入的数据可能是旧位置的，再清空一次
+                    mOutput.pause();
+                    mOutput.flush();
+                    applySeekLocked();
+                    if (mPlaying) {
+                        mOutput.play();
+                    }
+                }
+                if (mReleased) {
+                    break;
+                }
+                if (!mPlaying) {
+                    waitLocked(0);
+                    continue;
+                }
+                stretching = mStretchRate != 1f;
+                if (mWriteFrame >= mFrameCount) {
+                    if (stretching && !mStretchFlushed) {
+                        mStretchFlushed = true;
+                        flushStretcher = true;
+                    } else if (mOutput.getPlayedFrames() - mBasePlayedFrames >= mOutputFrames) {
+                        mPlaying = false;
+                        mOutput.pause();
+                        completed = true;
+                    } else {
+                        waitLocked(DRAIN_POLL_MILLIS);
+                        continue;
+                    }
+                }
+                writeFrame = mWriteFrame;
+                frames = (int) Math.min(blockFrames, mFrameCount - mWriteFrame);
+            }
+
+            if (completed) {
+                completed = false;
+                if (mListener != null) {
+                    mListener.onPlaybackCompleted(this);
+                }
+                continue;
+            }
+
+            // 读取和阻塞写入都不持有锁，暂停和定位不会被卡住
+            int consumed;
+            int written;
+            if (flushStretcher) {
+                mStretcher.flush();
+                consumed = 0;
+                written = writeStretched(buffer, 0, stretched);
+            } else {
+                try {
+                    readFrames(writeFrame, buffer, frames);
+                } catch (IOException e) {
+                    error = true;
+                    break;
+                }
+                if (stretching) {
+                    consumed = frames;
+                    written = writeStretched(buffer, frames, stretched);
+                } else {
+                    written = mOutput.write(buffer, 0, frames * mChannelCount);
+                    consumed = written / mChannelCount;
+                    written = consumed;
+                }
+            }
+            if (written < 0) {
+                error = true;
+                break;
+            }
+            synchronized (mLock) {
+                if (mPendingSeekFrame < 0 && mWriteFrame == writeFrame) {
+                    mWriteFrame += consumed;
+                    mOutputFrames += written;
+                }
+            }
+        }
+
+        if (error) {
+            synchronized (mLock) {
+                mPlaying = false;
+            }
+            if (mListener != null) {
+                mListener.onPlaybackError(this);
+            }
+        }
+    }
+
+    /**
+     * 把一块数据送进变速器，取出所有已处理好的输出写出
+     *
+     * @return 写出的帧数，负数表示写入出错
+     */
+    private int writeStretched(short[] buffer, int frames, short[] stretched) {
+        int maxFrames = stretched.length / mChannelCount;
+        int fed = 0;
+        int total = 0;
+        do {
+            fed += mStretcher.put(buffer, fed * mChannelCount, frames - fed);
+            int received;
+            while ((received = mStretcher.receive(stretched, 0, maxFrames)) > 0) {
+                int written = mOutput.write(stretched, 0, received * mChannelCount);
+                if (written < 0) {
+                    return written;
+                }
+                total += written / mChannelCount;
+            }
+        } while (fed < frames);
+        return total;
+    }
+
+    private void waitLocked(long millis) {
+        try {
+            mLock.wait(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 从映射窗口中读出帧，超出窗口时重新映射
+     */
+    private void readFrames(long startFrame, short[] buffer, int frames) throws IOException {
+        if (mDecoder != null) {
+            if (mDecoder.readFrames(startFrame, buffer, frames) < frames) {
+                throw new IOException("Unexpected end of file");
+            }
+            return;
+        }
+        int offset = 0;
+        while (frames > 0) {
+            if (mWindow == null || startFrame < mWindowStartFrame
+                    || startFrame >= mWindowStartFrame + mWindowFrames) {
+                mapWindow(startFrame);
+            }
+            int available = (int) Math.min(frames, mWindowStartFrame + mWindowFrames - startFrame);
+            mWindow.position((int) (startFrame - mWindowStartFrame) * mChannelCount);
+            mWindow.get(buffer, offset, available * mChannelCount);
+            offset += available * mChannelCount;
+            startFrame += available;
+            frames -= available;
+        }
+    }
+
+    private void mapWindow(long startFrame) throws IOException {
+        int blockAlign = mChannelCount * 2;
+        long windowFrames = Math.min(MAP_WINDOW_BYTES / blockAlign, mFrameCount - startFrame);
+        MappedByteBuffer mapped = mChannel.map(FileChannel.MapMode.READ_ONLY,
+                mDataOffset + startFrame * blockAlign, windowFrames * blockAlign);
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        mWindow = mapped.asShortBuffer();
+        mWindowStartFrame = startFrame;
+        mWindowFrames = windowFrames;
+    }
+}
@@ -0,0 +1,142 @@
+package com.xp.soundrecorder;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单生产者单消费者的无锁 PCM 环形缓冲区，容量为 2 的幂，构造时一次性分配。
+ * 生产者只写 mWritePosition，消费者只写 mReadPosition，两边各自缓存对方的位置以减少 volatile 读。
+ * 空间不足时 write 直接丢弃整块数据并计数，保证采集线程永远不会阻塞
+ */
+public class PcmRingBuffer {
+
+    private final short[] mBuffer;
+
+    private final int mCapacity;
+
+    private final int mMask;
+
+    private final AtomicLong mWritePosition = new AtomicLong();
+
+    private final AtomicLong mReadPosition = new AtomicLong();
+
+    /**
+     * 生产者线程私有
+     */
+    private long mCachedReadPosition;
+
+    /**
+     * 消费者线程私有
+     */
+    private long mCachedWritePosition;
+
+    private volatile long mOverrunCount;
+
+    private volatile long mDroppedSamples;
+
+    private volatile int mHighWaterMark;
+
+    public PcmRingBuffer(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        mBuffer = new short[capacity];
+        mCapacity = capacity;
+        mMask = capacity - 1;
+    }
+
+    public static int roundUpToPowerOfTwo(int value) {
+        if (value <= 1) {
+            return 1;
+        }
+        int highest = Integer.highestOneBit(value - 1) << 1;
+        if (highest <= 0) {
+            throw new IllegalArgumentException("Capacity too large: " + value);
+        }
+        return highest;
+    }
+
+    /**
+     * 生产者调用，要么完整写入 length 个采样，要么全部丢弃
+     *
+     * @return 是否写入成功
+     */
+    public boolean write(short[] src, int offset, int length) {
+        final long write = mWritePosition.get();
+        if (mCapacity - (int) (write - mCachedReadPosition) < length) {
+            mCachedReadPosition = mReadPosition.get();
+            if (mCapacity - (int) (write - mCachedReadPosition) < length) {
+                mOverrunCount++;
+                mDroppedSamples += length;
+                return false;
+            }
+        }
+
+        int index = (int) write & mMask;
+        int first = Math.min(length, mCapacity - index);
+        System.arraycopy(src, offset, mBuffer, index, first);
+        if (first < length) {
+            System.arraycopy(src, offset + first, mBuffer, 0, length - first);
+        }
+        long newWrite = write + length;
+        mWritePosition.lazySet(newWrite);
+
+        int fill = (int) (newWrite - mReadPosition.get());
+        if (fill > mHighWaterMark) {
+            mHighWaterMark = fill;
+        }
+        return true;
+    }
+
+    /**
+     * 消费者调用，最多读取 maxLength 个采样
+     *
+     * @return 实际读取的采样数，缓冲区为空时返回 0
+     */
+    public int read(short[] dst, int offset, int maxLength) {
+        final long read = mReadPosition.get();
+        int available = (int) (mCachedWritePosition - read);
+        if (available < maxLength) {
+            mCachedWritePosition = mWritePosition.get();
+            available = (int) (mCachedWritePosition - read);
+        }
+        int count = Math.min(available, maxLength);
+        if (count <= 0) {
+            return 0;
+        }
+
+        int index = (int) read & mMask;
+        int first = Math.min(count, mCapacity - index);
+        System.arraycopy(mBuffer, index, dst, offset, first);
+        if (first < count) {
+            System.arraycopy(mBuffer, 0, dst, offset + first, count - first);
+        }
+        mReadPosition.lazySet(read + count);
+        return count;
+    }
+
+    public int capacity() {
+        return mCapacity;
+    }
+
+    public int size() {
+        return (int) (mWritePosition.get() - mReadPosition.get());
+    }
+
+    /**
+     * 因空间不足被丢弃的写入次数
+     */
+    public long getOverrunCount() {
+        return mOverrunCount;
+    }
+
+    public long getDroppedSamples() {
+        return mDroppedSamples;
+    }
+
+    /**
+     * 写入后观察到的最大占用量，用来评估缓冲区容量是否足够
+     */
+    public int getHighWaterMark() {
+        return mHighWaterMark;
+    }
+}
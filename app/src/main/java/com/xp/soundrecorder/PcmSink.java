@@ -0,0 +1,15 @@
+package com.xp.soundrecorder;
+
+import java.io.IOException;
+
+/**
+ * 接收采集线程输出的 PCM 数据，write 中传入的缓冲区会被复用，实现不能持有它
+ */
+public interface PcmSink {
+
+    void open(int sampleRate, int channelCount) throws IOException;
+
+    void write(short[] samples, int length) throws IOException;
+
+    void close() throws IOException;
+}
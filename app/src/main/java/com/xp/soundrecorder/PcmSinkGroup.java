@@ -0,0 +1,61 @@
+package com.xp.soundrecorder;
+
+import java.io.IOException;
+
+/**
+ * 把同一份数据依次写给多个输出，用于在同一个写线程中同时生成录音文件和波形文件
+ */
+public class PcmSinkGroup implements PcmSink {
+
+    private final PcmSink[] mSinks;
+
+    public PcmSinkGroup(PcmSink... sinks) {
+        mSinks = sinks;
+    }
+
+    @Override
+    public void open(int sampleRate, int channelCount) throws IOException {
+        int opened = 0;
+        try {
+            for (PcmSink sink : mSinks) {
+                sink.open(sampleRate, channelCount);
+                opened++;
+            }
+        } catch (IOException | RuntimeException e) {
+            for (int i = 0; i < opened; i++) {
+                try {
+                    mSinks[i].close();
+                } catch (IOException ignored) {
+                }
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(short[] samples, int length) throws IOException {
+        for (PcmSink sink : mSinks) {
+            sink.write(samples, length);
+        }
+    }
+
+    /**
+     * 关闭所有输出，抛出遇到的第一个异常
+     */
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (PcmSink sink : mSinks) {
+            try {
+                sink.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.xp.soundrecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 录音旁边的 .peaks 波形文件，按多级分辨率保存最小值和最大值（16 位，所有声道合并）。
+ * 第 0 级每 framesPerPeak 帧一对，之后每一级把上一级相邻两对合并，分辨率减半，直到只剩一对。
+ * 第 0 级在录音时顺序写入，其余各级和层级表在结束时追加到文件末尾。
+ * 整个文件通过内存映射读取，任意缩放级别下每一列只需要访问常数个峰值
+ * <pre>
+ * 0  "PEAK"          4  version (u16)     6  header size (u16)
+ * 8  sample rate     12 channels (u16)    14 reserved
+ * 16 frames per peak 20 level 0 peak count (u64, 0 表示写入未完成)
+ * 28 level count (u16, 包括第 0 级)        30 reserved
+ * 32 level table offset (u64, 0 表示没有更高层级)  40 reserved
+ * 48 第 0 级：min, max, min, max ...
+ *    第 1 级 ...
+ *    层级表：从第 1 级开始，每级 offset (u64), peak count (u64)
+ * </pre>
+ * 写入未完成的文件没有更高层级，打开时按回填的数量或实际长度确定第 0 级，并在内存中生成其余各级
+ */
+public class PeakFile {
+
+    public static final String SUFFIX = ".peaks";
+
+    public static final int VERSION = 2;
+
+    static final int HEADER_SIZE = 48;
+
+    static final int PEAK_COUNT_OFFSET = 20;
+
+    static final int LEVEL_COUNT_OFFSET = 28;
+
+    static final int LEVEL_TABLE_OFFSET = 32;
+
+    static final int MAGIC = 'P' | 'E' << 8 | 'A' << 16 | 'K' << 24;
+
+    /**
+     * 层级数量上限，第 0 级的数量不超过 int 范围，合并 31 次后必然只剩一对
+     */
+    static final int MAX_LEVELS = 32;
+
+    private final ShortBuffer[] mLevels;
+
+    private final int[] mLevelCounts;
+
+    private final int mSampleRate;
+
+    private final int mChannelCount;
+
+    private final int mFramesPerPeak;
+
+    private PeakFile(ShortBuffer[] levels, int[] levelCounts, int sampleRate, int channelCount,
+                     int framesPerPeak) {
+        mLevels = levels;
+        mLevelCounts = levelCounts;
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mFramesPerPeak = framesPerPeak;
+    }
+
+    /**
+     * 录音文件对应的波形文件
+     */
+    public static File sidecarFor(File audio) {
+        return new File(audio.getPath() + SUFFIX);
+    }
+
+    /**
+     * 打开并映射波形文件
+     *
+     * @throws IOException 文件不存在、格式或版本不对
+     */
+    public static PeakFile open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            if (length < HEADER_SIZE) {
+                throw new IOException("Truncated peak file " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a peak file " + file);
+            }
+            int version = buffer.getShort(4);
+            if (version != VERSION) {
+                throw new IOException("Unsupported peak file version " + version);
+            }
+            int headerSize = buffer.getShort(6) & 0xFFFF;
+            int sampleRate = buffer.getInt(8);
+            int channelCount = buffer.getShort(12);
+            int framesPerPeak = buffer.getInt(16);
+            if (headerSize < HEADER_SIZE || sampleRate <= 0 || channelCount <= 0
+                    || framesPerPeak <= 0 || headerSize > length) {
+                throw new IOException("Corrupt peak file " + file);
+            }
+
+            int levelCount = buffer.getShort(LEVEL_COUNT_OFFSET) & 0xFFFF;
+            long tableOffset = buffer.getLong(LEVEL_TABLE_OFFSET);
+            long peakCount = buffer.getLong(PEAK_COUNT_OFFSET);
+            long available = (length - headerSize) / 4;
+            if (peakCount <= 0 || peakCount > available) {
+                peakCount = available;
+            }
+            peakCount = Math.min(peakCount, Integer.MAX_VALUE / 2);
+            boolean complete = levelCount > 0 && levelCount <= MAX_LEVELS
+                    && tableOffset >= headerSize + peakCount * 4
+                    && tableOffset + (levelCount - 1) * 16L <= length;
+            if (!complete) {
+                return build(slice(buffer, headerSize, peakCount), (int) peakCount, sampleRate,
+                        channelCount, framesPerPeak);
+            }
+
+            ShortBuffer[] levels = new ShortBuffer[levelCount];
+            int[] counts = new int[levelCount];
+            levels[0] = slice(buffer, headerSize, peakCount);
+            counts[0] = (int) peakCount;
+            for (int level = 1; level < levelCount; level++) {
+                long entry = tableOffset + (level - 1) * 16L;
+                long offset = buffer.getLong((int) entry);
+                long count = buffer.getLong((int) entry + 8);
+                if (count != (counts[level - 1] + 1) / 2 || offset < headerSize
+                        || offset + count * 4 > tableOffset) {
+                    throw new IOException("Corrupt peak level " + level + " in " + file);
+                }
+                levels[level] = slice(buffer, offset, count);
+                counts[level] = (int) count;
+            }
+            return new PeakFile(levels, counts, sampleRate, channelCount, framesPerPeak);
+        } finally {
+            // 映射建立后即使关闭文件也仍然有效
+            raf.close();
+        }
+    }
+
+    /**
+     * 从第 0 级在内存中生成其余各级
+     */
+    private static PeakFile build(ShortBuffer level0, int count, int sampleRate, int channelCount,
+                                  int framesPerPeak) {
+        ShortBuffer[] levels = new ShortBuffer[MAX_LEVELS];
+        int[] counts = new int[MAX_LEVELS];
+        levels[0] = level0;
+        counts[0] = count;
+        int levelCount = 1;
+        while (counts[levelCount - 1] > 1) {
+            ShortBuffer source = levels[levelCount - 1];
+            int sourceCount = counts[levelCount - 1];
+            int nextCount = (sourceCount + 1) / 2;
+            short[] next = new short[nextCount * 2];
+            for (int i = 0; i < nextCount; i++) {
+                int a = i * 2;
+                int b = Math.min(a + 1, sourceCount - 1);
+                next[i * 2] = (short) Math.min(source.get(a * 2), source.get(b * 2));
+                next[i * 2 + 1] = (short) Math.max(source.get(a * 2 + 1), source.get(b * 2 + 1));
+            }
+            levels[levelCount] = ShortBuffer.wrap(next);
+            counts[levelCount] = nextCount;
+            levelCount++;
+        }
+        ShortBuffer[] trimmedLevels = new ShortBuffer[levelCount];
+        int[] trimmedCounts = new int[levelCount];
+        System.arraycopy(levels, 0, trimmedLevels, 0, levelCount);
+        System.arraycopy(counts, 0, trimmedCounts, 0, levelCount);
+        return new PeakFile(trimmedLevels, trimmedCounts, sampleRate, channelCount, framesPerPeak);
+    }
+
+    private static ShortBuffer slice(ByteBuffer buffer, long offset, long count) {
+        ByteBuffer copy = buffer.duplicate();
+        copy.position((int) offset);
+        copy.limit((int) (offset + count * 4));
+        return copy.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+    }
+
+    /**
+     * 第 0 级的峰值数量
+     */
+    public int getPeakCount() {
+        return mLevelCounts[0];
+    }
+
+    public int getMin(int index) {
+        return mLevels[0].get(index * 2);
+    }
+
+    public int getMax(int index) {
+        return mLevels[0].get(index * 2 + 1);
+    }
+
+    public int getLevelCount() {
+        return mLevels.length;
+    }
+
+    public int getPeakCount(int level) {
+        return mLevelCounts[level];
+    }
+
+    public int getMin(int level, int index) {
+        return mLevels[level].get(index * 2);
+    }
+
+    public int getMax(int level, int index) {
+        return mLevels[level].get(index * 2 + 1);
+    }
+
+    /**
+     * 选择每个峰值覆盖的帧数不超过一列的最粗层级
+     */
+    public int selectLevel(double framesPerColumn) {
+        int level = 0;
+        while (level + 1 < mLevels.length
+                && ((long) mFramesPerPeak << (level + 1)) <= framesPerColumn) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * 计算从 startFrame 开始、每列 framesPerColumn 帧的各列最小值和最大值。
+     * 选用的层级中每个峰值不超过一列，每列最多访问三个峰值，超出数据范围的列为 0
+     */
+    public void computeColumns(double startFrame, double framesPerColumn, int columns,
+                               int[] outMin, int[] outMax) {
+        int level = selectLevel(framesPerColumn);
+        double framesPerLevelPeak = (double) ((long) mFramesPerPeak << level);
+        ShortBuffer peaks = mLevels[level];
+        int count = mLevelCounts[level];
+        for (int column = 0; column < columns; column++) {
+            double from = startFrame + column * framesPerColumn;
+            long first = Math.max(0, (long) Math.floor(from / framesPerLevelPeak));
+            long last = Math.min(count,
+                    Math.max(first + 1, (long) Math.ceil((from + framesPerColumn) / framesPerLevelPeak)));
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int i = (int) first; i < last; i++) {
+                min = Math.min(min, peaks.get(i * 2));
+                max = Math.max(max, peaks.get(i * 2 + 1));
+            }
+            if (min > max) {
+                min = 0;
+                max = 0;
+            }
+            outMin[column] = min;
+            outMax[column] = max;
+        }
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    public int getFramesPerPeak() {
+        return mFramesPerPeak;
+    }
+
+    public long getFrameCount() {
+        return (long) mLevelCounts[0] * mFramesPerPeak;
+    }
+
+    public long getDurationMillis() {
+        return getFrameCount() * 1000 / mSampleRate;
+    }
+}
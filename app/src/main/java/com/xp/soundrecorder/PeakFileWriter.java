@@ -0,0 +1,194 @@
+package com.xp.soundrecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * 边录边生成 {@link PeakFile}：录音时只写第 0 级，每秒只有几百字节，攒满一块再写入；
+ * 关闭时映射第 0 级逐级合并，把更高层级和层级表追加到文件末尾
+ */
+public class PeakFileWriter implements PcmSink {
+
+    /**
+     * 44.1kHz 下每秒约 172 个峰值，一小时约 2.5MB
+     */
+    public static final int DEFAULT_FRAMES_PER_PEAK = 256;
+
+    private static final int WRITE_BLOCK_SIZE = 4096;
+
+    private final File mFile;
+
+    private final int mFramesPerPeak;
+
+    private RandomAccessFile mRaf;
+
+    private FileChannel mChannel;
+
+    private ByteBuffer mBuffer;
+
+    private int mSamplesPerPeak;
+
+    private int mSampleCount;
+
+    private int mMin;
+
+    private int mMax;
+
+    private long mPeakCount;
+
+    public PeakFileWriter(File file, int framesPerPeak) {
+        mFile = file;
+        mFramesPerPeak = framesPerPeak;
+    }
+
+    @Override
+    public void open(int sampleRate, int channelCount) throws IOException {
+        mRaf = new RandomAccessFile(mFile, "rw");
+        mChannel = mRaf.getChannel();
+        mChannel.truncate(0);
+        mSamplesPerPeak = mFramesPerPeak * channelCount;
+        mSampleCount = 0;
+        mMin = Short.MAX_VALUE;
+        mMax = Short.MIN_VALUE;
+        mPeakCount = 0;
+
+        if (mBuffer == null) {
+            mBuffer = ByteBuffer.allocate(WRITE_BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        mBuffer.clear();
+        mBuffer.putInt(PeakFile.MAGIC)
+                .putShort((short) PeakFile.VERSION)
+                .putShort((short) PeakFile.HEADER_SIZE)
+                .putInt(sampleRate)
+                .putShort((short) channelCount)
+                .putShort((short) 0)
+                .putInt(mFramesPerPeak)
+                .putLong(0)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putLong(0)
+                .putLong(0);
+    }
+
+    @Override
+    public void write(short[] samples, int length) throws IOException {
+        int min = mMin;
+        int max = mMax;
+        int count = mSampleCount;
+        for (int i = 0; i < length; i++) {
+            int sample = samples[i];
+            if (sample < min) {
+                min = sample;
+            }
+            if (sample > max) {
+                max = sample;
+            }
+            if (++count == mSamplesPerPeak) {
+                putPeak(min, max);
+                min = Short.MAX_VALUE;
+                max = Short.MIN_VALUE;
+                count = 0;
+            }
+        }
+        mMin = min;
+        mMax = max;
+        mSampleCount = count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mChannel == null) {
+            return;
+        }
+        try {
+            if (mSampleCount > 0) {
+                putPeak(mMin, mMax);
+                mSampleCount = 0;
+            }
+            flush();
+            writeLevels();
+        } finally {
+            mRaf.close();
+            mRaf = null;
+            mChannel = null;
+        }
+    }
+
+    private void writeLevels() throws IOException {
+        // 先回填第 0 级的数量，追加更高层级的过程中失败时仍然可以正确读取第 0 级
+        ByteBuffer header = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(mPeakCount).flip();
+        writeHeader(header, PeakFile.PEAK_COUNT_OFFSET);
+
+        long[] offsets = new long[PeakFile.MAX_LEVELS];
+        long[] counts = new long[PeakFile.MAX_LEVELS];
+        offsets[0] = PeakFile.HEADER_SIZE;
+        counts[0] = mPeakCount;
+        int levelCount = 1;
+        while (counts[levelCount - 1] > 1) {
+            long sourceCount = counts[levelCount - 1];
+            ByteBuffer source = mChannel.map(FileChannel.MapMode.READ_ONLY,
+                    offsets[levelCount - 1], sourceCount * 4).order(ByteOrder.LITTLE_ENDIAN);
+            offsets[levelCount] = mChannel.position();
+            counts[levelCount] = (sourceCount + 1) / 2;
+            for (int i = 0; i < counts[levelCount]; i++) {
+                int a = i * 8;
+                int b = Math.min(a + 4, (int) (sourceCount - 1) * 4);
+                putPair(Math.min(source.getShort(a), source.getShort(b)),
+                        Math.max(source.getShort(a + 2), source.getShort(b + 2)));
+            }
+            flush();
+            levelCount++;
+        }
+
+        long tableOffset = mChannel.position();
+        for (int level = 1; level < levelCount; level++) {
+            if (mBuffer.remaining() < 16) {
+                flush();
+            }
+            mBuffer.putLong(offsets[level]).putLong(counts[level]);
+        }
+        flush();
+
+        header.clear();
+        header.putShort((short) levelCount)
+                .putShort((short) 0)
+                .putLong(tableOffset)
+                .flip();
+        writeHeader(header, PeakFile.LEVEL_COUNT_OFFSET);
+    }
+
+    private void writeHeader(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer, offset + buffer.position());
+        }
+    }
+
+    public long getPeakCount() {
+        return mPeakCount;
+    }
+
+    private void putPeak(int min, int max) throws IOException {
+        putPair(min, max);
+        mPeakCount++;
+    }
+
+    private void putPair(int min, int max) throws IOException {
+        if (mBuffer.remaining() < 4) {
+            flush();
+        }
+        mBuffer.putShort((short) min).putShort((short) max);
+    }
+
+    private void flush() throws IOException {
+        mBuffer.flip();
+        while (mBuffer.hasRemaining()) {
+            mChannel.write(mBuffer);
+        }
+        mBuffer.clear();
+    }
+}
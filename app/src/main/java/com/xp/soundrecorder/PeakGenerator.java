@@ -0,0 +1,134 @@
+package com.xp.soundrecorder;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 为录音准备波形数据。已有不旧于录音的 .peaks 文件时直接映射打开；
+ * 没有时（MediaRecorder 录制的文件或更早的录音）在后台解码一次生成并保存，之后不再重复解码
+ */
+public final class PeakGenerator {
+    private static final String TAG = "PeakGenerator";
+
+    public interface Callback {
+        /**
+         * 在主线程回调
+         *
+         * @param peaks   无法生成波形时为 null
+         * @param samples 请求了原始采样并且文件是 PCM WAV 时不为 null，由接收方负责关闭
+         */
+        void onPeaksLoaded(File audio, PeakFile peaks, SampleSource samples);
+    }
+
+    private static PeakGenerator sInstance;
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private PeakGenerator() {
+    }
+
+    public static synchronized PeakGenerator getInstance() {
+        if (sInstance == null) {
+            sInstance = new PeakGenerator();
+        }
+        return sInstance;
+    }
+
+    public void load(File audio, Callback callback) {
+        load(audio, false, callback);
+    }
+
+    /**
+     * @param withSamples 同时打开原始采样，用于把波形放大到单个采样
+     */
+    public void load(final File audio, final boolean withSamples, final Callback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                PeakFile peaks = null;
+                SampleSource samples = null;
+                try {
+                    peaks = loadOrBuild(audio);
+                    if (withSamples) {
+                        samples = openSamples(audio);
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to load peaks for " + audio, e);
+                }
+                final PeakFile resultPeaks = peaks;
+                final SampleSource resultSamples = samples;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onPeaksLoaded(audio, resultPeaks, resultSamples);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 录音文件改名或删除时同步处理波形文件
+     */
+    public static void renameSidecar(File from, File to) {
+        File sidecar = PeakFile.sidecarFor(from);
+        if (sidecar.exists()) {
+            sidecar.renameTo(PeakFile.sidecarFor(to));
+        }
+    }
+
+    public static void deleteSidecar(File audio) {
+        PeakFile.sidecarFor(audio).delete();
+    }
+
+    private static SampleSource openSamples(File audio) {
+        if (!audio.getName().endsWith(".wav")) {
+            return null;
+        }
+        try {
+            WavReader reader = new WavReader(audio);
+            if (reader.isSupported()) {
+                return reader;
+            }
+            reader.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to open samples of " + audio, e);
+        }
+        return null;
+    }
+
+    private static PeakFile loadOrBuild(File audio) throws IOException {
+        File sidecar = PeakFile.sidecarFor(audio);
+        if (sidecar.exists() && sidecar.lastModified() >= audio.lastModified()) {
+            try {
+                return PeakFile.open(sidecar);
+            } catch (IOException e) {
+                Log.w(TAG, "Rebuilding invalid peak file " + sidecar, e);
+            }
+        }
+
+        File temp = new File(sidecar.getPath() + ".tmp");
+        PeakFileWriter writer = new PeakFileWriter(temp, PeakFileWriter.DEFAULT_FRAMES_PER_PEAK);
+        try {
+            if (audio.getName().endsWith(".wav")) {
+                WavReader.decode(audio, writer);
+            } else {
+                MediaPcmDecoder.decode(audio, writer);
+            }
+            if (!temp.exists() || !temp.renameTo(sidecar)) {
+                throw new IOException("No peaks written for " + audio);
+            }
+        } finally {
+            temp.delete();
+        }
+        return PeakFile.open(sidecar);
+    }
+}
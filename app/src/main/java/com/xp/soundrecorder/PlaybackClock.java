@@ -0,0 +1,86 @@
+package com.xp.soundrecorder;
+
+/**
+ * 播放位置时钟：偶尔从播放器读取一次真实位置作为锚点，其余时间按单调时钟和播放速率推算。
+ * 时间戳使用 {@link System#nanoTime()} 的时间基准，和 Choreographer 的帧时间一致
+ */
+public class PlaybackClock {
+
+    /**
+     * 播放中距离上次锚定超过该时间就需要重新读取真实位置
+     */
+    public static final long RESYNC_INTERVAL_NANOS = 1000 * 1000 * 1000L;
+
+    private long mAnchorPositionMillis;
+
+    private long mAnchorTimeNanos;
+
+    private long mDurationMillis;
+
+    private float mRate = 1f;
+
+    private boolean mPlaying;
+
+    public void setDuration(long durationMillis) {
+        mDurationMillis = durationMillis;
+    }
+
+    public long getDuration() {
+        return mDurationMillis;
+    }
+
+    /**
+     * 用真实位置重新锚定，在开始播放、拖动、暂停和定期校准时调用
+     */
+    public void anchor(long positionMillis, long nowNanos, boolean playing) {
+        mAnchorPositionMillis = positionMillis;
+        mAnchorTimeNanos = nowNanos;
+        mPlaying = playing;
+    }
+
+    /**
+     * 修改播放速率，之前按旧速率走过的时间先折算进锚点
+     */
+    public void setRate(float rate, long nowNanos) {
+        if (rate == mRate) {
+            return;
+        }
+        mAnchorPositionMillis = positionAt(nowNanos);
+        mAnchorTimeNanos = nowNanos;
+        mRate = rate;
+    }
+
+    public float getRate() {
+        return mRate;
+    }
+
+    public boolean isPlaying() {
+        return mPlaying;
+    }
+
+    public void reset() {
+        mAnchorPositionMillis = 0;
+        mAnchorTimeNanos = 0;
+        mDurationMillis = 0;
+        mRate = 1f;
+        mPlaying = false;
+    }
+
+    public boolean needsResync(long nowNanos) {
+        return mPlaying && nowNanos - mAnchorTimeNanos >= RESYNC_INTERVAL_NANOS;
+    }
+
+    /**
+     * @return 推算的播放位置，限定在 0 和时长之间
+     */
+    public long positionAt(long nowNanos) {
+        long position = mAnchorPositionMillis;
+        if (mPlaying && nowNanos > mAnchorTimeNanos) {
+            position += (long) ((nowNanos - mAnchorTimeNanos) / 1000000.0 * mRate);
+        }
+        if (mDurationMillis > 0 && position > mDurationMillis) {
+            position = mDurationMillis;
+        }
+        return position < 0 ? 0 : position;
+    }
+}
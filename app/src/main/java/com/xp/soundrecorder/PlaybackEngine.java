@@ -0,0 +1,507 @@
+package com.xp.soundrecorder;
+
+import android.annotation.TargetApi;
+import android.media.AudioManager;
+import android.media.MediaPlayer;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * 录音列表使用的播放引擎：同一时间只持有一个当前播放器，另外最多为相邻的几项预先准备播放器，
+ * 点到下一项时直接换上已经准备好的播放器。所有准备都是异步的，状态通过回调通知，只能在主线程使用。
+ * 格式识别和 WAV 文件的映射在后台线程中完成，16 位 PCM 的 WAV 文件由 {@link PcmPlayer} 播放，
+ * 其余格式使用 MediaPlayer
+ */
+public class PlaybackEngine {
+    private static final String TAG = "PlaybackEngine";
+
+    public static final int STATE_IDLE = 0;
+
+    public static final int STATE_PREPARING = 1;
+
+    /**
+     * 已准备好，处于停止状态，位置在开头
+     */
+    public static final int STATE_READY = 2;
+
+    public static final int STATE_PLAYING = 3;
+
+    public static final int STATE_PAUSED = 4;
+
+    public static final int STATE_ERROR = 5;
+
+    /**
+     * 最多预先准备的播放器数量，不包括当前播放器
+     */
+    private static final int MAX_PREFETCHED = 2;
+
+    public interface Listener {
+        void onPlaybackStateChanged(File file, int state);
+    }
+
+    /**
+     * 识别格式、映射 WAV 文件都要读文件，在这个线程中按点击和预备的顺序执行
+     */
+    private static final Executor OPEN_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * 一个播放器和它对应的文件。打开完成后 player 和 pcmPlayer 只有一个不为 null
+     */
+    private class Slot implements MediaPlayer.OnPreparedListener, MediaPlayer.OnCompletionListener,
+            MediaPlayer.OnErrorListener, PcmPlayer.Listener {
+        final File file;
+        MediaPlayer player;
+        PcmPlayer pcmPlayer;
+        boolean prepared;
+        boolean failed;
+        volatile boolean released;
+
+        Slot(final File file) {
+            this.file = file;
+            OPEN_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final PcmPlayer opened = released ? null : openPcmPlayer(file);
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onOpened(opened);
+                        }
+                    });
+                }
+            });
+        }
+
+        /**
+         * 后台线程打开文件之后在主线程继续：WAV 文件已经可以播放，其余格式交给 MediaPlayer 异步准备
+         */
+        void onOpened(PcmPlayer opened) {
+            if (released) {
+                if (opened != null) {
+                    opened.release();
+                }
+                return;
+            }
+            if (opened != null) {
+                pcmPlayer = opened;
+                pcmPlayer.setListener(this);
+                onPrepared(null);
+                return;
+            }
+            player = new MediaPlayer();
+            player.setAudioStreamType(AudioManager.STREAM_MUSIC);
+            player.setOnPreparedListener(this);
+            player.setOnCompletionListener(this);
+            player.setOnErrorListener(this);
+            try {
+                player.setDataSource(file.getAbsolutePath());
+                player.prepareAsync();
+            } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+                Log.w(TAG, "prepare " + file + " failed", e);
+                fail();
+            }
+        }
+
+        @Override
+        public void onPrepared(MediaPlayer mp) {
+            prepared = true;
+            if (this == mCurrent) {
+                if (mPlayWhenReady) {
+                    mPlayWhenReady = false;
+                    start();
+                } else {
+                    setState(STATE_READY);
+                }
+            }
+        }
+
+        @Override
+        public void onCompletion(MediaPlayer mp) {
+            if (this == mCurrent) {
+                seekTo(0);
+                mClock.anchor(0, System.nanoTime(), false);
+                setState(STATE_READY);
+            }
+        }
+
+        @Override
+        public boolean onError(MediaPlayer mp, int what, int extra) {
+            Log.w(TAG, "error " + what + "/" + extra + " on " + file);
+            fail();
+            return true;
+        }
+
+        @Override
+        public void onPlaybackCompleted(PcmPlayer player) {
+            // 在播放线程中回调，转到主线程
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onCompletion(null);
+                }
+            });
+        }
+
+        @Override
+        public void onPlaybackError(PcmPlayer player) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (prepared) {
+                        Log.w(TAG, "pcm playback error on " + file);
+                        fail();
+                    }
+                }
+            });
+        }
+
+        void fail() {
+            failed = true;
+            prepared = false;
+            if (this == mCurrent) {
+                mPlayWhenReady = false;
+                setState(STATE_ERROR);
+            } else {
+                mPrefetched.remove(file);
+                release();
+            }
+        }
+
+        void start() {
+            if (pcmPlayer != null) {
+                pcmPlayer.setRate(mSpeed);
+                try {
+                    pcmPlayer.start();
+                } catch (IOException e) {
+                    Log.w(TAG, "start " + file + " failed", e);
+                    fail();
+                    return;
+                }
+            } else {
+                player.start();
+                setMediaPlayerSpeed(player, mSpeed);
+            }
+            long now = System.nanoTime();
+            mClock.setDuration(getDuration());
+            mClock.setRate(effectiveRate(mSpeed), now);
+            mClock.anchor(getPosition(), now, true);
+            setState(STATE_PLAYING);
+        }
+
+        void pause() {
+            if (pcmPlayer != null) {
+                pcmPlayer.pause();
+            } else if (player.isPlaying()) {
+                player.pause();
+            }
+        }
+
+        void seekTo(long positionMillis) {
+            if (pcmPlayer != null) {
+                pcmPlayer.seekTo(positionMillis);
+            } else {
+                player.seekTo((int) positionMillis);
+            }
+        }
+
+        long getPosition() {
+            return pcmPlayer != null ? pcmPlayer.getPosition() : player.getCurrentPosition();
+        }
+
+        long getDuration() {
+            return pcmPlayer != null ? pcmPlayer.getDurationMillis() : player.getDuration();
+        }
+
+        /**
+         * 旧系统的 MediaPlayer 不支持变速，始终按原速播放
+         */
+        float effectiveRate(float speed) {
+            return pcmPlayer != null || supportsMediaPlayerSpeed() ? speed : 1f;
+        }
+
+        /**
+         * 播放中修改速度；MediaPlayer 暂停时设置速度会自动开始播放，所以只在播放中设置
+         */
+        void setSpeed(float speed) {
+            if (pcmPlayer != null) {
+                pcmPlayer.setRate(speed);
+            } else if (player.isPlaying()) {
+                setMediaPlayerSpeed(player, speed);
+            }
+        }
+
+        void release() {
+            released = true;
+            if (pcmPlayer != null) {
+                pcmPlayer.setListener(null);
+                pcmPlayer.release();
+                return;
+            }
+            if (player == null) {
+                // 还在后台打开，打开完成后在 onOpened 中释放
+                return;
+            }
+            player.setOnPreparedListener(null);
+            player.setOnCompletionListener(null);
+            player.setOnErrorListener(null);
+            player.release();
+        }
+    }
+
+    /**
+     * @return 不是 16 位 PCM 的 WAV 文件时返回 null
+     */
+    private static PcmPlayer openPcmPlayer(File file) {
+        if (RecordingFormat.of(file) != RecordingFormat.WAV) {
+            return null;
+        }
+        try {
+            return new PcmPlayer(file, new AudioTrackOutput());
+        } catch (IOException e) {
+            Log.w(TAG, "fall back to MediaPlayer for " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * MediaPlayer 从 Android 6.0 开始才支持变速不变调，更早的版本只能原速播放
+     *
+     * @return 速度是否生效
+     */
+    static boolean setMediaPlayerSpeed(MediaPlayer player, float speed) {
+        if (!supportsMediaPlayerSpeed()) {
+            return speed == 1f;
+        }
+        return setPlaybackParamsSpeed(player, speed);
+    }
+
+    static boolean supportsMediaPlayerSpeed() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static boolean setPlaybackParamsSpeed(MediaPlayer player, float speed) {
+        try {
+            player.setPlaybackParams(player.getPlaybackParams().setSpeed(speed));
+            return true;
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            Log.w(TAG, "set speed " + speed + " failed", e);
+            return false;
+        }
+    }
+
+    private final LinkedHashMap<File, Slot> mPrefetched = new LinkedHashMap<>();
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private float mSpeed = 1f;
+
+    private Slot mCurrent;
+
+    private int mState = STATE_IDLE;
+
+    private boolean mPlayWhenReady;
+
+    private Listener mListener;
+
+    /**
+     * 当前播放器的位置时钟，界面每帧按它推算位置，不用每帧都查询播放器
+     */
+    private final PlaybackClock mClock = new PlaybackClock();
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    public File getFile() {
+        return mCurrent == null ? null : mCurrent.file;
+    }
+
+    /**
+     * 设置播放速度，音调不变，切换到其他录音后继续使用
+     */
+    public void setSpeed(float speed) {
+        mSpeed = speed;
+        if (mCurrent != null && mCurrent.prepared) {
+            mCurrent.setSpeed(speed);
+            if (mState == STATE_PLAYING) {
+                mClock.setRate(mCurrent.effectiveRate(speed), System.nanoTime());
+            }
+        }
+    }
+
+    public float getSpeed() {
+        return mSpeed;
+    }
+
+    /**
+     * 切换到指定文件，已经预先准备过时立即可播；原来的播放器停止后留作预备，不会被丢弃
+     */
+    public void load(File file) {
+        if (mCurrent != null && mCurrent.file.equals(file) && !mCurrent.failed) {
+            return;
+        }
+        mPlayWhenReady = false;
+        if (mCurrent != null) {
+            Slot previous = mCurrent;
+            mCurrent = null;
+            if (previous.prepared) {
+                previous.pause();
+                previous.seekTo(0);
+                keep(previous);
+            } else {
+                previous.release();
+            }
+        }
+
+        Slot slot = mPrefetched.remove(file);
+        if (slot == null || slot.failed) {
+            if (slot != null) {
+                slot.release();
+            }
+            slot = new Slot(file);
+        }
+        mCurrent = slot;
+        mClock.reset();
+        // 文件变了，状态相同也要通知
+        mState = slot.failed ? STATE_ERROR : slot.prepared ? STATE_READY : STATE_PREPARING;
+        notifyStateChanged();
+    }
+
+    /**
+     * 为即将播放的文件预先准备播放器，超出数量时释放最早准备的
+     */
+    public void prefetch(File file) {
+        if (file == null || (mCurrent != null && mCurrent.file.equals(file))) {
+            return;
+        }
+        Slot slot = mPrefetched.remove(file);
+        if (slot == null) {
+            slot = new Slot(file);
+        }
+        if (slot.failed) {
+            slot.release();
+            return;
+        }
+        keep(slot);
+    }
+
+    private void keep(Slot slot) {
+        mPrefetched.put(slot.file, slot);
+        Iterator<Map.Entry<File, Slot>> iterator = mPrefetched.entrySet().iterator();
+        while (mPrefetched.size() > MAX_PREFETCHED && iterator.hasNext()) {
+            Slot eldest = iterator.next().getValue();
+            iterator.remove();
+            eldest.release();
+        }
+    }
+
+    /**
+     * 还在准备时会在准备好之后自动开始
+     */
+    public void play() {
+        if (mCurrent == null) {
+            return;
+        }
+        if (mState == STATE_PREPARING) {
+            mPlayWhenReady = true;
+        } else if (mState == STATE_READY || mState == STATE_PAUSED) {
+            mCurrent.start();
+        }
+    }
+
+    public void pause() {
+        if (mState == STATE_PREPARING) {
+            mPlayWhenReady = false;
+        } else if (mState == STATE_PLAYING) {
+            mCurrent.pause();
+            mClock.anchor(mCurrent.getPosition(), System.nanoTime(), false);
+            setState(STATE_PAUSED);
+        }
+    }
+
+    /**
+     * 停止并回到开头，播放器保持准备好的状态，再次播放不需要重新准备
+     */
+    public void stop() {
+        mPlayWhenReady = false;
+        if (mState == STATE_PLAYING || mState == STATE_PAUSED) {
+            mCurrent.pause();
+            mCurrent.seekTo(0);
+            mClock.anchor(0, System.nanoTime(), false);
+            setState(STATE_READY);
+        }
+    }
+
+    public void seekTo(long positionMillis) {
+        if (mCurrent != null && mCurrent.prepared) {
+            mCurrent.seekTo(positionMillis);
+            mClock.anchor(positionMillis, System.nanoTime(), mState == STATE_PLAYING);
+        }
+    }
+
+    public long getPosition() {
+        return mCurrent != null && mCurrent.prepared ? mCurrent.getPosition() : 0;
+    }
+
+    /**
+     * 推算指定帧时间的播放位置，播放中每隔一段时间才读取一次播放器的真实位置
+     *
+     * @param frameTimeNanos {@link System#nanoTime()} 时间基准的时间戳
+     */
+    public long getPosition(long frameTimeNanos) {
+        if (mState == STATE_PLAYING && mClock.needsResync(frameTimeNanos)) {
+            mClock.anchor(mCurrent.getPosition(), System.nanoTime(), true);
+        }
+        return mClock.positionAt(frameTimeNanos);
+    }
+
+    public long getDuration() {
+        return mCurrent != null && mCurrent.prepared ? mCurrent.getDuration() : 0;
+    }
+
+    /**
+     * 释放所有播放器，之后仍可以重新 load
+     */
+    public void release() {
+        mPlayWhenReady = false;
+        if (mCurrent != null) {
+            mCurrent.release();
+            mCurrent = null;
+        }
+        for (Slot slot : mPrefetched.values()) {
+            slot.release();
+        }
+        mPrefetched.clear();
+        mClock.reset();
+        setState(STATE_IDLE);
+    }
+
+    private void setState(int state) {
+        if (state == mState) {
+            return;
+        }
+        mState = state;
+        notifyStateChanged();
+    }
+
+    private void notifyStateChanged() {
+        if (mListener != null) {
+            mListener.onPlaybackStateChanged(getFile(), mState);
+        }
+    }
+}
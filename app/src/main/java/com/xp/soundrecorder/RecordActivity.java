@@ -1,14 +1,13 @@
 package com.xp.soundrecorder;
 
 import android.content.DialogInterface;
-import android.media.AudioManager;
-import android.media.MediaPlayer;
 import android.os.Bundle;
 import android.os.Environment;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.Button;
@@ -16,27 +15,44 @@ import android.widget.Button;
 import com.chad.library.adapter.base.BaseQuickAdapter;
 
 import java.io.File;
-import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
 import butterknife.Unbinder;
 
-public class RecordActivity extends AppCompatActivity implements MediaPlayer.OnCompletionListener {
+public class RecordActivity extends AppCompatActivity implements PlaybackEngine.Listener,
+        RecordingIndex.OnChangedListener {
     private static final String TAG = "RecordActivity";
     private Unbinder unbinder;
     @BindView(R.id.rv_record)
     RecyclerView rvRecord;
     private RecordAdapter mAdapter;
+    private RecordingIndex mRecordingIndex;
 
     private File mPath;
 
-    private MediaPlayer mPlayer;
+    private final PlaybackEngine mPlaybackEngine = new PlaybackEngine();
     private AlertDialog mDialog;
     private Button btnPlay;
     private Button btnPause;
+    private WaveformView mWaveformView;
+
+    /**
+     * 当前录音的时长，状态变化时读取一次，不在每帧查询播放器
+     */
+    private long mDurationMillis;
+
+    /**
+     * 播放时每帧按播放时钟推算位置，驱动波形上的播放位置
+     */
+    private final Choreographer.FrameCallback mPlaybackFrameCallback =
+            new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    updatePlaybackPosition(frameTimeNanos);
+                }
+            };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -45,13 +61,33 @@ public class RecordActivity extends AppCompatActivity implements MediaPlayer.OnC
         unbinder = ButterKnife.bind(this);
 
         initAdapter();
+        mPlaybackEngine.setListener(this);
+        mRecordingIndex = RecordingIndex.getInstance(this);
+        mRecordingIndex.addOnChangedListener(this);
+        loadRecords();
         // 判断SD卡是否存在，并且是否具有读写权限
         if (Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED)) {
-            File sampleDir = new File(Environment.getExternalStorageDirectory().getAbsolutePath()
-                    + Recorder.SAMPLE_DEFAULT_DIR);
-            mAdapter.setNewData(getFileName(sampleDir.listFiles()));
+            mRecordingIndex.reconcile();
         }
-        
+    }
+
+    /**
+     * 从索引读取录音列表，不再扫描目录
+     */
+    private void loadRecords() {
+        mRecordingIndex.query(new RecordingIndex.QueryCallback() {
+            @Override
+            public void onQueryComplete(List<RecordEntity> records) {
+                if (!isFinishing()) {
+                    mAdapter.submitList(records);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onIndexChanged() {
+        loadRecords();
     }
 
     private void initAdapter() {
@@ -63,8 +99,7 @@ public class RecordActivity extends AppCompatActivity implements MediaPlayer.OnC
         mAdapter.setOnItemClickListener(new BaseQuickAdapter.OnItemClickListener() {
             @Override
             public void onItemClick(BaseQuickAdapter adapter, View view, int position) {
-                mPath = mAdapter.getData().get(position).getPath();
-                initPlayer();
+                loadPlayer(position);
                 showPlayDialog();
             }
         });
@@ -72,47 +107,22 @@ public class RecordActivity extends AppCompatActivity implements MediaPlayer.OnC
         mAdapter.setOnItemChildClickListener(new BaseQuickAdapter.OnItemChildClickListener() {
             @Override
             public void onItemChildClick(BaseQuickAdapter adapter, View view, int position) {
-                mPath = mAdapter.getData().get(position).getPath();
-                showDeleteConfirmDialog(position);
+                showDeleteConfirmDialog(mAdapter.getData().get(position).getPath());
             }
         });
     }
 
-    /**
-     * 读取指定目录下的所有文件的文件名
-     *
-     * @param files 路径
-     * @return 文件名数组
-     */
-    private List<RecordEntity> getFileName(File[] files) {
-        List<RecordEntity> nameList = new ArrayList<>();
-        if (files != null) {
-            for (File file : files) {
-                if (file.isDirectory()) {
-                    getFileName(file.listFiles());
-                } else {
-                    String fileName = file.getName();
-                    if (fileName.endsWith(".amr")) {
-                        nameList.add(new RecordEntity(file.getAbsoluteFile(), fileName));
-                    }
-                }
-            }
-        }
-        return nameList;
-    }
-
-    private void showDeleteConfirmDialog(final int position) {
+    private void showDeleteConfirmDialog(final File path) {
         AlertDialog.Builder mDialogBuilder = new AlertDialog.Builder(this);
         mDialogBuilder.setIcon(android.R.drawable.ic_dialog_alert)
                 .setTitle(R.string.delete_dialog_title)
                 .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
                     @Override
                     public void onClick(DialogInterface dialog, int which) {
-                        if (mPath != null) {
-                            mPath.delete();
-                            mAdapter.getData().remove(position);
-                            mAdapter.notifyDataSetChanged();
-                        }
+                        path.delete();
+                        PeakGenerator.deleteSidecar(path);
+                        mRecordingIndex.remove(path);
+                        mAdapter.submitRemoval(path);
                         dialog.dismiss();
                     }
                 }).setNegativeButton(android.R.string.cancel,
@@ -132,81 +142,122 @@ public class RecordActivity extends AppCompatActivity implements MediaPlayer.OnC
             Button btnStop = view.findViewById(R.id.btn_stop);
             btnPlay = view.findViewById(R.id.btn_play);
             btnPause = view.findViewById(R.id.btn_pause);
+            final Button btnSpeed = view.findViewById(R.id.btn_speed);
+            btnSpeed.setText(getString(R.string.playback_speed,
+                    String.valueOf(mPlaybackEngine.getSpeed())));
+            btnSpeed.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    mPlaybackEngine.setSpeed(
+                            Constant.nextPlaybackSpeed(mPlaybackEngine.getSpeed()));
+                    btnSpeed.setText(getString(R.string.playback_speed,
+                            String.valueOf(mPlaybackEngine.getSpeed())));
+                }
+            });
+            mWaveformView = view.findViewById(R.id.waveform);
+            mWaveformView.setOnSeekListener(new WaveformView.OnSeekListener() {
+                @Override
+                public void onSeek(long positionMillis) {
+                    mPlaybackEngine.seekTo(positionMillis);
+                }
+            });
 
             btnStop.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
-                    mPlayer.reset(); //停止播放
-                    btnPlay.setText(R.string.play);
-                    btnPause.setText(R.string.pause);
-                    initPlayer();
-
+                    mPlaybackEngine.stop();
                 }
             });
 
             btnPlay.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
-                    if (!mPlayer.isPlaying()) {
-                        mPlayer.start(); //开始播放
-                        btnPlay.setText(R.string.playing);
-                        btnPause.setText(R.string.pause);
-                    }
+                    mPlaybackEngine.play();
                 }
             });
 
             btnPause.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View view) {
-                    if (mPlayer.isPlaying()) {
-                        mPlayer.pause(); //暂停播放
-                        btnPlay.setText(R.string.play);
-                        btnPause.setText(R.string.pausing);
-                    }
+                    mPlaybackEngine.pause();
                 }
             });
             mDialog.setOnDismissListener(new DialogInterface.OnDismissListener() {
                 @Override
                 public void onDismiss(DialogInterface dialogInterface) {
-                    if (mPlayer.isPlaying()) {
-                        mPlayer.reset();
-                        btnPlay.setText(R.string.play);
-                        btnPause.setText(R.string.pause);
-                        initPlayer();
-                    }
+                    mPlaybackEngine.stop();
+                    Choreographer.getInstance().removeFrameCallback(mPlaybackFrameCallback);
                 }
             });
         }
+        updatePlayButtons(mPlaybackEngine.getState());
+        mWaveformView.setPeaks(null);
+        PeakGenerator.getInstance().load(mPath, new PeakGenerator.Callback() {
+            @Override
+            public void onPeaksLoaded(File audio, PeakFile peaks, SampleSource samples) {
+                if (audio.equals(mPath) && !isFinishing()) {
+                    mWaveformView.setPeaks(peaks);
+                }
+            }
+        });
         mDialog.show();
+        updatePlaybackPosition(System.nanoTime());
     }
 
-    private void initPlayer() {
-        mPlayer = new MediaPlayer();
-        try {
-            mPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-            mPlayer.setDataSource(mPath.getAbsolutePath());
-            mPlayer.setOnCompletionListener(this);
-            mPlayer.prepare();
-        } catch (IllegalArgumentException | IOException e) {
-            e.printStackTrace();
+    /**
+     * 切换到点击的录音，同时预先准备前后两项，连续点击相邻的录音时可以立即播放
+     */
+    private void loadPlayer(int position) {
+        List<RecordEntity> records = mAdapter.getData();
+        mPath = records.get(position).getPath();
+        mPlaybackEngine.load(mPath);
+        if (position + 1 < records.size()) {
+            mPlaybackEngine.prefetch(records.get(position + 1).getPath());
+        }
+        if (position > 0) {
+            mPlaybackEngine.prefetch(records.get(position - 1).getPath());
         }
-
     }
 
     @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        unbinder.unbind();
-        if (mPlayer != null) {
-            mPlayer.stop();
-            mPlayer.release();
+    public void onPlaybackStateChanged(File file, int state) {
+        updatePlayButtons(state);
+        mDurationMillis = mPlaybackEngine.getDuration();
+        Choreographer.getInstance().removeFrameCallback(mPlaybackFrameCallback);
+        // 暂停、停止和切换文件时也刷新一次，播放中由帧回调继续刷新
+        updatePlaybackPosition(System.nanoTime());
+    }
+
+    private void updatePlaybackPosition(long frameTimeNanos) {
+        if (mWaveformView == null || !mDialog.isShowing()) {
+            return;
+        }
+        long duration = mDurationMillis;
+        mWaveformView.setProgress(duration > 0
+                ? (float) mPlaybackEngine.getPosition(frameTimeNanos) / duration : 0f);
+        if (mPlaybackEngine.getState() == PlaybackEngine.STATE_PLAYING) {
+            Choreographer.getInstance().postFrameCallback(mPlaybackFrameCallback);
         }
+    }
 
+    private void updatePlayButtons(int state) {
+        if (btnPlay == null) {
+            return;
+        }
+        btnPlay.setText(state == PlaybackEngine.STATE_PLAYING ? R.string.playing : R.string.play);
+        btnPause.setText(state == PlaybackEngine.STATE_PAUSED ? R.string.pausing : R.string.pause);
+        boolean playable = state != PlaybackEngine.STATE_ERROR && state != PlaybackEngine.STATE_IDLE;
+        btnPlay.setEnabled(playable);
+        btnPause.setEnabled(playable);
     }
 
     @Override
-    public void onCompletion(MediaPlayer mediaPlayer) {
-        btnPlay.setText(R.string.play);
-        btnPause.setText(R.string.pause);
+    protected void onDestroy() {
+        super.onDestroy();
+        Choreographer.getInstance().removeFrameCallback(mPlaybackFrameCallback);
+        mRecordingIndex.removeOnChangedListener(this);
+        unbinder.unbind();
+        mPlaybackEngine.setListener(null);
+        mPlaybackEngine.release();
     }
 }
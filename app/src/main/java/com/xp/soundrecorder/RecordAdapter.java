@@ -1,20 +1,216 @@
 package com.xp.soundrecorder;
 
-import android.util.Log;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.RecyclerView;
 
 import com.chad.library.adapter.base.BaseQuickAdapter;
 import com.chad.library.adapter.base.BaseViewHolder;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
 public class RecordAdapter extends BaseQuickAdapter<RecordEntity, BaseViewHolder> {
-    private static final String TAG = "RecordAdapter";
+
+    /**
+     * 所有列表共用的差异计算线程
+     */
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final char[] mDurationChars = new char[TimerFormat.MAX_LENGTH];
+
+    /**
+     * 每次提交新列表加一，后台算完差异时如果已经有更新的提交就丢弃结果
+     */
+    private int mGeneration;
 
     public RecordAdapter(int layoutResId) {
-        super(layoutResId);
+        super(layoutResId, new ArrayList<RecordEntity>());
+        setHasStableIds(true);
+    }
+
+    /**
+     * 提交新的列表快照，在后台线程计算和当前数据的差异，回到主线程后只刷新变化的行。
+     * 提交之后不能再修改 records
+     */
+    public void submitList(final List<RecordEntity> records) {
+        final int generation = ++mGeneration;
+        final List<RecordEntity> oldList = mData;
+        if (oldList.isEmpty() || records.isEmpty()) {
+            // 一边为空时没有需要比较的内容，直接整体替换
+            applyList(records, null);
+            return;
+        }
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult result = DiffUtil.calculateDiff(
+                        new RecordDiffCallback(oldList, records));
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration) {
+                            applyList(records, result);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 从当前列表中移除一个文件，和 {@link #submitList(List)} 一样只刷新受影响的行
+     */
+    public void submitRemoval(File path) {
+        List<RecordEntity> records = new ArrayList<>(mData.size());
+        for (RecordEntity record : mData) {
+            if (!record.getPath().equals(path)) {
+                records.add(record);
+            }
+        }
+        submitList(records);
+    }
+
+    private void applyList(List<RecordEntity> records, DiffUtil.DiffResult result) {
+        // mData 被替换而不是修改，后台线程持有的旧快照不会变化
+        mData = records;
+        if (result == null) {
+            notifyDataSetChanged();
+            return;
+        }
+        final int offset = getHeaderLayoutCount();
+        result.dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                notifyItemRangeInserted(position + offset, count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                notifyItemRangeRemoved(position + offset, count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                notifyItemMoved(fromPosition + offset, toPosition + offset);
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                notifyItemRangeChanged(position + offset, count, payload);
+            }
+        });
+    }
+
+    @Override
+    public void setNewData(List<RecordEntity> data) {
+        mGeneration++;
+        super.setNewData(data);
+    }
+
+    /**
+     * 以文件路径作为稳定 ID，列表刷新时同一个录音的行不会被当成新行
+     */
+    @Override
+    public long getItemId(int position) {
+        int index = position - getHeaderLayoutCount();
+        if (index < 0 || index >= mData.size()) {
+            return RecyclerView.NO_ID;
+        }
+        return stableId(mData.get(index));
+    }
+
+    static long stableId(RecordEntity record) {
+        String path = record.getPath().getAbsolutePath();
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < path.length(); i++) {
+            hash ^= path.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
     }
 
     @Override
     protected void convert(BaseViewHolder helper, RecordEntity item) {
-        Log.e(TAG, "convert: " + item);
-        helper.setText(R.id.tv_name, item.getName()).addOnClickListener(R.id.tv_del);
+        helper.setText(R.id.tv_name, item.getName())
+                .setText(R.id.tv_info, formatInfo(item))
+                .addOnClickListener(R.id.tv_del);
+    }
+
+    /**
+     * 时长、采样率和声道数都来自索引，不需要打开播放器
+     */
+    private String formatInfo(RecordEntity item) {
+        if (item.getDuration() < 0) {
+            return mContext.getString(R.string.record_info_unknown);
+        }
+        int length = TimerFormat.format(item.getDuration() / 1000, mDurationChars);
+        String duration = new String(mDurationChars, 0, length);
+        if (item.getSampleRate() <= 0) {
+            return duration;
+        }
+        String channels = mContext.getString(item.getChannelCount() > 1
+                ? R.string.channel_stereo : R.string.channel_mono);
+        return mContext.getString(R.string.record_info_format, duration,
+                formatKilohertz(item.getSampleRate()), channels);
+    }
+
+    private static String formatKilohertz(int sampleRate) {
+        if (sampleRate % 1000 == 0) {
+            return String.valueOf(sampleRate / 1000);
+        }
+        return String.valueOf(sampleRate / 1000f);
+    }
+
+    /**
+     * 同一路径视为同一项，路径之外的字段都相同才认为内容没有变化
+     */
+    static class RecordDiffCallback extends DiffUtil.Callback {
+        private final List<RecordEntity> mOldList;
+
+        private final List<RecordEntity> mNewList;
+
+        RecordDiffCallback(List<RecordEntity> oldList, List<RecordEntity> newList) {
+            mOldList = oldList;
+            mNewList = newList;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldList.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewList.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return mOldList.get(oldPosition).getPath().equals(mNewList.get(newPosition).getPath());
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            RecordEntity oldItem = mOldList.get(oldPosition);
+            RecordEntity newItem = mNewList.get(newPosition);
+            return oldItem.getName().equals(newItem.getName())
+                    && oldItem.getSize() == newItem.getSize()
+                    && oldItem.getLastModified() == newItem.getLastModified()
+                    && oldItem.getDuration() == newItem.getDuration()
+                    && oldItem.getSampleRate() == newItem.getSampleRate()
+                    && oldItem.getChannelCount() == newItem.getChannelCount();
+        }
     }
 }
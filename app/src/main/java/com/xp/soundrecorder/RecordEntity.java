@@ -5,6 +5,21 @@ import java.io.File;
 public class RecordEntity {
     private File path;
     private String name;
+    private long size;
+    private long lastModified;
+    private int format = RecordingFormat.UNKNOWN;
+    /**
+     * 时长，单位毫秒，未知时为 -1
+     */
+    private long duration = -1;
+    /**
+     * 采样率，未知时为 0
+     */
+    private int sampleRate;
+    /**
+     * 声道数，未知时为 0
+     */
+    private int channelCount;
 
     public RecordEntity(File path, String name) {
         this.path = path;
@@ -26,4 +41,52 @@ public class RecordEntity {
     public void setName(String name) {
         this.name = name;
     }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    public void setFormat(int format) {
+        this.format = format;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public void setDuration(long duration) {
+        this.duration = duration;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    public void setChannelCount(int channelCount) {
+        this.channelCount = channelCount;
+    }
 }
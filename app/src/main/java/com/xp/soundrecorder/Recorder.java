@@ -4,14 +4,18 @@ import android.content.Context;
 import android.media.MediaPlayer;
 import android.media.MediaPlayer.OnCompletionListener;
 import android.media.MediaPlayer.OnErrorListener;
+import android.media.MediaPlayer.OnPreparedListener;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
 import android.util.Log;
 
 import java.io.File;
 import java.io.IOException;
 
-public class Recorder implements OnCompletionListener, OnErrorListener {
+public class Recorder implements OnCompletionListener, OnErrorListener, OnPreparedListener,
+        RecorderAmplitudeSource.Meter {
     private static final String TAG = "Recorder";
     private static final String SAMPLE_PREFIX = "recording";
 
@@ -25,6 +29,11 @@ public class Recorder implements OnCompletionListener, OnErrorListener {
 
     public static final int PLAYING_PAUSED_STATE = 3;
 
+    /**
+     * 播放器正在异步准备，准备好后进入 {@link #PLAYING_STATE}
+     */
+    public static final int PREPARING_STATE = 4;
+
     private int mState = IDLE_STATE;
 
     public static final int STORAGE_ACCESS_ERROR = 1;
@@ -33,6 +42,25 @@ public class Recorder implements OnCompletionListener, OnErrorListener {
 
     public static final int IN_CALL_RECORD_ERROR = 3;
 
+    /**
+     * 使用系统 MediaRecorder 编码录音
+     */
+    public static final int ENGINE_MEDIA_RECORDER = 0;
+
+    /**
+     * 使用 AudioRecord 采集 PCM，由应用自行处理和写文件
+     */
+    public static final int ENGINE_PCM = 1;
+
+    /**
+     * PCM 引擎的输出格式，取值避开 MediaRecorder.OutputFormat
+     */
+    public static final int OUTPUT_FORMAT_WAV = 100;
+
+    public static final int OUTPUT_FORMAT_FLAC = 101;
+
+    public static final int OUTPUT_FORMAT_IMA_ADPCM = 102;
+
     public interface OnStateChangedListener {
         void onStateChanged(int state);
 
@@ -53,6 +81,70 @@ public class Recorder implements OnCompletionListener, OnErrorListener {
 
     private MediaPlayer mPlayer = null;
 
+    /**
+     * 播放 PCM 的 WAV 文件时代替 mPlayer，两者同时只有一个不为 null
+     */
+    private PcmPlayer mPcmPlayer = null;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private float mPlaybackSpeed = 1f;
+
+    /**
+     * PcmPlayer 在播放线程中回调，转到主线程处理
+     */
+    private final PcmPlayer.Listener mPcmPlayerListener = new PcmPlayer.Listener() {
+        @Override
+        public void onPlaybackCompleted(final PcmPlayer player) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (player == mPcmPlayer) {
+                        onCompletion(null);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onPlaybackError(final PcmPlayer player) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (player == mPcmPlayer) {
+                        onError(null, 0, 0);
+                    }
+                }
+            });
+        }
+    };
+
+    /**
+     * mPlayer 已准备好的文件，停止播放后保留播放器，再次播放同一个文件时不需要重新准备
+     */
+    private File mPreparedFile = null;
+
+    /**
+     * 准备完成后的起始位置，准备期间再次定位时会更新
+     */
+    private float mPendingPercentage;
+
+    private long mPendingPositionMillis = -1;
+
+    /**
+     * 准备完成后是否开始播放，准备期间暂停时为 false
+     */
+    private boolean mStartWhenPrepared;
+
+    /**
+     * 点击播放的时间，用来统计从点击到出声的延迟
+     */
+    private long mPlaybackRequestNanos;
+
+    private long mStartLatencyMillis = -1;
+
+    private final PlaybackClock mPlaybackClock = new PlaybackClock();
+
     public Recorder(Context context) {
         mContext = context;
         File sampleDir = new File(Environment.getExternalStorageDirectory().getAbsolutePath()
@@ -84,6 +176,7 @@ public class Recorder implements OnCompletionListener, OnErrorListener {
         return mSampleDir.getAbsolutePath();
     }
 
+    @Override
     public int getMaxAmplitude() {
         if (mState != RECORDING_STATE) {
             return 0;
@@ -91,6 +184,14 @@ public class Recorder implements OnCompletionListener, OnErrorListener {
         return RecorderService.getMaxAmplitude();
     }
 
+    /**
+     * @return 当前录音引擎不提供电平数据时返回 false，此时应改用 {@link #getMaxAmplitude()}
+     */
+    @Override
+    public boolean readLevels(LevelMeter.Levels out) {
+        return mState == RECORDING_STATE && RecorderService.readLevels(out);
+    }
+
     public void setOnStateChangedListener(OnStateChangedListener listener) {
         mOnStateChangedListener = listener;
     }
@@ -103,8 +204,8 @@ public class Recorder implements OnCompletionListener, OnErrorListener {
         if (mState == RECORDING_STATE) {
             return (int) ((System.currentTimeMillis() - mSampleStart) / 1000);
         } else if (mState == PLAYING_STATE || mState == PLAYING_PAUSED_STATE) {
-            if (mPlayer != null) {
-                return (mPlayer.getCurrentPosition() / 1000);
+            if (hasPlayer()) {
+                return (int) (playPosition(System.nanoTime()) / 1000);
             }
         }
 
@@ -112,12 +213,33 @@ public class Recorder implements OnCompletionListener, OnErrorListener {
     }
 
     public float playProgress() {
-        if (mPlayer != null) {
-            return ((float) mPlayer.getCurrentPosition()) / mPlayer.getDuration();
+        long duration = mPlaybackClock.getDuration();
+        if (hasPlayer() && duration > 0) {
+            return (float) playPosition(System.nanoTime()) / duration;
         }
         return 0.0f;
     }
 
+    /**
+     * 推算指定帧时间的播放位置，只在距离上次校准超过一定时间时才读取一次播放器的真实位置
+     *
+     * @param frameTimeNanos {@link System#nanoTime()} 时间基准的时间戳
+     * @return 播放位置，单位毫秒
+     */
+    public long playPosition(long frameTimeNanos) {
+        if (hasPlayer() && mState == PLAYING_STATE && mPlaybackClock.needsResync(frameTimeNanos)) {
+            mPlaybackClock.anchor(playerPosition(), System.nanoTime(), true);
+        }
+        return mPlaybackClock.positionAt(frameTimeNanos);
+    }
+
+    /**
+     * 正在播放的文件时长，单位毫秒
+     */
+    public long playDuration() {
+        return mPlaybackClock.getDuration();
+    }
+
     public int sampleLength() {
         return mSampleLength;
     }
@@ -127,13 +249,17 @@ public class Recorder implements OnCompletionListener, OnErrorListener {
     }
 
     public void renameSampleFile(String name) {
-        if (mSampleFile != null && mState != RECORDING_STATE && mState != PLAYING_STATE) {
+        if (mSampleFile != null && mState != RECORDING_STATE && mState != PLAYING_STATE
+                && mState != PREPARING_STATE) {
             if (!TextUtils.isEmpty(name)) {
                 String oldName = mSampleFile.getAbsolutePath();
                 String extension = oldName.substring(oldName.lastIndexOf('.'));
                 File newFile = new File(mSampleFile.getParent() + "/" + name + extension);
                 if (!TextUtils.equals(oldName, newFile.getAbsolutePath())) {
+                    releasePlayer();
                     if (mSampleFile.renameTo(newFile)) {
+                        PeakGenerator.renameSidecar(mSampleFile, newFile);
+                        RecordingIndex.getInstance(mContext).rename(mSampleFile, newFile);
                         mSampleFile = newFile;
                     }
                 }
@@ -143,9 +269,12 @@ public class Recorder implements OnCompletionListener, OnErrorListener {
 
     public void delete() {
         stop();
+        releasePlayer();
 
         if (mSampleFile != null) {
             mSampleFile.delete();
+            PeakGenerator.deleteSidecar(mSampleFile);
+            RecordingIndex.getInstance(mContext).remove(mSampleFile);
         }
 
         mSampleFile = null;
@@ -162,6 +291,7 @@ public class Recorder implements OnCompletionListener, OnErrorListener {
 
     public void reset() {
         stop();
+        releasePlayer();
 
         mSampleLength = 0;
         mSampleFile = null;
@@ -187,7 +317,41 @@ public class Recorder implements OnCompletionListener, OnErrorListener {
 
     public void startRecording(int outputFileFormat, String name, String extension,
                                boolean highQuality, long maxFileSize) {
+        startRecording(ENGINE_MEDIA_RECORDER, outputFileFormat, name, extension, highQuality,
+                maxFileSize);
+    }
+
+    public void startRecording(int engine, int outputFileFormat, String name, String extension,
+                               boolean highQuality, long maxFileSize) {
+        if (!prepareSampleFile(name, extension)) {
+            return;
+        }
+        RecorderService.startRecording(mContext, engine, outputFileFormat,
+                mSampleFile.getAbsolutePath(), highQuality, maxFileSize);
+        mSampleStart = System.currentTimeMillis();
+    }
+
+    /**
+     * 分段录音，只支持 PCM 引擎的格式。第一段使用 name 对应的文件，之后的分段在文件名后加序号
+     *
+     * @see RecorderService#startSegmentedRecording
+     */
+    public void startSegmentedRecording(int outputFileFormat, String name, String extension,
+                                        boolean highQuality, long segmentMillis,
+                                        long segmentBytes, long retainedBytes) {
+        if (!prepareSampleFile(name, extension)) {
+            return;
+        }
+        RecorderService.startSegmentedRecording(mContext, outputFileFormat,
+                mSampleFile.getAbsolutePath(), highQuality, segmentMillis, segmentBytes,
+                retainedBytes);
+        mSampleStart = System.currentTimeMillis();
+    }
+
+    private boolean prepareSampleFile(String name, String extension) {
         stop();
+        // 可能覆盖录制同一个文件，旧的播放器不能再用
+        releasePlayer();
 
         if (mSampleFile == null) {
             try {
@@ -195,13 +359,10 @@ public class Recorder implements OnCompletionListener, OnErrorListener {
                 renameSampleFile(name);
             } catch (IOException e) {
                 setError(STORAGE_ACCESS_ERROR);
-                return;
+                return false;
             }
         }
-
-        RecorderService.startRecording(mContext, outputFileFormat, mSampleFile.getAbsolutePath(),
-                highQuality, maxFileSize);
-        mSampleStart = System.currentTimeMillis();
+        return true;
     }
 
     public void stopRecording() {
@@ -215,55 +376,266 @@ public class Recorder implements OnCompletionListener, OnErrorListener {
     }
 
     public void startPlayback(float percentage) {
-        if (state() == PLAYING_PAUSED_STATE) {
-            mSampleStart = System.currentTimeMillis() - mPlayer.getCurrentPosition();
-            mPlayer.seekTo((int) (percentage * mPlayer.getDuration()));
-            mPlayer.start();
-            setState(PLAYING_STATE);
+        startPlayback(percentage, -1);
+    }
+
+    /**
+     * 从指定的毫秒位置开始播放，比按比例定位更精确；正在播放时直接跳转
+     */
+    public void startPlaybackAt(long positionMillis) {
+        startPlayback(0f, Math.max(0, positionMillis));
+    }
+
+    private static int seekTarget(float percentage, long positionMillis, int duration) {
+        if (positionMillis >= 0) {
+            return (int) Math.min(positionMillis, duration);
+        }
+        return (int) (percentage * duration);
+    }
+
+    private void startPlayback(float percentage, long positionMillis) {
+        mPlaybackRequestNanos = System.nanoTime();
+        if (state() == PREPARING_STATE) {
+            // 还在准备，只更新准备好之后的起始位置
+            mPendingPercentage = percentage;
+            mPendingPositionMillis = positionMillis;
+            mStartWhenPrepared = true;
+        } else if (state() == PLAYING_STATE && positionMillis >= 0) {
+            int position = seekTarget(percentage, positionMillis, (int) mPlaybackClock.getDuration());
+            playerSeekTo(position);
+            mPlaybackClock.anchor(position, System.nanoTime(), true);
+        } else if (state() == PLAYING_PAUSED_STATE
+                || (state() == IDLE_STATE && hasPlayer() && mSampleFile != null
+                && mSampleFile.equals(mPreparedFile))) {
+            // 暂停中，或者同一个文件已经准备好，直接开始
+            mPlaybackClock.setDuration(playerDuration());
+            startPreparedPlayer(seekTarget(percentage, positionMillis,
+                    (int) mPlaybackClock.getDuration()));
         } else {
             stop();
+            releasePlayer();
+            if (startPcmPlayback(percentage, positionMillis)) {
+                return;
+            }
             mPlayer = new MediaPlayer();
             try {
-                Log.e(TAG, "startPlayback: " + mSampleFile.getAbsolutePath());
                 mPlayer.setDataSource(mSampleFile.getAbsolutePath());
                 mPlayer.setOnCompletionListener(this);
                 mPlayer.setOnErrorListener(this);
-                mPlayer.prepare();
-                mPlayer.seekTo((int) (percentage * mPlayer.getDuration()));
-                mPlayer.start();
-            } catch (IllegalArgumentException e) {
+                mPlayer.setOnPreparedListener(this);
+                mPlayer.prepareAsync();
+            } catch (IllegalArgumentException | IllegalStateException e) {
                 setError(INTERNAL_ERROR);
-                mPlayer = null;
+                releasePlayer();
                 return;
             } catch (IOException e) {
                 setError(STORAGE_ACCESS_ERROR);
-                mPlayer = null;
+                releasePlayer();
                 return;
             }
+            mPendingPercentage = percentage;
+            mPendingPositionMillis = positionMillis;
+            mStartWhenPrepared = true;
+            setState(PREPARING_STATE);
+        }
+    }
 
-            mSampleStart = System.currentTimeMillis();
-            setState(PLAYING_STATE);
+    @Override
+    public void onPrepared(MediaPlayer mp) {
+        if (mp != mPlayer) {
+            return;
+        }
+        mPreparedFile = mSampleFile;
+        mPlaybackClock.setDuration(mPlayer.getDuration());
+        int position = seekTarget(mPendingPercentage, mPendingPositionMillis,
+                (int) mPlaybackClock.getDuration());
+        if (mStartWhenPrepared) {
+            startPreparedPlayer(position);
+        } else {
+            mPlayer.seekTo(position);
+            mPlaybackClock.anchor(position, System.nanoTime(), false);
+            setState(PLAYING_PAUSED_STATE);
+        }
+    }
+
+    /**
+     * 16 位 PCM 的 WAV 文件不经过 MediaPlayer，直接由 PcmPlayer 写给 AudioTrack，不需要等待准备
+     *
+     * @return 不是可以直接播放的 WAV 文件时返回 false，改用 MediaPlayer
+     */
+    private boolean startPcmPlayback(float percentage, long positionMillis) {
+        if (RecordingFormat.of(mSampleFile) != RecordingFormat.WAV) {
+            return false;
+        }
+        PcmPlayer player;
+        try {
+            player = new PcmPlayer(mSampleFile, new AudioTrackOutput());
+        } catch (IOException e) {
+            Log.w(TAG, "fall back to MediaPlayer for " + mSampleFile, e);
+            return false;
+        }
+        player.setListener(mPcmPlayerListener);
+        player.setRate(mPlaybackSpeed);
+        mPcmPlayer = player;
+        mPreparedFile = mSampleFile;
+        mPlaybackClock.setDuration(player.getDurationMillis());
+        startPreparedPlayer(seekTarget(percentage, positionMillis,
+                (int) player.getDurationMillis()));
+        return true;
+    }
+
+    private void startPreparedPlayer(int position) {
+        playerSeekTo(position);
+        try {
+            playerStart();
+        } catch (IOException e) {
+            releasePlayer();
+            setState(IDLE_STATE);
+            setError(INTERNAL_ERROR);
+            return;
+        }
+        long now = System.nanoTime();
+        mPlaybackClock.setRate(playbackRate(), now);
+        mPlaybackClock.anchor(position, now, true);
+        mSampleStart = System.currentTimeMillis() - position;
+        mStartLatencyMillis = (System.nanoTime() - mPlaybackRequestNanos) / 1000000;
+        Log.d(TAG, "playback started " + mStartLatencyMillis + "ms after request");
+        setState(PLAYING_STATE);
+    }
+
+    /**
+     * 设置播放速度，音调不变，之后的播放都使用这个速度。PCM 的 WAV 文件由 {@link TimeStretcher} 变速，
+     * 其他格式由 MediaPlayer 变速，需要 Android 6.0 以上
+     */
+    public void setPlaybackSpeed(float speed) {
+        mPlaybackSpeed = speed;
+        if (mPcmPlayer != null) {
+            mPcmPlayer.setRate(speed);
+        } else if (mPlayer != null && mState == PLAYING_STATE) {
+            PlaybackEngine.setMediaPlayerSpeed(mPlayer, speed);
+        }
+        if (hasPlayer()) {
+            mPlaybackClock.setRate(playbackRate(), System.nanoTime());
+        }
+    }
+
+    public float getPlaybackSpeed() {
+        return mPlaybackSpeed;
+    }
+
+    /**
+     * 当前播放器实际使用的速度，不支持变速时是 1
+     */
+    private float playbackRate() {
+        if (mPcmPlayer != null) {
+            return mPcmPlayer.getRate();
         }
+        return PlaybackEngine.supportsMediaPlayerSpeed() ? mPlaybackSpeed : 1f;
+    }
+
+    /**
+     * 最近一次从请求播放到真正开始播放的耗时，单位毫秒，还没有播放过时为 -1
+     */
+    public long getStartLatencyMillis() {
+        return mStartLatencyMillis;
     }
 
     public void pausePlayback() {
-        if (mPlayer == null) {
+        if (!hasPlayer()) {
+            return;
+        }
+        if (mState == PREPARING_STATE) {
+            // 准备好之后停在起始位置，不自动播放
+            mStartWhenPrepared = false;
+            return;
+        }
+        if (mState != PLAYING_STATE) {
             return;
         }
 
-        mPlayer.pause();
+        playerPause();
+        mPlaybackClock.anchor(playerPosition(), System.nanoTime(), false);
         setState(PLAYING_PAUSED_STATE);
     }
 
+    /**
+     * 停止播放并回到开头，已经准备好的播放器保留下来，再次播放同一个文件时可以立即开始
+     */
     public void stopPlayback() {
-        if (mPlayer == null) {
+        if (!hasPlayer()) {
             return;
         }
 
-        mPlayer.stop();
-        mPlayer.release();
-        mPlayer = null;
-        setState(IDLE_STATE);
+        if (mPreparedFile == null) {
+            // 还没准备好，播放器不可复用
+            releasePlayer();
+        } else if (mState == PLAYING_STATE || mState == PLAYING_PAUSED_STATE) {
+            playerPause();
+            playerSeekTo(0);
+        }
+        mPlaybackClock.reset();
+        if (mState == PLAYING_STATE || mState == PLAYING_PAUSED_STATE
+                || mState == PREPARING_STATE) {
+            setState(IDLE_STATE);
+        }
+    }
+
+    /**
+     * 释放播放器，不再需要播放或者文件会被改动时调用
+     */
+    public void releasePlayer() {
+        if (mPlayer != null) {
+            mPlayer.setOnPreparedListener(null);
+            mPlayer.release();
+            mPlayer = null;
+        }
+        if (mPcmPlayer != null) {
+            mPcmPlayer.setListener(null);
+            mPcmPlayer.release();
+            mPcmPlayer = null;
+        }
+        mPreparedFile = null;
+        mPlaybackClock.reset();
+    }
+
+    private boolean hasPlayer() {
+        return mPlayer != null || mPcmPlayer != null;
+    }
+
+    private void playerStart() throws IOException {
+        if (mPcmPlayer != null) {
+            mPcmPlayer.start();
+        } else {
+            mPlayer.start();
+            PlaybackEngine.setMediaPlayerSpeed(mPlayer, mPlaybackSpeed);
+        }
+    }
+
+    private void playerPause() {
+        if (mPcmPlayer != null) {
+            mPcmPlayer.pause();
+        } else {
+            mPlayer.pause();
+        }
+    }
+
+    private void playerSeekTo(int positionMillis) {
+        if (mPcmPlayer != null) {
+            mPcmPlayer.seekTo(positionMillis);
+        } else {
+            mPlayer.seekTo(positionMillis);
+        }
+    }
+
+    /**
+     * PcmPlayer 的位置由已播放的帧数算出，精确到帧
+     */
+    private int playerPosition() {
+        return mPcmPlayer != null ? (int) mPcmPlayer.getPosition() : mPlayer.getCurrentPosition();
+    }
+
+    private int playerDuration() {
+        return mPcmPlayer != null ? (int) mPcmPlayer.getDurationMillis() : mPlayer.getDuration();
     }
 
     public void stop() {
@@ -274,6 +646,7 @@ public class Recorder implements OnCompletionListener, OnErrorListener {
     @Override
     public boolean onError(MediaPlayer mp, int what, int extra) {
         stop();
+        releasePlayer();
         setError(STORAGE_ACCESS_ERROR);
         return true;
     }
@@ -288,6 +661,17 @@ public class Recorder implements OnCompletionListener, OnErrorListener {
             return;
         }
 
+        if (mState == RECORDING_STATE && !RecorderService.isRecording()
+                && RecorderService.getFilePath() != null) {
+            // 录音已经在服务中提交。分段录音的第一段可能已经被保留策略删除，
+            // 这里指向最后一段，时长也只算最后一段
+            mSampleFile = new File(RecorderService.getFilePath());
+            mSampleLength = (int) Math.max(1, RecorderService.getDurationMillis() / 1000);
+        } else if (state == RECORDING_STATE && RecorderService.isRecording()) {
+            // 开始请求可能排在上一次停止之后才执行，以服务中实际开始的录音为准
+            mSampleFile = new File(RecorderService.getFilePath());
+            mSampleStart = RecorderService.getStartTime();
+        }
         mState = state;
         signalStateChanged(mState);
     }
@@ -0,0 +1,47 @@
+package com.xp.soundrecorder;
+
+/**
+ * 电平表的数据来源。PCM 引擎直接读取采集线程发布的电平；MediaRecorder 的 getMaxAmplitude
+ * 返回的是上次调用以来的峰值，按原来的间隔采样，避免逐帧读取时数值偏小
+ */
+public class RecorderAmplitudeSource implements VuMeterView.AmplitudeSource {
+
+    public interface Meter {
+        /**
+         * @return 不提供电平数据时返回 false，此时改用 {@link #getMaxAmplitude()}
+         */
+        boolean readLevels(LevelMeter.Levels out);
+
+        int getMaxAmplitude();
+    }
+
+    private static final long POLL_INTERVAL_NANOS = 100 * 1000 * 1000L;
+
+    private final Meter mMeter;
+
+    private final LevelMeter.Levels mLevels = new LevelMeter.Levels();
+
+    private long mLastPollNanos;
+
+    private boolean mPolled;
+
+    private int mLastAmplitude;
+
+    public RecorderAmplitudeSource(Meter meter) {
+        mMeter = meter;
+    }
+
+    @Override
+    public int readAmplitude() {
+        if (mMeter.readLevels(mLevels)) {
+            return mLevels.peak;
+        }
+        long now = System.nanoTime();
+        if (!mPolled || now - mLastPollNanos >= POLL_INTERVAL_NANOS) {
+            mPolled = true;
+            mLastPollNanos = now;
+            mLastAmplitude = mMeter.getMaxAmplitude();
+        }
+        return mLastAmplitude;
+    }
+}
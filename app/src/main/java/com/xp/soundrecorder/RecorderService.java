@@ -17,12 +17,18 @@ import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
 import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
+import android.util.Log;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class RecorderService extends Service implements MediaRecorder.OnErrorListener {
 
+    private static final String TAG = "RecorderService";
+
     public final static String ACTION_NAME = "action_type";
 
     public final static int ACTION_INVALID = 0;
@@ -43,6 +49,14 @@ public class RecorderService extends Service implements MediaRecorder.OnErrorLis
 
     public final static String ACTION_PARAM_MAX_FILE_SIZE = "max_file_size";
 
+    public final static String ACTION_PARAM_ENGINE = "engine";
+
+    public final static String ACTION_PARAM_SEGMENT_MILLIS = "segment_millis";
+
+    public final static String ACTION_PARAM_SEGMENT_BYTES = "segment_bytes";
+
+    public final static String ACTION_PARAM_RETAINED_BYTES = "retained_bytes";
+
     public final static String RECORDER_SERVICE_BROADCAST_NAME = "com.android.soundrecorder.broadcast";
 
     public final static String RECORDER_SERVICE_BROADCAST_STATE = "is_recording";
@@ -51,14 +65,74 @@ public class RecorderService extends Service implements MediaRecorder.OnErrorLis
 
     public final static int NOTIFICATION_ID = 62343234;
 
+    private static final int PCM_FRAMES_PER_BLOCK = 1024;
+
+    /**
+     * 写线程落后于采集线程时可以缓冲的音频时长
+     */
+    private static final int PCM_WRITE_BUFFER_MILLIS = 2000;
+
+    /**
+     * 处理链每次处理的最大采样数
+     */
+    private static final int PCM_PROCESS_BLOCK_SAMPLES = 4096;
+
+    /**
+     * 高通滤波的截止频率，去掉直流和低频噪声
+     */
+    private static final float HIGH_PASS_CUTOFF_HZ = 80f;
+
+    /**
+     * 限制器的输出上限
+     */
+    private static final float LIMITER_CEILING_DB = -1f;
+
+    /**
+     * FLAC 压缩级别，级别越高文件越小，编码占用的 CPU 也越多
+     */
+    private static final int FLAC_COMPRESSION_LEVEL = FlacEncoder.DEFAULT_LEVEL;
+
+    /**
+     * 录音日志和 WAV、FLAC 文件头的同步间隔
+     */
+    private static final int JOURNAL_CHECKPOINT_MILLIS = 5000;
+
     private static MediaRecorder mRecorder = null;
 
+    private static PcmCaptureEngine mCaptureEngine = null;
+
+    private static LevelMeter mLevelMeter = null;
+
+    private static AudioProcessorChain mProcessorChain = null;
+
+    private static AsyncPcmSink mAsyncSink = null;
+
+    private static PcmFileWriter mFileWriter = null;
+
+    private static WriteCounter mWriteCounter = null;
+
     private static String mFilePath = null;
 
     private static long mStartTime = 0;
 
+    /**
+     * 最近一次录音的时长，分段录音时是最后一段的时长
+     */
+    private static long mDurationMillis = 0;
+
     private RemainingTimeCalculator mRemainingTimeCalculator;
 
+    /**
+     * 分段录音时为 true，mFilePath 是第一段，停止时改为最后一段。
+     * 日志始终记录第一段，恢复时按它找出所有分段的临时文件
+     */
+    private boolean mSegmented;
+
+    /**
+     * 分段录音的保留策略，没有设置上限时为 null
+     */
+    private SegmentRetention mSegmentRetention;
+
     private NotificationManager mNotificationManager;
 
     private Notification mLowStorageNotification;
@@ -69,6 +143,44 @@ public class RecorderService extends Service implements MediaRecorder.OnErrorLis
 
     private KeyguardManager mKeyguardManager;
 
+    private RecordingJournal mJournal;
+
+    /**
+     * 日志读写、打开录音文件、停止录音后的收尾和恢复都包含 fsync 或大量 IO，放在单独的线程中按顺序执行
+     */
+    private ExecutorService mJournalExecutor;
+
+    /**
+     * 正在后台停止录音，完成前忽略新的停止请求
+     */
+    private boolean mStopping;
+
+    /**
+     * 正在后台打开录音文件和麦克风
+     */
+    private boolean mStarting;
+
+    /**
+     * 启动过程中收到了停止请求，启动完成后立即停止
+     */
+    private boolean mStopAfterStart;
+
+    /**
+     * 停止过程中收到的开始请求，停止完成后执行。停止期间 isRecording 仍然为 true，不能直接开始
+     */
+    private Runnable mStartAfterStop;
+
+    private final Runnable mRunStartAfterStop = new Runnable() {
+        @Override
+        public void run() {
+            Runnable startAfterStop = mStartAfterStop;
+            mStartAfterStop = null;
+            if (startAfterStop != null) {
+                startAfterStop.run();
+            }
+        }
+    };
+
     private final PhoneStateListener mPhoneStateListener = new PhoneStateListener() {
         @Override
         public void onCallStateChanged(int state, String incomingNumber) {
@@ -83,7 +195,7 @@ public class RecorderService extends Service implements MediaRecorder.OnErrorLis
     private Runnable mUpdateRemainingTime = new Runnable() {
         @Override
         public void run() {
-            if (mRecorder != null && mNeedUpdateRemainingTime) {
+            if (isRecording() && mNeedUpdateRemainingTime) {
                 updateRemainingTime();
             }
         }
@@ -91,10 +203,34 @@ public class RecorderService extends Service implements MediaRecorder.OnErrorLis
 
     private boolean mNeedUpdateRemainingTime;
 
+    private Runnable mJournalCheckpoint = new Runnable() {
+        @Override
+        public void run() {
+            if (isRecording()) {
+                PcmFileWriter writer = mFileWriter;
+                // 预分配的文件长度不代表写入进度，由写入器报告已落盘的长度
+                final long committedBytes = writer != null ? writer.getCommittedLength()
+                        : RecordingJournal.partFile(new File(mFilePath)).length();
+                mJournalExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            mJournal.updateProgress(committedBytes);
+                        } catch (IOException e) {
+                            Log.w(TAG, "update journal failed", e);
+                        }
+                    }
+                });
+                mHandler.postDelayed(mJournalCheckpoint, JOURNAL_CHECKPOINT_MILLIS);
+            }
+        }
+    };
+
     @Override
     public void onCreate() {
         super.onCreate();
         mRecorder = null;
+        mCaptureEngine = null;
         mLowStorageNotification = null;
         mRemainingTimeCalculator = new RemainingTimeCalculator();
         mNeedUpdateRemainingTime = false;
@@ -104,31 +240,50 @@ public class RecorderService extends Service implements MediaRecorder.OnErrorLis
         PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
         mWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "SoundRecorder");
         mKeyguardManager = (KeyguardManager) getSystemService(Context.KEYGUARD_SERVICE);
+        mJournal = new RecordingJournal(getFilesDir());
+        mJournalExecutor = Executors.newSingleThreadExecutor();
+        mJournalExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                recoverOrphanedRecording();
+            }
+        });
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent == null) {
+            // 进程被杀后系统重启服务，此时录音已经丢失，onCreate 中会修复残留文件
+            if (!isRecording()) {
+                stopSelf();
+            }
+            return START_NOT_STICKY;
+        }
         Bundle bundle = intent.getExtras();
         if (bundle != null && bundle.containsKey(ACTION_NAME)) {
             switch (bundle.getInt(ACTION_NAME, ACTION_INVALID)) {
                 case ACTION_START_RECORDING:
-                    localStartRecording(bundle.getInt(ACTION_PARAM_FORMAT),
+                    localStartRecording(bundle.getInt(ACTION_PARAM_ENGINE, Recorder.ENGINE_MEDIA_RECORDER),
+                            bundle.getInt(ACTION_PARAM_FORMAT),
                             bundle.getString(ACTION_PARAM_PATH),
                             bundle.getBoolean(ACTION_PARAM_HIGH_QUALITY),
-                            bundle.getLong(ACTION_PARAM_MAX_FILE_SIZE));
+                            bundle.getLong(ACTION_PARAM_MAX_FILE_SIZE),
+                            bundle.getLong(ACTION_PARAM_SEGMENT_MILLIS),
+                            bundle.getLong(ACTION_PARAM_SEGMENT_BYTES),
+                            bundle.getLong(ACTION_PARAM_RETAINED_BYTES));
                     break;
                 case ACTION_STOP_RECORDING:
                     localStopRecording();
                     break;
                 case ACTION_ENABLE_MONITOR_REMAIN_TIME:
-                    if (mRecorder != null) {
+                    if (isRecording()) {
                         mNeedUpdateRemainingTime = true;
                         mHandler.post(mUpdateRemainingTime);
                     }
                     break;
                 case ACTION_DISABLE_MONITOR_REMAIN_TIME:
                     mNeedUpdateRemainingTime = false;
-                    if (mRecorder != null) {
+                    if (isRecording()) {
                         showRecordingNotification();
                     }
                     break;
@@ -143,6 +298,9 @@ public class RecorderService extends Service implements MediaRecorder.OnErrorLis
     @Override
     public void onDestroy() {
         mTelephonyManager.listen(mPhoneStateListener, PhoneStateListener.LISTEN_NONE);
+        mHandler.removeCallbacks(mJournalCheckpoint);
+        mHandler.removeCallbacks(mRunStartAfterStop);
+        mJournalExecutor.shutdown();
         if (mWakeLock.isHeld()) {
             mWakeLock.release();
         }
@@ -160,12 +318,29 @@ public class RecorderService extends Service implements MediaRecorder.OnErrorLis
         super.onLowMemory();
     }
 
-    private void localStartRecording(int outputFileFormat, String path, boolean highQuality,
-                                     long maxFileSize) {
-        if (mRecorder == null) {
+    private void localStartRecording(final int engine, final int outputFileFormat,
+                                     final String path, final boolean highQuality,
+                                     final long maxFileSize, final long segmentMillis,
+                                     final long segmentBytes, final long retainedBytes) {
+        if (mStopping) {
+            // 只保留最后一次请求
+            mStartAfterStop = new Runnable() {
+                @Override
+                public void run() {
+                    localStartRecording(engine, outputFileFormat, path, highQuality,
+                            maxFileSize, segmentMillis, segmentBytes, retainedBytes);
+                }
+            };
+            return;
+        }
+        if (engine == Recorder.ENGINE_PCM) {
+            localStartPcmRecording(outputFileFormat, path, highQuality, maxFileSize,
+                    segmentMillis, segmentBytes, retainedBytes);
+        } else if (!isRecording() && !mStarting) {
+            String partPath = RecordingJournal.partFile(new File(path)).getAbsolutePath();
             mRemainingTimeCalculator.reset();
             if (maxFileSize != -1) {
-                mRemainingTimeCalculator.setFileSizeLimit(new File(path), maxFileSize);
+                mRemainingTimeCalculator.setFileSizeLimit(new File(partPath), maxFileSize);
             }
 
             mRecorder = new MediaRecorder();
@@ -182,7 +357,7 @@ public class RecorderService extends Service implements MediaRecorder.OnErrorLis
                 mRecorder.setAudioEncoder(highQuality ? MediaRecorder.AudioEncoder.AMR_WB
                         : MediaRecorder.AudioEncoder.AMR_NB);
             }
-            mRecorder.setOutputFile(path);
+            mRecorder.setOutputFile(partPath);
             mRecorder.setOnErrorListener(this);
 
             try {
@@ -192,6 +367,7 @@ public class RecorderService extends Service implements MediaRecorder.OnErrorLis
                 mRecorder.reset();
                 mRecorder.release();
                 mRecorder = null;
+                new File(partPath).delete();
                 return;
             }
             try {
@@ -207,31 +383,388 @@ public class RecorderService extends Service implements MediaRecorder.OnErrorLis
                 mRecorder.reset();
                 mRecorder.release();
                 mRecorder = null;
+                new File(partPath).delete();
                 return;
             }
-            mFilePath = path;
-            mStartTime = System.currentTimeMillis();
-            mWakeLock.acquire();
-            mNeedUpdateRemainingTime = false;
-            sendStateBroadcast();
-            showRecordingNotification();
+            mSegmented = false;
+            onRecordingStarted(Recorder.ENGINE_MEDIA_RECORDER, outputFileFormat, path, false);
+        }
+    }
+
+    private void localStartPcmRecording(final int outputFileFormat, final String path,
+                                        boolean highQuality, long maxFileSize, long segmentMillis,
+                                        long segmentBytes, final long retainedBytes) {
+        if (isRecording() || mStarting) {
+            return;
+        }
+        final boolean segmented = segmentMillis > 0 || segmentBytes > 0;
+        if (segmented) {
+            // 分段录音到达大小后切换文件而不是停止，也不预分配
+            maxFileSize = -1;
+        }
+
+        int sampleRate = highQuality ? 44100 : 16000;
+        final String partPath = RecordingJournal.partFile(new File(path)).getAbsolutePath();
+        mRemainingTimeCalculator.reset();
+        mRemainingTimeCalculator.setBitRate(outputFileFormat == Recorder.OUTPUT_FORMAT_IMA_ADPCM
+                ? ImaAdpcm.bitRate(sampleRate, 1) : sampleRate * 16);
+        if (maxFileSize != -1) {
+            mRemainingTimeCalculator.setFileSizeLimit(new File(partPath), maxFileSize);
+        }
+        final WriteCounter writeCounter = new WriteCounter();
+        mRemainingTimeCalculator.setWriteCounter(writeCounter);
+        final PcmFileWriter fileWriter = createFileWriter(outputFileFormat, new File(path),
+                segmentMillis, segmentBytes, new SegmentedFileWriter.Callback() {
+                    @Override
+                    public void onSegmentClosed(final File segment) {
+                        mHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                onSegmentFinished(segment);
+                            }
+                        });
+                    }
+                });
+        fileWriter.setCheckpointInterval(JOURNAL_CHECKPOINT_MILLIS);
+        fileWriter.setWriteCounter(writeCounter);
+        if (maxFileSize != -1) {
+            // 开始前就占好整个文件的空间，空间不够时直接报错，不会录到一半因为磁盘满而停止
+            fileWriter.setPreallocatedLength(maxFileSize);
+            mRemainingTimeCalculator.setPreallocatedLength(maxFileSize);
+        }
+
+        final PcmCaptureEngine engine = new PcmCaptureEngine(new MicAudioSource(sampleRate, 1),
+                PCM_FRAMES_PER_BLOCK, MicAudioSource.URGENT_AUDIO_THREAD_FACTORY);
+        final LevelMeter levelMeter = new LevelMeter();
+        engine.addSink(levelMeter);
+        // 波形文件和录音文件在同一个写线程中生成，命名跟随最终文件。分段录音的波形在播放时再生成
+        PcmSink fileSink = segmented ? fileWriter : new PcmSinkGroup(fileWriter,
+                new PeakFileWriter(PeakFile.sidecarFor(new File(path)),
+                        PeakFileWriter.DEFAULT_FRAMES_PER_PEAK));
+        // 处理链在写线程中运行，电平表仍然显示麦克风的原始电平
+        final AudioProcessorChain processorChain = new AudioProcessorChain(fileSink,
+                PCM_PROCESS_BLOCK_SAMPLES, new HighPassFilter(HIGH_PASS_CUTOFF_HZ),
+                new Limiter(LIMITER_CEILING_DB));
+        final AsyncPcmSink asyncSink = new AsyncPcmSink(processorChain,
+                AsyncPcmSink.capacityFor(sampleRate, 1, PCM_WRITE_BUFFER_MILLIS));
+        engine.addSink(asyncSink);
+        engine.setOnErrorListener(new PcmCaptureEngine.OnErrorListener() {
+            @Override
+            public void onCaptureError(int error) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendErrorBroadcast(Recorder.INTERNAL_ERROR);
+                        localStopRecording();
+                    }
+                });
+            }
+        });
+
+        mStarting = true;
+        final boolean preallocated = maxFileSize != -1;
+        // 打开文件时的预分配在旧系统上要填充整个文件，放在日志线程中执行；
+        // 日志线程按顺序执行，也保证上一次录音停止收尾之后才打开麦克风
+        mJournalExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    engine.start();
+                } catch (IOException exception) {
+                    AudioManager audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
+                    boolean isInCall = (audioManager.getMode() == AudioManager.MODE_IN_CALL);
+                    if (exception instanceof FilePreallocator.PreallocationException) {
+                        sendErrorBroadcast(Recorder.STORAGE_ACCESS_ERROR);
+                    } else {
+                        sendErrorBroadcast(isInCall ? Recorder.IN_CALL_RECORD_ERROR
+                                : Recorder.INTERNAL_ERROR);
+                    }
+                    new File(partPath).delete();
+                    PeakGenerator.deleteSidecar(new File(path));
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            mStarting = false;
+                            if (mStopAfterStart) {
+                                mStopAfterStart = false;
+                                stopSelf();
+                            }
+                        }
+                    });
+                    return;
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mStarting = false;
+                        mCaptureEngine = engine;
+                        mLevelMeter = levelMeter;
+                        mProcessorChain = processorChain;
+                        mAsyncSink = asyncSink;
+                        mFileWriter = fileWriter;
+                        mWriteCounter = writeCounter;
+                        mSegmented = segmented;
+                        mSegmentRetention = segmented && retainedBytes > 0
+                                ? new SegmentRetention(retainedBytes) : null;
+                        onRecordingStarted(Recorder.ENGINE_PCM, outputFileFormat, path,
+                                preallocated);
+                        if (mStopAfterStart) {
+                            mStopAfterStart = false;
+                            localStopRecording();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 创建录音文件的写入器。segmentMillis 或 segmentBytes 大于 0 时按条件分段，
+     * 否则写入 file 对应的 .part 文件
+     */
+    static PcmFileWriter createFileWriter(final int outputFileFormat, File file,
+                                          long segmentMillis, long segmentBytes,
+                                          SegmentedFileWriter.Callback callback) {
+        if (segmentMillis <= 0 && segmentBytes <= 0) {
+            return createPcmFileWriter(outputFileFormat,
+                    RecordingJournal.partFile(file).getAbsolutePath());
+        }
+        return new SegmentedFileWriter(file, new SegmentedFileWriter.Factory() {
+            @Override
+            public PcmFileWriter create(String segmentPath) {
+                return createPcmFileWriter(outputFileFormat, segmentPath);
+            }
+        }, segmentMillis, segmentBytes, callback);
+    }
+
+    private static PcmFileWriter createPcmFileWriter(int outputFileFormat, String path) {
+        switch (outputFileFormat) {
+            case Recorder.OUTPUT_FORMAT_FLAC:
+                return new FlacFileWriter(path, FLAC_COMPRESSION_LEVEL);
+            case Recorder.OUTPUT_FORMAT_IMA_ADPCM:
+                return new ImaAdpcmFileWriter(path);
+            case Recorder.OUTPUT_FORMAT_WAV:
+            default:
+                return new WavFileWriter(path);
+        }
+    }
+
+    private void onRecordingStarted(int engine, int outputFileFormat, String path,
+                                    boolean preallocated) {
+        mFilePath = path;
+        mStartTime = System.currentTimeMillis();
+
+        beginJournal(engine, outputFileFormat, path, mStartTime, preallocated,
+                mSegmented ? path : null);
+        mHandler.postDelayed(mJournalCheckpoint, JOURNAL_CHECKPOINT_MILLIS);
+
+        mWakeLock.acquire();
+        mNeedUpdateRemainingTime = false;
+        sendStateBroadcast();
+        showRecordingNotification();
+    }
+
+    private void beginJournal(int engine, int outputFileFormat, String path, long startTime,
+                              boolean preallocated, String segmentBasePath) {
+        final RecordingJournal.Entry entry = new RecordingJournal.Entry();
+        entry.partPath = RecordingJournal.partFile(new File(path)).getAbsolutePath();
+        entry.finalPath = path;
+        entry.engine = engine;
+        entry.outputFileFormat = outputFileFormat;
+        entry.startTime = startTime;
+        entry.preallocated = preallocated;
+        entry.segmentBasePath = segmentBasePath;
+        mJournalExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mJournal.begin(entry);
+                } catch (IOException e) {
+                    Log.w(TAG, "write journal failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 分段录音中除最后一段外的分段已提交为最终文件：加入索引，再执行保留策略
+     */
+    private void onSegmentFinished(File segment) {
+        RecordingIndex index = RecordingIndex.getInstance(this);
+        index.update(segment);
+        if (mSegmentRetention != null) {
+            for (File deleted : mSegmentRetention.add(segment)) {
+                PeakGenerator.deleteSidecar(deleted);
+                index.remove(deleted);
+            }
         }
     }
 
     private void localStopRecording() {
-        if (mRecorder != null) {
-            mNeedUpdateRemainingTime = false;
+        if (mStopping) {
+            // 上一次停止还在后台收尾，结束后会调用 stopSelf。排在后面的开始请求也一起取消
+            mStartAfterStop = null;
+            return;
+        }
+        if (mStarting) {
+            mStopAfterStart = true;
+            return;
+        }
+        if (!isRecording()) {
+            mStartAfterStop = null;
+            stopSelf();
+            return;
+        }
+        mStopping = true;
+        mNeedUpdateRemainingTime = false;
+        mHandler.removeCallbacks(mJournalCheckpoint);
+        final MediaRecorder recorder = mRecorder;
+        final PcmCaptureEngine engine = mCaptureEngine;
+        final AudioProcessorChain processorChain = mProcessorChain;
+        final AsyncPcmSink asyncSink = mAsyncSink;
+        final PcmFileWriter fileWriter = mFileWriter;
+        final String filePath = mFilePath;
+        // 停止采集要等线程退出、写完缓冲的数据并 fsync，分段录音还要等辅助线程关闭分段，
+        // 都放到日志线程中执行，完成后再回到主线程更新状态。这期间 isRecording 仍然为 true
+        mJournalExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (recorder != null) {
+                    try {
+                        recorder.stop();
+                    } catch (RuntimeException e) {
+                    }
+                    recorder.release();
+                }
+                String path = filePath;
+                long durationMillis = System.currentTimeMillis() - mStartTime;
+                File segmentBase = null;
+                if (engine != null) {
+                    engine.stop();
+                    logCaptureStats(engine, asyncSink);
+                    logProcessorLoad(processorChain);
+                    if (fileWriter instanceof SegmentedFileWriter) {
+                        // 分段录音停止时还没有提交的是最后一段
+                        SegmentedFileWriter segmentedWriter = (SegmentedFileWriter) fileWriter;
+                        path = segmentedWriter.getCurrentFile().getAbsolutePath();
+                        durationMillis = segmentedWriter.getCurrentSegmentMillis();
+                        segmentBase = new File(filePath);
+                    }
+                }
+                commitRecording(path, durationMillis, segmentBase);
+                final String committedPath = path;
+                final long committedDuration = durationMillis;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onRecordingStopped(committedPath, committedDuration);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onRecordingStopped(String path, long durationMillis) {
+        mRecorder = null;
+        mCaptureEngine = null;
+        mLevelMeter = null;
+        mProcessorChain = null;
+        mAsyncSink = null;
+        mFileWriter = null;
+        mWriteCounter = null;
+        mFilePath = path;
+        mDurationMillis = durationMillis;
+        mStopping = false;
+
+        sendStateBroadcast();
+        showStoppedNotification();
+        if (mStartAfterStop != null) {
+            // 停止的广播先发出，排队的录音再开始
+            mHandler.post(mRunStartAfterStop);
+        } else {
+            stopSelf();
+        }
+    }
+
+    /**
+     * 输出采集读取失败和写缓冲区溢出的次数，不为 0 说明录音中有丢失的片段
+     */
+    private static void logCaptureStats(PcmCaptureEngine engine, AsyncPcmSink asyncSink) {
+        PcmRingBuffer ringBuffer = asyncSink.getRingBuffer();
+        String stats = String.format(Locale.US,
+                "read errors: %d, overruns: %d, dropped samples: %d, buffer high water: %d/%d",
+                engine.getReadErrors(), ringBuffer.getOverrunCount(),
+                ringBuffer.getDroppedSamples(), ringBuffer.getHighWaterMark(),
+                ringBuffer.capacity());
+        if (engine.getReadErrors() > 0 || ringBuffer.getOverrunCount() > 0) {
+            Log.w(TAG, stats);
+        } else {
+            Log.d(TAG, stats);
+        }
+    }
+
+    /**
+     * 输出处理链中每个环节占用的 CPU 比例，用来评估低端设备上的处理预算
+     */
+    private static void logProcessorLoad(AudioProcessorChain chain) {
+        if (chain == null) {
+            return;
+        }
+        for (int i = 0; i < chain.getProcessorCount(); i++) {
+            Log.d(TAG, String.format(Locale.US, "%s: %.3f%% of one core",
+                    chain.getProcessor(i).getClass().getSimpleName(), chain.getLoad(i) * 100));
+        }
+    }
+
+    /**
+     * 录音已完整写入临时文件，重命名为最终文件后删除日志，在日志线程中执行
+     *
+     * @param segmentBase 分段录音的第一段，不是分段录音时为 null
+     */
+    private void commitRecording(String path, long durationMillis, File segmentBase) {
+        File target = new File(path);
+        File part = RecordingJournal.partFile(target);
+        if (!part.renameTo(target)) {
+            Log.w(TAG, "rename " + part + " failed, leave it to recovery");
+            return;
+        }
+        RecordingIndex index = RecordingIndex.getInstance(this);
+        index.update(target, durationMillis);
+        if (segmentBase != null) {
+            // 切换时重命名失败的分段也在删除日志之前提交
             try {
-                mRecorder.stop();
-            } catch (RuntimeException e) {
+                for (File segment : RecordingRecovery.recoverSegments(segmentBase)) {
+                    index.update(segment);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "commit segments of " + segmentBase + " failed", e);
+                return;
             }
-            mRecorder.release();
-            mRecorder = null;
+        }
+        mJournal.commit();
+    }
 
-            sendStateBroadcast();
-            showStoppedNotification();
+    private void recoverOrphanedRecording() {
+        RecordingJournal.Entry orphan = mJournal.readOrphan();
+        if (orphan == null) {
+            return;
         }
-        stopSelf();
+        try {
+            if (orphan.segmentBasePath != null) {
+                for (File segment : RecordingRecovery.recoverSegments(
+                        new File(orphan.segmentBasePath))) {
+                    Log.i(TAG, "recovered orphaned segment: " + segment);
+                    RecordingIndex.getInstance(this).update(segment);
+                }
+            } else {
+                File recovered = RecordingRecovery.recover(orphan);
+                Log.i(TAG, "recovered orphaned recording: " + recovered);
+                RecordingIndex.getInstance(this).update(recovered);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "recover " + orphan.partPath + " failed", e);
+        }
+        mJournal.commit();
     }
 
     private void showRecordingNotification() {
@@ -294,7 +827,7 @@ public class RecorderService extends Service implements MediaRecorder.OnErrorLis
 
     private void sendStateBroadcast() {
         Intent intent = new Intent(RECORDER_SERVICE_BROADCAST_NAME);
-        intent.putExtra(RECORDER_SERVICE_BROADCAST_STATE, mRecorder != null);
+        intent.putExtra(RECORDER_SERVICE_BROADCAST_STATE, isRecording());
         sendBroadcast(intent);
     }
 
@@ -313,13 +846,13 @@ public class RecorderService extends Service implements MediaRecorder.OnErrorLis
             showLowStorageNotification();
         }
 
-        if (mRecorder != null && mNeedUpdateRemainingTime) {
+        if (isRecording() && mNeedUpdateRemainingTime) {
             mHandler.postDelayed(mUpdateRemainingTime, 500);
         }
     }
 
     public static boolean isRecording() {
-        return mRecorder != null;
+        return mRecorder != null || mCaptureEngine != null;
     }
 
     public static String getFilePath() {
@@ -330,10 +863,18 @@ public class RecorderService extends Service implements MediaRecorder.OnErrorLis
         return mStartTime;
     }
 
-    public static void startRecording(Context context, int outputFileFormat, String path,
-                                      boolean highQuality, long maxFileSize) {
+    /**
+     * 最近一次停止的录音的时长，分段录音时是最后一段的时长
+     */
+    public static long getDurationMillis() {
+        return mDurationMillis;
+    }
+
+    public static void startRecording(Context context, int engine, int outputFileFormat,
+                                      String path, boolean highQuality, long maxFileSize) {
         Intent intent = new Intent(context, RecorderService.class);
         intent.putExtra(ACTION_NAME, ACTION_START_RECORDING);
+        intent.putExtra(ACTION_PARAM_ENGINE, engine);
         intent.putExtra(ACTION_PARAM_FORMAT, outputFileFormat);
         intent.putExtra(ACTION_PARAM_PATH, path);
         intent.putExtra(ACTION_PARAM_HIGH_QUALITY, highQuality);
@@ -341,16 +882,54 @@ public class RecorderService extends Service implements MediaRecorder.OnErrorLis
         context.startService(intent);
     }
 
+    /**
+     * 分段录音，每段最长 segmentMillis 毫秒或约 segmentBytes 字节，不大于 0 的条件不生效。
+     * retainedBytes 大于 0 时，已完成的分段总大小超过它后删除最早的分段
+     */
+    public static void startSegmentedRecording(Context context, int outputFileFormat,
+                                               String path, boolean highQuality,
+                                               long segmentMillis, long segmentBytes,
+                                               long retainedBytes) {
+        Intent intent = new Intent(context, RecorderService.class);
+        intent.putExtra(ACTION_NAME, ACTION_START_RECORDING);
+        intent.putExtra(ACTION_PARAM_ENGINE, Recorder.ENGINE_PCM);
+        intent.putExtra(ACTION_PARAM_FORMAT, outputFileFormat);
+        intent.putExtra(ACTION_PARAM_PATH, path);
+        intent.putExtra(ACTION_PARAM_HIGH_QUALITY, highQuality);
+        intent.putExtra(ACTION_PARAM_MAX_FILE_SIZE, -1L);
+        intent.putExtra(ACTION_PARAM_SEGMENT_MILLIS, segmentMillis);
+        intent.putExtra(ACTION_PARAM_SEGMENT_BYTES, segmentBytes);
+        intent.putExtra(ACTION_PARAM_RETAINED_BYTES, retainedBytes);
+        context.startService(intent);
+    }
+
     public static void stopRecording(Context context) {
         Intent intent = new Intent(context, RecorderService.class);
         intent.putExtra(ACTION_NAME, ACTION_STOP_RECORDING);
         context.startService(intent);
     }
 
+    /**
+     * 正在录制的文件的写入计数，MediaRecorder 录音或没有录音时返回 null
+     */
+    public static WriteCounter getWriteCounter() {
+        return mWriteCounter;
+    }
+
     public static int getMaxAmplitude() {
         return mRecorder == null ? 0 : mRecorder.getMaxAmplitude();
     }
 
+    /**
+     * PCM 引擎录音时读取采集线程发布的电平，不涉及跨线程加锁和 native 调用
+     *
+     * @return 当前不是 PCM 录音时返回 false
+     */
+    public static boolean readLevels(LevelMeter.Levels out) {
+        LevelMeter levelMeter = mLevelMeter;
+        return levelMeter != null && levelMeter.read(out);
+    }
+
     @Override
     public void onError(MediaRecorder mr, int what, int extra) {
         sendErrorBroadcast(Recorder.INTERNAL_ERROR);
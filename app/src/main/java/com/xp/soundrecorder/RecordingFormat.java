@@ -0,0 +1,109 @@
+package com.xp.soundrecorder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 录音文件格式，保存在索引中
+ */
+public final class RecordingFormat {
+
+    public static final int UNKNOWN = 0;
+
+    public static final int AMR_NB = 1;
+
+    public static final int AMR_WB = 2;
+
+    public static final int THREE_GPP = 3;
+
+    public static final int WAV = 4;
+
+    public static final int FLAC = 5;
+
+    /**
+     * 判断格式需要读取的文件头长度
+     */
+    public static final int HEADER_LENGTH = 12;
+
+    private RecordingFormat() {
+    }
+
+    /**
+     * 录音过程中的临时文件、波形文件等不算录音
+     */
+    public static boolean isAuxiliaryFile(String name) {
+        return name.startsWith(".") || name.endsWith(RecordingJournal.PART_SUFFIX)
+                || name.endsWith(PeakFile.SUFFIX) || name.endsWith(".tmp");
+    }
+
+    /**
+     * 按文件头的魔数判断格式
+     *
+     * @param header 文件开头的数据
+     * @param length header 中有效数据的长度
+     */
+    public static int detect(byte[] header, int length) {
+        int amrType = AmrFormat.detect(header, length);
+        if (amrType == AmrFormat.TYPE_WB) {
+            return AMR_WB;
+        } else if (amrType == AmrFormat.TYPE_NB) {
+            return AMR_NB;
+        } else if (length >= HEADER_LENGTH
+                && (matches(header, 0, "RIFF") || matches(header, 0, "RF64"))
+                && matches(header, 8, "WAVE")) {
+            return WAV;
+        } else if (length >= 4 && matches(header, 0, "fLaC")) {
+            return FLAC;
+        } else if (length >= 8 && matches(header, 4, "ftyp")) {
+            return THREE_GPP;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * 读取文件头判断格式，文件不可读时返回 {@link #UNKNOWN}
+     */
+    public static int detect(File file) {
+        byte[] header = new byte[HEADER_LENGTH];
+        int length = 0;
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            while (length < header.length) {
+                int read = in.read(header, length, header.length - length);
+                if (read < 0) {
+                    break;
+                }
+                length += read;
+            }
+        } catch (IOException e) {
+            return UNKNOWN;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return detect(header, length);
+    }
+
+    /**
+     * 录音过程中的临时文件（同样以 RIFF 开头）等辅助文件不算录音，其余按文件头判断
+     */
+    public static int of(File file) {
+        return isAuxiliaryFile(file.getName()) ? UNKNOWN : detect(file);
+    }
+
+    private static boolean matches(byte[] data, int offset, String tag) {
+        for (int i = 0; i < tag.length(); i++) {
+            if (data[offset + i] != tag.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
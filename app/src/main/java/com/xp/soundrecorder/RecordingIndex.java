@@ -0,0 +1,473 @@
+package com.xp.soundrecorder;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Environment;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 录音列表的持久化索引，保存路径、大小、修改时间、格式和时长，列表直接从索引读取而不是扫描目录。
+ * 录音目录的变化通过 FileObserver 和 Recorder、RecorderService 的直接调用增量更新；
+ * FileObserver 只监听录音目录本身，子目录和进程不在时发生的变化由 {@link #reconcile()} 扫描补上。
+ * 所有数据库操作都在同一个后台线程中顺序执行，结果在主线程回调
+ */
+public class RecordingIndex extends SQLiteOpenHelper {
+    private static final String TAG = "RecordingIndex";
+
+    private static final String DATABASE_NAME = "recordings.db";
+
+    private static final int DATABASE_VERSION = 2;
+
+    private static final String TABLE = "recordings";
+
+    private static final String COLUMN_PATH = "path";
+
+    private static final String COLUMN_NAME = "name";
+
+    private static final String COLUMN_SIZE = "size";
+
+    private static final String COLUMN_MTIME = "mtime";
+
+    private static final String COLUMN_FORMAT = "format";
+
+    private static final String COLUMN_DURATION = "duration";
+
+    private static final String COLUMN_SAMPLE_RATE = "sample_rate";
+
+    private static final String COLUMN_CHANNELS = "channels";
+
+    private static final String METADATA_CACHE_FILE = "metadata.cache";
+
+    private static final int METADATA_CACHE_SIZE = 4096;
+
+    /**
+     * 单个文件变化后延迟保存元数据缓存，期间的多次变化合并成一次写入
+     */
+    private static final long METADATA_SAVE_DELAY_MILLIS = 5000;
+
+    private static final String[] COLUMNS = {
+            COLUMN_PATH, COLUMN_NAME, COLUMN_SIZE, COLUMN_MTIME, COLUMN_FORMAT, COLUMN_DURATION,
+            COLUMN_SAMPLE_RATE, COLUMN_CHANNELS
+    };
+
+    private static final int OBSERVED_EVENTS = FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO
+            | FileObserver.MOVED_FROM | FileObserver.DELETE;
+
+    public interface OnChangedListener {
+        /**
+         * 索引内容有变化，在主线程回调
+         */
+        void onIndexChanged();
+    }
+
+    public interface QueryCallback {
+        /**
+         * 按修改时间从新到旧排列，在主线程回调
+         */
+        void onQueryComplete(List<RecordEntity> records);
+    }
+
+    private static RecordingIndex sInstance;
+
+    private static final int SCAN_THREADS =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * 扫描目录用的线程池，空闲时线程会退出
+     */
+    private final ThreadPoolExecutor mScanExecutor = new ThreadPoolExecutor(SCAN_THREADS,
+            SCAN_THREADS, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    /**
+     * 正在进行的扫描，只在数据库线程中访问
+     */
+    private Reconciliation mReconciliation;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final List<OnChangedListener> mListeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicBoolean mNotifyPending = new AtomicBoolean();
+
+    private final AtomicBoolean mSavePending = new AtomicBoolean();
+
+    private final File mRecordDir;
+
+    /**
+     * 时长、采样率等元数据的缓存，只有新增或改动过的文件才需要重新解析
+     */
+    private final MetadataCache mMetadataCache;
+
+    /**
+     * FileObserver 被回收后就不再回调，需要一直持有
+     */
+    private final FileObserver mObserver;
+
+    private final Runnable mNotifyChanged = new Runnable() {
+        @Override
+        public void run() {
+            mNotifyPending.set(false);
+            for (OnChangedListener listener : mListeners) {
+                listener.onIndexChanged();
+            }
+        }
+    };
+
+    private final Runnable mSaveMetadataCache = new Runnable() {
+        @Override
+        public void run() {
+            mSavePending.set(false);
+            saveMetadataCache();
+        }
+    };
+
+    /**
+     * 延迟到期后在主线程把保存放回数据库线程，与其他数据库操作保持顺序
+     */
+    private final Runnable mPostSaveMetadataCache = new Runnable() {
+        @Override
+        public void run() {
+            mExecutor.execute(mSaveMetadataCache);
+        }
+    };
+
+    private RecordingIndex(Context context) {
+        super(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION);
+        mRecordDir = new File(Environment.getExternalStorageDirectory().getAbsolutePath()
+                + Recorder.SAMPLE_DEFAULT_DIR);
+        File cacheDir = context.getApplicationContext().getCacheDir();
+        mMetadataCache = new MetadataCache(new File(cacheDir, METADATA_CACHE_FILE),
+                METADATA_CACHE_SIZE);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mMetadataCache.load();
+            }
+        });
+        mObserver = new FileObserver(mRecordDir.getAbsolutePath(), OBSERVED_EVENTS) {
+            @Override
+            public void onEvent(int event, String path) {
+                if (path != null) {
+                    update(new File(mRecordDir, path));
+                }
+            }
+        };
+        mObserver.startWatching();
+        mScanExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public static synchronized RecordingIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new RecordingIndex(context);
+        }
+        return sInstance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + COLUMN_PATH + " TEXT PRIMARY KEY, "
+                + COLUMN_NAME + " TEXT NOT NULL, "
+                + COLUMN_SIZE + " INTEGER NOT NULL, "
+                + COLUMN_MTIME + " INTEGER NOT NULL, "
+                + COLUMN_FORMAT + " INTEGER NOT NULL, "
+                + COLUMN_DURATION + " INTEGER NOT NULL DEFAULT -1, "
+                + COLUMN_SAMPLE_RATE + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_CHANNELS + " INTEGER NOT NULL DEFAULT 0)");
+        db.execSQL("CREATE INDEX " + TABLE + "_" + COLUMN_MTIME + " ON " + TABLE
+                + " (" + COLUMN_MTIME + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // 索引可以随时从文件重建，直接丢弃旧表
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        onCreate(db);
+    }
+
+    public void addOnChangedListener(OnChangedListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeOnChangedListener(OnChangedListener listener) {
+        mListeners.remove(listener);
+    }
+
+    public void query(final QueryCallback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<RecordEntity> records = queryNow();
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onQueryComplete(records);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 按文件的当前状态更新一条记录，文件不存在时删除
+     */
+    public void update(File file) {
+        update(file, -1);
+    }
+
+    /**
+     * @param durationMillis 调用方已知的时长，未知时为 -1
+     */
+    public void update(final File file, final long durationMillis) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (updateNow(file, durationMillis)) {
+                    notifyChanged();
+                }
+            }
+        });
+    }
+
+    public void remove(final File file) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (removeNow(file)) {
+                    notifyChanged();
+                }
+            }
+        });
+    }
+
+    public void rename(final File from, final File to) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_PATH, to.getAbsolutePath());
+                values.put(COLUMN_NAME, to.getName());
+                int updated = getWritableDatabase().update(TABLE, values, COLUMN_PATH + " = ?",
+                        new String[]{from.getAbsolutePath()});
+                if (updated == 0) {
+                    updateNow(to, -1);
+                }
+                notifyChanged();
+            }
+        });
+    }
+
+    /**
+     * 递归扫描录音目录并和索引对比，补上进程不在时发生的变化，只有大小或修改时间变化的文件才会更新。
+     * 扫描结果按批次写入索引并通知监听者，扫描完成之前列表就能显示已经找到的录音
+     */
+    public void reconcile() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mReconciliation != null) {
+                    mReconciliation.cancel();
+                }
+                mReconciliation = new Reconciliation();
+                mReconciliation.start();
+            }
+        });
+    }
+
+    /**
+     * 一次扫描对比，除了扫描器回调之外的方法都在数据库线程中执行
+     */
+    private class Reconciliation implements RecordingScanner.Listener {
+        private final Map<String, RecordEntity> mIndexed = new HashMap<>();
+
+        private final RecordingScanner mScanner =
+                new RecordingScanner(mScanExecutor, RecordingScanner.DEFAULT_BATCH_SIZE, this,
+                        mMetadataCache);
+
+        private boolean mCancelled;
+
+        void start() {
+            for (RecordEntity record : queryNow()) {
+                mIndexed.put(record.getPath().getAbsolutePath(), record);
+            }
+            mScanner.scan(mRecordDir);
+        }
+
+        void cancel() {
+            mCancelled = true;
+            mScanner.cancel();
+        }
+
+        @Override
+        public void onRecordsFound(final List<RecordEntity> records) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled && applyBatch(records)) {
+                        notifyChanged();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onScanFinished() {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // 被取消的扫描结果不完整，不能据此删除记录
+                    if (mCancelled) {
+                        return;
+                    }
+                    mReconciliation = null;
+                    if (removeStale()) {
+                        notifyChanged();
+                    }
+                    saveMetadataCache();
+                }
+            });
+        }
+
+        private boolean applyBatch(List<RecordEntity> records) {
+            boolean changed = false;
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (RecordEntity record : records) {
+                    RecordEntity indexed = mIndexed.remove(record.getPath().getAbsolutePath());
+                    if (indexed == null || indexed.getSize() != record.getSize()
+                            || indexed.getLastModified() != record.getLastModified()) {
+                        insertNow(record);
+                        changed = true;
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            return changed;
+        }
+
+        private boolean removeStale() {
+            boolean changed = false;
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (RecordEntity stale : mIndexed.values()) {
+                    changed |= removeNow(stale.getPath());
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            mIndexed.clear();
+            return changed;
+        }
+    }
+
+    private List<RecordEntity> queryNow() {
+        List<RecordEntity> records = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().query(TABLE, COLUMNS, null, null, null, null,
+                COLUMN_MTIME + " DESC");
+        try {
+            while (cursor.moveToNext()) {
+                RecordEntity record = new RecordEntity(new File(cursor.getString(0)),
+                        cursor.getString(1));
+                record.setSize(cursor.getLong(2));
+                record.setLastModified(cursor.getLong(3));
+                record.setFormat(cursor.getInt(4));
+                record.setDuration(cursor.getLong(5));
+                record.setSampleRate(cursor.getInt(6));
+                record.setChannelCount(cursor.getInt(7));
+                records.add(record);
+            }
+        } finally {
+            cursor.close();
+        }
+        return records;
+    }
+
+    /**
+     * @param durationMillis 解析不出时长时使用的值
+     */
+    private boolean updateNow(File file, long durationMillis) {
+        if (!file.isFile()) {
+            return removeNow(file);
+        }
+        int format = RecordingFormat.of(file);
+        if (format == RecordingFormat.UNKNOWN) {
+            return false;
+        }
+        RecordEntity record = new RecordEntity(file.getAbsoluteFile(), file.getName());
+        record.setSize(file.length());
+        record.setLastModified(file.lastModified());
+        record.setFormat(format);
+        record.setDuration(durationMillis);
+        mMetadataCache.fill(record);
+        insertNow(record);
+        scheduleMetadataCacheSave();
+        return true;
+    }
+
+    private void insertNow(RecordEntity record) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_PATH, record.getPath().getAbsolutePath());
+        values.put(COLUMN_NAME, record.getName());
+        values.put(COLUMN_SIZE, record.getSize());
+        values.put(COLUMN_MTIME, record.getLastModified());
+        values.put(COLUMN_FORMAT, record.getFormat());
+        values.put(COLUMN_DURATION, record.getDuration());
+        values.put(COLUMN_SAMPLE_RATE, record.getSampleRate());
+        values.put(COLUMN_CHANNELS, record.getChannelCount());
+        getWritableDatabase().insertWithOnConflict(TABLE, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private void scheduleMetadataCacheSave() {
+        if (mSavePending.compareAndSet(false, true)) {
+            mMainHandler.postDelayed(mPostSaveMetadataCache, METADATA_SAVE_DELAY_MILLIS);
+        }
+    }
+
+    private void saveMetadataCache() {
+        try {
+            mMetadataCache.save();
+        } catch (IOException e) {
+            Log.w(TAG, "save metadata cache failed", e);
+        }
+    }
+
+    private boolean removeNow(File file) {
+        return getWritableDatabase().delete(TABLE, COLUMN_PATH + " = ?",
+                new String[]{file.getAbsolutePath()}) > 0;
+    }
+
+    private void notifyChanged() {
+        // 连续的多次变化合并成一次回调
+        if (mNotifyPending.compareAndSet(false, true)) {
+            mMainHandler.post(mNotifyChanged);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.xp.soundrecorder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * 记录正在进行的录音会话，服务被杀后重启时据此修复残留的录音文件。
+ * 每次写入都先写临时文件并 fsync，再重命名覆盖，保证日志本身不会写坏。
+ * 不是线程安全的，调用方需要保证所有操作在同一个线程上顺序执行
+ */
+public class RecordingJournal {
+
+    /**
+     * 录音过程中写入的临时文件后缀，正常停止时重命名为最终文件
+     */
+    public static final String PART_SUFFIX = ".part";
+
+    private static final String JOURNAL_NAME = "recording.journal";
+
+    private static final String KEY_PART_PATH = "part_path";
+
+    private static final String KEY_FINAL_PATH = "final_path";
+
+    private static final String KEY_ENGINE = "engine";
+
+    private static final String KEY_FORMAT = "format";
+
+    private static final String KEY_START_TIME = "start_time";
+
+    private static final String KEY_COMMITTED_BYTES = "committed_bytes";
+
+    private static final String KEY_PREALLOCATED = "preallocated";
+
+    private static final String KEY_SEGMENT_BASE_PATH = "segment_base_path";
+
+    public static class Entry {
+        public String partPath;
+        public String finalPath;
+        public int engine;
+        public int outputFileFormat;
+        public long startTime;
+        /**
+         * 最近一次确认已落盘的数据量
+         */
+        public long committedBytes;
+        /**
+         * 文件在开始时预分配过，末尾可能是没有写入的空间
+         */
+        public boolean preallocated;
+        /**
+         * 分段录音第一段的最终文件，恢复时按它找出所有分段的临时文件。不是分段录音时为 null
+         */
+        public String segmentBasePath;
+    }
+
+    private final File mJournalFile;
+
+    private Entry mActive;
+
+    public RecordingJournal(File dir) {
+        mJournalFile = new File(dir, JOURNAL_NAME);
+    }
+
+    public static File partFile(File finalFile) {
+        return new File(finalFile.getPath() + PART_SUFFIX);
+    }
+
+    public void begin(Entry entry) throws IOException {
+        mActive = entry;
+        write(entry);
+    }
+
+    public void updateProgress(long committedBytes) throws IOException {
+        if (mActive != null && mActive.committedBytes != committedBytes) {
+            mActive.committedBytes = committedBytes;
+            write(mActive);
+        }
+    }
+
+    /**
+     * 录音文件已经完整落盘或已修复，删除日志
+     */
+    public void commit() {
+        mActive = null;
+        mJournalFile.delete();
+    }
+
+    /**
+     * 读取上次异常退出时遗留的会话，没有时返回 null
+     */
+    public Entry readOrphan() {
+        if (mActive != null || !mJournalFile.exists()) {
+            return null;
+        }
+        Entry entry = read(mJournalFile);
+        if (entry == null) {
+            mJournalFile.delete();
+        }
+        return entry;
+    }
+
+    private void write(Entry entry) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(KEY_PART_PATH, entry.partPath);
+        properties.setProperty(KEY_FINAL_PATH, entry.finalPath);
+        properties.setProperty(KEY_ENGINE, String.valueOf(entry.engine));
+        properties.setProperty(KEY_FORMAT, String.valueOf(entry.outputFileFormat));
+        properties.setProperty(KEY_START_TIME, String.valueOf(entry.startTime));
+        properties.setProperty(KEY_COMMITTED_BYTES, String.valueOf(entry.committedBytes));
+        properties.setProperty(KEY_PREALLOCATED, String.valueOf(entry.preallocated));
+        if (entry.segmentBasePath != null) {
+            properties.setProperty(KEY_SEGMENT_BASE_PATH, entry.segmentBasePath);
+        }
+
+        File temp = new File(mJournalFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            properties.store(out, null);
+            out.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(mJournalFile)) {
+            throw new IOException("Failed to commit journal " + mJournalFile);
+        }
+    }
+
+    private static Entry read(File file) {
+        Properties properties = new Properties();
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+
+            Entry entry = new Entry();
+            entry.partPath = properties.getProperty(KEY_PART_PATH);
+            entry.finalPath = properties.getProperty(KEY_FINAL_PATH);
+            entry.engine = Integer.parseInt(properties.getProperty(KEY_ENGINE, "0"));
+            entry.outputFileFormat = Integer.parseInt(properties.getProperty(KEY_FORMAT, "0"));
+            entry.startTime = Long.parseLong(properties.getProperty(KEY_START_TIME, "0"));
+            entry.committedBytes = Long.parseLong(properties.getProperty(KEY_COMMITTED_BYTES, "0"));
+            entry.preallocated = Boolean.parseBoolean(properties.getProperty(KEY_PREALLOCATED));
+            entry.segmentBasePath = properties.getProperty(KEY_SEGMENT_BASE_PATH);
+            if (entry.partPath == null || entry.finalPath == null) {
+                return null;
+            }
+            return entry;
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+}
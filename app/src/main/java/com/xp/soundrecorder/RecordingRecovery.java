@@ -0,0 +1,412 @@
+package com.xp.soundrecorder;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 修复异常中断的录音：WAV 回填文件头（IMA ADPCM 先截断到完整的块），AMR 截断到最后一个完整帧，
+ * FLAC 截断到最后一个通过 CRC 校验的帧并重写 STREAMINFO，然后重命名为最终文件。
+ * 3GPP 的 moov 在停止时才写入，无法修复，只保留原始数据
+ */
+public final class RecordingRecovery {
+
+    private static final int PROBE_SIZE = 16;
+
+    private static final int FLAC_SCAN_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * FLAC 帧头的最大长度：同步码和参数 4 字节，帧号最多 7 字节，块大小和采样率各最多 2 字节，CRC-8 1 字节
+     */
+    private static final int MAX_FLAC_FRAME_HEADER_SIZE = 16;
+
+    private RecordingRecovery() {
+    }
+
+    /**
+     * @return 修复后的文件，没有可恢复的数据时返回 null
+     */
+    public static File recover(RecordingJournal.Entry entry) throws IOException {
+        File part = new File(entry.partPath);
+        if (!part.exists()) {
+            return null;
+        }
+        if (entry.preallocated) {
+            // 预分配的文件末尾是没有写入的空间，只保留最后一次确认落盘的部分
+            trim(part, entry.committedBytes);
+        }
+
+        byte[] head = new byte[PROBE_SIZE];
+        int headLength = readHead(part, head);
+        boolean recovered;
+        int amrType = AmrFormat.detect(head, headLength);
+        if (amrType != AmrFormat.TYPE_NONE) {
+            recovered = repairAmr(part, amrType);
+        } else if (isWav(head, headLength)) {
+            // PCM 文件头在 fmt 之前有 JUNK 块，ADPCM 文件头紧跟着 fmt
+            recovered = head[12] == 'f' ? repairImaAdpcmWav(part) : repairWav(part);
+        } else if (isFlac(head, headLength)) {
+            recovered = repairFlac(part);
+        } else {
+            recovered = part.length() > 0;
+        }
+
+        if (!recovered) {
+            part.delete();
+            return null;
+        }
+        File target = new File(entry.finalPath);
+        if (!part.renameTo(target)) {
+            throw new IOException("Failed to rename " + part + " to " + target);
+        }
+        return target;
+    }
+
+    /**
+     * 修复分段录音留下的所有临时文件：进程可能在切换分段的过程中被杀，
+     * 这时正在写入的、正在关闭的和提前打开的分段都还是临时文件
+     *
+     * @return 修复后的分段，没有数据的临时文件直接删除
+     */
+    public static List<File> recoverSegments(File baseFile) throws IOException {
+        List<File> recovered = new ArrayList<>();
+        for (File part : SegmentedFileWriter.findParts(baseFile)) {
+            RecordingJournal.Entry entry = new RecordingJournal.Entry();
+            entry.partPath = part.getAbsolutePath();
+            String path = part.getAbsolutePath();
+            entry.finalPath = path.substring(0, path.length() - RecordingJournal.PART_SUFFIX.length());
+            File file = recover(entry);
+            if (file != null) {
+                recovered.add(file);
+            }
+        }
+        return recovered;
+    }
+
+    static boolean repairWav(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() < WavFileWriter.HEADER_SIZE) {
+                return false;
+            }
+            byte[] header = new byte[WavFileWriter.HEADER_SIZE];
+            raf.readFully(header);
+            int blockAlign = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN).getShort(68);
+            if (blockAlign <= 0) {
+                return false;
+            }
+
+            long dataBytes = (raf.length() - WavFileWriter.HEADER_SIZE) / blockAlign * blockAlign;
+            if (dataBytes == 0) {
+                return false;
+            }
+            raf.setLength(WavFileWriter.HEADER_SIZE + dataBytes);
+            WavFileWriter.patchHeader(raf.getChannel(), dataBytes, blockAlign);
+            raf.getChannel().force(true);
+            return true;
+        } finally {
+            raf.close();
+        }
+    }
+
+    static boolean repairImaAdpcmWav(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() < ImaAdpcmFileWriter.HEADER_SIZE) {
+                return false;
+            }
+            byte[] header = new byte[ImaAdpcmFileWriter.HEADER_SIZE];
+            raf.readFully(header);
+            ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+            int blockAlign = buffer.getShort(ImaAdpcmFileWriter.BLOCK_ALIGN_OFFSET) & 0xFFFF;
+            int samplesPerBlock = buffer.getShort(ImaAdpcmFileWriter.SAMPLES_PER_BLOCK_OFFSET)
+                    & 0xFFFF;
+            if (blockAlign == 0 || samplesPerBlock == 0) {
+                return false;
+            }
+
+            long blocks = (raf.length() - ImaAdpcmFileWriter.HEADER_SIZE) / blockAlign;
+            if (blocks == 0) {
+                return false;
+            }
+            raf.setLength(ImaAdpcmFileWriter.HEADER_SIZE + blocks * blockAlign);
+            ImaAdpcmFileWriter.patchHeader(raf.getChannel(), blocks * blockAlign,
+                    blocks * samplesPerBlock);
+            raf.getChannel().force(true);
+            return true;
+        } finally {
+            raf.close();
+        }
+    }
+
+    static boolean repairAmr(File file, int type) throws IOException {
+        long fileLength = file.length();
+        long validLength = AmrFormat.magicLength(type);
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+        try {
+            skipFully(in, validLength);
+            while (true) {
+                int frameHeader = in.read();
+                if (frameHeader < 0) {
+                    break;
+                }
+                int frameSize = AmrFormat.frameSize(type, frameHeader);
+                // FileInputStream.skip 可以越过文件末尾，所以用文件长度判断帧是否完整
+                if (validLength + frameSize > fileLength) {
+                    break;
+                }
+                skipFully(in, frameSize - 1);
+                validLength += frameSize;
+            }
+        } finally {
+            in.close();
+        }
+
+        if (validLength <= AmrFormat.magicLength(type)) {
+            return false;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(validLength);
+            raf.getChannel().force(true);
+        } finally {
+            raf.close();
+        }
+        return true;
+    }
+
+    /**
+     * 逐字节累加 CRC-16，在下一个帧头处 CRC 为 0 就说明前一帧完整。帧头还要匹配期望的帧号和 CRC-8，
+     * 压缩数据中偶然出现的同步码不会被当成帧边界
+     */
+    static boolean repairFlac(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() <= FlacFileWriter.HEADER_SIZE) {
+                return false;
+            }
+            byte[] header = new byte[FlacFileWriter.HEADER_SIZE];
+            raf.readFully(header);
+            int info = FlacFileWriter.STREAMINFO_OFFSET;
+            int blockSize = ((header[info] & 0xFF) << 8) | (header[info + 1] & 0xFF);
+            int sampleRate = ((header[info + 10] & 0xFF) << 12) | ((header[info + 11] & 0xFF) << 4)
+                    | ((header[info + 12] & 0xFF) >> 4);
+            int channelCount = ((header[info + 12] >> 1) & 0x07) + 1;
+
+            byte[] buffer = new byte[FLAC_SCAN_BUFFER_SIZE];
+            long base = FlacFileWriter.HEADER_SIZE;
+            int length = 0;
+            int position = 0;
+            boolean eof = false;
+            long frameStart = -1;
+            long frameNumber = 0;
+            int frameSamples = 0;
+            int crc = 0;
+            // CRC 最近一次变成 0 的位置。预分配的文件末尾是 0，CRC 为 0 时再累加 0 仍然是 0，
+            // 最后一帧的结束位置要取这里而不是文件末尾
+            long crcZeroFrom = -1;
+            long validEnd = FlacFileWriter.HEADER_SIZE;
+            long totalSamples = 0;
+            int minFrameSize = Integer.MAX_VALUE;
+            int maxFrameSize = 0;
+            while (true) {
+                if (!eof && length - position < MAX_FLAC_FRAME_HEADER_SIZE) {
+                    // 保证帧头完整地在缓冲区中
+                    System.arraycopy(buffer, position, buffer, 0, length - position);
+                    base += position;
+                    length -= position;
+                    position = 0;
+                    while (length < buffer.length) {
+                        int read = raf.read(buffer, length, buffer.length - length);
+                        if (read < 0) {
+                            eof = true;
+                            break;
+                        }
+                        length += read;
+                    }
+                }
+                if (position >= length) {
+                    break;
+                }
+                long offset = base + position;
+                if (frameStart < 0) {
+                    frameSamples = flacFrameSamples(buffer, position, length - position, 0);
+                    if (frameSamples == 0) {
+                        return false;
+                    }
+                    frameStart = offset;
+                } else if (crc == 0 && buffer[position] == (byte) 0xFF) {
+                    int samples = flacFrameSamples(buffer, position, length - position,
+                            frameNumber + 1);
+                    if (samples > 0) {
+                        int frameSize = (int) (offset - frameStart);
+                        minFrameSize = Math.min(minFrameSize, frameSize);
+                        maxFrameSize = Math.max(maxFrameSize, frameSize);
+                        totalSamples += frameSamples;
+                        validEnd = offset;
+                        frameStart = offset;
+                        frameNumber++;
+                        frameSamples = samples;
+                    }
+                }
+                int previousCrc = crc;
+                crc = FlacEncoder.crc16(crc, buffer[position]);
+                position++;
+                if (crc == 0 && previousCrc != 0) {
+                    crcZeroFrom = offset + 1;
+                }
+            }
+            if (frameStart >= 0 && crc == 0 && crcZeroFrom > frameStart) {
+                // 最后一帧也是完整的
+                int frameSize = (int) (crcZeroFrom - frameStart);
+                minFrameSize = Math.min(minFrameSize, frameSize);
+                maxFrameSize = Math.max(maxFrameSize, frameSize);
+                totalSamples += frameSamples;
+                validEnd = crcZeroFrom;
+            }
+
+            if (totalSamples == 0) {
+                return false;
+            }
+            raf.setLength(validEnd);
+            raf.seek(info);
+            raf.write(FlacEncoder.streamInfo(sampleRate, channelCount, blockSize, minFrameSize,
+                    maxFrameSize, totalSamples));
+            raf.getChannel().force(true);
+            return true;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 校验 offset 处的 FLAC 帧头
+     *
+     * @return 这一帧的采样帧数，不是帧号为 frameNumber 的有效帧头时返回 0
+     */
+    private static int flacFrameSamples(byte[] data, int offset, int available,
+                                        long frameNumber) {
+        int end = offset + available;
+        if (available < 6 || data[offset] != (byte) 0xFF || data[offset + 1] != (byte) 0xF8) {
+            return 0;
+        }
+        int blockSizeCode = (data[offset + 2] >> 4) & 0x0F;
+        int sampleRateCode = data[offset + 2] & 0x0F;
+        int position = offset + 4;
+
+        // 帧号按 UTF-8 的方式编码
+        int first = data[position++] & 0xFF;
+        int leadingOnes = Integer.numberOfLeadingZeros(~(first << 24));
+        if (leadingOnes == 1 || leadingOnes > 7) {
+            return 0;
+        }
+        int continuation = leadingOnes == 0 ? 0 : leadingOnes - 1;
+        long number = leadingOnes == 0 ? first : first & (0x7F >> leadingOnes);
+        if (position + continuation > end) {
+            return 0;
+        }
+        for (int i = 0; i < continuation; i++) {
+            int b = data[position++] & 0xFF;
+            if ((b & 0xC0) != 0x80) {
+                return 0;
+            }
+            number = (number << 6) | (b & 0x3F);
+        }
+        if (number != frameNumber) {
+            return 0;
+        }
+
+        int blockSize;
+        if (blockSizeCode == 1) {
+            blockSize = 192;
+        } else if (blockSizeCode >= 2 && blockSizeCode <= 5) {
+            blockSize = 576 << (blockSizeCode - 2);
+        } else if (blockSizeCode == 6) {
+            if (position + 1 > end) {
+                return 0;
+            }
+            blockSize = (data[position++] & 0xFF) + 1;
+        } else if (blockSizeCode == 7) {
+            if (position + 2 > end) {
+                return 0;
+            }
+            blockSize = (((data[position] & 0xFF) << 8) | (data[position + 1] & 0xFF)) + 1;
+            position += 2;
+        } else if (blockSizeCode >= 8) {
+            blockSize = 256 << (blockSizeCode - 8);
+        } else {
+            return 0;
+        }
+        if (sampleRateCode == 12) {
+            position++;
+        } else if (sampleRateCode == 13 || sampleRateCode == 14) {
+            position += 2;
+        } else if (sampleRateCode == 15) {
+            return 0;
+        }
+        if (position >= end
+                || FlacEncoder.crc8(data, offset, position - offset) != (data[position] & 0xFF)) {
+            return 0;
+        }
+        return blockSize;
+    }
+
+    private static void trim(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() > length) {
+                raf.setLength(length);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static boolean isWav(byte[] head, int length) {
+        return length >= 12 && head[8] == 'W' && head[9] == 'A' && head[10] == 'V' && head[11] == 'E'
+                && ((head[0] == 'R' && head[1] == 'I' && head[2] == 'F' && head[3] == 'F')
+                || (head[0] == 'R' && head[1] == 'F' && head[2] == '6' && head[3] == '4'));
+    }
+
+    private static boolean isFlac(byte[] head, int length) {
+        return length >= 4 && head[0] == 'f' && head[1] == 'L' && head[2] == 'a' && head[3] == 'C';
+    }
+
+    private static int readHead(File file, byte[] head) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            int total = 0;
+            while (total < head.length) {
+                int read = in.read(head, total, head.length - total);
+                if (read < 0) {
+                    break;
+                }
+                total += read;
+            }
+            return total;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        long skipped = 0;
+        while (skipped < count) {
+            long n = in.skip(count - skipped);
+            if (n <= 0) {
+                if (in.read() < 0) {
+                    return;
+                }
+                n = 1;
+            }
+            skipped += n;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.xp.soundrecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 并行递归扫描录音目录。每个子目录作为一个独立任务提交到线程池，
+ * 找到的录音按批次回调，不必等整个扫描结束；格式按文件头判断，不看扩展名，元数据的解析也分散在各个扫描线程中。
+ * 一个实例只用于一次扫描
+ */
+public class RecordingScanner {
+
+    public static final int DEFAULT_BATCH_SIZE = 32;
+
+    public interface Listener {
+        /**
+         * 在扫描线程中回调，可能同时来自多个线程
+         */
+        void onRecordsFound(List<RecordEntity> records);
+
+        /**
+         * 所有目录都扫描完成或扫描被取消后回调一次
+         */
+        void onScanFinished();
+    }
+
+    private final Executor mExecutor;
+
+    private final int mBatchSize;
+
+    private final Listener mListener;
+
+    private final MetadataCache mMetadataCache;
+
+    /**
+     * 还没有扫描完成的目录数，减到 0 表示扫描结束
+     */
+    private final AtomicInteger mPendingDirs = new AtomicInteger();
+
+    /**
+     * 已经访问过的目录，防止符号链接造成死循环
+     */
+    private final Set<String> mVisitedDirs =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private volatile boolean mCancelled;
+
+    public RecordingScanner(Executor executor, int batchSize, Listener listener) {
+        this(executor, batchSize, listener, null);
+    }
+
+    /**
+     * @param metadataCache 不为 null 时在扫描线程中顺便解析时长等元数据
+     */
+    public RecordingScanner(Executor executor, int batchSize, Listener listener,
+                            MetadataCache metadataCache) {
+        mExecutor = executor;
+        mBatchSize = batchSize;
+        mListener = listener;
+        mMetadataCache = metadataCache;
+    }
+
+    public void scan(File root) {
+        mPendingDirs.incrementAndGet();
+        submit(root);
+    }
+
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    private void submit(final File dir) {
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        scanDirectory(dir);
+                    } finally {
+                        finishDirectory();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            finishDirectory();
+        }
+    }
+
+    private void finishDirectory() {
+        if (mPendingDirs.decrementAndGet() == 0) {
+            mListener.onScanFinished();
+        }
+    }
+
+    private void scanDirectory(File dir) {
+        if (mCancelled || !mVisitedDirs.add(canonicalPath(dir))) {
+            return;
+        }
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        List<RecordEntity> batch = new ArrayList<>();
+        for (File file : files) {
+            if (mCancelled) {
+                return;
+            }
+            String name = file.getName();
+            if (file.isDirectory()) {
+                if (!name.startsWith(".")) {
+                    // 先计数再提交，保证计数不会在子目录提交之前归零
+                    mPendingDirs.incrementAndGet();
+                    submit(file);
+                }
+                continue;
+            }
+            int format = RecordingFormat.of(file);
+            if (format == RecordingFormat.UNKNOWN) {
+                continue;
+            }
+            RecordEntity record = new RecordEntity(file.getAbsoluteFile(), name);
+            record.setSize(file.length());
+            record.setLastModified(file.lastModified());
+            record.setFormat(format);
+            if (mMetadataCache != null) {
+                mMetadataCache.fill(record);
+            }
+            batch.add(record);
+            if (batch.size() >= mBatchSize) {
+                mListener.onRecordsFound(batch);
+                batch = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            mListener.onRecordsFound(batch);
+        }
+    }
+
+    private static String canonicalPath(File dir) {
+        try {
+            return dir.getCanonicalPath();
+        } catch (IOException e) {
+            return dir.getAbsolutePath();
+        }
+    }
+}
@@ -2,10 +2,15 @@ package com.xp.soundrecorder;
 
 import android.os.Environment;
 import android.os.StatFs;
+import android.os.SystemClock;
 
 import java.io.File;
 
 
+/**
+ * 估算剩余录音时间。已写入的字节数和写入速度来自 {@link WriteCounter}，
+ * 剩余空间在两次 stat 之间按写入量推算，剩余时间越短 stat 越频繁，录音时几乎没有系统调用
+ */
 public class RemainingTimeCalculator {
     public static final int UNKNOWN_LIMIT = 0;
 
@@ -15,8 +20,26 @@ public class RemainingTimeCalculator {
 
     private static final int EXTERNAL_STORAGE_BLOCK_THREAD_HOLD = 32;
 
+    /**
+     * 两次 stat 的间隔不超过剩余时间的 1/20，并限制在 1 秒到 1 分钟之间
+     */
+    private static final int STAT_INTERVAL_DIVISOR = 20;
+
+    private static final long MIN_STAT_INTERVAL_MILLIS = 1000;
+
+    private static final long MAX_STAT_INTERVAL_MILLIS = 60 * 1000;
+
+    /**
+     * 没有写入计数时（MediaRecorder 自己写文件）读取文件长度的间隔
+     */
+    private static final long FILE_SIZE_SAMPLE_INTERVAL_MILLIS = 2000;
+
     private int mCurrentLowerLimit = UNKNOWN_LIMIT;
 
+    private final String mStoragePath;
+
+    private StatFs mStatFs;
+
     /**
      * 用于跟踪记录的文件大小的状态
      */
@@ -25,25 +48,41 @@ public class RemainingTimeCalculator {
     private long mMaxBytes;
 
     /**
-     * 文件增长的速度
+     * 预分配的文件长度，这部分空间在 stat 中已经不算可用，但仍然留给本次录音
      */
-    private int mBytesPerSecond;
+    private long mPreallocatedLength;
 
     /**
-     * 最后更改时间
+     * 标称的文件增长速度，实测速度出来之前使用
      */
-    private long mBlocksChangedTime;
+    private int mBytesPerSecond = 1;
 
-    private long mLastBlocks;
+    private WriteCounter mWriteCounter;
 
     /**
-     * 文件大小最后更改的时间
+     * 没有写入计数时，按间隔读取文件长度来驱动的计数
      */
-    private long mFileSizeChangedTime;
+    private WriteCounter mFileSizeCounter;
 
-    private long mLastFileSize;
+    private long mNextFileSizeSampleTime;
+
+    /**
+     * 既没有写入计数也没有文件时，从这个时间开始按标称速度推算写入量
+     */
+    private long mStartTime;
+
+    /**
+     * 最近一次 stat 得到的可用空间，以及当时已写入的字节数
+     */
+    private long mFreeBytes;
+
+    private long mBytesAtStat;
+
+    private long mNextStatTime;
 
     public RemainingTimeCalculator() {
+        mStoragePath = Environment.getExternalStorageDirectory().getAbsolutePath();
+        reset();
     }
 
 
@@ -52,49 +91,70 @@ public class RemainingTimeCalculator {
         mMaxBytes = maxBytes;
     }
 
+    /**
+     * 设置正在录制的文件的写入计数，为 null 时退回读取文件长度
+     */
+    public void setWriteCounter(WriteCounter counter) {
+        if (counter != mWriteCounter) {
+            mWriteCounter = counter;
+            // 写入量的来源变了，下次重新 stat 作为起点
+            mNextStatTime = 0;
+        }
+    }
+
+    /**
+     * 录音文件在开始时预分配到的长度
+     */
+    public void setPreallocatedLength(long length) {
+        mPreallocatedLength = length;
+        mNextStatTime = 0;
+    }
+
     public void reset() {
         mCurrentLowerLimit = UNKNOWN_LIMIT;
-        mBlocksChangedTime = -1;
-        mFileSizeChangedTime = -1;
+        mRecordingFile = null;
+        mPreallocatedLength = 0;
+        mWriteCounter = null;
+        mFileSizeCounter = new WriteCounter();
+        mNextFileSizeSampleTime = 0;
+        mStartTime = -1;
+        mNextStatTime = 0;
     }
 
     public long timeRemaining() {
-        StatFs fs;
-        long blocks;
-        long blockSize;
-        long now = System.currentTimeMillis();
-
-        fs = new StatFs(Environment.getExternalStorageDirectory().getAbsolutePath());
-        blocks = fs.getAvailableBlocksLong() - EXTERNAL_STORAGE_BLOCK_THREAD_HOLD;
-        blockSize = fs.getBlockSizeLong();
-        if (blocks < 0) {
-            blocks = 0;
+        long now = SystemClock.elapsedRealtime();
+        WriteCounter counter = currentCounter(now);
+        long written;
+        float bytesPerSecond = 0;
+        if (counter != null) {
+            written = counter.getBytes();
+            bytesPerSecond = counter.getBytesPerSecond();
+        } else {
+            if (mStartTime < 0) {
+                mStartTime = now;
+            }
+            written = (now - mStartTime) * mBytesPerSecond / 1000;
         }
-
-        if (mBlocksChangedTime == -1 || blocks != mLastBlocks) {
-            mBlocksChangedTime = now;
-            mLastBlocks = blocks;
+        if (bytesPerSecond <= 0) {
+            bytesPerSecond = mBytesPerSecond;
         }
 
-        long result = mLastBlocks * blockSize / mBytesPerSecond;
-
-        result -= (now - mBlocksChangedTime) / 1000;
+        if (now >= mNextStatTime) {
+            mFreeBytes = availableBytes() + Math.max(0, mPreallocatedLength - written);
+            mBytesAtStat = written;
+            long interval = (long) (mFreeBytes / bytesPerSecond * 1000 / STAT_INTERVAL_DIVISOR);
+            mNextStatTime = now + Math.max(MIN_STAT_INTERVAL_MILLIS,
+                    Math.min(MAX_STAT_INTERVAL_MILLIS, interval));
+        }
+        long freeBytes = Math.max(0, mFreeBytes - (written - mBytesAtStat));
+        long result = (long) (freeBytes / bytesPerSecond);
 
         if (mRecordingFile == null) {
             mCurrentLowerLimit = DISK_SPACE_LIMIT;
             return result;
         }
 
-
-        mRecordingFile = new File(mRecordingFile.getAbsolutePath());
-        long fileSize = mRecordingFile.length();
-        if (mFileSizeChangedTime == -1 || fileSize != mLastFileSize) {
-            mFileSizeChangedTime = now;
-            mLastFileSize = fileSize;
-        }
-
-        long result2 = (mMaxBytes - fileSize) / mBytesPerSecond;
-        result2 -= (now - mFileSizeChangedTime) / 1000;
+        long result2 = (long) ((mMaxBytes - written) / bytesPerSecond);
         result2 -= 1;
 
         mCurrentLowerLimit = result < result2 ? DISK_SPACE_LIMIT : FILE_SIZE_LIMIT;
@@ -108,12 +168,41 @@ public class RemainingTimeCalculator {
 
 
     public boolean diskSpaceAvailable() {
-        StatFs fs = new StatFs(Environment.getExternalStorageDirectory().getAbsolutePath());
-        return fs.getAvailableBlocksLong() > EXTERNAL_STORAGE_BLOCK_THREAD_HOLD;
+        return availableBytes() > 0;
     }
 
 
     public void setBitRate(int bitRate) {
-        mBytesPerSecond = bitRate / 8;
+        mBytesPerSecond = Math.max(1, bitRate / 8);
+    }
+
+    /**
+     * 有写入计数时直接使用；否则每隔一段时间读一次文件长度，没有文件时返回 null
+     */
+    private WriteCounter currentCounter(long now) {
+        if (mWriteCounter != null) {
+            return mWriteCounter;
+        }
+        if (mRecordingFile == null) {
+            return null;
+        }
+        if (now >= mNextFileSizeSampleTime) {
+            mFileSizeCounter.add(mRecordingFile.length() - mFileSizeCounter.getBytes());
+            mNextFileSizeSampleTime = now + FILE_SIZE_SAMPLE_INTERVAL_MILLIS;
+        }
+        return mFileSizeCounter;
+    }
+
+    /**
+     * 扣除保留块后的可用空间。StatFs 只创建一次，之后用 restat 刷新
+     */
+    private long availableBytes() {
+        if (mStatFs == null) {
+            mStatFs = new StatFs(mStoragePath);
+        } else {
+            mStatFs.restat(mStoragePath);
+        }
+        long blocks = mStatFs.getAvailableBlocksLong() - EXTERNAL_STORAGE_BLOCK_THREAD_HOLD;
+        return Math.max(0, blocks) * mStatFs.getBlockSizeLong();
     }
 }
@@ -0,0 +1,21 @@
+package com.xp.soundrecorder;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 可以随机读取的 16 位交错 PCM 数据，波形放大到单个采样时使用
+ */
+public interface SampleSource extends Closeable {
+
+    int getChannelCount();
+
+    long getFrameCount();
+
+    /**
+     * 从 startFrame 开始读取最多 frameCount 帧
+     *
+     * @return 实际读取的帧数
+     */
+    int readFrames(long startFrame, short[] buffer, int frameCount) throws IOException;
+}
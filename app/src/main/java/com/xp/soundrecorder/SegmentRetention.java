@@ -0,0 +1,54 @@
+package com.xp.soundrecorder;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分段录音的保留策略：已完成的分段总大小超过上限时，从最早的一段开始删除。
+ * 正在录制的一段不计算在内，所以实际占用最多再多出一段。不是线程安全的
+ */
+public class SegmentRetention {
+
+    private final long mMaxBytes;
+
+    private final ArrayDeque<File> mSegments = new ArrayDeque<>();
+
+    /**
+     * 每段加入时的大小，文件被外部删除后也能正确扣除
+     */
+    private final ArrayDeque<Long> mLengths = new ArrayDeque<>();
+
+    private long mTotalBytes;
+
+    public SegmentRetention(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * 记录一段新完成的分段，必要时删除最早的分段。刚完成的一段总会保留
+     *
+     * @return 被删除的分段
+     */
+    public List<File> add(File segment) {
+        long length = segment.length();
+        mSegments.addLast(segment);
+        mLengths.addLast(length);
+        mTotalBytes += length;
+
+        List<File> deleted = new ArrayList<>();
+        while (mTotalBytes > mMaxBytes && mSegments.size() > 1) {
+            File oldest = mSegments.removeFirst();
+            mTotalBytes -= mLengths.removeFirst();
+            if (oldest.delete()) {
+                deleted.add(oldest);
+            }
+        }
+        return deleted;
+    }
+
+    public long getTotalBytes() {
+        return mTotalBytes;
+    }
+}
@@ -0,0 +1,386 @@
+package com.xp.soundrecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分段录音：每到指定时长或大小就切换到下一个文件，切换点落在两个采样之间，音频前后连续。
+ * 下一段在辅助线程中提前打开，切换时写线程只是换一个写入器；旧分段的刷新、fsync 和回填文件头
+ * 也交给辅助线程，写线程不会因为切换而停顿。
+ * 每段先写入 .part 文件，除最后一段外关闭后在辅助线程中重命名为最终文件，再通过 {@link Callback} 通知，
+ * 最后一段在 close 后由调用方提交。进程被杀时留下的临时文件可以用 {@link #findParts} 找到
+ */
+public class SegmentedFileWriter implements PcmFileWriter {
+
+    public interface Factory {
+        PcmFileWriter create(String path);
+    }
+
+    public interface Callback {
+        /**
+         * 一段已经完整写入、关闭并重命名为最终文件。重命名失败时临时文件留给恢复流程处理，
+         * 不会调用。在辅助线程中调用
+         */
+        void onSegmentClosed(File segment);
+    }
+
+    private static final ThreadFactory SEGMENT_THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "SegmentWriter");
+        }
+    };
+
+    /**
+     * 等待辅助线程关闭最后几个文件的最长时间
+     */
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    private static class Segment {
+        final File file;
+        final PcmFileWriter writer;
+        /**
+         * 这一段自己的写入计数，用于按大小切换
+         */
+        final WriteCounter counter;
+
+        Segment(File file, PcmFileWriter writer, WriteCounter counter) {
+            this.file = file;
+            this.writer = writer;
+            this.counter = counter;
+        }
+    }
+
+    private final File mBaseFile;
+
+    private final Factory mFactory;
+
+    private final long mSegmentMillis;
+
+    private final long mSegmentBytes;
+
+    private final Callback mCallback;
+
+    private long mCheckpointIntervalMillis;
+
+    private WriteCounter mWriteCounter;
+
+    private int mSampleRate;
+
+    private int mChannelCount;
+
+    private ExecutorService mExecutor;
+
+    private volatile Segment mCurrent;
+
+    private Future<Segment> mNext;
+
+    private int mIndex;
+
+    private long mSegmentFrames;
+
+    private long mFramesInSegment;
+
+    /**
+     * 当前分段中已经累加到总计数的字节数
+     */
+    private long mForwardedBytes;
+
+    /**
+     * 切换点落在一块数据中间时，后半块复制到这里再写给下一段
+     */
+    private short[] mSplitBuffer;
+
+    private volatile IOException mError;
+
+    /**
+     * @param baseFile      第一段的文件名，后面的分段在扩展名前加上序号
+     * @param segmentMillis 每段的时长，不大于 0 时不按时长切换
+     * @param segmentBytes  每段的大致大小，写满后在下一个块边界切换，不大于 0 时不按大小切换
+     */
+    public SegmentedFileWriter(File baseFile, Factory factory, long segmentMillis,
+                               long segmentBytes, Callback callback) {
+        mBaseFile = baseFile;
+        mFactory = factory;
+        mSegmentMillis = segmentMillis;
+        mSegmentBytes = segmentBytes;
+        mCallback = callback;
+    }
+
+    /**
+     * 第 index 段（从 0 开始）的文件：第一段就是 baseFile，之后是 name-002.wav 这样的名字
+     */
+    public static File segmentFile(File baseFile, int index) {
+        if (index == 0) {
+            return baseFile;
+        }
+        String name = baseFile.getName();
+        int dot = name.lastIndexOf('.');
+        String stem = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        return new File(baseFile.getParentFile(),
+                String.format(Locale.US, "%s-%03d%s", stem, index + 1, extension));
+    }
+
+    @Override
+    public void setCheckpointInterval(long millis) {
+        mCheckpointIntervalMillis = millis;
+    }
+
+    @Override
+    public void setWriteCounter(WriteCounter counter) {
+        mWriteCounter = counter;
+    }
+
+    /**
+     * 分段录音不预分配，忽略这个设置。每段的长度由分段条件决定，预分配整个上限没有意义
+     */
+    @Override
+    public void setPreallocatedLength(long length) {
+    }
+
+    @Override
+    public void open(int sampleRate, int channelCount) throws IOException {
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mSegmentFrames = mSegmentMillis > 0 ? mSegmentMillis * sampleRate / 1000 : 0;
+        mIndex = 0;
+        mFramesInSegment = 0;
+        mForwardedBytes = 0;
+        mError = null;
+        // 第一段同步打开，空间不足等问题在开始时就能报告
+        mCurrent = openSegment(0);
+        forwardBytes();
+        mExecutor = Executors.newSingleThreadExecutor(SEGMENT_THREAD_FACTORY);
+        prepareNext();
+    }
+
+    @Override
+    public void write(short[] samples, int length) throws IOException {
+        IOException error = mError;
+        if (error != null) {
+            throw new IOException("Segment writer failed", error);
+        }
+        int offset = 0;
+        while (offset < length) {
+            int count = length - offset;
+            if (mSegmentFrames > 0) {
+                count = (int) Math.min(count, (mSegmentFrames - mFramesInSegment) * mChannelCount);
+            }
+            if (offset == 0) {
+                mCurrent.writer.write(samples, count);
+            } else {
+                if (mSplitBuffer == null || mSplitBuffer.length < count) {
+                    mSplitBuffer = new short[length];
+                }
+                System.arraycopy(samples, offset, mSplitBuffer, 0, count);
+                mCurrent.writer.write(mSplitBuffer, count);
+            }
+            offset += count;
+            mFramesInSegment += count / mChannelCount;
+            forwardBytes();
+
+            if ((mSegmentFrames > 0 && mFramesInSegment >= mSegmentFrames)
+                    || (mSegmentBytes > 0 && mCurrent.counter.getBytes() >= mSegmentBytes)) {
+                switchSegment();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mExecutor == null) {
+            return;
+        }
+        IOException error = null;
+        try {
+            mCurrent.writer.close();
+            forwardBytes();
+        } catch (IOException e) {
+            error = e;
+        }
+
+        // 等辅助线程关闭之前的分段并打开好下一段
+        mExecutor.shutdown();
+        try {
+            if (!mExecutor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                error = new IOException("Timed out closing segments");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mExecutor = null;
+        // 提前打开的下一段没有数据，直接删除
+        try {
+            mNext.get().writer.close();
+        } catch (InterruptedException | ExecutionException | IOException ignored) {
+        }
+        RecordingJournal.partFile(segmentFile(mBaseFile, mIndex + 1)).delete();
+
+        if (error == null) {
+            error = mError;
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    @Override
+    public long getCommittedLength() {
+        Segment current = mCurrent;
+        return current != null ? current.writer.getCommittedLength() : 0;
+    }
+
+    /**
+     * 正在写入的分段，停止后是最后一段，可以在其他线程读取
+     */
+    public File getCurrentFile() {
+        Segment current = mCurrent;
+        return current != null ? current.file : mBaseFile;
+    }
+
+    /**
+     * 当前分段已写入的时长，停止后是最后一段的时长
+     */
+    public long getCurrentSegmentMillis() {
+        return mSampleRate > 0 ? mFramesInSegment * 1000 / mSampleRate : 0;
+    }
+
+    /**
+     * 按分段顺序排列：序号位数少的在前，位数相同时按名字排
+     */
+    private static final Comparator<File> SEGMENT_ORDER = new Comparator<File>() {
+        @Override
+        public int compare(File lhs, File rhs) {
+            int lengthDiff = lhs.getName().length() - rhs.getName().length();
+            return lengthDiff != 0 ? lengthDiff : lhs.getName().compareTo(rhs.getName());
+        }
+    };
+
+    /**
+     * baseFile 开始的分段录音中还没有提交的临时文件，包括正在写入、正在关闭和提前打开的分段，按分段顺序排列
+     */
+    public static List<File> findParts(File baseFile) {
+        List<File> parts = new ArrayList<>();
+        File[] files = baseFile.getAbsoluteFile().getParentFile().listFiles();
+        if (files == null) {
+            return parts;
+        }
+        String name = baseFile.getName();
+        int dot = name.lastIndexOf('.');
+        String stem = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        String basePart = name + RecordingJournal.PART_SUFFIX;
+        String segmentPrefix = stem + "-";
+        String segmentSuffix = extension + RecordingJournal.PART_SUFFIX;
+        for (File file : files) {
+            String fileName = file.getName();
+            if (fileName.startsWith(segmentPrefix) && fileName.endsWith(segmentSuffix)
+                    && isDigits(fileName, segmentPrefix.length(),
+                    fileName.length() - segmentSuffix.length())) {
+                parts.add(file);
+            }
+        }
+        Collections.sort(parts, SEGMENT_ORDER);
+        File first = new File(baseFile.getAbsoluteFile().getParentFile(), basePart);
+        if (first.exists()) {
+            parts.add(0, first);
+        }
+        return parts;
+    }
+
+    private static boolean isDigits(String text, int start, int end) {
+        if (end - start < 3) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) < '0' || text.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Segment openSegment(int index) throws IOException {
+        File file = segmentFile(mBaseFile, index);
+        WriteCounter counter = new WriteCounter();
+        PcmFileWriter writer = mFactory.create(RecordingJournal.partFile(file).getAbsolutePath());
+        writer.setCheckpointInterval(mCheckpointIntervalMillis);
+        writer.setWriteCounter(counter);
+        writer.open(mSampleRate, mChannelCount);
+        return new Segment(file, writer, counter);
+    }
+
+    private void prepareNext() {
+        final int index = mIndex + 1;
+        mNext = mExecutor.submit(new Callable<Segment>() {
+            @Override
+            public Segment call() throws IOException {
+                return openSegment(index);
+            }
+        });
+    }
+
+    private void switchSegment() throws IOException {
+        Segment next;
+        try {
+            // 下一段通常早就打开好了，这里不会等待
+            next = mNext.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while opening next segment");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause
+                    : new IOException("Open next segment failed", cause);
+        }
+        final Segment previous = mCurrent;
+        mCurrent = next;
+        mIndex++;
+        mFramesInSegment = 0;
+        mForwardedBytes = 0;
+        forwardBytes();
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    previous.writer.close();
+                } catch (IOException e) {
+                    mError = e;
+                    return;
+                }
+                // 在这里提交，close 返回时除最后一段外都已经是最终文件
+                if (RecordingJournal.partFile(previous.file).renameTo(previous.file)) {
+                    mCallback.onSegmentClosed(previous.file);
+                }
+            }
+        });
+        prepareNext();
+    }
+
+    /**
+     * 把当前分段新写入的字节累加到总计数，总计数只在写线程中更新
+     */
+    private void forwardBytes() {
+        if (mWriteCounter == null) {
+            return;
+        }
+        long bytes = mCurrent.counter.getBytes();
+        mWriteCounter.add(bytes - mForwardedBytes);
+        mForwardedBytes = bytes;
+    }
+}
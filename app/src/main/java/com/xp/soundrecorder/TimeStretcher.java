@@ -0,0 +1,245 @@
+package com.xp.soundrecorder;
+
+/**
+ * WSOLA 变速不变调：每次从输入中取一段，在搜索窗口内找和上一段结尾最相似的位置后交叉淡化拼接，
+ * 通过控制每段之间跳过的输入长度改变速度。所有缓冲区在构造时分配，处理过程中不再分配内存，
+ * 只能在一个线程中使用
+ */
+public class TimeStretcher {
+
+    public static final float MIN_RATE = 0.5f;
+
+    public static final float MAX_RATE = 3f;
+
+    /**
+     * 每段的长度，包括首尾两段交叠
+     */
+    private static final int SEQUENCE_MILLIS = 40;
+
+    /**
+     * 寻找最佳拼接位置的范围
+     */
+    private static final int SEEK_WINDOW_MILLIS = 15;
+
+    /**
+     * 相邻两段交叉淡化的长度
+     */
+    private static final int OVERLAP_MILLIS = 8;
+
+    private final int mChannelCount;
+
+    private final int mSequenceFrames;
+
+    private final int mSeekFrames;
+
+    private final int mOverlapFrames;
+
+    /**
+     * 输入缓冲区，交错存放，有效数据从 mInputStart 开始
+     */
+    private final float[] mInput;
+
+    private int mInputStart;
+
+    private int mInputFrames;
+
+    private final float[] mOutput;
+
+    private int mOutputStart;
+
+    private int mOutputFrames;
+
+    /**
+     * 上一段的结尾，和下一段的开头交叉淡化
+     */
+    private final float[] mOverlap;
+
+    /**
+     * 交叉淡化的增益曲线，预先算好
+     */
+    private final float[] mFadeIn;
+
+    private float mRate = 1f;
+
+    private double mSkipFraction;
+
+    public TimeStretcher(int sampleRate, int channelCount) {
+        mChannelCount = channelCount;
+        mSequenceFrames = sampleRate * SEQUENCE_MILLIS / 1000;
+        mSeekFrames = sampleRate * SEEK_WINDOW_MILLIS / 1000;
+        mOverlapFrames = sampleRate * OVERLAP_MILLIS / 1000;
+
+        // 处理一段需要的输入，再留出同样大小的空间接收新数据和 flush 时补的静音
+        int maxSkip = (int) Math.ceil(MAX_RATE * (mSequenceFrames - mOverlapFrames)) + 1;
+        int required = Math.max(mSeekFrames + mSequenceFrames, maxSkip);
+        mInput = new float[(required + mSeekFrames + mSequenceFrames) * channelCount];
+        mOutput = new float[2 * (mSequenceFrames - mOverlapFrames) * channelCount];
+        mOverlap = new float[mOverlapFrames * channelCount];
+        mFadeIn = new float[mOverlapFrames];
+        for (int i = 0; i < mOverlapFrames; i++) {
+            mFadeIn[i] = (float) i / mOverlapFrames;
+        }
+    }
+
+    /**
+     * 修改速度，从下一段开始生效，不影响已经缓冲的数据
+     */
+    public void setRate(float rate) {
+        mRate = Math.max(MIN_RATE, Math.min(MAX_RATE, rate));
+    }
+
+    public float getRate() {
+        return mRate;
+    }
+
+    /**
+     * 写入交错的 16 位采样
+     *
+     * @return 实际接受的帧数，输入缓冲区满时小于 frames，需要先用 {@link #receive} 取走输出
+     */
+    public int put(short[] buffer, int offset, int frames) {
+        compactInput();
+        int accepted = Math.min(frames, mInput.length / mChannelCount - mInputFrames);
+        int dst = (mInputStart + mInputFrames) * mChannelCount;
+        int count = accepted * mChannelCount;
+        for (int i = 0; i < count; i++) {
+            mInput[dst + i] = buffer[offset + i] * (1f / 32768);
+        }
+        mInputFrames += accepted;
+        return accepted;
+    }
+
+    /**
+     * 取出处理好的交错采样，没有可用输出时返回 0，说明需要更多输入
+     */
+    public int receive(short[] buffer, int offset, int maxFrames) {
+        if (mOutputFrames == 0) {
+            mOutputStart = 0;
+            process();
+        }
+        int frames = Math.min(maxFrames, mOutputFrames);
+        int src = mOutputStart * mChannelCount;
+        int count = frames * mChannelCount;
+        for (int i = 0; i < count; i++) {
+            float value = mOutput[src + i] * 32768;
+            buffer[offset + i] = value >= Short.MAX_VALUE ? Short.MAX_VALUE
+                    : value <= Short.MIN_VALUE ? Short.MIN_VALUE : (short) value;
+        }
+        mOutputStart += frames;
+        mOutputFrames -= frames;
+        return frames;
+    }
+
+    /**
+     * 输入结束时调用，用静音补足最后一段，剩余的输入随后可以通过 {@link #receive} 取出。
+     * 调用前应该已经把输出取完
+     */
+    public void flush() {
+        compactInput();
+        int padding = Math.min(mSeekFrames + mSequenceFrames,
+                mInput.length / mChannelCount - mInputFrames);
+        int dst = (mInputStart + mInputFrames) * mChannelCount;
+        for (int i = 0; i < padding * mChannelCount; i++) {
+            mInput[dst + i] = 0;
+        }
+        mInputFrames += padding;
+    }
+
+    /**
+     * 丢弃所有缓冲的数据，定位之后调用
+     */
+    public void clear() {
+        mInputStart = 0;
+        mInputFrames = 0;
+        mOutputStart = 0;
+        mOutputFrames = 0;
+        mSkipFraction = 0;
+        for (int i = 0; i < mOverlap.length; i++) {
+            mOverlap[i] = 0;
+        }
+    }
+
+    private void process() {
+        final int channels = mChannelCount;
+        final int outputFrames = mSequenceFrames - mOverlapFrames;
+        while (true) {
+            double skip = mRate * outputFrames + mSkipFraction;
+            int skipFrames = (int) skip;
+            if (mInputFrames < Math.max(mSeekFrames + mSequenceFrames, skipFrames)
+                    || mOutput.length / channels - mOutputStart - mOutputFrames < outputFrames) {
+                return;
+            }
+            mSkipFraction = skip - skipFrames;
+
+            int base = (mInputStart + seekBestOffset()) * channels;
+            int out = (mOutputStart + mOutputFrames) * channels;
+
+            // 上一段的结尾和这一段的开头交叉淡化
+            for (int i = 0; i < mOverlapFrames; i++) {
+                float fadeIn = mFadeIn[i];
+                for (int c = 0; c < channels; c++) {
+                    int k = i * channels + c;
+                    mOutput[out + k] = mOverlap[k] + (mInput[base + k] - mOverlap[k]) * fadeIn;
+                }
+            }
+            int middle = (mSequenceFrames - 2 * mOverlapFrames) * channels;
+            System.arraycopy(mInput, base + mOverlap.length, mOutput, out + mOverlap.length, middle);
+            System.arraycopy(mInput, base + mOverlap.length + middle, mOverlap, 0, mOverlap.length);
+            mOutputFrames += outputFrames;
+
+            mInputStart += skipFrames;
+            mInputFrames -= skipFrames;
+        }
+    }
+
+    /**
+     * 在搜索窗口内找和上一段结尾归一化互相关最大的位置
+     */
+    private int seekBestOffset() {
+        final float[] input = mInput;
+        final float[] overlap = mOverlap;
+        final int length = overlap.length;
+        final int start = mInputStart * mChannelCount;
+
+        float energy = 0;
+        for (int i = 0; i < length; i++) {
+            energy += input[start + i] * input[start + i];
+        }
+
+        int bestOffset = 0;
+        double bestScore = -Double.MAX_VALUE;
+        for (int offset = 0; offset < mSeekFrames; offset++) {
+            int pos = start + offset * mChannelCount;
+            if (offset > 0) {
+                // 能量随窗口滑动增量更新
+                for (int c = 0; c < mChannelCount; c++) {
+                    float out = input[pos - mChannelCount + c];
+                    float in = input[pos + length - mChannelCount + c];
+                    energy += in * in - out * out;
+                }
+            }
+            float correlation = 0;
+            for (int i = 0; i < length; i++) {
+                correlation += overlap[i] * input[pos + i];
+            }
+            double score = correlation / Math.sqrt(Math.max(energy, 1e-9f));
+            if (score > bestScore) {
+                bestScore = score;
+                bestOffset = offset;
+            }
+        }
+        return bestOffset;
+    }
+
+    /**
+     * 把输入数据移到缓冲区开头，给新数据腾出空间
+     */
+    private void compactInput() {
+        if (mInputStart == 0) {
+            return;
+        }
+        System.arraycopy(mInput, mInputStart * mChannelCount, mInput, 0,
+                mInputFrames * mChannelCount);
+        mInputStart = 0;
+    }
+}
@@ -0,0 +1,42 @@
+package com.xp.soundrecorder;
+
+/**
+ * 把秒数格式化为 mm:ss，写入调用方复用的 char 数组，不产生临时字符串
+ */
+public final class TimerFormat {
+
+    /**
+     * 足够容纳 9999:59
+     */
+    public static final int MAX_LENGTH = 7;
+
+    private static final int MAX_MINUTES = 9999;
+
+    private TimerFormat() {
+    }
+
+    /**
+     * 分钟至少两位，超过 99 分钟时按实际位数输出
+     *
+     * @param out 长度不小于 {@link #MAX_LENGTH}
+     * @return 写入的字符数
+     */
+    public static int format(long seconds, char[] out) {
+        if (seconds < 0) {
+            seconds = 0;
+        }
+        long minutes = Math.min(seconds / 60, MAX_MINUTES);
+        int second = (int) (seconds % 60);
+
+        int minuteDigits = minutes >= 1000 ? 4 : minutes >= 100 ? 3 : 2;
+        int m = (int) minutes;
+        for (int i = minuteDigits - 1; i >= 0; i--) {
+            out[i] = (char) ('0' + m % 10);
+            m /= 10;
+        }
+        out[minuteDigits] = ':';
+        out[minuteDigits + 1] = (char) ('0' + second / 10);
+        out[minuteDigits + 2] = (char) ('0' + second % 10);
+        return minuteDigits + 3;
+    }
+}
@@ -0,0 +1,109 @@
+package com.xp.soundrecorder;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * 用数字图片显示 mm:ss 的计时器。
+ * 数字和冒号的位图只解码一次，时间格式化到复用的 char 数组，只有显示的秒数变化时才重绘
+ */
+public class TimerView extends View {
+
+    private static final int[] DIGIT_RES_IDS = {
+            R.mipmap.number_0, R.mipmap.number_1, R.mipmap.number_2, R.mipmap.number_3,
+            R.mipmap.number_4, R.mipmap.number_5, R.mipmap.number_6, R.mipmap.number_7,
+            R.mipmap.number_8, R.mipmap.number_9
+    };
+
+    private final Bitmap[] mDigits = new Bitmap[DIGIT_RES_IDS.length];
+
+    private final char[] mText = new char[TimerFormat.MAX_LENGTH];
+
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private Bitmap mColon;
+
+    private Bitmap mDigitBackground;
+
+    private int mLength;
+
+    private long mSeconds = -1;
+
+    public TimerView(Context context) {
+        super(context);
+        init();
+    }
+
+    public TimerView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    public TimerView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        init();
+    }
+
+    private void init() {
+        for (int i = 0; i < DIGIT_RES_IDS.length; i++) {
+            mDigits[i] = BitmapFactory.decodeResource(getResources(), DIGIT_RES_IDS[i]);
+        }
+        mColon = BitmapFactory.decodeResource(getResources(), R.mipmap.colon);
+        mDigitBackground = BitmapFactory.decodeResource(getResources(), R.drawable.background_number);
+        setSeconds(0);
+    }
+
+    /**
+     * 设置显示的秒数，和当前显示相同时直接返回
+     */
+    public void setSeconds(long seconds) {
+        if (seconds < 0) {
+            seconds = 0;
+        }
+        if (seconds == mSeconds) {
+            return;
+        }
+        mSeconds = seconds;
+        int length = TimerFormat.format(seconds, mText);
+        if (length != mLength) {
+            mLength = length;
+            requestLayout();
+        }
+        invalidate();
+    }
+
+    public long getSeconds() {
+        return mSeconds;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = mColon.getWidth() + mDigits[0].getWidth() * (mLength - 1)
+                + getPaddingLeft() + getPaddingRight();
+        int height = mDigits[0].getHeight() + getPaddingTop() + getPaddingBottom();
+        setMeasuredDimension(resolveSize(width, widthMeasureSpec),
+                resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        float left = getPaddingLeft();
+        float top = getPaddingTop();
+        for (int i = 0; i < mLength; i++) {
+            char c = mText[i];
+            if (c == ':') {
+                canvas.drawBitmap(mColon, left, top, mPaint);
+                left += mColon.getWidth();
+            } else {
+                canvas.drawBitmap(mDigitBackground, left, top, mPaint);
+                canvas.drawBitmap(mDigits[c - '0'], left, top, mPaint);
+                left += mDigits[0].getWidth();
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.xp.soundrecorder;
+
+/**
+ * 电平表的分段点亮和峰值保持逻辑，与绘制分离以便在 JVM 上测试。
+ * 每帧调用 {@link #update(int, long)}，不分配任何对象
+ */
+public class VuMeterState {
+
+    private final int mSegmentCount;
+
+    private final long mDecayIntervalNanos;
+
+    private int mLevel = -1;
+
+    private int mPeakHold = -1;
+
+    private long mLastDecayNanos;
+
+    /**
+     * @param decayIntervalNanos 峰值保持每下降一格的间隔
+     */
+    public VuMeterState(int segmentCount, long decayIntervalNanos) {
+        mSegmentCount = segmentCount;
+        mDecayIntervalNanos = decayIntervalNanos;
+    }
+
+    public int getSegmentCount() {
+        return mSegmentCount;
+    }
+
+    /**
+     * @param amplitude      0 ~ {@link LevelMeter#FULL_SCALE}
+     * @param frameTimeNanos 当前帧的时间戳
+     * @return 点亮的分段是否有变化，没有变化时不需要重绘
+     */
+    public boolean update(int amplitude, long frameTimeNanos) {
+        int level = mSegmentCount * amplitude / LevelMeter.FULL_SCALE;
+        if (level >= mSegmentCount) {
+            level = mSegmentCount - 1;
+        } else if (level < 0) {
+            level = 0;
+        }
+
+        int peakHold = mPeakHold;
+        if (level >= peakHold) {
+            peakHold = level;
+            mLastDecayNanos = frameTimeNanos;
+        } else if (peakHold > 0 && frameTimeNanos - mLastDecayNanos >= mDecayIntervalNanos) {
+            peakHold--;
+            mLastDecayNanos = frameTimeNanos;
+        }
+
+        boolean changed = level != mLevel || peakHold != mPeakHold;
+        mLevel = level;
+        mPeakHold = peakHold;
+        return changed;
+    }
+
+    /**
+     * 熄灭所有分段
+     *
+     * @return 显示内容是否有变化
+     */
+    public boolean reset() {
+        boolean changed = mLevel != -1 || mPeakHold != -1;
+        mLevel = -1;
+        mPeakHold = -1;
+        return changed;
+    }
+
+    public boolean isLit(int index) {
+        return index <= mLevel || index == mPeakHold;
+    }
+}
@@ -0,0 +1,127 @@
+package com.xp.soundrecorder;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.Choreographer;
+import android.view.View;
+
+/**
+ * 录音电平表，跟随 Choreographer 的帧回调读取电平，只在点亮的分段变化时重绘。
+ * 位图和画笔在构造时准备好，每帧的读取、计算和绘制都不分配对象
+ */
+public class VuMeterView extends View implements Choreographer.FrameCallback {
+
+    private static final int SEGMENT_COUNT = 11;
+
+    private static final long DECAY_INTERVAL_NANOS = 100 * 1000 * 1000L;
+
+    public interface AmplitudeSource {
+        /**
+         * 在主线程每帧调用一次
+         *
+         * @return 0 ~ {@link LevelMeter#FULL_SCALE}
+         */
+        int readAmplitude();
+    }
+
+    private final VuMeterState mState = new VuMeterState(SEGMENT_COUNT, DECAY_INTERVAL_NANOS);
+
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private Bitmap mBackground;
+
+    private Bitmap mIndicator;
+
+    private AmplitudeSource mAmplitudeSource;
+
+    private boolean mRunning;
+
+    public VuMeterView(Context context) {
+        super(context);
+        init();
+    }
+
+    public VuMeterView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    public VuMeterView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        init();
+    }
+
+    private void init() {
+        mBackground = BitmapFactory.decodeResource(getResources(), R.drawable.background_vumeter);
+        mIndicator = BitmapFactory.decodeResource(getResources(), R.mipmap.icon_vumeter);
+    }
+
+    public void setAmplitudeSource(AmplitudeSource source) {
+        mAmplitudeSource = source;
+    }
+
+    public void start() {
+        if (!mRunning) {
+            mRunning = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    /**
+     * 停止读取电平并熄灭所有分段
+     */
+    public void stop() {
+        if (mRunning) {
+            mRunning = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+        if (mState.reset()) {
+            invalidate();
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+        int amplitude = mAmplitudeSource != null ? mAmplitudeSource.readAmplitude() : 0;
+        if (mState.update(amplitude, frameTimeNanos)) {
+            invalidate();
+        }
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        stop();
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = mBackground.getWidth() * SEGMENT_COUNT + getPaddingLeft() + getPaddingRight();
+        int height = mBackground.getHeight() + getPaddingTop() + getPaddingBottom();
+        setMeasuredDimension(resolveSize(width, widthMeasureSpec),
+                resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        int segmentWidth = mBackground.getWidth();
+        int contentWidth = getWidth() - getPaddingLeft() - getPaddingRight();
+        float left = getPaddingLeft() + (contentWidth - segmentWidth * SEGMENT_COUNT) / 2f;
+        float top = getPaddingTop();
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            canvas.drawBitmap(mBackground, left, top, mPaint);
+            if (mState.isLit(i)) {
+                canvas.drawBitmap(mIndicator, left, top, mPaint);
+            }
+            left += segmentWidth;
+        }
+    }
+}
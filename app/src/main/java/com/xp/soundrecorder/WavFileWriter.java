@@ -0,0 +1,257 @@
+package com.xp.soundrecorder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 通过 FileChannel 流式写入 16 位 PCM WAV 文件。
+ * 开始时写入占位文件头，停止时原地回填各个长度字段；数据超过 4GB 时自动改写为 RF64（EBU Tech 3306）。
+ * 文件头中预留了一个 JUNK 块，转换 RF64 时直接改写成 ds64 块，不需要移动音频数据
+ */
+public class WavFileWriter implements PcmFileWriter {
+
+    public static final int HEADER_SIZE = 80;
+
+    private static final int JUNK_CHUNK_OFFSET = 12;
+
+    private static final int DS64_PAYLOAD_SIZE = 28;
+
+    private static final int DATA_SIZE_OFFSET = 76;
+
+    private static final long MAX_RIFF_SIZE = 0xFFFFFFFFL;
+
+    private static final int WAVE_FORMAT_PCM = 1;
+
+    /**
+     * 一次系统调用写入的数据量
+     */
+    private static final int WRITE_BLOCK_SIZE = 256 * 1024;
+
+    private final String mPath;
+
+    private RandomAccessFile mFile;
+
+    private FileChannel mChannel;
+
+    private ByteBuffer mByteBuffer;
+
+    private ShortBuffer mShortBuffer;
+
+    private int mBlockAlign;
+
+    private long mDataBytes;
+
+    private volatile long mSyncedBytes;
+
+    private long mCheckpointIntervalNanos;
+
+    private long mLastCheckpointNanos;
+
+    private WriteCounter mWriteCounter;
+
+    private long mPreallocatedLength;
+
+    public WavFileWriter(String path) {
+        mPath = path;
+    }
+
+    @Override
+    public void setCheckpointInterval(long millis) {
+        mCheckpointIntervalNanos = millis * 1000 * 1000;
+    }
+
+    @Override
+    public void setWriteCounter(WriteCounter counter) {
+        mWriteCounter = counter;
+    }
+
+    @Override
+    public void setPreallocatedLength(long length) {
+        mPreallocatedLength = length;
+    }
+
+    @Override
+    public void open(int sampleRate, int channelCount) throws IOException {
+        mFile = new RandomAccessFile(mPath, "rw");
+        mChannel = mFile.getChannel();
+        mChannel.truncate(0);
+        mBlockAlign = channelCount * 2;
+        mDataBytes = 0;
+        mSyncedBytes = 0;
+        mLastCheckpointNanos = System.nanoTime();
+
+        ByteBuffer header = buildHeader(sampleRate, channelCount);
+        while (header.hasRemaining()) {
+            mChannel.write(header);
+        }
+        if (mPreallocatedLength > 0) {
+            try {
+                FilePreallocator.preallocate(mFile, mPreallocatedLength);
+            } catch (IOException e) {
+                mFile.close();
+                mFile = null;
+                mChannel = null;
+                throw e;
+            }
+        }
+        if (mWriteCounter != null) {
+            mWriteCounter.add(HEADER_SIZE);
+        }
+
+        if (mByteBuffer == null) {
+            mByteBuffer = ByteBuffer.allocateDirect(WRITE_BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            mShortBuffer = mByteBuffer.asShortBuffer();
+        }
+        mShortBuffer.clear();
+    }
+
+    @Override
+    public void write(short[] samples, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int count = Math.min(length - offset, mShortBuffer.remaining());
+            mShortBuffer.put(samples, offset, count);
+            offset += count;
+            if (!mShortBuffer.hasRemaining()) {
+                flushBuffer();
+            }
+        }
+        if (mWriteCounter != null) {
+            mWriteCounter.add(length * 2L);
+        }
+        checkpointIfDue();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mChannel == null) {
+            return;
+        }
+        try {
+            flushBuffer();
+            if (mPreallocatedLength > 0) {
+                // 截掉预分配但没有用到的部分
+                mChannel.truncate(HEADER_SIZE + mDataBytes);
+            }
+            patchHeader(mChannel, mDataBytes, mBlockAlign);
+            mChannel.force(true);
+            mSyncedBytes = mDataBytes;
+        } finally {
+            mFile.close();
+            mFile = null;
+            mChannel = null;
+        }
+    }
+
+    /**
+     * 已写入磁盘的音频数据字节数
+     */
+    public long getDataBytes() {
+        return mDataBytes;
+    }
+
+    /**
+     * 最近一次检查点时已确认落盘的数据字节数，可以在其他线程读取
+     */
+    public long getSyncedBytes() {
+        return mSyncedBytes;
+    }
+
+    @Override
+    public long getCommittedLength() {
+        return HEADER_SIZE + mSyncedBytes;
+    }
+
+    private void flushBuffer() throws IOException {
+        int bytes = mShortBuffer.position() * 2;
+        if (bytes == 0) {
+            return;
+        }
+        mByteBuffer.clear();
+        mByteBuffer.limit(bytes);
+        while (mByteBuffer.hasRemaining()) {
+            mChannel.write(mByteBuffer);
+        }
+        mDataBytes += bytes;
+        mShortBuffer.clear();
+    }
+
+    /**
+     * 到了检查点间隔就把缓冲区中不满一块的数据也写出，回填文件头后再 fsync，
+     * 低采样率时缓冲区要很久才能写满，不能等到那时才做检查点
+     */
+    private void checkpointIfDue() throws IOException {
+        if (mCheckpointIntervalNanos <= 0
+                || System.nanoTime() - mLastCheckpointNanos < mCheckpointIntervalNanos) {
+            return;
+        }
+        flushBuffer();
+        patchHeader(mChannel, mDataBytes, mBlockAlign);
+        mChannel.force(false);
+        mSyncedBytes = mDataBytes;
+        mLastCheckpointNanos = System.nanoTime();
+    }
+
+    static ByteBuffer buildHeader(int sampleRate, int channelCount) {
+        int blockAlign = channelCount * 2;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(fourCc("RIFF")).putInt(0).put(fourCc("WAVE"));
+        header.put(fourCc("JUNK")).putInt(DS64_PAYLOAD_SIZE);
+        header.position(header.position() + DS64_PAYLOAD_SIZE);
+        header.put(fourCc("fmt ")).putInt(16)
+                .putShort((short) WAVE_FORMAT_PCM)
+                .putShort((short) channelCount)
+                .putInt(sampleRate)
+                .putInt(sampleRate * blockAlign)
+                .putShort((short) blockAlign)
+                .putShort((short) 16);
+        header.put(fourCc("data")).putInt(0);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * 根据实际数据长度回填文件头，超过 4GB 时把文件改写为 RF64
+     */
+    static void patchHeader(FileChannel channel, long dataBytes, int blockAlign) throws IOException {
+        long riffSize = HEADER_SIZE - 8 + dataBytes;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (riffSize <= MAX_RIFF_SIZE) {
+            buffer.putInt((int) riffSize).flip();
+            writeFully(channel, buffer, 4);
+            buffer.clear();
+            buffer.putInt((int) dataBytes).flip();
+            writeFully(channel, buffer, DATA_SIZE_OFFSET);
+        } else {
+            buffer.put(fourCc("RF64")).putInt(-1).flip();
+            writeFully(channel, buffer, 0);
+            buffer.clear();
+            buffer.put(fourCc("ds64")).putInt(DS64_PAYLOAD_SIZE)
+                    .putLong(riffSize)
+                    .putLong(dataBytes)
+                    .putLong(dataBytes / blockAlign)
+                    .putInt(0)
+                    .flip();
+            writeFully(channel, buffer, JUNK_CHUNK_OFFSET);
+            buffer.clear();
+            buffer.putInt(-1).flip();
+            writeFully(channel, buffer, DATA_SIZE_OFFSET);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static byte[] fourCc(String id) {
+        return new byte[]{(byte) id.charAt(0), (byte) id.charAt(1), (byte) id.charAt(2),
+                (byte) id.charAt(3)};
+    }
+}
@@ -0,0 +1,373 @@
+package com.xp.soundrecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * 解析 WAV/RF64 文件头并顺序读取 16 位 PCM 数据，IMA ADPCM 编码的文件按块解码成 16 位 PCM。
+ * data 块长度为 0 或超出文件时（录音中断、还没回填文件头）按文件实际长度计算
+ */
+public class WavReader implements SampleSource {
+
+    public static final int WAVE_FORMAT_PCM = 1;
+
+    private static final int READ_BLOCK_SIZE = 64 * 1024;
+
+    private static final long UNKNOWN_SIZE = 0xFFFFFFFFL;
+
+    private final RandomAccessFile mFile;
+
+    private final FileChannel mChannel;
+
+    private int mFormatTag;
+
+    private int mChannelCount;
+
+    private int mSampleRate;
+
+    private int mBlockAlign;
+
+    private int mBitsPerSample;
+
+    private long mDataOffset;
+
+    private long mDataSize;
+
+    private long mFrameCount;
+
+    private long mRemaining;
+
+    private ByteBuffer mBuffer;
+
+    // 以下字段只用于 IMA ADPCM
+
+    private int mSamplesPerBlock;
+
+    /**
+     * fact 块中记录的总帧数，没有时为 -1
+     */
+    private long mFactFrames = -1;
+
+    private ByteBuffer mBlockBuffer;
+
+    /**
+     * 当前解码出的一块交错采样
+     */
+    private short[] mDecoded;
+
+    private int mDecodedPosition;
+
+    private int mDecodedLength;
+
+    private long mDecodedBlock = -1;
+
+    /**
+     * 还没读出的采样数
+     */
+    private long mRemainingSamples;
+
+    public WavReader(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "r");
+        mChannel = mFile.getChannel();
+        try {
+            parseHeader();
+        } catch (IOException | RuntimeException e) {
+            mFile.close();
+            throw e;
+        }
+        mChannel.position(mDataOffset);
+        mRemaining = mDataSize;
+        mRemainingSamples = mFrameCount * mChannelCount;
+    }
+
+    /**
+     * 是否能读出 16 位 PCM：本身是 16 位 PCM 或者是 IMA ADPCM
+     */
+    public boolean isSupported() {
+        return isPcm16() || isImaAdpcm();
+    }
+
+    /**
+     * 数据可以按 16 位 PCM 直接访问，不需要解码
+     */
+    public boolean isPcm16() {
+        return mFormatTag == WAVE_FORMAT_PCM && mBitsPerSample == 16;
+    }
+
+    public boolean isImaAdpcm() {
+        return mFormatTag == ImaAdpcm.WAVE_FORMAT_IMA_ADPCM && mBitsPerSample == 4
+                && mSamplesPerBlock == ImaAdpcm.samplesPerBlock(mBlockAlign, mChannelCount);
+    }
+
+    /**
+     * 把整个文件的 PCM 数据依次写给 sink，会负责打开和关闭 sink
+     */
+    public static void decode(File file, PcmSink sink) throws IOException {
+        WavReader reader = new WavReader(file);
+        try {
+            if (!reader.isSupported()) {
+                throw new IOException("Unsupported WAV encoding in " + file);
+            }
+            sink.open(reader.getSampleRate(), reader.getChannelCount());
+            boolean success = false;
+            try {
+                short[] samples = new short[READ_BLOCK_SIZE / 2];
+                int read;
+                while ((read = reader.read(samples, 0, samples.length)) > 0) {
+                    sink.write(samples, read);
+                }
+                success = true;
+            } finally {
+                if (success) {
+                    sink.close();
+                } else {
+                    try {
+                        sink.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void parseHeader() throws IOException {
+        long fileLength = mChannel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+        readAt(buffer, 0, 12);
+        int riff = buffer.getInt(0);
+        if ((riff != fourCc("RIFF") && riff != fourCc("RF64")) || buffer.getInt(8) != fourCc("WAVE")) {
+            throw new IOException("Not a WAV file");
+        }
+
+        long ds64DataSize = -1;
+        boolean hasFormat = false;
+        long position = 12;
+        while (position + 8 <= fileLength) {
+            readAt(buffer, position, 8);
+            int id = buffer.getInt(0);
+            long size = buffer.getInt(4) & 0xFFFFFFFFL;
+            long payload = position + 8;
+
+            if (id == fourCc("ds64")) {
+                readAt(buffer, payload, 16);
+                ds64DataSize = buffer.getLong(8);
+            } else if (id == fourCc("fmt ")) {
+                readAt(buffer, payload, size >= 20 ? 20 : 16);
+                mFormatTag = buffer.getShort(0) & 0xFFFF;
+                mChannelCount = buffer.getShort(2) & 0xFFFF;
+                mSampleRate = buffer.getInt(4);
+                mBlockAlign = buffer.getShort(12) & 0xFFFF;
+                mBitsPerSample = buffer.getShort(14) & 0xFFFF;
+                if (size >= 20) {
+                    // 扩展部分的第一个字段是每块帧数，只有 ADPCM 等按块编码的格式使用
+                    mSamplesPerBlock = buffer.getShort(18) & 0xFFFF;
+                }
+                hasFormat = true;
+            } else if (id == fourCc("fact")) {
+                readAt(buffer, payload, 4);
+                mFactFrames = buffer.getInt(0) & 0xFFFFFFFFL;
+            } else if (id == fourCc("data")) {
+                if (!hasFormat || mChannelCount == 0 || mSampleRate <= 0 || mBlockAlign == 0) {
+                    throw new IOException("Missing fmt chunk");
+                }
+                mDataOffset = payload;
+                long available = fileLength - payload;
+                if (size == UNKNOWN_SIZE && ds64DataSize >= 0) {
+                    size = ds64DataSize;
+                }
+                if (size == 0 || size > available) {
+                    size = available;
+                }
+                mDataSize = size / mBlockAlign * mBlockAlign;
+                if (isImaAdpcm()) {
+                    // 没有回填的 fact 为 0，按完整的块计算
+                    long frames = mDataSize / mBlockAlign * mSamplesPerBlock;
+                    mFrameCount = mFactFrames > 0 ? Math.min(mFactFrames, frames) : frames;
+                } else {
+                    mFrameCount = mDataSize / mBlockAlign;
+                }
+                return;
+            }
+            position = payload + size + (size & 1);
+        }
+        throw new IOException("Missing data chunk");
+    }
+
+    private void readAt(ByteBuffer buffer, long position, int length) throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            int read = mChannel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    /**
+     * 读取交错的 16 位采样
+     *
+     * @return 读取的采样数，数据读完时返回 -1
+     */
+    public int read(short[] samples, int offset, int length) throws IOException {
+        if (isImaAdpcm()) {
+            return readImaAdpcm(samples, offset, length);
+        }
+        if (mRemaining <= 0) {
+            return -1;
+        }
+        if (mBuffer == null) {
+            mBuffer = ByteBuffer.allocateDirect(READ_BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        int bytes = (int) Math.min(Math.min((long) length * 2, mRemaining), READ_BLOCK_SIZE);
+        bytes &= ~1;
+        mBuffer.clear();
+        mBuffer.limit(bytes);
+        while (mBuffer.hasRemaining()) {
+            if (mChannel.read(mBuffer) < 0) {
+                break;
+            }
+        }
+        mBuffer.flip();
+        int count = mBuffer.remaining() / 2;
+        if (count == 0) {
+            mRemaining = 0;
+            return -1;
+        }
+        mBuffer.asShortBuffer().get(samples, offset, count);
+        mRemaining -= count * 2;
+        return count;
+    }
+
+    private int readImaAdpcm(short[] samples, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length && mRemainingSamples > 0) {
+            if (mDecodedPosition == mDecodedLength && !decodeNextBlock()) {
+                mRemainingSamples = 0;
+                break;
+            }
+            int count = (int) Math.min(Math.min(length - total, mDecodedLength - mDecodedPosition),
+                    mRemainingSamples);
+            System.arraycopy(mDecoded, mDecodedPosition, samples, offset + total, count);
+            mDecodedPosition += count;
+            mRemainingSamples -= count;
+            total += count;
+        }
+        return total > 0 ? total : -1;
+    }
+
+    /**
+     * 从文件的当前位置读取并解码一块
+     *
+     * @return 剩下的数据不足一块时返回 false
+     */
+    private boolean decodeNextBlock() throws IOException {
+        if (mBlockBuffer == null) {
+            mBlockBuffer = ByteBuffer.allocate(mBlockAlign);
+            mDecoded = new short[mSamplesPerBlock * mChannelCount];
+        }
+        long block = (mChannel.position() - mDataOffset) / mBlockAlign;
+        mBlockBuffer.clear();
+        while (mBlockBuffer.hasRemaining()) {
+            if (mChannel.read(mBlockBuffer) < 0) {
+                return false;
+            }
+        }
+        ImaAdpcm.decodeBlock(mBlockBuffer.array(), 0, mChannelCount, mBlockAlign, mDecoded, 0);
+        mDecodedBlock = block;
+        mDecodedPosition = 0;
+        mDecodedLength = mDecoded.length;
+        return true;
+    }
+
+    /**
+     * 跳到指定帧，之后的 {@link #read} 从该帧开始
+     */
+    public void seekToFrame(long frame) throws IOException {
+        if (isImaAdpcm()) {
+            frame = Math.max(0, Math.min(frame, mFrameCount));
+            long block = frame / mSamplesPerBlock;
+            // 还在当前解码的块中时不需要重新读取，顺序读取时经常如此
+            if (block != mDecodedBlock && frame < mFrameCount) {
+                mChannel.position(mDataOffset + block * mBlockAlign);
+                if (!decodeNextBlock()) {
+                    throw new IOException("Unexpected end of file");
+                }
+            }
+            mDecodedPosition = (int) (frame - block * mSamplesPerBlock) * mChannelCount;
+            mRemainingSamples = (mFrameCount - frame) * mChannelCount;
+            return;
+        }
+        long offset = Math.max(0, Math.min(frame * mBlockAlign, mDataSize));
+        mChannel.position(mDataOffset + offset);
+        mRemaining = mDataSize - offset;
+    }
+
+    @Override
+    public int readFrames(long startFrame, short[] buffer, int frameCount) throws IOException {
+        seekToFrame(startFrame);
+        int wanted = frameCount * mChannelCount;
+        int total = 0;
+        while (total < wanted) {
+            int read = read(buffer, total, wanted - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total / mChannelCount;
+    }
+
+    public int getFormatTag() {
+        return mFormatTag;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getBlockAlign() {
+        return mBlockAlign;
+    }
+
+    public int getBitsPerSample() {
+        return mBitsPerSample;
+    }
+
+    public long getDataOffset() {
+        return mDataOffset;
+    }
+
+    public long getDataSize() {
+        return mDataSize;
+    }
+
+    @Override
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    public long getDurationMillis() {
+        return getFrameCount() * 1000 / mSampleRate;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+
+    private static int fourCc(String id) {
+        return id.charAt(0) | id.charAt(1) << 8 | id.charAt(2) << 16 | id.charAt(3) << 24;
+    }
+}
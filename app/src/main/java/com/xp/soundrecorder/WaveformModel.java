@@ -0,0 +1,217 @@
+package com.xp.soundrecorder;
+
+import java.io.IOException;
+
+/**
+ * 波形的可视范围和各列数据。缩放和平移只修改起始帧和每列帧数，
+ * 计算各列时从 {@link PeakFile} 选取合适的层级，放大到每列只有几帧并且有原始采样时直接读取采样，
+ * 任何缩放级别下的计算量都只和列数成正比
+ */
+public class WaveformModel {
+
+    /**
+     * 每列不超过该帧数并且有原始采样时改为读取采样
+     */
+    static final int SAMPLE_MODE_FRAMES_PER_COLUMN = 16;
+
+    private PeakFile mPeaks;
+
+    private SampleSource mSamples;
+
+    private long mTotalFrames;
+
+    private int mColumns;
+
+    private double mStartFrame;
+
+    private double mFramesPerColumn;
+
+    private boolean mFitted = true;
+
+    private short[] mSampleBuffer = new short[0];
+
+    public void setData(PeakFile peaks, SampleSource samples) {
+        mPeaks = peaks;
+        mSamples = peaks != null ? samples : null;
+        if (mSamples != null) {
+            mTotalFrames = mSamples.getFrameCount();
+        } else if (peaks != null) {
+            mTotalFrames = peaks.getFrameCount();
+        } else {
+            mTotalFrames = 0;
+        }
+        fit();
+    }
+
+    public boolean hasData() {
+        return mPeaks != null && mTotalFrames > 0 && mColumns > 0;
+    }
+
+    public PeakFile getPeaks() {
+        return mPeaks;
+    }
+
+    public SampleSource getSamples() {
+        return mSamples;
+    }
+
+    public void setColumns(int columns) {
+        if (columns == mColumns) {
+            return;
+        }
+        double centerFrame = mStartFrame + mFramesPerColumn * mColumns / 2;
+        mColumns = columns;
+        if (mFitted) {
+            fit();
+        } else {
+            mFramesPerColumn = clampFramesPerColumn(mFramesPerColumn);
+            mStartFrame = clampStartFrame(centerFrame - mFramesPerColumn * columns / 2);
+        }
+    }
+
+    public int getColumns() {
+        return mColumns;
+    }
+
+    /**
+     * 缩小到显示整个文件
+     */
+    public void fit() {
+        mFitted = true;
+        mStartFrame = 0;
+        mFramesPerColumn = maxFramesPerColumn();
+    }
+
+    public boolean isZoomed() {
+        return !mFitted;
+    }
+
+    /**
+     * 以某一列为中心缩放
+     *
+     * @param scale 大于 1 时放大
+     */
+    public void zoom(double scale, float focusColumn) {
+        if (mColumns == 0 || scale <= 0) {
+            return;
+        }
+        double focusFrame = mStartFrame + focusColumn * mFramesPerColumn;
+        double framesPerColumn = clampFramesPerColumn(mFramesPerColumn / scale);
+        if (framesPerColumn >= maxFramesPerColumn()) {
+            fit();
+            return;
+        }
+        mFitted = false;
+        mFramesPerColumn = framesPerColumn;
+        mStartFrame = clampStartFrame(focusFrame - focusColumn * framesPerColumn);
+    }
+
+    public void scrollBy(float columns) {
+        if (!mFitted) {
+            mStartFrame = clampStartFrame(mStartFrame + columns * mFramesPerColumn);
+        }
+    }
+
+    /**
+     * 让某一帧显示在可视范围内，已经可见时不移动
+     */
+    public boolean ensureVisible(long frame) {
+        if (mFitted || (frame >= mStartFrame && frame < mStartFrame + mFramesPerColumn * mColumns)) {
+            return false;
+        }
+        mStartFrame = clampStartFrame(frame);
+        return true;
+    }
+
+    public long frameAt(float column) {
+        long frame = (long) (mStartFrame + column * mFramesPerColumn);
+        return Math.max(0, Math.min(mTotalFrames, frame));
+    }
+
+    public float columnOf(long frame) {
+        return (float) ((frame - mStartFrame) / mFramesPerColumn);
+    }
+
+    public double getStartFrame() {
+        return mStartFrame;
+    }
+
+    public double getFramesPerColumn() {
+        return mFramesPerColumn;
+    }
+
+    public long getTotalFrames() {
+        return mTotalFrames;
+    }
+
+    public long framesToMillis(long frames) {
+        return mPeaks == null ? 0 : frames * 1000 / mPeaks.getSampleRate();
+    }
+
+    /**
+     * 计算当前可视范围内每一列的最小值和最大值
+     */
+    public void computeColumns(int[] outMin, int[] outMax) {
+        if (!hasData()) {
+            return;
+        }
+        if (mSamples != null && mFramesPerColumn <= SAMPLE_MODE_FRAMES_PER_COLUMN) {
+            try {
+                computeColumnsFromSamples(outMin, outMax);
+                return;
+            } catch (IOException e) {
+                // 读取失败时退回到峰值数据
+            }
+        }
+        mPeaks.computeColumns(mStartFrame, mFramesPerColumn, mColumns, outMin, outMax);
+    }
+
+    private void computeColumnsFromSamples(int[] outMin, int[] outMax) throws IOException {
+        int channels = mSamples.getChannelCount();
+        long firstFrame = (long) Math.floor(mStartFrame);
+        int frameCount = (int) Math.ceil(mFramesPerColumn * mColumns) + 1;
+        if (mSampleBuffer.length < frameCount * channels) {
+            mSampleBuffer = new short[frameCount * channels];
+        }
+        int read = mSamples.readFrames(firstFrame, mSampleBuffer, frameCount);
+        for (int column = 0; column < mColumns; column++) {
+            double from = mStartFrame + column * mFramesPerColumn - firstFrame;
+            int start = (int) Math.floor(from);
+            int end = Math.min(read, Math.max(start + 1, (int) Math.floor(from + mFramesPerColumn)));
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int i = start * channels; i < end * channels; i++) {
+                int sample = mSampleBuffer[i];
+                min = Math.min(min, sample);
+                max = Math.max(max, sample);
+            }
+            if (min > max) {
+                min = 0;
+                max = 0;
+            }
+            outMin[column] = min;
+            outMax[column] = max;
+        }
+    }
+
+    private double maxFramesPerColumn() {
+        return mColumns > 0 ? Math.max(1.0, (double) mTotalFrames / mColumns) : 1.0;
+    }
+
+    private double minFramesPerColumn() {
+        if (mSamples != null) {
+            return 1.0;
+        }
+        // 没有原始采样时最多把第 0 级的一个峰值放大到几列
+        return mPeaks != null ? Math.max(1.0, mPeaks.getFramesPerPeak() / 8.0) : 1.0;
+    }
+
+    private double clampFramesPerColumn(double framesPerColumn) {
+        return Math.max(minFramesPerColumn(), Math.min(maxFramesPerColumn(), framesPerColumn));
+    }
+
+    private double clampStartFrame(double startFrame) {
+        double max = mTotalFrames - mFramesPerColumn * mColumns;
+        return Math.max(0, Math.min(max, startFrame));
+    }
+}
@@ -0,0 +1,261 @@
+package com.xp.soundrecorder;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+import android.view.ViewConfiguration;
+
+import java.io.IOException;
+
+/**
+ * 根据 {@link PeakFile} 绘制录音波形，已播放的部分用不同颜色显示。
+ * 双指缩放，放大后左右拖动平移；未放大时拖动用来拖动播放位置，点击定位到对应的时间点。
+ * 各列数据只在数据、尺寸或可视范围变化时重新计算，更新播放进度时只重绘
+ */
+public class WaveformView extends View {
+
+    public interface OnSeekListener {
+        /**
+         * 用户点击或拖动后定位到的播放位置
+         */
+        void onSeek(long positionMillis);
+    }
+
+    private final WaveformModel mModel = new WaveformModel();
+
+    private final Paint mPlayedPaint = new Paint();
+
+    private final Paint mPendingPaint = new Paint();
+
+    private final Paint mPlayheadPaint = new Paint();
+
+    private int[] mMin = new int[0];
+
+    private int[] mMax = new int[0];
+
+    /**
+     * 每列一条竖线，4 个值依次为 x, top, x, bottom
+     */
+    private float[] mLines = new float[0];
+
+    private boolean mColumnsDirty;
+
+    private float mProgress;
+
+    private OnSeekListener mOnSeekListener;
+
+    private ScaleGestureDetector mScaleDetector;
+
+    private int mTouchSlop;
+
+    private float mDownX;
+
+    private float mLastX;
+
+    private boolean mDragging;
+
+    private boolean mScrubbing;
+
+    public WaveformView(Context context) {
+        super(context);
+        init(context);
+    }
+
+    public WaveformView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init(context);
+    }
+
+    public WaveformView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        init(context);
+    }
+
+    private void init(Context context) {
+        mPlayedPaint.setColor(getResources().getColor(R.color.waveform_played));
+        mPendingPaint.setColor(getResources().getColor(R.color.waveform_pending));
+        mPlayheadPaint.setColor(getResources().getColor(R.color.colorAccent));
+        mTouchSlop = ViewConfiguration.get(context).getScaledTouchSlop();
+        mScaleDetector = new ScaleGestureDetector(context,
+                new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+                    @Override
+                    public boolean onScale(ScaleGestureDetector detector) {
+                        mModel.zoom(detector.getScaleFactor(), detector.getFocusX() - getPaddingLeft());
+                        invalidateColumns();
+                        return true;
+                    }
+                });
+    }
+
+    public void setOnSeekListener(OnSeekListener listener) {
+        mOnSeekListener = listener;
+    }
+
+    /**
+     * @param peaks 为 null 时清空波形
+     */
+    public void setPeaks(PeakFile peaks) {
+        setData(peaks, null);
+    }
+
+    /**
+     * @param samples 原始采样，可以为 null；之后由该 View 负责关闭
+     */
+    public void setData(PeakFile peaks, SampleSource samples) {
+        SampleSource previous = mModel.getSamples();
+        if (previous != null && previous != samples) {
+            try {
+                previous.close();
+            } catch (IOException ignored) {
+            }
+        }
+        mModel.setData(peaks, samples);
+        invalidateColumns();
+    }
+
+    public PeakFile getPeaks() {
+        return mModel.getPeaks();
+    }
+
+    /**
+     * @param progress 播放进度，0 ~ 1；放大时播放位置移出可视范围会自动翻页
+     */
+    public void setProgress(float progress) {
+        if (mScrubbing) {
+            return;
+        }
+        float previousColumn = playheadColumn();
+        mProgress = progress;
+        if (mModel.ensureVisible(progressFrame())) {
+            invalidateColumns();
+        } else if ((int) playheadColumn() != (int) previousColumn) {
+            invalidate();
+        }
+    }
+
+    private long progressFrame() {
+        return (long) ((double) mProgress * mModel.getTotalFrames());
+    }
+
+    private float playheadColumn() {
+        return mModel.columnOf(progressFrame());
+    }
+
+    private void invalidateColumns() {
+        mColumnsDirty = true;
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        int columns = Math.max(0, w - getPaddingLeft() - getPaddingRight());
+        if (mMin.length < columns) {
+            mMin = new int[columns];
+            mMax = new int[columns];
+            mLines = new float[columns * 4];
+        }
+        mModel.setColumns(columns);
+        invalidateColumns();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (!mModel.hasData()) {
+            return false;
+        }
+        mScaleDetector.onTouchEvent(event);
+        if (mScaleDetector.isInProgress() || event.getPointerCount() > 1) {
+            mDragging = true;
+            mScrubbing = false;
+            return true;
+        }
+
+        float x = event.getX();
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                mDownX = x;
+                mLastX = x;
+                mDragging = false;
+                mScrubbing = false;
+                getParent().requestDisallowInterceptTouchEvent(true);
+                return true;
+            case MotionEvent.ACTION_MOVE:
+                if (!mDragging && Math.abs(x - mDownX) > mTouchSlop) {
+                    mDragging = true;
+                    mScrubbing = !mModel.isZoomed();
+                }
+                if (mScrubbing) {
+                    mProgress = (float) mModel.frameAt(x - getPaddingLeft()) / mModel.getTotalFrames();
+                    invalidate();
+                } else if (mDragging) {
+                    mModel.scrollBy(mLastX - x);
+                    invalidateColumns();
+                }
+                mLastX = x;
+                return true;
+            case MotionEvent.ACTION_UP:
+                if (!mDragging || mScrubbing) {
+                    mScrubbing = false;
+                    long frame = mModel.frameAt(x - getPaddingLeft());
+                    mProgress = (float) frame / mModel.getTotalFrames();
+                    invalidate();
+                    if (mOnSeekListener != null) {
+                        mOnSeekListener.onSeek(mModel.framesToMillis(frame));
+                    }
+                }
+                mDragging = false;
+                return true;
+            case MotionEvent.ACTION_CANCEL:
+                mDragging = false;
+                mScrubbing = false;
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    private void buildLines() {
+        mColumnsDirty = false;
+        int columns = mModel.getColumns();
+        if (!mModel.hasData()) {
+            return;
+        }
+        mModel.computeColumns(mMin, mMax);
+
+        int height = getHeight() - getPaddingTop() - getPaddingBottom();
+        float centerY = getPaddingTop() + height / 2f;
+        float scale = height / 2f / LevelMeter.FULL_SCALE;
+        for (int x = 0; x < columns; x++) {
+            float lineX = getPaddingLeft() + x + 0.5f;
+            mLines[x * 4] = lineX;
+            // 静音段也至少画一个像素
+            mLines[x * 4 + 1] = Math.min(centerY - mMax[x] * scale, centerY - 0.5f);
+            mLines[x * 4 + 2] = lineX;
+            mLines[x * 4 + 3] = Math.max(centerY - mMin[x] * scale, centerY + 0.5f);
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mColumnsDirty) {
+            buildLines();
+        }
+        if (!mModel.hasData()) {
+            return;
+        }
+        int columns = mModel.getColumns();
+        float playhead = playheadColumn();
+        int played = Math.max(0, Math.min(columns, (int) Math.ceil(playhead)));
+        canvas.drawLines(mLines, 0, played * 4, mPlayedPaint);
+        canvas.drawLines(mLines, played * 4, (columns - played) * 4, mPendingPaint);
+        if (mModel.isZoomed() && playhead >= 0 && playhead < columns) {
+            float x = getPaddingLeft() + playhead;
+            canvas.drawLine(x, getPaddingTop(), x, getHeight() - getPaddingBottom(), mPlayheadPaint);
+        }
+    }
+}
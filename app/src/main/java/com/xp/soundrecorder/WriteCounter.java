@@ -0,0 +1,73 @@
+package com.xp.soundrecorder;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 录音文件已写入的字节数和写入速度的指数滑动平均。写入线程每写一块调用一次 {@link #add}，
+ * 其他线程随时读取，不需要 stat 文件。速度按至少一秒的窗口采样后平滑，
+ * 可以反映 FLAC 等变码率格式的实际码率
+ */
+public class WriteCounter {
+
+    /**
+     * 速度采样窗口，窗口太短时单次写入的突发会让速度跳动
+     */
+    private static final long RATE_WINDOW_NANOS = 1000L * 1000 * 1000;
+
+    /**
+     * 平滑的时间常数，约 5 秒后旧速度的权重降到 37%
+     */
+    private static final double RATE_TIME_CONSTANT_NANOS = 5e9;
+
+    private final AtomicLong mBytes = new AtomicLong();
+
+    private volatile float mBytesPerSecond;
+
+    // 以下字段只在写入线程中访问
+
+    private long mWindowStartNanos = -1;
+
+    private long mWindowBytes;
+
+    public void add(long bytes) {
+        add(bytes, System.nanoTime());
+    }
+
+    void add(long bytes, long nowNanos) {
+        mBytes.addAndGet(bytes);
+        if (mWindowStartNanos < 0) {
+            // 第一次写入的通常是文件头，不计入速度
+            mWindowStartNanos = nowNanos;
+            return;
+        }
+        mWindowBytes += bytes;
+        long elapsed = nowNanos - mWindowStartNanos;
+        if (elapsed < RATE_WINDOW_NANOS) {
+            return;
+        }
+        float rate = (float) (mWindowBytes * 1e9 / elapsed);
+        float previous = mBytesPerSecond;
+        if (previous <= 0) {
+            mBytesPerSecond = rate;
+        } else {
+            double alpha = 1 - Math.exp(-elapsed / RATE_TIME_CONSTANT_NANOS);
+            mBytesPerSecond = (float) (previous + alpha * (rate - previous));
+        }
+        mWindowStartNanos = nowNanos;
+        mWindowBytes = 0;
+    }
+
+    /**
+     * 已写入的总字节数，可以在任意线程调用
+     */
+    public long getBytes() {
+        return mBytes.get();
+    }
+
+    /**
+     * 平滑后的写入速度，还没有足够的数据时返回 0
+     */
+    public float getBytesPerSecond() {
+        return mBytesPerSecond;
+    }
+}
@@ -0,0 +1,19 @@
+package com.xp.soundrecorder;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * 统计当前线程分配的字节数，依赖 HotSpot 的 com.sun.management.ThreadMXBean
+ */
+public final class AllocationCounter {
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private AllocationCounter() {
+    }
+
+    public static long currentThreadAllocatedBytes() {
+        return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
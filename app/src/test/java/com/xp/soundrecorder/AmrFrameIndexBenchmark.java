@@ -0,0 +1,85 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 建索引的速度基准，和单纯顺序读完同一个文件的速度对比
+ */
+public class AmrFrameIndexBenchmark {
+
+    private static final String WB_MAGIC = "#!AMR-WB\n";
+
+    /**
+     * 约 2 小时的 AMR-WB 23.85 kbps 录音
+     */
+    private static final int FRAMES = 2 * 3600 * AmrFrameIndex.FRAMES_PER_ENTRY;
+
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void buildsAtDiskSpeed() throws Exception {
+        File file = File.createTempFile("benchmark", ".amr");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(WB_MAGIC.getBytes("US-ASCII"));
+        byte[] frame = new byte[AmrFormat.frameSize(AmrFormat.TYPE_WB, 8 << 3)];
+        frame[0] = 8 << 3 | 0x04;
+        for (int i = 0; i < FRAMES; i++) {
+            out.write(frame);
+        }
+        out.close();
+
+        // 预热，同时让文件进入页缓存
+        AmrFrameIndex index = null;
+        for (int i = 0; i < ROUNDS; i++) {
+            readAll(file);
+            index = AmrFrameIndex.build(file);
+        }
+        assertEquals(FRAMES, index.getFrameCount());
+
+        long readNanos = Long.MAX_VALUE;
+        long buildNanos = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            readAll(file);
+            readNanos = Math.min(readNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            AmrFrameIndex.build(file);
+            buildNanos = Math.min(buildNanos, System.nanoTime() - start);
+        }
+
+        double megabytes = file.length() / (1024.0 * 1024.0);
+        System.out.printf("AmrFrameIndex: %.1f MB, read %.0f MB/s, build %.0f MB/s (%.2f ms per hour of audio)%n",
+                megabytes, megabytes * 1e9 / readNanos, megabytes * 1e9 / buildNanos,
+                buildNanos / 1e6 / 2);
+
+        long start = System.nanoTime();
+        long sum = 0;
+        for (long ms = 0; ms < index.getDurationMillis(); ms += 7) {
+            sum += index.offsetForTime(ms);
+        }
+        long lookups = index.getDurationMillis() / 7;
+        System.out.printf("AmrFrameIndex: offsetForTime %.1f ns per lookup (%d)%n",
+                (System.nanoTime() - start) / (double) lookups, sum & 1);
+    }
+
+    private static void readAll(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            while (in.read(buffer) >= 0) {
+                // 只读不处理
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
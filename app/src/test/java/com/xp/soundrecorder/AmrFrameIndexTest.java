@@ -0,0 +1,114 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+
+public class AmrFrameIndexTest {
+
+    private static final String WB_MAGIC = "#!AMR-WB\n";
+
+    private static final String NB_MAGIC = "#!AMR\n";
+
+    /**
+     * 生成帧长交替变化的 AMR-WB 数据，每个帧头的后几位写入帧序号方便校验
+     */
+    static byte[] buildWideband(int frames) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(WB_MAGIC.getBytes("US-ASCII"));
+        for (int i = 0; i < frames; i++) {
+            int frameType = i % 3 == 0 ? 9 : 8;
+            int size = AmrFormat.frameSize(AmrFormat.TYPE_WB, frameType << 3);
+            out.write(frameType << 3 | 0x04);
+            byte[] payload = new byte[size - 1];
+            if (payload.length > 0) {
+                payload[0] = (byte) i;
+            }
+            out.write(payload);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void mapsTimeToFrameOffsets() throws Exception {
+        byte[] data = buildWideband(260);
+        File file = File.createTempFile("index", ".amr");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+
+        AmrFrameIndex index = AmrFrameIndex.build(file);
+        assertEquals(260, index.getFrameCount());
+        assertEquals(5200, index.getDurationMillis());
+        assertEquals(16000, index.getSampleRate());
+        assertEquals(data.length, index.getDataEnd());
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            for (int frame = 0; frame < 260; frame++) {
+                long offset = index.offsetOfFrame(frame, raf);
+                raf.seek(offset);
+                raf.readUnsignedByte();
+                if (frame % 3 != 0) {
+                    assertEquals("frame " + frame, (byte) frame, raf.readByte());
+                }
+                assertEquals(expectedOffset(frame), offset);
+            }
+            // 2.5 秒落在第 2 秒的索引项上
+            assertEquals(expectedOffset(100), index.offsetForTime(2500));
+            assertEquals(expectedOffset(250), index.offsetForTime(60000));
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void framesCrossingReadBoundariesAreCounted() throws Exception {
+        final byte[] data = buildWideband(1000);
+        // 每次只返回 7 个字节，几乎每一帧都会跨越读取边界
+        InputStream in = new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+        AmrFrameIndex index = AmrFrameIndex.build(in);
+        assertEquals(1000, index.getFrameCount());
+        assertEquals(expectedOffset(500), index.offsetForTime(10000));
+    }
+
+    @Test
+    public void truncatedLastFrameIsDropped() throws Exception {
+        byte[] data = buildWideband(101);
+        ByteArrayInputStream in = new ByteArrayInputStream(data, 0, data.length - 3);
+        AmrFrameIndex index = AmrFrameIndex.build(in);
+        assertEquals(100, index.getFrameCount());
+        assertEquals(expectedOffset(100), index.getDataEnd());
+        assertEquals(expectedOffset(50), index.offsetForTime(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void emptyFile() throws Exception {
+        AmrFrameIndex index = AmrFrameIndex.build(
+                new ByteArrayInputStream(NB_MAGIC.getBytes("US-ASCII")));
+        assertEquals(0, index.getFrameCount());
+        assertEquals(AmrFormat.magicLength(AmrFormat.TYPE_NB), index.offsetForTime(1000));
+    }
+
+    private static long expectedOffset(int frame) {
+        long offset = AmrFormat.magicLength(AmrFormat.TYPE_WB);
+        for (int i = 0; i < frame; i++) {
+            offset += AmrFormat.frameSize(AmrFormat.TYPE_WB, (i % 3 == 0 ? 9 : 8) << 3);
+        }
+        return offset;
+    }
+}
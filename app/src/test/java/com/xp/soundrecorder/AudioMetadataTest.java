@@ -0,0 +1,186 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class AudioMetadataTest {
+
+    private static final String WB_MAGIC = "#!AMR-WB\n";
+
+    private static final String NB_MAGIC = "#!AMR\n";
+
+    @Test
+    public void amrNbDurationCountsFrames() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(NB_MAGIC.getBytes("US-ASCII"));
+        // 12.2 kbps 帧 32 字节，SID 帧 6 字节，NO_DATA 帧只有帧头
+        writeFrames(out, 7, 32, 100);
+        writeFrames(out, 8, 6, 10);
+        writeFrames(out, 15, 1, 5);
+        AudioMetadata metadata = AmrFrameIndex.build(
+                new ByteArrayInputStream(out.toByteArray())).toMetadata();
+        assertEquals(115 * 20, metadata.durationMillis);
+        assertEquals(8000, metadata.sampleRate);
+        assertEquals(1, metadata.channelCount);
+    }
+
+    @Test
+    public void amrWbIgnoresTruncatedLastFrame() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(WB_MAGIC.getBytes("US-ASCII"));
+        writeFrames(out, 8, 61, 50);
+        out.write(8 << 3);
+        out.write(new byte[10]);
+        AudioMetadata metadata = AmrFrameIndex.build(
+                new ByteArrayInputStream(out.toByteArray())).toMetadata();
+        assertEquals(50 * 20, metadata.durationMillis);
+        assertEquals(16000, metadata.sampleRate);
+    }
+
+    @Test
+    public void rejectsNonAmr() throws Exception {
+        try {
+            AmrFrameIndex.build(new ByteArrayInputStream("RIFF\0\0\0\0WAVE".getBytes("US-ASCII")));
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void mp4UsesAudioTrackHeaders() throws Exception {
+        File file = File.createTempFile("meta", ".3gpp");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(box("ftyp", "3gp4".getBytes("US-ASCII")));
+        out.write(box("mdat", new byte[1000]));
+        // moov 放在文件末尾；mvhd 的时长精度低，应以 mdhd 为准
+        out.write(box("moov",
+                mvhd(1000, 12346),
+                box("trak", box("mdia",
+                        mdhd(16000, 16000 * 12 + 5600),
+                        hdlr("soun"),
+                        box("minf", box("stbl", stsd("sawb", 2, 16000)))))));
+        out.close();
+
+        AudioMetadata metadata = Mp4Parser.parse(file);
+        assertEquals(12350, metadata.durationMillis);
+        assertEquals(16000, metadata.sampleRate);
+        // AMR 条目里的声道数固定是 2，实际是单声道
+        assertEquals(1, metadata.channelCount);
+    }
+
+    @Test
+    public void mp4SkipsVideoTrack() throws Exception {
+        File file = File.createTempFile("meta", ".mp4");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(box("moov",
+                box("trak", box("mdia", mdhd(90000, 90000 * 3), hdlr("vide"))),
+                box("trak", box("mdia", mdhd(44100, 44100 * 2), hdlr("soun"),
+                        box("minf", box("stbl", stsd("mp4a", 2, 44100)))))));
+        out.close();
+
+        AudioMetadata metadata = Mp4Parser.parse(file);
+        assertEquals(2000, metadata.durationMillis);
+        assertEquals(44100, metadata.sampleRate);
+        assertEquals(2, metadata.channelCount);
+    }
+
+    @Test
+    public void wavUsesDataChunk() throws Exception {
+        File file = File.createTempFile("meta", ".wav");
+        file.deleteOnExit();
+        WavFileWriter writer = new WavFileWriter(file.getAbsolutePath());
+        writer.open(16000, 2);
+        writer.write(new short[16000 * 2 * 3], 16000 * 2 * 3);
+        writer.close();
+
+        AudioMetadata metadata = AudioMetadata.read(file, RecordingFormat.of(file));
+        assertEquals(3000, metadata.durationMillis);
+        assertEquals(16000, metadata.sampleRate);
+        assertEquals(2, metadata.channelCount);
+    }
+
+    private static void writeFrames(ByteArrayOutputStream out, int frameType, int size, int count) {
+        for (int i = 0; i < count; i++) {
+            out.write(frameType << 3 | 0x04);
+            out.write(new byte[size - 1], 0, size - 1);
+        }
+    }
+
+    private static byte[] box(String type, byte[]... children) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (byte[] child : children) {
+            content.write(child);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(content.size() + 8);
+        data.writeBytes(type);
+        content.writeTo(data);
+        return out.toByteArray();
+    }
+
+    private static byte[] mvhd(int timescale, int duration) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(0);
+        data.writeInt(0);
+        data.writeInt(0);
+        data.writeInt(timescale);
+        data.writeInt(duration);
+        data.write(new byte[80]);
+        return box("mvhd", out.toByteArray());
+    }
+
+    private static byte[] mdhd(int timescale, long duration) throws IOException {
+        // 使用 version 1，时长为 64 位
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(1 << 24);
+        data.writeLong(0);
+        data.writeLong(0);
+        data.writeInt(timescale);
+        data.writeLong(duration);
+        data.writeInt(0);
+        return box("mdhd", out.toByteArray());
+    }
+
+    private static byte[] hdlr(String handler) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(0);
+        data.writeInt(0);
+        data.writeBytes(handler);
+        data.write(new byte[13]);
+        return box("hdlr", out.toByteArray());
+    }
+
+    private static byte[] stsd(String entryType, int channels, int sampleRate) throws IOException {
+        ByteArrayOutputStream entry = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(entry);
+        data.write(new byte[6]);
+        data.writeShort(1);
+        data.write(new byte[8]);
+        data.writeShort(channels);
+        data.writeShort(16);
+        data.writeInt(0);
+        data.writeInt(sampleRate << 16);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream stsd = new DataOutputStream(out);
+        stsd.writeInt(0);
+        stsd.writeInt(1);
+        stsd.write(box(entryType, entry.toByteArray()));
+        return box("stsd", out.toByteArray());
+    }
+}
@@ -0,0 +1,153 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AudioProcessorChainTest {
+
+    private static final int SAMPLE_RATE = 16000;
+
+    @Test
+    public void highPassRemovesDcAndKeepsVoice() {
+        HighPassFilter filter = new HighPassFilter(80f);
+        filter.configure(SAMPLE_RATE, 1);
+        float[] dc = new float[SAMPLE_RATE];
+        Arrays.fill(dc, 0.5f);
+        filter.process(dc, dc.length);
+        assertEquals(0f, dc[dc.length - 1], 1e-3f);
+
+        float[] voice = sine(1000, 0.5f, SAMPLE_RATE);
+        filter.process(voice, voice.length);
+        assertEquals(0.5f, peak(voice, SAMPLE_RATE / 2, voice.length), 0.01f);
+    }
+
+    @Test
+    public void gainScalesAndRampsToNewValue() {
+        GainProcessor gain = new GainProcessor(6f);
+        gain.configure(SAMPLE_RATE, 2);
+        float[] samples = new float[200];
+        Arrays.fill(samples, 0.25f);
+        gain.process(samples, 100);
+        assertEquals(0.25f * 1.995f, samples[199], 1e-3f);
+
+        gain.setGainDb(0f);
+        Arrays.fill(samples, 0.25f);
+        gain.process(samples, 100);
+        // 一块之内从旧增益平滑过渡到新增益
+        assertTrue(samples[0] > 0.26f);
+        assertEquals(0.25f, samples[199], 1e-4f);
+        assertEquals(0f, gain.getGainDb(), 1e-4f);
+    }
+
+    @Test
+    public void noiseGateClosesOnQuietAndOpensOnLoud() {
+        NoiseGate gate = new NoiseGate(-40f, 40f);
+        gate.configure(SAMPLE_RATE, 1);
+        float[] quiet = sine(500, 0.001f, SAMPLE_RATE);
+        gate.process(quiet, quiet.length);
+        assertTrue(peak(quiet, SAMPLE_RATE / 2, quiet.length) < 0.001f * 0.02f);
+
+        float[] loud = sine(500, 0.5f, SAMPLE_RATE);
+        gate.process(loud, loud.length);
+        assertEquals(0.5f, peak(loud, SAMPLE_RATE / 10, loud.length), 0.01f);
+    }
+
+    @Test
+    public void limiterNeverExceedsCeiling() {
+        Limiter limiter = new Limiter(-1f);
+        limiter.configure(SAMPLE_RATE, 2);
+        float ceiling = GainProcessor.dbToLinear(-1f);
+        float[] samples = new float[SAMPLE_RATE * 2];
+        float[] loud = sine(300, 2f, SAMPLE_RATE);
+        for (int i = 0; i < SAMPLE_RATE; i++) {
+            samples[i * 2] = loud[i];
+            samples[i * 2 + 1] = -loud[i] / 2;
+        }
+        limiter.process(samples, SAMPLE_RATE);
+        assertTrue(peak(samples, 0, samples.length) <= ceiling + 1e-6f);
+
+        // 安静的信号只是被延迟，不改变电平
+        float[] quiet = sine(300, 0.1f, SAMPLE_RATE);
+        limiter.configure(SAMPLE_RATE, 1);
+        limiter.process(quiet, quiet.length);
+        assertEquals(0.1f, peak(quiet, SAMPLE_RATE / 10, quiet.length), 1e-3f);
+    }
+
+    @Test
+    public void chainRunsInOrderWithoutAllocating() throws IOException {
+        CollectingSink sink = new CollectingSink();
+        AudioProcessorChain chain = new AudioProcessorChain(sink, 512,
+                new HighPassFilter(80f), new GainProcessor(-6f), new NoiseGate(-60f, 30f),
+                new Limiter(-1f));
+        chain.open(SAMPLE_RATE, 1);
+
+        short[] block = new short[1024];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (short) (20000 * Math.sin(2 * Math.PI * 1000 * i / SAMPLE_RATE));
+        }
+        // 预热，让 JIT 完成编译后再统计
+        for (int i = 0; i < 2000; i++) {
+            chain.write(block, block.length);
+        }
+        long before = AllocationCounter.currentThreadAllocatedBytes();
+        for (int i = 0; i < 100; i++) {
+            chain.write(block, block.length);
+        }
+        assertEquals(0, AllocationCounter.currentThreadAllocatedBytes() - before);
+
+        assertEquals(2100 * 1024L, chain.getProcessedFrames());
+        assertEquals(2100 * 1024L, sink.samples);
+        // -6 dB 之后的峰值约为 10000，没有触发限制器
+        assertEquals(10000, sink.peak, 300);
+        for (int i = 0; i < chain.getProcessorCount(); i++) {
+            assertTrue(chain.getProcessingNanos(i) > 0);
+            assertTrue(chain.getLoad(i) > 0f);
+        }
+        chain.close();
+        assertTrue(sink.closed);
+    }
+
+    private static float[] sine(int frequency, float amplitude, int frames) {
+        float[] samples = new float[frames];
+        for (int i = 0; i < frames; i++) {
+            samples[i] = (float) (amplitude * Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE));
+        }
+        return samples;
+    }
+
+    private static float peak(float[] samples, int from, int to) {
+        float peak = 0f;
+        for (int i = from; i < to; i++) {
+            peak = Math.max(peak, Math.abs(samples[i]));
+        }
+        return peak;
+    }
+
+    private static class CollectingSink implements PcmSink {
+        long samples;
+        int peak;
+        boolean closed;
+
+        @Override
+        public void open(int sampleRate, int channelCount) {
+        }
+
+        @Override
+        public void write(short[] buffer, int length) {
+            samples += length;
+            for (int i = 0; i < length; i++) {
+                peak = Math.max(peak, Math.abs(buffer[i]));
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.xp.soundrecorder;
+
+import java.util.Arrays;
+
+/**
+ * 用于 JVM 单元测试的播放输出，记录写入的所有采样；播放时写入的数据立即算作已播放
+ */
+public class FakeAudioOutput implements AudioOutput {
+
+    private short[] mWritten = new short[1024];
+
+    private int mWrittenLength;
+
+    private int mChannelCount = 1;
+
+    private long mPlayedFrames;
+
+    private boolean mPlaying;
+
+    private boolean mOpened;
+
+    private boolean mReleased;
+
+    private long mFirstWriteNanos;
+
+    @Override
+    public synchronized void open(int sampleRate, int channelCount) {
+        mChannelCount = channelCount;
+        mOpened = true;
+    }
+
+    @Override
+    public synchronized int write(short[] buffer, int offset, int length) {
+        if (mFirstWriteNanos == 0) {
+            mFirstWriteNanos = System.nanoTime();
+        }
+        if (mWrittenLength + length > mWritten.length) {
+            mWritten = Arrays.copyOf(mWritten, Math.max(mWritten.length * 2,
+                    mWrittenLength + length));
+        }
+        System.arraycopy(buffer, offset, mWritten, mWrittenLength, length);
+        mWrittenLength += length;
+        if (mPlaying) {
+            mPlayedFrames += length / mChannelCount;
+        }
+        return length;
+    }
+
+    @Override
+    public synchronized void play() {
+        mPlaying = true;
+    }
+
+    @Override
+    public synchronized void pause() {
+        mPlaying = false;
+    }
+
+    @Override
+    public synchronized void flush() {
+    }
+
+    @Override
+    public synchronized long getPlayedFrames() {
+        return mPlayedFrames;
+    }
+
+    @Override
+    public synchronized void release() {
+        mReleased = true;
+    }
+
+    public synchronized short[] getWritten() {
+        return Arrays.copyOf(mWritten, mWrittenLength);
+    }
+
+    public synchronized boolean isOpened() {
+        return mOpened;
+    }
+
+    public synchronized boolean isReleased() {
+        return mReleased;
+    }
+
+    public synchronized long getFirstWriteNanos() {
+        return mFirstWriteNanos;
+    }
+}
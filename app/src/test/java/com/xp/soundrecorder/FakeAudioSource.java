@@ -0,0 +1,76 @@
+package com.xp.soundrecorder;
+
+import java.io.IOException;
+
+/**
+ * 用于 JVM 单元测试的采集源，输出递增的采样值，可以模拟读取失败
+ */
+public class FakeAudioSource implements AudioSource {
+
+    private final int mSampleRate;
+
+    private final int mChannelCount;
+
+    private short mNextSample;
+
+    private volatile boolean mFailReads;
+
+    private volatile boolean mStarted;
+
+    private volatile boolean mReleased;
+
+    public FakeAudioSource(int sampleRate, int channelCount) {
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+    }
+
+    public void setFailReads(boolean failReads) {
+        mFailReads = failReads;
+    }
+
+    public boolean isStarted() {
+        return mStarted;
+    }
+
+    public boolean isReleased() {
+        return mReleased;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    @Override
+    public void start() throws IOException {
+        mStarted = true;
+    }
+
+    @Override
+    public int read(short[] buffer, int offset, int length) {
+        if (mFailReads) {
+            return -1;
+        }
+        for (int i = 0; i < length; i++) {
+            buffer[offset + i] = mNextSample++;
+        }
+        // 让出 CPU，近似真实设备上阻塞读取的节奏
+        Thread.yield();
+        return length;
+    }
+
+    @Override
+    public void stop() {
+        mStarted = false;
+    }
+
+    @Override
+    public void release() {
+        mReleased = true;
+    }
+}
@@ -0,0 +1,63 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 44.1 kHz 单声道各压缩级别的实时因子和压缩率。实时因子是编码耗时除以音频时长，
+ * 低端设备单核性能约为桌面的十分之一，因此这里要求远小于 1
+ */
+public class FlacEncoderBenchmark {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    private static final int SECONDS = 60;
+
+    private static final int ROUNDS = 3;
+
+    @Test
+    public void realTimeFactorPerLevel() {
+        short[] input = FlacEncoderTest.voiceLike(SAMPLE_RATE * SECONDS, 1, 1);
+        for (int level = FlacEncoder.MIN_LEVEL; level <= FlacEncoder.MAX_LEVEL; level++) {
+            FlacEncoder encoder = new FlacEncoder(SAMPLE_RATE, 1, level);
+            int[][] block = new int[1][encoder.getBlockSize()];
+            // 预热，让 JIT 完成编译后再统计
+            run(encoder, input, block);
+
+            long bestNanos = Long.MAX_VALUE;
+            long bytes = 0;
+            long allocated = 0;
+            for (int i = 0; i < ROUNDS; i++) {
+                long before = AllocationCounter.currentThreadAllocatedBytes();
+                long start = System.nanoTime();
+                bytes = run(encoder, input, block);
+                bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+                allocated = AllocationCounter.currentThreadAllocatedBytes() - before;
+            }
+
+            double factor = bestNanos / 1e9 / SECONDS;
+            double ratio = bytes / (input.length * 2.0);
+            System.out.printf("FlacEncoder: level %d, real-time factor %.4f (%.2f%% of one core), compression ratio %.3f, %d bytes allocated%n",
+                    level, factor, factor * 100, ratio, allocated);
+            assertEquals(0, allocated);
+            assertTrue(ratio < 0.7);
+            assertTrue(factor < 0.05);
+        }
+    }
+
+    private static long run(FlacEncoder encoder, short[] input, int[][] block) {
+        int blockSize = encoder.getBlockSize();
+        long bytes = 0;
+        int frameNumber = 0;
+        for (int offset = 0; offset < input.length; offset += blockSize) {
+            int frames = Math.min(blockSize, input.length - offset);
+            for (int i = 0; i < frames; i++) {
+                block[0][i] = input[offset + i];
+            }
+            bytes += encoder.encodeFrame(block, frames, frameNumber++);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,170 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FlacEncoderTest {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    @Test
+    public void roundTripsEveryLevel() throws Exception {
+        short[] samples = voiceLike(SAMPLE_RATE * 2, 1, 1);
+        for (int level = FlacEncoder.MIN_LEVEL; level <= FlacEncoder.MAX_LEVEL; level++) {
+            FlacTestDecoder decoder = new FlacTestDecoder(encode(samples, SAMPLE_RATE, 1, level));
+            assertEquals(SAMPLE_RATE, decoder.sampleRate);
+            assertEquals(1, decoder.channelCount);
+            assertEquals(samples.length, decoder.totalFrames);
+            assertArrayEquals("level " + level, samples, decoder.samples);
+        }
+    }
+
+    @Test
+    public void roundTripsStereoAndOddLengths() throws Exception {
+        // 立体声，最后一帧不满一块
+        short[] samples = voiceLike(12345, 2, 2);
+        FlacTestDecoder decoder = new FlacTestDecoder(encode(samples, 16000, 2,
+                FlacEncoder.DEFAULT_LEVEL));
+        assertEquals(2, decoder.channelCount);
+        assertEquals(12345, decoder.totalFrames);
+        assertArrayEquals(samples, decoder.samples);
+
+        // 11025 Hz 在帧头中没有对应的编码，从 STREAMINFO 读取
+        short[] odd = voiceLike(1000, 1, 3);
+        decoder = new FlacTestDecoder(encode(odd, 11025, 1, FlacEncoder.DEFAULT_LEVEL));
+        assertEquals(11025, decoder.sampleRate);
+        assertArrayEquals(odd, decoder.samples);
+    }
+
+    @Test
+    public void handlesSilenceAndFullScaleNoise() throws Exception {
+        short[] silence = new short[10000];
+        byte[] encoded = encode(silence, SAMPLE_RATE, 1, FlacEncoder.DEFAULT_LEVEL);
+        assertArrayEquals(silence, new FlacTestDecoder(encoded).samples);
+        // 静音只需要常量子帧，每帧只有十几个字节
+        assertTrue(encoded.length < FlacFileWriter.HEADER_SIZE + 3 * 16);
+
+        short[] noise = new short[10000];
+        Random random = new Random(4);
+        for (int i = 0; i < noise.length; i++) {
+            noise[i] = (short) random.nextInt();
+        }
+        noise[0] = Short.MIN_VALUE;
+        noise[1] = Short.MAX_VALUE;
+        encoded = encode(noise, SAMPLE_RATE, 1, FlacEncoder.MAX_LEVEL);
+        assertArrayEquals(noise, new FlacTestDecoder(encoded).samples);
+        // 白噪声无法压缩，退回原样存储，只多出帧头的开销
+        assertTrue(encoded.length < FlacFileWriter.HEADER_SIZE + noise.length * 2 + 3 * 32);
+    }
+
+    @Test
+    public void higherLevelsCompressBetter() throws Exception {
+        short[] samples = voiceLike(SAMPLE_RATE * 2, 1, 5);
+        int fastest = encode(samples, SAMPLE_RATE, 1, FlacEncoder.MIN_LEVEL).length;
+        int best = encode(samples, SAMPLE_RATE, 1, FlacEncoder.MAX_LEVEL).length;
+        assertTrue(best < fastest);
+        assertTrue(best < samples.length * 2 * 0.6);
+    }
+
+    @Test
+    public void writerReportsCompressionRatioAndMetadata() throws Exception {
+        File file = File.createTempFile("writer", ".flac");
+        file.deleteOnExit();
+        short[] samples = voiceLike(SAMPLE_RATE * 3, 1, 6);
+        FlacFileWriter writer = new FlacFileWriter(file.getAbsolutePath(),
+                FlacEncoder.DEFAULT_LEVEL);
+        writer.open(SAMPLE_RATE, 1);
+        for (int offset = 0; offset < samples.length; offset += 1000) {
+            writer.write(samplesFrom(samples, offset, 1000), Math.min(1000, samples.length - offset));
+        }
+        writer.close();
+
+        assertEquals(samples.length, writer.getTotalFrames());
+        assertEquals(file.length() - FlacFileWriter.HEADER_SIZE, writer.getDataBytes());
+        assertEquals((float) writer.getDataBytes() / (samples.length * 2),
+                writer.getCompressionRatio(), 1e-6f);
+        assertTrue(writer.getCompressionRatio() < 0.6f);
+
+        assertEquals(RecordingFormat.FLAC, RecordingFormat.detect(file));
+        AudioMetadata metadata = AudioMetadata.read(file, RecordingFormat.FLAC);
+        assertEquals(3000, metadata.durationMillis);
+        assertEquals(SAMPLE_RATE, metadata.sampleRate);
+        assertEquals(1, metadata.channelCount);
+        assertArrayEquals(samples, new FlacTestDecoder(readAll(file)).samples);
+    }
+
+    @Test
+    public void encodesWithoutAllocating() {
+        FlacEncoder encoder = new FlacEncoder(SAMPLE_RATE, 1, FlacEncoder.MAX_LEVEL);
+        short[] samples = voiceLike(encoder.getBlockSize(), 1, 7);
+        int[][] block = new int[1][encoder.getBlockSize()];
+        for (int i = 0; i < samples.length; i++) {
+            block[0][i] = samples[i];
+        }
+        // 预热，让 JIT 完成编译后再统计
+        for (int i = 0; i < 200; i++) {
+            encoder.encodeFrame(block, block[0].length, i);
+        }
+        long before = AllocationCounter.currentThreadAllocatedBytes();
+        for (int i = 0; i < 50; i++) {
+            encoder.encodeFrame(block, block[0].length, i);
+        }
+        assertEquals(0, AllocationCounter.currentThreadAllocatedBytes() - before);
+    }
+
+    static byte[] encode(short[] samples, int sampleRate, int channelCount, int level)
+            throws Exception {
+        File file = File.createTempFile("encoder", ".flac");
+        file.deleteOnExit();
+        FlacFileWriter writer = new FlacFileWriter(file.getAbsolutePath(), level);
+        writer.open(sampleRate, channelCount);
+        writer.write(samples, samples.length);
+        writer.close();
+        byte[] data = readAll(file);
+        file.delete();
+        return data;
+    }
+
+    /**
+     * 带谐波和噪声的类语音信号，幅度缓慢变化
+     */
+    static short[] voiceLike(int frames, int channelCount, long seed) {
+        Random random = new Random(seed);
+        short[] samples = new short[frames * channelCount];
+        for (int i = 0; i < frames; i++) {
+            double envelope = 0.5 + 0.5 * Math.sin(2 * Math.PI * 3 * i / SAMPLE_RATE);
+            double value = envelope * (6000 * Math.sin(2 * Math.PI * 150 * i / SAMPLE_RATE)
+                    + 2500 * Math.sin(2 * Math.PI * 450 * i / SAMPLE_RATE)
+                    + 1200 * Math.sin(2 * Math.PI * 1700 * i / SAMPLE_RATE))
+                    + random.nextGaussian() * 60;
+            for (int c = 0; c < channelCount; c++) {
+                samples[i * channelCount + c] = (short) (c == 0 ? value : value * 0.7);
+            }
+        }
+        return samples;
+    }
+
+    private static short[] samplesFrom(short[] samples, int offset, int length) {
+        short[] block = new short[length];
+        System.arraycopy(samples, offset, block, 0, Math.min(length, samples.length - offset));
+        return block;
+    }
+
+    private static byte[] readAll(File file) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+            return data;
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.xp.soundrecorder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * 测试用的最小 FLAC 解码器，只支持编码器会产生的 16 位、独立声道、Rice 方法 0 的帧，
+ * 解码时校验帧头 CRC-8 和整帧 CRC-16
+ */
+class FlacTestDecoder {
+
+    final int sampleRate;
+
+    final int channelCount;
+
+    final long totalFrames;
+
+    final int frameCount;
+
+    /**
+     * 交错存放的解码结果
+     */
+    final short[] samples;
+
+    private final byte[] mData;
+
+    private int mBitPosition;
+
+    FlacTestDecoder(byte[] data) throws IOException {
+        mData = data;
+        if (data[0] != 'f' || data[1] != 'L' || data[2] != 'a' || data[3] != 'C') {
+            throw new IOException("Not a FLAC stream");
+        }
+        mBitPosition = 4 * 8;
+        int lastAndType = readBits(8);
+        int length = readBits(24);
+        if ((lastAndType & 0x7F) != 0 || length != 34) {
+            throw new IOException("Missing STREAMINFO");
+        }
+        readBits(16);
+        readBits(16);
+        readBits(24);
+        readBits(24);
+        sampleRate = readBits(20);
+        channelCount = readBits(3) + 1;
+        if (readBits(5) + 1 != 16) {
+            throw new IOException("Unsupported bits per sample");
+        }
+        totalFrames = ((long) readBits(4) << 32) | (readBits(32) & 0xFFFFFFFFL);
+        mBitPosition += 16 * 8;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int frames = 0;
+        while (mBitPosition / 8 < data.length) {
+            decodeFrame(out, frames++);
+        }
+        frameCount = frames;
+        byte[] bytes = out.toByteArray();
+        samples = new short[bytes.length / 2];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) ((bytes[i * 2] << 8) | (bytes[i * 2 + 1] & 0xFF));
+        }
+    }
+
+    private void decodeFrame(ByteArrayOutputStream out, int expectedNumber) throws IOException {
+        int frameStart = mBitPosition / 8;
+        if (readBits(16) != 0xFFF8) {
+            throw new IOException("Lost sync at " + frameStart);
+        }
+        int blockSizeCode = readBits(4);
+        int sampleRateCode = readBits(4);
+        int channels = readBits(4) + 1;
+        if (channels != channelCount || readBits(3) != 4 || readBits(1) != 0) {
+            throw new IOException("Unexpected frame header");
+        }
+        if (readUtf8() != expectedNumber) {
+            throw new IOException("Unexpected frame number");
+        }
+        int blockSize;
+        if (blockSizeCode == 1) {
+            blockSize = 192;
+        } else if (blockSizeCode <= 5) {
+            blockSize = 576 << (blockSizeCode - 2);
+        } else if (blockSizeCode == 6) {
+            blockSize = readBits(8) + 1;
+        } else if (blockSizeCode == 7) {
+            blockSize = readBits(16) + 1;
+        } else {
+            blockSize = 256 << (blockSizeCode - 8);
+        }
+        if (sampleRateCode >= 12) {
+            throw new IOException("Unexpected sample rate code");
+        }
+        int headerEnd = mBitPosition / 8;
+        if (readBits(8) != FlacEncoder.crc8(mData, frameStart, headerEnd - frameStart)) {
+            throw new IOException("Header CRC mismatch");
+        }
+
+        int[][] decoded = new int[channels][blockSize];
+        for (int c = 0; c < channels; c++) {
+            decodeSubframe(decoded[c], blockSize);
+        }
+        mBitPosition = (mBitPosition + 7) / 8 * 8;
+        int frameEnd = mBitPosition / 8;
+        if (readBits(16) != FlacEncoder.crc16(mData, frameStart, frameEnd - frameStart)) {
+            throw new IOException("Frame CRC mismatch");
+        }
+        for (int i = 0; i < blockSize; i++) {
+            for (int c = 0; c < channels; c++) {
+                out.write(decoded[c][i] >> 8);
+                out.write(decoded[c][i]);
+            }
+        }
+    }
+
+    private void decodeSubframe(int[] x, int blockSize) throws IOException {
+        if (readBits(1) != 0) {
+            throw new IOException("Bad subframe padding");
+        }
+        int type = readBits(6);
+        if (readBits(1) != 0) {
+            throw new IOException("Wasted bits are not supported");
+        }
+        if (type == 0) {
+            int value = readSigned(16);
+            for (int i = 0; i < blockSize; i++) {
+                x[i] = value;
+            }
+        } else if (type == 1) {
+            for (int i = 0; i < blockSize; i++) {
+                x[i] = readSigned(16);
+            }
+        } else if (type >= 8 && type <= 12) {
+            int order = type - 8;
+            for (int i = 0; i < order; i++) {
+                x[i] = readSigned(16);
+            }
+            readResidual(x, blockSize, order);
+            restoreFixed(x, blockSize, order);
+        } else if (type >= 32) {
+            int order = type - 31;
+            for (int i = 0; i < order; i++) {
+                x[i] = readSigned(16);
+            }
+            int precision = readBits(4) + 1;
+            int shift = readSigned(5);
+            int[] qlp = new int[order];
+            for (int i = 0; i < order; i++) {
+                qlp[i] = readSigned(precision);
+            }
+            readResidual(x, blockSize, order);
+            for (int i = order; i < blockSize; i++) {
+                long sum = 0;
+                for (int j = 0; j < order; j++) {
+                    sum += (long) qlp[j] * x[i - j - 1];
+                }
+                x[i] += (int) (sum >> shift);
+            }
+        } else {
+            throw new IOException("Reserved subframe type " + type);
+        }
+    }
+
+    private static void restoreFixed(int[] x, int blockSize, int order) {
+        for (int i = order; i < blockSize; i++) {
+            switch (order) {
+                case 1:
+                    x[i] += x[i - 1];
+                    break;
+                case 2:
+                    x[i] += 2 * x[i - 1] - x[i - 2];
+                    break;
+                case 3:
+                    x[i] += 3 * x[i - 1] - 3 * x[i - 2] + x[i - 3];
+                    break;
+                case 4:
+                    x[i] += 4 * x[i - 1] - 6 * x[i - 2] + 4 * x[i - 3] - x[i - 4];
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 残差直接写在 x 中预测部分的位置，由调用方加上预测值
+     */
+    private void readResidual(int[] x, int blockSize, int order) throws IOException {
+        if (readBits(2) != 0) {
+            throw new IOException("Unsupported residual coding method");
+        }
+        int partitionOrder = readBits(4);
+        int partitions = 1 << partitionOrder;
+        int size = blockSize >> partitionOrder;
+        int index = order;
+        for (int p = 0; p < partitions; p++) {
+            int parameter = readBits(4);
+            if (parameter == 15) {
+                throw new IOException("Escaped partitions are not supported");
+            }
+            int end = (p + 1) * size;
+            for (; index < end; index++) {
+                int quotient = 0;
+                while (readBits(1) == 0) {
+                    quotient++;
+                }
+                int u = (quotient << parameter) | (parameter > 0 ? readBits(parameter) : 0);
+                x[index] = (u >>> 1) ^ -(u & 1);
+            }
+        }
+    }
+
+    private int readUtf8() {
+        int first = readBits(8);
+        if (first < 0x80) {
+            return first;
+        }
+        int extra = Integer.numberOfLeadingZeros(~(first << 24)) - 1;
+        int value = first & (0x7F >> (extra + 1));
+        for (int i = 0; i < extra; i++) {
+            value = (value << 6) | (readBits(8) & 0x3F);
+        }
+        return value;
+    }
+
+    private int readSigned(int bits) {
+        int value = readBits(bits);
+        return (value << (32 - bits)) >> (32 - bits);
+    }
+
+    private int readBits(int bits) {
+        int value = 0;
+        for (int i = 0; i < bits; i++) {
+            int bit = (mData[mBitPosition >> 3] >> (7 - (mBitPosition & 7))) & 1;
+            value = (value << 1) | bit;
+            mBitPosition++;
+        }
+        return value;
+    }
+}
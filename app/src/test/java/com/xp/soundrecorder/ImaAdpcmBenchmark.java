@@ -0,0 +1,64 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 16 kHz 单声道 IMA ADPCM 编码和解码的实时因子：处理耗时除以音频时长，越小越好
+ */
+public class ImaAdpcmBenchmark {
+
+    private static final int SAMPLE_RATE = 16000;
+
+    private static final int SECONDS = 600;
+
+    private static final int ROUNDS = 3;
+
+    @Test
+    public void realTimeFactor() {
+        int blockAlign = ImaAdpcm.blockAlign(SAMPLE_RATE, 1);
+        int frames = ImaAdpcm.samplesPerBlock(blockAlign, 1);
+        int blocks = SAMPLE_RATE * SECONDS / frames;
+        short[] input = FlacEncoderTest.voiceLike(blocks * frames, 1, 1);
+        byte[] encoded = new byte[blocks * blockAlign];
+        short[] decoded = new short[frames];
+        int[] stepIndex = new int[1];
+
+        long bestEncode = Long.MAX_VALUE;
+        long bestDecode = Long.MAX_VALUE;
+        long allocated = 0;
+        // 第一轮用于预热
+        for (int round = 0; round <= ROUNDS; round++) {
+            long before = AllocationCounter.currentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            stepIndex[0] = 0;
+            for (int i = 0; i < blocks; i++) {
+                ImaAdpcm.encodeBlock(input, i * frames, 1, blockAlign, stepIndex, encoded,
+                        i * blockAlign);
+            }
+            long encodeNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < blocks; i++) {
+                ImaAdpcm.decodeBlock(encoded, i * blockAlign, 1, blockAlign, decoded, 0);
+            }
+            long decodeNanos = System.nanoTime() - start;
+            allocated = AllocationCounter.currentThreadAllocatedBytes() - before;
+            if (round > 0) {
+                bestEncode = Math.min(bestEncode, encodeNanos);
+                bestDecode = Math.min(bestDecode, decodeNanos);
+            }
+        }
+
+        double seconds = blocks * frames / (double) SAMPLE_RATE;
+        double encodeFactor = bestEncode / 1e9 / seconds;
+        double decodeFactor = bestDecode / 1e9 / seconds;
+        System.out.printf("ImaAdpcm: %.0f s of 16 kHz mono, encode real-time factor %.5f (%.3f%% of one core), decode %.5f (%.3f%%), %d bytes/s, %d bytes allocated%n",
+                seconds, encodeFactor, encodeFactor * 100, decodeFactor, decodeFactor * 100,
+                Math.round(ImaAdpcm.byteRate(SAMPLE_RATE, 1)), allocated);
+        assertEquals(0, allocated);
+        assertTrue(encodeFactor < 0.01);
+        assertTrue(decodeFactor < 0.01);
+    }
+}
@@ -0,0 +1,132 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ImaAdpcmTest {
+
+    private static final int SAMPLE_RATE = 16000;
+
+    @Test
+    public void blockLayoutMatchesCommonEncoders() {
+        assertEquals(256, ImaAdpcm.blockAlign(8000, 1));
+        assertEquals(256, ImaAdpcm.blockAlign(16000, 1));
+        assertEquals(1024, ImaAdpcm.blockAlign(44100, 1));
+        assertEquals(2048, ImaAdpcm.blockAlign(44100, 2));
+        assertEquals(505, ImaAdpcm.samplesPerBlock(256, 1));
+        assertEquals(2041, ImaAdpcm.samplesPerBlock(1024, 1));
+        assertEquals(2041, ImaAdpcm.samplesPerBlock(2048, 2));
+        // 16 kHz 单声道约 65 kbit/s，是 16 位 PCM 的 1/4 左右
+        assertEquals(64887, ImaAdpcm.bitRate(16000, 1));
+    }
+
+    @Test
+    public void decodesCloseToOriginal() {
+        int blockAlign = ImaAdpcm.blockAlign(SAMPLE_RATE, 2);
+        int frames = ImaAdpcm.samplesPerBlock(blockAlign, 2);
+        short[] samples = FlacEncoderTest.voiceLike(frames * 20, 2, 1);
+        short[] decoded = new short[samples.length];
+        byte[] block = new byte[blockAlign];
+        int[] stepIndex = new int[2];
+        for (int offset = 0; offset < samples.length; offset += frames * 2) {
+            ImaAdpcm.encodeBlock(samples, offset, 2, blockAlign, stepIndex, block, 0);
+            ImaAdpcm.decodeBlock(block, 0, 2, blockAlign, decoded, offset);
+        }
+        // 块的第一个采样原样保存
+        assertEquals(samples[frames * 2], decoded[frames * 2]);
+        assertEquals(samples[frames * 2 + 1], decoded[frames * 2 + 1]);
+        assertTrue(snr(samples, decoded) > 20);
+    }
+
+    @Test
+    public void handlesFullScaleSquareWave() {
+        int blockAlign = ImaAdpcm.blockAlign(SAMPLE_RATE, 1);
+        int frames = ImaAdpcm.samplesPerBlock(blockAlign, 1);
+        short[] samples = new short[frames];
+        for (int i = 0; i < frames; i++) {
+            samples[i] = (i / 40) % 2 == 0 ? Short.MAX_VALUE : Short.MIN_VALUE;
+        }
+        short[] decoded = new short[frames];
+        byte[] block = new byte[blockAlign];
+        int[] stepIndex = new int[1];
+        // 第二块开始步长已经适应了信号
+        for (int i = 0; i < 2; i++) {
+            ImaAdpcm.encodeBlock(samples, 0, 1, blockAlign, stepIndex, block, 0);
+            ImaAdpcm.decodeBlock(block, 0, 1, blockAlign, decoded, 0);
+        }
+        // 预测值被限制在 16 位范围内，不会溢出翻转
+        for (int i = 0; i < frames; i++) {
+            if (i % 40 >= 10) {
+                assertTrue(samples[i] > 0 ? decoded[i] > 25000 : decoded[i] < -25000);
+            }
+        }
+    }
+
+    @Test
+    public void writerRoundTripsThroughReader() throws Exception {
+        File file = File.createTempFile("writer", ".wav");
+        file.deleteOnExit();
+        short[] samples = FlacEncoderTest.voiceLike(SAMPLE_RATE * 3 + 123, 1, 2);
+        ImaAdpcmFileWriter writer = new ImaAdpcmFileWriter(file.getAbsolutePath());
+        writer.open(SAMPLE_RATE, 1);
+        for (int offset = 0; offset < samples.length; offset += 1000) {
+            int length = Math.min(1000, samples.length - offset);
+            short[] block = new short[length];
+            System.arraycopy(samples, offset, block, 0, length);
+            writer.write(block, length);
+        }
+        writer.close();
+
+        int blocks = (samples.length + 504) / 505;
+        assertEquals(blocks * 256, writer.getDataBytes());
+        assertEquals(ImaAdpcmFileWriter.HEADER_SIZE + blocks * 256, file.length());
+
+        WavReader reader = new WavReader(file);
+        assertTrue(reader.isImaAdpcm());
+        assertTrue(reader.isSupported());
+        assertEquals(SAMPLE_RATE, reader.getSampleRate());
+        assertEquals(1, reader.getChannelCount());
+        // fact 块记录的帧数不含最后一块补齐的部分
+        assertEquals(samples.length, reader.getFrameCount());
+        assertEquals(samples.length * 1000L / SAMPLE_RATE, reader.getDurationMillis());
+
+        short[] decoded = new short[samples.length];
+        short[] buffer = new short[777];
+        int total = 0;
+        int read;
+        while ((read = reader.read(buffer, 0, buffer.length)) > 0) {
+            System.arraycopy(buffer, 0, decoded, total, read);
+            total += read;
+        }
+        assertEquals(samples.length, total);
+        assertTrue(snr(samples, decoded) > 20);
+
+        // 定位到块中间和顺序读取的结果一致
+        short[] window = new short[600];
+        assertEquals(600, reader.readFrames(10000, window, 600));
+        short[] expected = new short[600];
+        System.arraycopy(decoded, 10000, expected, 0, 600);
+        assertArrayEquals(expected, window);
+        assertEquals(123, reader.readFrames(samples.length - 123, window, 600));
+        reader.close();
+
+        AudioMetadata metadata = AudioMetadata.read(file, RecordingFormat.detect(file));
+        assertEquals(samples.length * 1000L / SAMPLE_RATE, metadata.durationMillis);
+    }
+
+    private static double snr(short[] original, short[] decoded) {
+        double signal = 0;
+        double noise = 0;
+        for (int i = 0; i < original.length; i++) {
+            signal += (double) original[i] * original[i];
+            double error = original[i] - decoded[i];
+            noise += error * error;
+        }
+        return 10 * Math.log10(signal / Math.max(1, noise));
+    }
+}
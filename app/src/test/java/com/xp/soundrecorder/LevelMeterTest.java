@@ -0,0 +1,74 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LevelMeterTest {
+
+    @Test
+    public void measuresPeakRmsAndClips() {
+        LevelMeter meter = new LevelMeter();
+        meter.open(8000, 1);
+        short[] sine = new short[800];
+        for (int i = 0; i < sine.length; i++) {
+            sine[i] = (short) Math.round(16384 * Math.sin(2 * Math.PI * i / 80));
+        }
+        meter.write(sine, sine.length);
+
+        LevelMeter.Levels levels = new LevelMeter.Levels();
+        assertTrue(meter.read(levels));
+        assertEquals(16384, levels.peak);
+        assertEquals(0.5 / Math.sqrt(2), levels.rms, 1e-3);
+        assertEquals(0, levels.clipCount);
+        assertEquals(800, levels.frames);
+
+        meter.write(new short[]{Short.MAX_VALUE, Short.MIN_VALUE, 0, 0}, 4);
+        assertTrue(meter.read(levels));
+        assertEquals(LevelMeter.FULL_SCALE, levels.peak);
+        assertEquals(2, levels.clipCount);
+        assertEquals(804, levels.frames);
+
+        meter.close();
+        assertTrue(meter.read(levels));
+        assertEquals(0, levels.peak);
+    }
+
+    @Test
+    public void readerNeverSeesTornSnapshot() throws Exception {
+        final LevelMeter meter = new LevelMeter();
+        meter.open(8000, 1);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicBoolean torn = new AtomicBoolean();
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                LevelMeter.Levels levels = new LevelMeter.Levels();
+                while (running.get()) {
+                    // 写入端每轮都会重置，发布的峰值和帧数始终相等
+                    if (meter.read(levels) && levels.peak != levels.frames) {
+                        torn.set(true);
+                    }
+                }
+            }
+        });
+        reader.start();
+
+        short[] block = new short[64];
+        for (int round = 0; round < 200000; round++) {
+            int length = 16 << (round % 3);
+            block[0] = (short) length;
+            meter.write(block, length);
+            meter.open(8000, 1);
+        }
+        running.set(false);
+        reader.join();
+
+        assertFalse(torn.get());
+    }
+}
@@ -0,0 +1,69 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class MetadataCacheTest {
+
+    private static final File A = new File("/records/a.amr");
+
+    private static final File B = new File("/records/b.amr");
+
+    private static final File C = new File("/records/c.amr");
+
+    @Test
+    public void invalidatesOnSizeOrMtimeChange() {
+        MetadataCache cache = new MetadataCache(null, 8);
+        cache.put(A, 100, 1000, new AudioMetadata(2000, 8000, 1));
+        assertNotNull(cache.get(A, 100, 1000));
+        assertNull(cache.get(A, 100, 1001));
+        // 失效的条目已被移除
+        assertNull(cache.get(A, 100, 1000));
+        cache.put(A, 100, 1000, new AudioMetadata(2000, 8000, 1));
+        assertNull(cache.get(A, 101, 1000));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        MetadataCache cache = new MetadataCache(null, 2);
+        cache.put(A, 1, 1, new AudioMetadata(1, 8000, 1));
+        cache.put(B, 1, 1, new AudioMetadata(2, 8000, 1));
+        cache.get(A, 1, 1);
+        cache.put(C, 1, 1, new AudioMetadata(3, 8000, 1));
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(A, 1, 1));
+        assertNull(cache.get(B, 1, 1));
+        assertNotNull(cache.get(C, 1, 1));
+    }
+
+    @Test
+    public void survivesReload() throws Exception {
+        File file = File.createTempFile("metadata", ".cache");
+        file.deleteOnExit();
+        MetadataCache cache = new MetadataCache(file, 8);
+        cache.put(A, 100, 1000, new AudioMetadata(2000, 16000, 2));
+        cache.save();
+
+        MetadataCache reloaded = new MetadataCache(file, 8);
+        reloaded.load();
+        AudioMetadata metadata = reloaded.get(A, 100, 1000);
+        assertNotNull(metadata);
+        assertEquals(2000, metadata.durationMillis);
+        assertEquals(16000, metadata.sampleRate);
+        assertEquals(2, metadata.channelCount);
+    }
+
+    @Test
+    public void corruptFileStartsEmpty() throws Exception {
+        File file = File.createTempFile("metadata", ".cache");
+        file.deleteOnExit();
+        MetadataCache cache = new MetadataCache(file, 8);
+        cache.load();
+        assertEquals(0, cache.size());
+    }
+}
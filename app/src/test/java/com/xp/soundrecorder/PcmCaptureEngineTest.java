@@ -0,0 +1,169 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PcmCaptureEngineTest {
+
+    private static class CheckingSink implements PcmSink {
+        volatile int openCount;
+        volatile int closeCount;
+        volatile long samples;
+        volatile boolean continuous = true;
+        private short mExpected;
+
+        @Override
+        public void open(int sampleRate, int channelCount) {
+            openCount++;
+        }
+
+        @Override
+        public void write(short[] buffer, int length) {
+            for (int i = 0; i < length; i++) {
+                if (buffer[i] != mExpected++) {
+                    continuous = false;
+                }
+            }
+            samples += length;
+        }
+
+        @Override
+        public void close() {
+            closeCount++;
+        }
+    }
+
+    @Test
+    public void deliversContinuousSamplesToEverySink() throws Exception {
+        FakeAudioSource source = new FakeAudioSource(16000, 1);
+        PcmCaptureEngine engine = new PcmCaptureEngine(source, 256);
+        CheckingSink first = new CheckingSink();
+        CheckingSink second = new CheckingSink();
+        engine.addSink(first);
+        engine.addSink(second);
+
+        engine.start();
+        waitForFrames(engine, 16000);
+        engine.stop();
+
+        assertFalse(engine.isRunning());
+        assertTrue(source.isReleased());
+        assertEquals(1, first.openCount);
+        assertEquals(1, first.closeCount);
+        assertEquals(1, second.closeCount);
+        assertTrue(first.continuous);
+        assertTrue(second.continuous);
+        assertEquals(engine.getCapturedFrames(), first.samples);
+        assertEquals(first.samples, second.samples);
+    }
+
+    @Test
+    public void reportsSourceErrorAndStops() throws Exception {
+        FakeAudioSource source = new FakeAudioSource(8000, 1);
+        source.setFailReads(true);
+        PcmCaptureEngine engine = new PcmCaptureEngine(source, 160);
+        CheckingSink sink = new CheckingSink();
+        engine.addSink(sink);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger error = new AtomicInteger();
+        engine.setOnErrorListener(new PcmCaptureEngine.OnErrorListener() {
+            @Override
+            public void onCaptureError(int e) {
+                error.set(e);
+                latch.countDown();
+            }
+        });
+
+        engine.start();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        engine.stop();
+
+        assertEquals(PcmCaptureEngine.ERROR_SOURCE, error.get());
+        assertTrue(engine.getReadErrors() > 0);
+        assertEquals(1, sink.closeCount);
+        assertEquals(0, sink.samples);
+    }
+
+    @Test
+    public void reportsSinkErrorAndStops() throws Exception {
+        PcmCaptureEngine engine = new PcmCaptureEngine(new FakeAudioSource(8000, 1), 160);
+        engine.addSink(new PcmSink() {
+            @Override
+            public void open(int sampleRate, int channelCount) {
+            }
+
+            @Override
+            public void write(short[] samples, int length) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger error = new AtomicInteger();
+        engine.setOnErrorListener(new PcmCaptureEngine.OnErrorListener() {
+            @Override
+            public void onCaptureError(int e) {
+                error.set(e);
+                latch.countDown();
+            }
+        });
+
+        engine.start();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(PcmCaptureEngine.ERROR_SINK, error.get());
+        assertFalse(engine.isRunning());
+    }
+
+    @Test
+    public void failedSinkOpenReleasesSource() {
+        FakeAudioSource source = new FakeAudioSource(8000, 1);
+        PcmCaptureEngine engine = new PcmCaptureEngine(source, 160);
+        CheckingSink opened = new CheckingSink();
+        engine.addSink(opened);
+        engine.addSink(new PcmSink() {
+            @Override
+            public void open(int sampleRate, int channelCount) throws IOException {
+                throw new IOException("no storage");
+            }
+
+            @Override
+            public void write(short[] samples, int length) {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+
+        try {
+            engine.start();
+            fail("start should fail");
+        } catch (IOException expected) {
+        }
+        assertFalse(source.isStarted());
+        assertTrue(source.isReleased());
+        assertEquals(1, opened.closeCount);
+    }
+
+    private static void waitForFrames(PcmCaptureEngine engine, long frames) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (engine.getCapturedFrames() < frames) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("capture stalled at " + engine.getCapturedFrames());
+            }
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 从调用 start 到第一块数据写入输出的延迟，包括打开文件、定位和读取第一块
+ */
+public class PcmPlayerBenchmark {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    /**
+     * 10 秒的立体声录音
+     */
+    private static final int FRAMES = 10 * SAMPLE_RATE;
+
+    private static final int WARMUP_ROUNDS = 20;
+
+    private static final int ROUNDS = 50;
+
+    @Test
+    public void startLatency() throws Exception {
+        File file = File.createTempFile("benchmark", ".wav");
+        file.deleteOnExit();
+        WavFileWriter writer = new WavFileWriter(file.getAbsolutePath());
+        writer.open(SAMPLE_RATE, 2);
+        short[] samples = new short[FRAMES * 2];
+        writer.write(samples, samples.length);
+        writer.close();
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            measure(file);
+        }
+        long[] latencies = new long[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            latencies[i] = measure(file);
+        }
+        Arrays.sort(latencies);
+        System.out.printf("PcmPlayer: first block written %.2f ms after start (median), %.2f ms (max)%n",
+                latencies[ROUNDS / 2] / 1e6, latencies[ROUNDS - 1] / 1e6);
+    }
+
+    private static long measure(File file) throws Exception {
+        FakeAudioOutput output = new FakeAudioOutput();
+        PcmPlayer player = new PcmPlayer(file, output);
+        final CountDownLatch completed = new CountDownLatch(1);
+        player.setListener(new PcmPlayer.Listener() {
+            @Override
+            public void onPlaybackCompleted(PcmPlayer player) {
+                completed.countDown();
+            }
+
+            @Override
+            public void onPlaybackError(PcmPlayer player) {
+            }
+        });
+        // 从中间开始，包含定位的开销
+        player.seekToFrame(FRAMES / 2);
+        long start = System.nanoTime();
+        player.start();
+        assertTrue(completed.await(5, TimeUnit.SECONDS));
+        long latency = output.getFirstWriteNanos() - start;
+        player.release();
+        return latency;
+    }
+}
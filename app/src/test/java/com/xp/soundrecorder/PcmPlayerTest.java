@@ -0,0 +1,141 @@
+package com.xp.soundrecorder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PcmPlayerTest {
+
+    private static final int SAMPLE_RATE = 8000;
+
+    private static final int FRAMES = 12345;
+
+    private File mFile;
+
+    private short[] mSamples;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("player", ".wav");
+        mFile.deleteOnExit();
+        mSamples = new short[FRAMES * 2];
+        for (int i = 0; i < mSamples.length; i++) {
+            mSamples[i] = (short) (i * 7);
+        }
+        WavFileWriter writer = new WavFileWriter(mFile.getAbsolutePath());
+        writer.open(SAMPLE_RATE, 2);
+        writer.write(mSamples, mSamples.length);
+        writer.close();
+    }
+
+    @Test
+    public void playsEverySampleInOrder() throws Exception {
+        FakeAudioOutput output = new FakeAudioOutput();
+        PcmPlayer player = new PcmPlayer(mFile, output);
+        CompletionListener listener = new CompletionListener();
+        player.setListener(listener);
+        assertEquals(FRAMES, player.getFrameCount());
+        assertEquals(FRAMES * 1000L / SAMPLE_RATE, player.getDurationMillis());
+
+        player.start();
+        assertTrue(listener.completed.await(5, TimeUnit.SECONDS));
+
+        assertArrayEquals(mSamples, output.getWritten());
+        assertEquals(FRAMES, player.getPositionFrames());
+        assertFalse(player.isPlaying());
+        player.release();
+        assertTrue(output.isReleased());
+    }
+
+    @Test
+    public void seeksToExactFrame() throws Exception {
+        FakeAudioOutput output = new FakeAudioOutput();
+        PcmPlayer player = new PcmPlayer(mFile, output);
+        CompletionListener listener = new CompletionListener();
+        player.setListener(listener);
+
+        player.seekToFrame(10001);
+        assertEquals(10001, player.getPositionFrames());
+        player.start();
+        assertTrue(listener.completed.await(5, TimeUnit.SECONDS));
+
+        short[] written = output.getWritten();
+        assertEquals((FRAMES - 10001) * 2, written.length);
+        assertEquals(mSamples[10001 * 2], written[0]);
+        assertEquals(mSamples[10001 * 2 + 1], written[1]);
+        player.release();
+    }
+
+    @Test
+    public void restartsFromBeginningAfterCompletion() throws Exception {
+        FakeAudioOutput output = new FakeAudioOutput();
+        PcmPlayer player = new PcmPlayer(mFile, output);
+        CompletionListener listener = new CompletionListener();
+        player.setListener(listener);
+
+        player.seekTo(1000);
+        player.start();
+        assertTrue(listener.completed.await(5, TimeUnit.SECONDS));
+        listener.reset();
+        player.start();
+        assertTrue(listener.completed.await(5, TimeUnit.SECONDS));
+
+        short[] written = output.getWritten();
+        int firstPass = (FRAMES - SAMPLE_RATE) * 2;
+        assertEquals(firstPass + FRAMES * 2, written.length);
+        assertEquals(mSamples[0], written[firstPass]);
+        player.release();
+    }
+
+    @Test
+    public void stretchesWhenRateChanged() throws Exception {
+        FakeAudioOutput output = new FakeAudioOutput();
+        PcmPlayer player = new PcmPlayer(mFile, output);
+        CompletionListener listener = new CompletionListener();
+        player.setListener(listener);
+
+        player.setRate(2f);
+        assertEquals(2f, player.getRate(), 0);
+        player.start();
+        assertTrue(listener.completed.await(5, TimeUnit.SECONDS));
+
+        // 变速之后大约只写出一半，尾部多出 flush 时补的一小段静音
+        int writtenFrames = output.getWritten().length / 2;
+        assertEquals(FRAMES / 2, writtenFrames, FRAMES / 20 + SAMPLE_RATE / 20);
+        assertFalse(player.isPlaying());
+        player.release();
+    }
+
+    @Test
+    public void releaseWithoutStart() throws Exception {
+        FakeAudioOutput output = new FakeAudioOutput();
+        PcmPlayer player = new PcmPlayer(mFile, output);
+        player.release();
+        assertFalse(output.isOpened());
+    }
+
+    private static class CompletionListener implements PcmPlayer.Listener {
+        volatile CountDownLatch completed = new CountDownLatch(1);
+
+        void reset() {
+            completed = new CountDownLatch(1);
+        }
+
+        @Override
+        public void onPlaybackCompleted(PcmPlayer player) {
+            completed.countDown();
+        }
+
+        @Override
+        public void onPlaybackError(PcmPlayer player) {
+        }
+    }
+}
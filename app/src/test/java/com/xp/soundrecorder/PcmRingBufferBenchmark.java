@@ -0,0 +1,63 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 环形缓冲区吞吐量基准，同时验证生产者和消费者在稳态下不分配内存
+ */
+public class PcmRingBufferBenchmark {
+
+    private static final int BLOCK = 1024;
+
+    private static final long TOTAL_SAMPLES = 50L * 1000 * 1000;
+
+    @Test
+    public void throughputWithoutAllocation() throws Exception {
+        final PcmRingBuffer ring = new PcmRingBuffer(64 * 1024);
+        final long[] consumerAllocated = new long[1];
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                short[] out = new short[4096];
+                long received = 0;
+                long before = AllocationCounter.currentThreadAllocatedBytes();
+                while (received < TOTAL_SAMPLES) {
+                    received += ring.read(out, 0, out.length);
+                }
+                consumerAllocated[0] = AllocationCounter.currentThreadAllocatedBytes() - before;
+            }
+        });
+
+        short[] in = new short[BLOCK];
+        // 预热，让 JIT 完成编译后再统计
+        short[] out = new short[BLOCK];
+        for (int i = 0; i < 100000; i++) {
+            ring.write(in, 0, BLOCK);
+            ring.read(out, 0, BLOCK);
+        }
+
+        consumer.start();
+        long start = System.nanoTime();
+        long before = AllocationCounter.currentThreadAllocatedBytes();
+        long sent = 0;
+        while (sent < TOTAL_SAMPLES) {
+            if (ring.write(in, 0, BLOCK)) {
+                sent += BLOCK;
+            } else {
+                Thread.yield();
+            }
+        }
+        long producerAllocated = AllocationCounter.currentThreadAllocatedBytes() - before;
+        consumer.join();
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("PcmRingBuffer: %.1f Msamples/s, overruns=%d, allocated producer=%d consumer=%d bytes%n",
+                TOTAL_SAMPLES * 1000.0 / elapsed, ring.getOverrunCount(), producerAllocated,
+                consumerAllocated[0]);
+        assertEquals(0, producerAllocated);
+        assertEquals(0, consumerAllocated[0]);
+    }
+}
@@ -0,0 +1,112 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PcmRingBufferTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPowerOfTwoCapacity() {
+        new PcmRingBuffer(1000);
+    }
+
+    @Test
+    public void roundsCapacityUp() {
+        assertEquals(1, PcmRingBuffer.roundUpToPowerOfTwo(0));
+        assertEquals(1024, PcmRingBuffer.roundUpToPowerOfTwo(1000));
+        assertEquals(1024, PcmRingBuffer.roundUpToPowerOfTwo(1024));
+        assertEquals(2048, PcmRingBuffer.roundUpToPowerOfTwo(1025));
+    }
+
+    @Test
+    public void wrapsAroundPreservingOrder() {
+        PcmRingBuffer ring = new PcmRingBuffer(8);
+        short[] in = new short[5];
+        short[] out = new short[5];
+        short next = 0;
+        short expected = 0;
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < in.length; i++) {
+                in[i] = next++;
+            }
+            assertTrue(ring.write(in, 0, in.length));
+            assertEquals(5, ring.read(out, 0, out.length));
+            for (short value : out) {
+                assertEquals(expected++, value);
+            }
+        }
+        assertEquals(0, ring.size());
+        assertEquals(0, ring.read(out, 0, out.length));
+    }
+
+    @Test
+    public void countsOverrunsAndHighWaterMark() {
+        PcmRingBuffer ring = new PcmRingBuffer(16);
+        short[] block = new short[6];
+        assertTrue(ring.write(block, 0, 6));
+        assertTrue(ring.write(block, 0, 6));
+        assertFalse(ring.write(block, 0, 6));
+        assertFalse(ring.write(block, 0, 5));
+
+        assertEquals(2, ring.getOverrunCount());
+        assertEquals(11, ring.getDroppedSamples());
+        assertEquals(12, ring.getHighWaterMark());
+        assertEquals(12, ring.size());
+
+        short[] out = new short[16];
+        assertEquals(12, ring.read(out, 0, out.length));
+        assertTrue(ring.write(block, 0, 4));
+        assertEquals(12, ring.getHighWaterMark());
+    }
+
+    @Test
+    public void concurrentProducerAndConsumerSeeEverySampleInOrder() throws Exception {
+        final PcmRingBuffer ring = new PcmRingBuffer(1024);
+        final long total = 5000000;
+        final AtomicBoolean ordered = new AtomicBoolean(true);
+        final long[] received = new long[1];
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                short[] out = new short[300];
+                short expected = 0;
+                while (received[0] < total) {
+                    int n = ring.read(out, 0, out.length);
+                    for (int i = 0; i < n; i++) {
+                        if (out[i] != expected++) {
+                            ordered.set(false);
+                        }
+                    }
+                    received[0] += n;
+                }
+            }
+        });
+        consumer.start();
+
+        short[] in = new short[100];
+        short next = 0;
+        long sent = 0;
+        while (sent < total) {
+            for (int i = 0; i < in.length; i++) {
+                in[i] = (short) (next + i);
+            }
+            if (ring.write(in, 0, in.length)) {
+                next += in.length;
+                sent += in.length;
+            } else {
+                Thread.yield();
+            }
+        }
+        consumer.join(10000);
+
+        assertFalse(consumer.isAlive());
+        assertTrue(ordered.get());
+        assertEquals(total, received[0]);
+    }
+}
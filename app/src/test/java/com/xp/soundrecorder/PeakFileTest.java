@@ -0,0 +1,183 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class PeakFileTest {
+
+    @Test
+    public void writesMinAndMaxPerPeak() throws Exception {
+        File file = File.createTempFile("writer", PeakFile.SUFFIX);
+        file.deleteOnExit();
+        PeakFileWriter writer = new PeakFileWriter(file, 100);
+        writer.open(8000, 2);
+        // 每 200 个采样（100 帧）一个峰值，块边界和峰值边界错开
+        short[] block = new short[150];
+        int sample = 0;
+        for (int n = 0; n < 20; n++) {
+            for (int i = 0; i < block.length; i++) {
+                block[i] = (short) ((sample % 200) - 100 + sample / 200);
+                sample++;
+            }
+            writer.write(block, block.length);
+        }
+        writer.close();
+        assertEquals(15, writer.getPeakCount());
+
+        PeakFile peaks = PeakFile.open(file);
+        assertEquals(8000, peaks.getSampleRate());
+        assertEquals(2, peaks.getChannelCount());
+        assertEquals(100, peaks.getFramesPerPeak());
+        assertEquals(15, peaks.getPeakCount());
+        for (int i = 0; i < 15; i++) {
+            assertEquals(-100 + i, peaks.getMin(i));
+            assertEquals(99 + i, peaks.getMax(i));
+        }
+        assertEquals(15 * 100 * 1000 / 8000, peaks.getDurationMillis());
+    }
+
+    @Test
+    public void flushesPartialPeakOnClose() throws Exception {
+        File file = File.createTempFile("writer", PeakFile.SUFFIX);
+        file.deleteOnExit();
+        PeakFileWriter writer = new PeakFileWriter(file, 256);
+        writer.open(16000, 1);
+        writer.write(new short[]{5, -7, 3}, 3);
+        writer.close();
+
+        PeakFile peaks = PeakFile.open(file);
+        assertEquals(1, peaks.getPeakCount());
+        assertEquals(-7, peaks.getMin(0));
+        assertEquals(5, peaks.getMax(0));
+    }
+
+    @Test
+    public void unfinishedFileUsesLength() throws Exception {
+        File file = File.createTempFile("writer", PeakFile.SUFFIX);
+        file.deleteOnExit();
+        PeakFileWriter writer = new PeakFileWriter(file, 1);
+        writer.open(16000, 1);
+        short[] block = new short[5000];
+        writer.write(block, block.length);
+        writer.close();
+
+        // 模拟进程在回填文件头之前被杀：只有第 0 级，最后一个峰值不完整
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(PeakFile.PEAK_COUNT_OFFSET);
+        raf.write(new byte[PeakFile.HEADER_SIZE - PeakFile.PEAK_COUNT_OFFSET]);
+        raf.setLength(PeakFile.HEADER_SIZE + 5000 * 4 - 3);
+        raf.close();
+
+        PeakFile peaks = PeakFile.open(file);
+        assertEquals(4999, peaks.getPeakCount());
+        // 没有保存的层级在内存中生成
+        assertEquals(14, peaks.getLevelCount());
+        assertEquals(1, peaks.getPeakCount(13));
+    }
+
+    @Test
+    public void storesPyramidLevels() throws Exception {
+        File file = File.createTempFile("writer", PeakFile.SUFFIX);
+        file.deleteOnExit();
+        PeakFileWriter writer = new PeakFileWriter(file, 4);
+        writer.open(8000, 1);
+        short[] block = new short[1000];
+        for (int n = 0; n < 41; n++) {
+            for (int i = 0; i < block.length; i++) {
+                block[i] = (short) (((n * block.length + i) % 997) * 60 - 30000);
+            }
+            writer.write(block, block.length);
+        }
+        writer.close();
+
+        PeakFile peaks = PeakFile.open(file);
+        assertEquals(10250, peaks.getPeakCount());
+        int expectedLevels = 1;
+        for (int count = 10250; count > 1; count = (count + 1) / 2) {
+            expectedLevels++;
+        }
+        assertEquals(expectedLevels, peaks.getLevelCount());
+        for (int level = 1; level < peaks.getLevelCount(); level++) {
+            int count = peaks.getPeakCount(level);
+            assertEquals((peaks.getPeakCount(level - 1) + 1) / 2, count);
+            for (int i = 0; i < count; i++) {
+                int a = i * 2;
+                int b = Math.min(a + 1, peaks.getPeakCount(level - 1) - 1);
+                assertEquals(Math.min(peaks.getMin(level - 1, a), peaks.getMin(level - 1, b)),
+                        peaks.getMin(level, i));
+                assertEquals(Math.max(peaks.getMax(level - 1, a), peaks.getMax(level - 1, b)),
+                        peaks.getMax(level, i));
+            }
+        }
+        int top = peaks.getLevelCount() - 1;
+        assertEquals(-30000, peaks.getMin(top, 0));
+        assertEquals(996 * 60 - 30000, peaks.getMax(top, 0));
+    }
+
+    @Test
+    public void columnsMatchLevelZeroAtEveryZoom() throws Exception {
+        File file = File.createTempFile("writer", PeakFile.SUFFIX);
+        file.deleteOnExit();
+        PeakFileWriter writer = new PeakFileWriter(file, 2);
+        writer.open(8000, 1);
+        java.util.Random random = new java.util.Random(7);
+        short[] block = new short[4096];
+        for (int n = 0; n < 16; n++) {
+            for (int i = 0; i < block.length; i++) {
+                block[i] = (short) random.nextInt(65536);
+            }
+            writer.write(block, block.length);
+        }
+        writer.close();
+        PeakFile peaks = PeakFile.open(file);
+
+        int columns = 64;
+        int[] min = new int[columns];
+        int[] max = new int[columns];
+        // 每列帧数为峰值跨度的整数倍时，各层级的结果和直接遍历第 0 级一致
+        for (int framesPerColumn = 2; framesPerColumn * columns <= peaks.getFrameCount();
+             framesPerColumn *= 2) {
+            int level = peaks.selectLevel(framesPerColumn);
+            assertEquals(framesPerColumn, peaks.getFramesPerPeak() << level);
+            double start = peaks.getFrameCount() - framesPerColumn * columns;
+            peaks.computeColumns(start, framesPerColumn, columns, min, max);
+            for (int column = 0; column < columns; column++) {
+                int first = (int) ((start + column * framesPerColumn) / 2);
+                int expectedMin = Integer.MAX_VALUE;
+                int expectedMax = Integer.MIN_VALUE;
+                for (int i = first; i < first + framesPerColumn / 2; i++) {
+                    expectedMin = Math.min(expectedMin, peaks.getMin(i));
+                    expectedMax = Math.max(expectedMax, peaks.getMax(i));
+                }
+                assertEquals(expectedMin, min[column]);
+                assertEquals(expectedMax, max[column]);
+            }
+        }
+
+        // 超出数据范围的列为 0
+        peaks.computeColumns(peaks.getFrameCount(), 2, columns, min, max);
+        assertEquals(0, min[0]);
+        assertEquals(0, max[columns - 1]);
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws Exception {
+        File file = File.createTempFile("other", PeakFile.SUFFIX);
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[64]);
+        out.close();
+        try {
+            PeakFile.open(file);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PlaybackClockTest {
+
+    private static final long MS = 1000 * 1000L;
+
+    @Test
+    public void interpolatesFromAnchor() {
+        PlaybackClock clock = new PlaybackClock();
+        clock.setDuration(10000);
+        clock.anchor(2000, 100 * MS, true);
+        assertEquals(2000, clock.positionAt(100 * MS));
+        assertEquals(2500, clock.positionAt(600 * MS));
+        // 帧时间早于锚点时不倒退
+        assertEquals(2000, clock.positionAt(50 * MS));
+    }
+
+    @Test
+    public void freezesWhenPaused() {
+        PlaybackClock clock = new PlaybackClock();
+        clock.setDuration(10000);
+        clock.anchor(3000, 0, false);
+        assertEquals(3000, clock.positionAt(5000 * MS));
+        assertFalse(clock.needsResync(5000 * MS));
+    }
+
+    @Test
+    public void clampsToDuration() {
+        PlaybackClock clock = new PlaybackClock();
+        clock.setDuration(1000);
+        clock.anchor(900, 0, true);
+        assertEquals(1000, clock.positionAt(500 * MS));
+    }
+
+    @Test
+    public void rateChangeKeepsElapsedPosition() {
+        PlaybackClock clock = new PlaybackClock();
+        clock.setDuration(60000);
+        clock.anchor(0, 0, true);
+        clock.setRate(2f, 1000 * MS);
+        assertEquals(1000, clock.positionAt(1000 * MS));
+        assertEquals(2000, clock.positionAt(1500 * MS));
+        clock.setRate(0.5f, 1500 * MS);
+        assertEquals(2500, clock.positionAt(2500 * MS));
+    }
+
+    @Test
+    public void requestsResyncAfterInterval() {
+        PlaybackClock clock = new PlaybackClock();
+        clock.anchor(0, 0, true);
+        assertFalse(clock.needsResync(PlaybackClock.RESYNC_INTERVAL_NANOS - 1));
+        assertTrue(clock.needsResync(PlaybackClock.RESYNC_INTERVAL_NANOS));
+        clock.anchor(1000, PlaybackClock.RESYNC_INTERVAL_NANOS, true);
+        assertFalse(clock.needsResync(PlaybackClock.RESYNC_INTERVAL_NANOS + MS));
+    }
+}
@@ -0,0 +1,53 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RecordAdapterTest {
+
+    @Test
+    public void itemsAreIdentifiedByPath() {
+        RecordEntity a = record("/r/a.amr", 100);
+        RecordEntity moved = record("/r/a.amr", 200);
+        RecordEntity b = record("/r/b.amr", 100);
+        RecordAdapter.RecordDiffCallback callback = new RecordAdapter.RecordDiffCallback(
+                Arrays.asList(a, b), Arrays.asList(moved, b));
+        assertTrue(callback.areItemsTheSame(0, 0));
+        assertFalse(callback.areContentsTheSame(0, 0));
+        assertFalse(callback.areItemsTheSame(1, 0));
+        assertTrue(callback.areContentsTheSame(1, 1));
+    }
+
+    @Test
+    public void durationChangeRebindsRow() {
+        RecordEntity before = record("/r/a.amr", 100);
+        RecordEntity after = record("/r/a.amr", 100);
+        after.setDuration(1234);
+        RecordAdapter.RecordDiffCallback callback = new RecordAdapter.RecordDiffCallback(
+                Arrays.asList(before), Arrays.asList(after));
+        assertTrue(callback.areItemsTheSame(0, 0));
+        assertFalse(callback.areContentsTheSame(0, 0));
+    }
+
+    @Test
+    public void stableIdFollowsPath() {
+        assertEquals(RecordAdapter.stableId(record("/r/a.amr", 1)),
+                RecordAdapter.stableId(record("/r/a.amr", 2)));
+        assertNotEquals(RecordAdapter.stableId(record("/r/a.amr", 1)),
+                RecordAdapter.stableId(record("/r/b.amr", 1)));
+    }
+
+    private static RecordEntity record(String path, long size) {
+        File file = new File(path);
+        RecordEntity record = new RecordEntity(file, file.getName());
+        record.setSize(size);
+        return record;
+    }
+}
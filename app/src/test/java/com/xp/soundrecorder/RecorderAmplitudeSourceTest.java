@@ -0,0 +1,73 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RecorderAmplitudeSourceTest {
+
+    private static final long FRAME_NANOS = 16666667L;
+
+    @Test
+    public void pcmRecordingLightsMeter() {
+        final LevelMeter levelMeter = new LevelMeter();
+        levelMeter.open(16000, 1);
+        RecorderAmplitudeSource source = new RecorderAmplitudeSource(
+                new RecorderAmplitudeSource.Meter() {
+                    @Override
+                    public boolean readLevels(LevelMeter.Levels out) {
+                        return levelMeter.read(out);
+                    }
+
+                    @Override
+                    public int getMaxAmplitude() {
+                        throw new AssertionError("PCM 录音不应轮询 getMaxAmplitude");
+                    }
+                });
+        VuMeterState state = new VuMeterState(11, 100 * 1000 * 1000L);
+
+        short[] block = new short[320];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (short) Math.round(16384 * Math.sin(2 * Math.PI * i / 32));
+        }
+        long time = 0;
+        for (int frame = 0; frame < 10; frame++) {
+            levelMeter.write(block, block.length);
+            // 与 VuMeterView.doFrame 相同：每帧读取一次电平并更新分段
+            int amplitude = source.readAmplitude();
+            assertEquals(16384, amplitude);
+            state.update(amplitude, time);
+            time += FRAME_NANOS;
+        }
+        assertTrue(state.isLit(5));
+    }
+
+    @Test
+    public void mediaRecorderIsPolledAtInterval() {
+        final int[] polls = new int[1];
+        RecorderAmplitudeSource source = new RecorderAmplitudeSource(
+                new RecorderAmplitudeSource.Meter() {
+                    @Override
+                    public boolean readLevels(LevelMeter.Levels out) {
+                        return false;
+                    }
+
+                    @Override
+                    public int getMaxAmplitude() {
+                        polls[0]++;
+                        return 20000;
+                    }
+                });
+        VuMeterState state = new VuMeterState(11, 100 * 1000 * 1000L);
+
+        // 间隔内的后续帧沿用上次的峰值，不会读到 0
+        for (int frame = 0; frame < 3; frame++) {
+            int amplitude = source.readAmplitude();
+            assertEquals(20000, amplitude);
+            state.update(amplitude, frame * FRAME_NANOS);
+        }
+        assertTrue(polls[0] >= 1 && polls[0] <= 3);
+        assertTrue(state.isLit(6));
+    }
+}
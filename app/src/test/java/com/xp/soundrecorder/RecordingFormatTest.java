@@ -0,0 +1,54 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RecordingFormatTest {
+
+    @Test
+    public void detectsFormatByMagic() {
+        assertEquals(RecordingFormat.AMR_NB, detect("#!AMR\n\0\0"));
+        assertEquals(RecordingFormat.AMR_WB, detect("#!AMR-WB\n\0"));
+        assertEquals(RecordingFormat.WAV, detect("RIFF\0\0\0\0WAVE"));
+        assertEquals(RecordingFormat.WAV, detect("RF64\0\0\0\0WAVE"));
+        assertEquals(RecordingFormat.THREE_GPP, detect("\0\0\0\u0018ftyp3gp4"));
+        assertEquals(RecordingFormat.FLAC, detect("fLaC\u0080\0\0\u0042"));
+        assertEquals(RecordingFormat.UNKNOWN, detect("RIFF\0\0\0\0AVI "));
+        assertEquals(RecordingFormat.UNKNOWN, detect("#!AM"));
+        assertEquals(RecordingFormat.UNKNOWN, detect(""));
+    }
+
+    @Test
+    public void ignoresExtension() throws Exception {
+        File file = File.createTempFile("record", ".txt");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("#!AMR-WB\n".getBytes("US-ASCII"));
+        out.close();
+        assertEquals(RecordingFormat.AMR_WB, RecordingFormat.of(file));
+        assertEquals(RecordingFormat.UNKNOWN, RecordingFormat.of(new File(file.getParent(),
+                "missing.amr")));
+    }
+
+    @Test
+    public void auxiliaryFilesAreNotRecordings() {
+        assertTrue(RecordingFormat.isAuxiliaryFile("a.wav" + RecordingJournal.PART_SUFFIX));
+        assertTrue(RecordingFormat.isAuxiliaryFile("a.wav" + PeakFile.SUFFIX));
+        assertTrue(RecordingFormat.isAuxiliaryFile(".journal"));
+        assertFalse(RecordingFormat.isAuxiliaryFile("a.wav"));
+    }
+
+    private static int detect(String header) {
+        byte[] data = new byte[header.length()];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) header.charAt(i);
+        }
+        return RecordingFormat.detect(data, data.length);
+    }
+}
@@ -0,0 +1,230 @@
+package com.xp.soundrecorder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RecordingRecoveryTest {
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = File.createTempFile("recovery", "");
+        mDir.delete();
+        mDir.mkdirs();
+        mDir.deleteOnExit();
+    }
+
+    @Test
+    public void journalSurvivesRestart() throws Exception {
+        RecordingJournal journal = new RecordingJournal(mDir);
+        RecordingJournal.Entry entry = newEntry("a.wav");
+        journal.begin(entry);
+        entry.preallocated = true;
+        journal.updateProgress(4096);
+
+        RecordingJournal.Entry orphan = new RecordingJournal(mDir).readOrphan();
+        assertNotNull(orphan);
+        assertEquals(entry.partPath, orphan.partPath);
+        assertEquals(entry.finalPath, orphan.finalPath);
+        assertEquals(Recorder.ENGINE_PCM, orphan.engine);
+        assertEquals(4096, orphan.committedBytes);
+        assertTrue(orphan.preallocated);
+
+        journal.commit();
+        assertNull(new RecordingJournal(mDir).readOrphan());
+    }
+
+    @Test
+    public void repairsTruncatedWav() throws Exception {
+        RecordingJournal.Entry entry = newEntry("b.wav");
+        WavFileWriter writer = new WavFileWriter(entry.partPath);
+        writer.open(8000, 1);
+        writer.write(new short[8000], 8000);
+        writer.close();
+        // 模拟进程被杀：文件头还是占位值，末尾留下半个采样
+        RandomAccessFile raf = new RandomAccessFile(entry.partPath, "rw");
+        raf.setLength(WavFileWriter.HEADER_SIZE);
+        raf.write(WavFileWriter.buildHeader(8000, 1).array());
+        raf.setLength(WavFileWriter.HEADER_SIZE + 16001);
+        raf.close();
+
+        File recovered = RecordingRecovery.recover(entry);
+
+        assertEquals(entry.finalPath, recovered.getAbsolutePath());
+        assertFalse(new File(entry.partPath).exists());
+        assertEquals(WavFileWriter.HEADER_SIZE + 16000, recovered.length());
+        ByteBuffer header = readHeader(recovered);
+        assertEquals(72 + 16000, header.getInt(4));
+        assertEquals(16000, header.getInt(76));
+    }
+
+    @Test
+    public void repairsTruncatedImaAdpcmWav() throws Exception {
+        RecordingJournal.Entry entry = newEntry("d.wav");
+        ImaAdpcmFileWriter writer = new ImaAdpcmFileWriter(entry.partPath);
+        writer.open(16000, 1);
+        writer.write(new short[16000], 16000);
+        writer.close();
+        // 模拟进程被杀：文件头还是占位值，末尾留下半块数据
+        RandomAccessFile raf = new RandomAccessFile(entry.partPath, "rw");
+        raf.write(ImaAdpcmFileWriter.buildHeader(16000, 1).array());
+        raf.setLength(ImaAdpcmFileWriter.HEADER_SIZE + 256 * 10 + 100);
+        raf.close();
+
+        File recovered = RecordingRecovery.recover(entry);
+
+        assertEquals(ImaAdpcmFileWriter.HEADER_SIZE + 2560, recovered.length());
+        WavReader reader = new WavReader(recovered);
+        assertTrue(reader.isImaAdpcm());
+        assertEquals(2560, reader.getDataSize());
+        assertEquals(10 * 505, reader.getFrameCount());
+        reader.close();
+    }
+
+    @Test
+    public void trimsPreallocatedTailToCommittedLength() throws Exception {
+        RecordingJournal.Entry entry = newEntry("e.wav");
+        WavFileWriter writer = new WavFileWriter(entry.partPath);
+        writer.open(8000, 1);
+        writer.write(new short[8000], 8000);
+        writer.close();
+        // 模拟进程被杀：只确认落盘了 1000 帧，后面是预分配时填充的零
+        RandomAccessFile raf = new RandomAccessFile(entry.partPath, "rw");
+        raf.write(WavFileWriter.buildHeader(8000, 1).array());
+        raf.setLength(1024 * 1024);
+        raf.close();
+        entry.preallocated = true;
+        entry.committedBytes = WavFileWriter.HEADER_SIZE + 2000;
+
+        File recovered = RecordingRecovery.recover(entry);
+
+        assertEquals(WavFileWriter.HEADER_SIZE + 2000, recovered.length());
+        assertEquals(2000, readHeader(recovered).getInt(76));
+    }
+
+    @Test
+    public void truncatesAmrToLastFullFrame() throws Exception {
+        RecordingJournal.Entry entry = newEntry("c.amr");
+        FileOutputStream out = new FileOutputStream(entry.partPath);
+        out.write(new byte[]{'#', '!', 'A', 'M', 'R', '-', 'W', 'B', '\n'});
+        // 帧类型 8（23.85kbit/s）每帧 61 字节，写两帧半
+        byte[] frame = new byte[61];
+        frame[0] = (byte) (8 << 3 | 0x04);
+        out.write(frame);
+        out.write(frame);
+        out.write(frame, 0, 30);
+        out.close();
+
+        File recovered = RecordingRecovery.recover(entry);
+
+        assertNotNull(recovered);
+        assertEquals(9 + 2 * 61, recovered.length());
+    }
+
+    @Test
+    public void truncatesFlacToLastFullFrameAndPatchesStreamInfo() throws Exception {
+        RecordingJournal.Entry entry = newEntry("f.flac");
+        short[] samples = writeFlac(entry.partPath, 4096 * 5 + 1000);
+        // 模拟进程被杀：STREAMINFO 还是开始时的内容，最后一帧只写了一部分
+        RandomAccessFile raf = new RandomAccessFile(entry.partPath, "rw");
+        raf.seek(FlacFileWriter.STREAMINFO_OFFSET);
+        raf.write(FlacEncoder.streamInfo(16000, 1, 4096, 0, 0, 0));
+        raf.setLength(raf.length() - 100);
+        raf.close();
+
+        File recovered = RecordingRecovery.recover(entry);
+
+        assertNotNull(recovered);
+        FlacTestDecoder decoder = new FlacTestDecoder(readAll(recovered));
+        assertEquals(5, decoder.frameCount);
+        assertEquals(4096 * 5, decoder.totalFrames);
+        assertArrayEquals(Arrays.copyOf(samples, 4096 * 5), decoder.samples);
+    }
+
+    @Test
+    public void dropsPreallocatedZerosAfterLastFlacFrame() throws Exception {
+        RecordingJournal.Entry entry = newEntry("g.flac");
+        short[] samples = writeFlac(entry.partPath, 4096 * 3);
+        RandomAccessFile raf = new RandomAccessFile(entry.partPath, "rw");
+        long dataEnd = raf.length();
+        raf.seek(FlacFileWriter.STREAMINFO_OFFSET);
+        raf.write(FlacEncoder.streamInfo(16000, 1, 4096, 0, 0, 0));
+        raf.setLength(256 * 1024);
+        raf.close();
+        // 日志中的进度落后于实际写入，截断后仍然留有一段预分配的 0
+        entry.preallocated = true;
+        entry.committedBytes = 200 * 1024;
+
+        File recovered = RecordingRecovery.recover(entry);
+
+        assertEquals(dataEnd, recovered.length());
+        FlacTestDecoder decoder = new FlacTestDecoder(readAll(recovered));
+        assertEquals(samples.length, decoder.totalFrames);
+        assertArrayEquals(samples, decoder.samples);
+    }
+
+    @Test
+    public void dropsRecordingWithoutAudio() throws Exception {
+        RecordingJournal.Entry entry = newEntry("d.wav");
+        RandomAccessFile raf = new RandomAccessFile(entry.partPath, "rw");
+        raf.write(WavFileWriter.buildHeader(8000, 1).array());
+        raf.close();
+
+        assertNull(RecordingRecovery.recover(entry));
+        assertFalse(new File(entry.partPath).exists());
+        assertTrue(!new File(entry.finalPath).exists());
+    }
+
+    private RecordingJournal.Entry newEntry(String name) {
+        File target = new File(mDir, name);
+        target.deleteOnExit();
+        RecordingJournal.partFile(target).deleteOnExit();
+        RecordingJournal.Entry entry = new RecordingJournal.Entry();
+        entry.finalPath = target.getAbsolutePath();
+        entry.partPath = RecordingJournal.partFile(target).getAbsolutePath();
+        entry.engine = Recorder.ENGINE_PCM;
+        entry.outputFileFormat = Recorder.OUTPUT_FORMAT_WAV;
+        entry.startTime = System.currentTimeMillis();
+        return entry;
+    }
+
+    private static short[] writeFlac(String path, int frames) throws Exception {
+        short[] samples = FlacEncoderTest.voiceLike(frames, 1, 3);
+        FlacFileWriter writer = new FlacFileWriter(path, FlacEncoder.DEFAULT_LEVEL);
+        writer.open(16000, 1);
+        writer.write(samples, samples.length);
+        writer.close();
+        return samples;
+    }
+
+    private static byte[] readAll(File file) throws Exception {
+        byte[] bytes = new byte[(int) file.length()];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        raf.readFully(bytes);
+        raf.close();
+        return bytes;
+    }
+
+    private static ByteBuffer readHeader(File file) throws Exception {
+        byte[] header = new byte[WavFileWriter.HEADER_SIZE];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        raf.readFully(header);
+        raf.close();
+        return ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,116 @@
+package com.xp.soundrecorder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RecordingScannerTest {
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = File.createTempFile("scanner", "");
+        mDir.delete();
+        mDir.mkdirs();
+        mDir.deleteOnExit();
+    }
+
+    @Test
+    public void findsRecordingsInNestedDirectories() throws Exception {
+        write(new File(mDir, "a.amr"), "#!AMR\n");
+        write(new File(mDir, "b.3gpp"), "\0\0\0\u0018ftyp3gp4");
+        write(new File(mDir, "sub/c.wav"), "RIFF\0\0\0\0WAVE");
+        write(new File(mDir, "sub/deeper/d.amr"), "#!AMR-WB\n");
+        // 临时文件同样以 RIFF 开头，不能被当成录音
+        write(new File(mDir, "sub/e.wav" + RecordingJournal.PART_SUFFIX), "RIFF\0\0\0\0WAVE");
+        write(new File(mDir, "notes.txt"), "hello world!");
+        write(new File(mDir, ".hidden/f.amr"), "#!AMR\n");
+
+        Result result = scan(2);
+        List<String> names = result.names();
+        Collections.sort(names);
+        assertEquals("[a.amr, b.3gpp, c.wav, d.amr]", names.toString());
+        assertEquals(1, result.finished.get());
+    }
+
+    @Test
+    public void streamsResultsInBatches() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            write(new File(mDir, "r" + i + ".amr"), "#!AMR\n");
+        }
+        Result result = scan(3);
+        assertEquals(10, result.names().size());
+        assertEquals(4, result.batches.get());
+        for (RecordEntity record : result.records) {
+            assertEquals(RecordingFormat.AMR_NB, record.getFormat());
+            assertEquals(6, record.getSize());
+        }
+    }
+
+    @Test
+    public void emptyDirectoryFinishes() throws Exception {
+        Result result = scan(8);
+        assertTrue(result.records.isEmpty());
+        assertEquals(1, result.finished.get());
+    }
+
+    private Result scan(int batchSize) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        Result result = new Result();
+        new RecordingScanner(executor, batchSize, result).scan(mDir);
+        assertTrue(result.done.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        return result;
+    }
+
+    private static void write(File file, String header) throws Exception {
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        for (int i = 0; i < header.length(); i++) {
+            out.write(header.charAt(i));
+        }
+        out.close();
+        file.deleteOnExit();
+    }
+
+    private static class Result implements RecordingScanner.Listener {
+        final List<RecordEntity> records = Collections.synchronizedList(new ArrayList<RecordEntity>());
+        final AtomicInteger batches = new AtomicInteger();
+        final AtomicInteger finished = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        @Override
+        public void onRecordsFound(List<RecordEntity> found) {
+            batches.incrementAndGet();
+            records.addAll(found);
+        }
+
+        @Override
+        public void onScanFinished() {
+            finished.incrementAndGet();
+            done.countDown();
+        }
+
+        List<String> names() {
+            List<String> names = new ArrayList<>();
+            for (RecordEntity record : records) {
+                names.add(record.getName());
+            }
+            return names;
+        }
+    }
+}
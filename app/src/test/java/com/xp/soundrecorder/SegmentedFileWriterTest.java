@@ -0,0 +1,289 @@
+package com.xp.soundrecorder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentedFileWriterTest {
+
+    private static final SegmentedFileWriter.Factory WAV_FACTORY =
+            new SegmentedFileWriter.Factory() {
+                @Override
+                public PcmFileWriter create(String path) {
+                    return new WavFileWriter(path);
+                }
+            };
+
+    private File mDir;
+
+    private final List<File> mClosed = Collections.synchronizedList(new ArrayList<File>());
+
+    private final SegmentedFileWriter.Callback mCallback = new SegmentedFileWriter.Callback() {
+        @Override
+        public void onSegmentClosed(File segment) {
+            mClosed.add(segment);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = File.createTempFile("segments", "");
+        mDir.delete();
+        mDir.mkdirs();
+        mDir.deleteOnExit();
+    }
+
+    @Test
+    public void namesSegmentsAfterTheFirstFile() {
+        File base = new File("/sdcard/rec/ambient.wav");
+        assertEquals(base, SegmentedFileWriter.segmentFile(base, 0));
+        assertEquals(new File("/sdcard/rec/ambient-002.wav"),
+                SegmentedFileWriter.segmentFile(base, 1));
+        assertEquals(new File("/sdcard/rec/ambient-1000.wav"),
+                SegmentedFileWriter.segmentFile(base, 999));
+        assertEquals(new File("/sdcard/rec/noext-003"),
+                SegmentedFileWriter.segmentFile(new File("/sdcard/rec/noext"), 2));
+    }
+
+    @Test
+    public void rotatesByDurationWithoutLosingSamples() throws Exception {
+        File base = new File(mDir, "a.wav");
+        WriteCounter counter = new WriteCounter();
+        SegmentedFileWriter writer = new SegmentedFileWriter(base, WAV_FACTORY, 1000, 0,
+                mCallback);
+        writer.setWriteCounter(counter);
+        short[] samples = ramp(25000);
+        writer.open(8000, 1);
+        // 切换点落在块中间
+        writeInBlocks(writer, samples, 3000);
+        writer.close();
+
+        assertEquals(3, mClosed.size());
+        assertEquals(SegmentedFileWriter.segmentFile(base, 2), mClosed.get(2));
+        File last = SegmentedFileWriter.segmentFile(base, 3);
+        assertEquals(last, writer.getCurrentFile());
+        // 提前打开的下一段在停止时删除
+        assertFalse(RecordingJournal.partFile(SegmentedFileWriter.segmentFile(base, 4)).exists());
+
+        short[] joined = new short[samples.length];
+        int offset = 0;
+        long totalLength = 0;
+        for (int i = 0; i < 4; i++) {
+            // 关闭的分段已经提交，最后一段留给调用方提交
+            File segment = SegmentedFileWriter.segmentFile(base, i);
+            File part = i < 3 ? segment : RecordingJournal.partFile(segment);
+            assertFalse(RecordingJournal.partFile(segment).exists() && i < 3);
+            short[] data = readWav(part);
+            assertEquals(i < 3 ? 8000 : 1000, data.length);
+            System.arraycopy(data, 0, joined, offset, data.length);
+            offset += data.length;
+            totalLength += part.length();
+        }
+        assertArrayEquals(samples, joined);
+        assertEquals(totalLength, counter.getBytes());
+    }
+
+    @Test
+    public void rotatesBySizeAtBlockBoundaries() throws Exception {
+        File base = new File(mDir, "b.wav");
+        SegmentedFileWriter writer = new SegmentedFileWriter(base, WAV_FACTORY, 0, 10000,
+                mCallback);
+        short[] samples = ramp(12000);
+        writer.open(8000, 1);
+        writeInBlocks(writer, samples, 1000);
+        writer.close();
+
+        // 每段写到超过 10000 字节的那一块为止：文件头 80 字节加 5000 个采样
+        assertEquals(2, mClosed.size());
+        short[] first = readWav(base);
+        assertEquals(5000, first.length);
+        assertEquals(0, first[0]);
+        short[] third = readWav(RecordingJournal.partFile(SegmentedFileWriter.segmentFile(base, 2)));
+        assertEquals(2000, third.length);
+        assertEquals(samples[10000], third[0]);
+    }
+
+    @Test
+    public void captureSessionRotatesIntoSecondSegment() throws Exception {
+        File base = new File(mDir, "session.wav");
+        // 与 RecorderService 的 PCM 录音相同：采集线程经环形缓冲交给写线程，写入器按时长分段
+        PcmFileWriter writer = RecorderService.createFileWriter(Recorder.OUTPUT_FORMAT_WAV, base,
+                100, 0, mCallback);
+        assertTrue(writer instanceof SegmentedFileWriter);
+        AsyncPcmSink asyncSink = new AsyncPcmSink(writer, 1 << 20);
+        PcmCaptureEngine engine = new PcmCaptureEngine(new FakeAudioSource(8000, 1), 160);
+        engine.addSink(asyncSink);
+
+        engine.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mClosed.isEmpty() || engine.getCapturedFrames() < 2000) {
+            assertTrue("no rotation", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        engine.stop();
+        assertEquals(0, asyncSink.getRingBuffer().getOverrunCount());
+
+        File last = ((SegmentedFileWriter) writer).getCurrentFile();
+        assertFalse(base.equals(last));
+        assertEquals(base, mClosed.get(0));
+        // 停止时由服务提交最后一段，之后不应再有遗留的临时文件
+        assertTrue(RecordingJournal.partFile(last).renameTo(last));
+        assertTrue(RecordingRecovery.recoverSegments(base).isEmpty());
+
+        long frames = 0;
+        for (int i = 0; ; i++) {
+            File segment = SegmentedFileWriter.segmentFile(base, i);
+            if (!segment.exists()) {
+                break;
+            }
+            short[] data = readWav(segment);
+            for (int j = 0; j < data.length; j++) {
+                assertEquals((short) (frames + j), data[j]);
+            }
+            frames += data.length;
+        }
+        assertEquals(engine.getCapturedFrames(), frames);
+    }
+
+    @Test
+    public void recoversEveryPartWhenKilledMidSwitch() throws Exception {
+        final File base = new File(mDir, "c.wav");
+        final CountDownLatch killed = new CountDownLatch(1);
+        // 第一段关闭时进程被杀：文件头没有回填，也没有重命名
+        SegmentedFileWriter.Factory factory = new SegmentedFileWriter.Factory() {
+            @Override
+            public PcmFileWriter create(String path) {
+                if (!path.equals(RecordingJournal.partFile(base).getAbsolutePath())) {
+                    return new WavFileWriter(path);
+                }
+                return new WavFileWriter(path) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            killed.await();
+                        } catch (InterruptedException ignored) {
+                        }
+                        throw new IOException("killed");
+                    }
+                };
+            }
+        };
+        SegmentedFileWriter writer = new SegmentedFileWriter(base, factory, 1000, 0, mCallback);
+        // 每次写入后都做检查点，被杀时已写入的数据都在磁盘上
+        writer.setCheckpointInterval(1);
+        short[] samples = ramp(11000);
+        writer.open(8000, 1);
+        short[] block = new short[1000];
+        for (int offset = 0; offset < samples.length; offset += block.length) {
+            Thread.sleep(2);
+            System.arraycopy(samples, offset, block, 0, block.length);
+            writer.write(block, block.length);
+        }
+        // 提前打开的下一段只有文件头
+        WavFileWriter next = new WavFileWriter(RecordingJournal.partFile(
+                SegmentedFileWriter.segmentFile(base, 2)).getAbsolutePath());
+        next.open(8000, 1);
+        next.close();
+        // 不相关的文件不会被当成分段
+        File other = fileOfSize("c-x.wav" + RecordingJournal.PART_SUFFIX, 100);
+
+        List<File> recovered = RecordingRecovery.recoverSegments(base);
+
+        assertEquals(Arrays.asList(base, SegmentedFileWriter.segmentFile(base, 1)), recovered);
+        assertTrue(SegmentedFileWriter.findParts(base).isEmpty());
+        assertTrue(other.exists());
+        short[] joined = new short[samples.length];
+        short[] first = readWav(base);
+        short[] second = readWav(SegmentedFileWriter.segmentFile(base, 1));
+        assertEquals(8000, first.length);
+        assertEquals(3000, second.length);
+        System.arraycopy(first, 0, joined, 0, first.length);
+        System.arraycopy(second, 0, joined, first.length, second.length);
+        assertArrayEquals(samples, joined);
+
+        killed.countDown();
+        try {
+            writer.close();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void retentionDeletesOldestSegments() throws Exception {
+        SegmentRetention retention = new SegmentRetention(250);
+        File a = fileOfSize("a", 100);
+        File b = fileOfSize("b", 100);
+        File c = fileOfSize("c", 100);
+
+        assertTrue(retention.add(a).isEmpty());
+        assertTrue(retention.add(b).isEmpty());
+        List<File> deleted = retention.add(c);
+        assertEquals(Collections.singletonList(a), deleted);
+        assertFalse(a.exists());
+        assertTrue(b.exists());
+        assertEquals(200, retention.getTotalBytes());
+
+        // 单独一段超过上限时仍然保留刚完成的一段
+        File big = fileOfSize("big", 1000);
+        assertEquals(2, retention.add(big).size());
+        assertTrue(big.exists());
+        assertEquals(1000, retention.getTotalBytes());
+    }
+
+    private static short[] ramp(int length) {
+        short[] samples = new short[length];
+        for (int i = 0; i < length; i++) {
+            samples[i] = (short) (i * 13);
+        }
+        return samples;
+    }
+
+    private static void writeInBlocks(PcmSink sink, short[] samples, int blockSize)
+            throws Exception {
+        short[] block = new short[blockSize];
+        for (int offset = 0; offset < samples.length; offset += blockSize) {
+            int length = Math.min(blockSize, samples.length - offset);
+            System.arraycopy(samples, offset, block, 0, length);
+            sink.write(block, length);
+        }
+    }
+
+    private static short[] readWav(File file) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) raf.length() - WavFileWriter.HEADER_SIZE];
+            raf.seek(WavFileWriter.HEADER_SIZE);
+            raf.readFully(bytes);
+            short[] samples = new short[bytes.length / 2];
+            ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples);
+            return samples;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private File fileOfSize(String name, int size) throws Exception {
+        File file = new File(mDir, name);
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[size]);
+        out.close();
+        return file;
+    }
+}
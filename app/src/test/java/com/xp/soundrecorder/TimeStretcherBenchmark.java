@@ -0,0 +1,77 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 44.1 kHz 单声道变速的实时因子：处理耗时除以输出音频的时长，越小越好，1 表示刚好占满一个核
+ */
+public class TimeStretcherBenchmark {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    /**
+     * 播放器每次送入约 10 毫秒
+     */
+    private static final int BLOCK = SAMPLE_RATE / 100;
+
+    private static final int SECONDS = 60;
+
+    private static final int ROUNDS = 3;
+
+    @Test
+    public void realTimeFactorPerRate() {
+        short[] input = new short[SAMPLE_RATE * SECONDS];
+        Random random = new Random(1);
+        for (int i = 0; i < input.length; i++) {
+            // 带噪声的语音频段信号，避免相关搜索走捷径
+            input[i] = (short) (8000 * Math.sin(2 * Math.PI * 180 * i / SAMPLE_RATE)
+                    + 3000 * Math.sin(2 * Math.PI * 1230 * i / SAMPLE_RATE)
+                    + random.nextInt(2000) - 1000);
+        }
+
+        float[] rates = {1f, 1.25f, 1.5f, 2f, 3f};
+        short[] out = new short[BLOCK];
+        for (float rate : rates) {
+            TimeStretcher stretcher = new TimeStretcher(SAMPLE_RATE, 1);
+            stretcher.setRate(rate);
+            // 预热，让 JIT 完成编译后再统计
+            run(stretcher, input, out);
+
+            long bestNanos = Long.MAX_VALUE;
+            long outputFrames = 0;
+            long allocated = 0;
+            for (int i = 0; i < ROUNDS; i++) {
+                stretcher.clear();
+                long before = AllocationCounter.currentThreadAllocatedBytes();
+                long start = System.nanoTime();
+                outputFrames = run(stretcher, input, out);
+                bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+                allocated = AllocationCounter.currentThreadAllocatedBytes() - before;
+            }
+
+            double outputSeconds = outputFrames / (double) SAMPLE_RATE;
+            double factor = bestNanos / 1e9 / outputSeconds;
+            System.out.printf("TimeStretcher: %.2fx, %.1f s output, real-time factor %.4f (%.1f%% of one core), %d bytes allocated%n",
+                    rate, outputSeconds, factor, factor * 100, allocated);
+            assertEquals(SECONDS / rate, outputSeconds, SECONDS / rate * 0.05);
+            assertTrue(factor < 0.5);
+        }
+    }
+
+    private static long run(TimeStretcher stretcher, short[] input, short[] out) {
+        long outputFrames = 0;
+        for (int fed = 0; fed < input.length; ) {
+            fed += stretcher.put(input, fed, Math.min(BLOCK, input.length - fed));
+            int received;
+            while ((received = stretcher.receive(out, 0, out.length)) > 0) {
+                outputFrames += received;
+            }
+        }
+        return outputFrames;
+    }
+}
@@ -0,0 +1,127 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimeStretcherTest {
+
+    private static final int SAMPLE_RATE = 16000;
+
+    private static final int FREQUENCY = 440;
+
+    private static final int BLOCK = 160;
+
+    @Test
+    public void changesDurationButNotPitch() {
+        float[] rates = {0.5f, 1f, 1.5f, 2f, 3f};
+        for (float rate : rates) {
+            short[] input = sine(SAMPLE_RATE * 3, 1);
+            short[] output = stretch(input, 1, rate);
+
+            double expected = input.length / rate;
+            assertEquals("rate " + rate, expected, output.length, expected * 0.05 + SAMPLE_RATE / 10);
+            // 去掉开头淡入和结尾补的静音后数过零次数，频率应该不变
+            int skip = SAMPLE_RATE / 10;
+            double frequency = zeroCrossings(output, skip, output.length - skip * 3)
+                    / 2.0 * SAMPLE_RATE / (output.length - skip * 4);
+            assertEquals("rate " + rate, FREQUENCY, frequency, FREQUENCY * 0.03);
+        }
+    }
+
+    @Test
+    public void keepsChannelsApart() {
+        short[] input = sine(SAMPLE_RATE * 2, 2);
+        for (int i = 1; i < input.length; i += 2) {
+            input[i] = 0;
+        }
+        short[] output = stretch(input, 2, 2f);
+        for (int i = 1; i < output.length; i += 2) {
+            assertEquals(0, output[i]);
+        }
+        int nonZero = 0;
+        for (int i = 0; i < output.length; i += 2) {
+            if (output[i] != 0) {
+                nonZero++;
+            }
+        }
+        assertTrue(nonZero > output.length / 4);
+    }
+
+    @Test
+    public void clearDropsBufferedAudio() {
+        TimeStretcher stretcher = new TimeStretcher(SAMPLE_RATE, 1);
+        stretcher.setRate(2f);
+        short[] input = sine(SAMPLE_RATE, 1);
+        stretcher.put(input, 0, 4000);
+        stretcher.clear();
+        short[] out = new short[BLOCK];
+        assertEquals(0, stretcher.receive(out, 0, BLOCK));
+    }
+
+    @Test
+    public void rateIsClamped() {
+        TimeStretcher stretcher = new TimeStretcher(SAMPLE_RATE, 1);
+        stretcher.setRate(10f);
+        assertEquals(TimeStretcher.MAX_RATE, stretcher.getRate(), 0);
+        stretcher.setRate(0.1f);
+        assertEquals(TimeStretcher.MIN_RATE, stretcher.getRate(), 0);
+    }
+
+    static short[] sine(int frames, int channelCount) {
+        short[] samples = new short[frames * channelCount];
+        for (int i = 0; i < frames; i++) {
+            short value = (short) (10000 * Math.sin(2 * Math.PI * FREQUENCY * i / SAMPLE_RATE));
+            for (int c = 0; c < channelCount; c++) {
+                samples[i * channelCount + c] = value;
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * 按播放器的方式分块送入整段输入，最后 flush 取出剩余部分
+     */
+    static short[] stretch(short[] input, int channelCount, float rate) {
+        TimeStretcher stretcher = new TimeStretcher(SAMPLE_RATE, channelCount);
+        stretcher.setRate(rate);
+        int frames = input.length / channelCount;
+        short[] output = new short[(int) (frames / rate * 2) * channelCount + SAMPLE_RATE];
+        short[] block = new short[BLOCK * channelCount];
+        int written = 0;
+        int fed = 0;
+        while (true) {
+            int count = Math.min(BLOCK, frames - fed);
+            int accepted = 0;
+            do {
+                accepted += stretcher.put(input, (fed + accepted) * channelCount, count - accepted);
+                int received;
+                while ((received = stretcher.receive(block, 0, BLOCK)) > 0) {
+                    System.arraycopy(block, 0, output, written, received * channelCount);
+                    written += received * channelCount;
+                }
+            } while (accepted < count);
+            if (count == 0) {
+                break;
+            }
+            fed += count;
+            if (fed == frames) {
+                stretcher.flush();
+            }
+        }
+        short[] result = new short[written];
+        System.arraycopy(output, 0, result, 0, written);
+        return result;
+    }
+
+    private static int zeroCrossings(short[] samples, int from, int to) {
+        int count = 0;
+        for (int i = from + 1; i < to; i++) {
+            if ((samples[i - 1] < 0) != (samples[i] < 0)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
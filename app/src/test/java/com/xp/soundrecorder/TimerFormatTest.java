@@ -0,0 +1,46 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimerFormatTest {
+
+    @Test
+    public void formatsMinutesAndSeconds() {
+        assertEquals("00:00", format(0));
+        assertEquals("00:09", format(9));
+        assertEquals("01:05", format(65));
+        assertEquals("59:59", format(3599));
+        assertEquals("100:00", format(6000));
+        assertEquals("9999:59", format(9999 * 60 + 59));
+        assertEquals("9999:00", format(10000 * 60));
+    }
+
+    @Test
+    public void clampsNegativeToZero() {
+        assertEquals("00:00", format(-3));
+    }
+
+    @Test
+    public void doesNotAllocate() {
+        char[] out = new char[TimerFormat.MAX_LENGTH];
+        int total = 0;
+        for (int round = 0; round < 2; round++) {
+            long before = AllocationCounter.currentThreadAllocatedBytes();
+            for (int i = 0; i < 100000; i++) {
+                total += TimerFormat.format(i, out);
+            }
+            // 第一轮用于预热
+            if (round == 1) {
+                assertEquals(0, AllocationCounter.currentThreadAllocatedBytes() - before);
+            }
+        }
+        assertEquals(true, total > 0);
+    }
+
+    private static String format(long seconds) {
+        char[] out = new char[TimerFormat.MAX_LENGTH];
+        return new String(out, 0, TimerFormat.format(seconds, out));
+    }
+}
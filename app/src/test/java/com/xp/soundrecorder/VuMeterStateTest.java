@@ -0,0 +1,116 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VuMeterStateTest {
+
+    private static final long FRAME_NANOS = 16666667L;
+
+    private static final long DECAY_NANOS = 100 * 1000 * 1000L;
+
+    @Test
+    public void lightsSegmentsUpToLevel() {
+        VuMeterState state = new VuMeterState(11, DECAY_NANOS);
+        assertTrue(state.update(LevelMeter.FULL_SCALE / 2, 0));
+        assertEquals(6, countLit(state));
+        for (int i = 0; i <= 5; i++) {
+            assertTrue(state.isLit(i));
+        }
+        assertFalse(state.isLit(6));
+
+        assertTrue(state.update(LevelMeter.FULL_SCALE, FRAME_NANOS));
+        assertEquals(11, countLit(state));
+    }
+
+    @Test
+    public void unchangedLevelNeedsNoRedraw() {
+        VuMeterState state = new VuMeterState(11, DECAY_NANOS);
+        assertTrue(state.update(10000, 0));
+        assertFalse(state.update(10000, FRAME_NANOS));
+        assertFalse(state.update(10100, 2 * FRAME_NANOS));
+    }
+
+    @Test
+    public void peakHoldDecaysOneSegmentPerInterval() {
+        VuMeterState state = new VuMeterState(11, DECAY_NANOS);
+        state.update(LevelMeter.FULL_SCALE, 0);
+        state.update(0, FRAME_NANOS);
+        assertTrue(state.isLit(0));
+        assertTrue(state.isLit(10));
+        assertFalse(state.isLit(9));
+
+        // 间隔未到时峰值保持不动
+        assertFalse(state.update(0, DECAY_NANOS - 1));
+        assertTrue(state.isLit(10));
+
+        assertTrue(state.update(0, DECAY_NANOS));
+        assertTrue(state.isLit(9));
+        assertFalse(state.isLit(10));
+
+        long time = DECAY_NANOS;
+        for (int i = 0; i < 20; i++) {
+            time += DECAY_NANOS;
+            state.update(0, time);
+        }
+        assertEquals(1, countLit(state));
+        assertTrue(state.isLit(0));
+    }
+
+    @Test
+    public void resetClearsAllSegments() {
+        VuMeterState state = new VuMeterState(11, DECAY_NANOS);
+        assertFalse(state.reset());
+        state.update(LevelMeter.FULL_SCALE, 0);
+        assertTrue(state.reset());
+        assertEquals(0, countLit(state));
+    }
+
+    @Test
+    public void frameUpdateDoesNotAllocate() {
+        LevelMeter meter = new LevelMeter();
+        meter.open(44100, 1);
+        short[] block = new short[1024];
+        LevelMeter.Levels levels = new LevelMeter.Levels();
+        VuMeterState state = new VuMeterState(11, DECAY_NANOS);
+
+        // 模拟 VuMeterView.doFrame：读取电平、更新状态、逐段判断是否点亮
+        long time = 0;
+        int lit = 0;
+        for (int round = 0; round < 2; round++) {
+            long before = AllocationCounter.currentThreadAllocatedBytes();
+            for (int frame = 0; frame < 100000; frame++) {
+                block[frame & 1023] = (short) (frame * 7919);
+                meter.write(block, block.length);
+                meter.read(levels);
+                time += FRAME_NANOS;
+                if (state.update(levels.peak, time)) {
+                    for (int i = 0; i < state.getSegmentCount(); i++) {
+                        if (state.isLit(i)) {
+                            lit++;
+                        }
+                    }
+                }
+            }
+            long allocated = AllocationCounter.currentThreadAllocatedBytes() - before;
+            // 第一轮用于预热
+            if (round == 1) {
+                assertEquals(0, allocated);
+            }
+        }
+        assertTrue(lit > 0);
+    }
+
+    private static int countLit(VuMeterState state) {
+        int count = 0;
+        for (int i = 0; i < state.getSegmentCount(); i++) {
+            if (state.isLit(i)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,126 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import static org.junit.Assert.assertEquals;
+
+public class WavFileWriterTest {
+
+    @Test
+    public void patchesSizesOnClose() throws Exception {
+        File file = File.createTempFile("writer", ".wav");
+        file.deleteOnExit();
+        WavFileWriter writer = new WavFileWriter(file.getAbsolutePath());
+        writer.open(16000, 1);
+        short[] block = new short[1000];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (short) (i * 7);
+        }
+        // 总量超过一个写入块，覆盖缓冲区刷新的路径
+        for (int i = 0; i < 200; i++) {
+            writer.write(block, block.length);
+        }
+        writer.close();
+
+        ByteBuffer bytes = readAll(file);
+        assertEquals(WavFileWriter.HEADER_SIZE + 400000, bytes.capacity());
+        assertEquals("RIFF", fourCc(bytes, 0));
+        assertEquals(72 + 400000, bytes.getInt(4));
+        assertEquals("WAVE", fourCc(bytes, 8));
+        assertEquals("JUNK", fourCc(bytes, 12));
+        assertEquals("fmt ", fourCc(bytes, 48));
+        assertEquals(1, bytes.getShort(56));
+        assertEquals(1, bytes.getShort(58));
+        assertEquals(16000, bytes.getInt(60));
+        assertEquals(32000, bytes.getInt(64));
+        assertEquals(16, bytes.getShort(70));
+        assertEquals("data", fourCc(bytes, 72));
+        assertEquals(400000, bytes.getInt(76));
+        assertEquals(7 * 999, bytes.getShort(WavFileWriter.HEADER_SIZE + 999 * 2));
+    }
+
+    @Test
+    public void checkpointFlushesPartialBuffer() throws Exception {
+        File file = File.createTempFile("writer", ".wav");
+        file.deleteOnExit();
+        WavFileWriter writer = new WavFileWriter(file.getAbsolutePath());
+        writer.setCheckpointInterval(1);
+        writer.open(16000, 1);
+        short[] block = new short[1000];
+        writer.write(block, block.length);
+        Thread.sleep(5);
+        // 远不到一个写入块，到了间隔也要写出并回填文件头
+        writer.write(block, block.length);
+        assertEquals(4000, writer.getSyncedBytes());
+        assertEquals(WavFileWriter.HEADER_SIZE + 4000, file.length());
+        assertEquals(4000, readAll(file).getInt(76));
+        writer.close();
+    }
+
+    @Test
+    public void preallocatesAndTrimsOnClose() throws Exception {
+        File file = File.createTempFile("writer", ".wav");
+        file.deleteOnExit();
+        WavFileWriter writer = new WavFileWriter(file.getAbsolutePath());
+        writer.setPreallocatedLength(4 * 1024 * 1024);
+        writer.open(16000, 1);
+        assertEquals(4 * 1024 * 1024, file.length());
+
+        short[] block = new short[1000];
+        block[999] = 1234;
+        for (int i = 0; i < 200; i++) {
+            writer.write(block, block.length);
+        }
+        // 写入从文件头之后开始，而不是追加在预分配的空间后面
+        assertEquals(4 * 1024 * 1024, file.length());
+        writer.close();
+
+        ByteBuffer bytes = readAll(file);
+        assertEquals(WavFileWriter.HEADER_SIZE + 400000, bytes.capacity());
+        assertEquals(400000, bytes.getInt(76));
+        assertEquals(1234, bytes.getShort(WavFileWriter.HEADER_SIZE + 999 * 2));
+        assertEquals(WavFileWriter.HEADER_SIZE + 400000, writer.getCommittedLength());
+    }
+
+    @Test
+    public void switchesToRf64PastFourGigabytes() throws Exception {
+        File file = File.createTempFile("writer", ".wav");
+        file.deleteOnExit();
+        long dataBytes = 5L * 1024 * 1024 * 1024;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        FileChannel channel = raf.getChannel();
+        channel.write(WavFileWriter.buildHeader(48000, 2));
+        WavFileWriter.patchHeader(channel, dataBytes, 4);
+        raf.close();
+
+        ByteBuffer bytes = readAll(file);
+        assertEquals("RF64", fourCc(bytes, 0));
+        assertEquals(-1, bytes.getInt(4));
+        assertEquals("ds64", fourCc(bytes, 12));
+        assertEquals(28, bytes.getInt(16));
+        assertEquals(dataBytes + 72, bytes.getLong(20));
+        assertEquals(dataBytes, bytes.getLong(28));
+        assertEquals(dataBytes / 4, bytes.getLong(36));
+        assertEquals("fmt ", fourCc(bytes, 48));
+        assertEquals(-1, bytes.getInt(76));
+    }
+
+    private static ByteBuffer readAll(File file) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        byte[] data = new byte[(int) raf.length()];
+        raf.readFully(data);
+        raf.close();
+        return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static String fourCc(ByteBuffer bytes, int offset) {
+        return new String(new char[]{(char) bytes.get(offset), (char) bytes.get(offset + 1),
+                (char) bytes.get(offset + 2), (char) bytes.get(offset + 3)});
+    }
+}
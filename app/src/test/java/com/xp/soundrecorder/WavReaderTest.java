@@ -0,0 +1,114 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static org.junit.Assert.assertEquals;
+
+public class WavReaderTest {
+
+    @Test
+    public void readsBackWrittenSamples() throws Exception {
+        File file = writeRamp(44100, 2, 30000);
+        WavReader reader = new WavReader(file);
+        assertEquals(WavReader.WAVE_FORMAT_PCM, reader.getFormatTag());
+        assertEquals(44100, reader.getSampleRate());
+        assertEquals(2, reader.getChannelCount());
+        assertEquals(16, reader.getBitsPerSample());
+        assertEquals(WavFileWriter.HEADER_SIZE, reader.getDataOffset());
+        assertEquals(15000, reader.getFrameCount());
+
+        short[] buffer = new short[7000];
+        int total = 0;
+        int read;
+        while ((read = reader.read(buffer, 0, buffer.length)) > 0) {
+            for (int i = 0; i < read; i++) {
+                assertEquals((short) (total + i), buffer[i]);
+            }
+            total += read;
+        }
+        assertEquals(30000, total);
+
+        reader.seekToFrame(10000);
+        assertEquals(7000, reader.read(buffer, 0, buffer.length));
+        assertEquals((short) 20000, buffer[0]);
+        reader.close();
+    }
+
+    @Test
+    public void unpatchedHeaderUsesFileLength() throws Exception {
+        File file = File.createTempFile("reader", ".wav");
+        file.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.getChannel().write(WavFileWriter.buildHeader(16000, 1));
+        raf.write(new byte[1001]);
+        raf.close();
+
+        WavReader reader = new WavReader(file);
+        assertEquals(1000, reader.getDataSize());
+        reader.close();
+    }
+
+    @Test
+    public void readsRf64Header() throws Exception {
+        File file = File.createTempFile("reader", ".wav");
+        file.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        FileChannel channel = raf.getChannel();
+        channel.write(WavFileWriter.buildHeader(48000, 2));
+        raf.write(new byte[400]);
+        WavFileWriter.patchHeader(channel, 400, 4);
+        raf.close();
+        WavReader reader = new WavReader(file);
+        assertEquals(100, reader.getFrameCount());
+        reader.close();
+
+        // ds64 中的长度超出文件实际长度时按文件长度截断
+        raf = new RandomAccessFile(file, "rw");
+        WavFileWriter.patchHeader(raf.getChannel(), 5L * 1024 * 1024 * 1024, 4);
+        raf.close();
+        ByteBuffer head = ByteBuffer.allocate(4);
+        raf = new RandomAccessFile(file, "r");
+        raf.getChannel().read(head, 0);
+        raf.close();
+        assertEquals("RF64", new String(head.array(), "US-ASCII"));
+        reader = new WavReader(file);
+        assertEquals(48000, reader.getSampleRate());
+        assertEquals(100, reader.getFrameCount());
+        reader.close();
+    }
+
+    @Test
+    public void decodesIntoPeakFile() throws Exception {
+        File wav = writeRamp(16000, 1, 16000);
+        File peaksFile = File.createTempFile("reader", PeakFile.SUFFIX);
+        peaksFile.deleteOnExit();
+        WavReader.decode(wav, new PeakFileWriter(peaksFile, 1000));
+
+        PeakFile peaks = PeakFile.open(peaksFile);
+        assertEquals(16, peaks.getPeakCount());
+        assertEquals(1000, peaks.getMin(1));
+        assertEquals(1999, peaks.getMax(1));
+        assertEquals(1000, peaks.getDurationMillis());
+    }
+
+    private static File writeRamp(int sampleRate, int channels, int samples) throws Exception {
+        File file = File.createTempFile("reader", ".wav");
+        file.deleteOnExit();
+        WavFileWriter writer = new WavFileWriter(file.getAbsolutePath());
+        writer.open(sampleRate, channels);
+        short[] block = new short[1000];
+        for (int offset = 0; offset < samples; offset += block.length) {
+            for (int i = 0; i < block.length; i++) {
+                block[i] = (short) (offset + i);
+            }
+            writer.write(block, Math.min(block.length, samples - offset));
+        }
+        writer.close();
+        return file;
+    }
+}
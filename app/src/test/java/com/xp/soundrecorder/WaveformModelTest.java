@@ -0,0 +1,152 @@
+package com.xp.soundrecorder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WaveformModelTest {
+
+    private static final int FRAMES = 8000 * 60;
+
+    private PeakFile mPeaks;
+
+    @Before
+    public void setUp() throws Exception {
+        File file = File.createTempFile("model", PeakFile.SUFFIX);
+        file.deleteOnExit();
+        PeakFileWriter writer = new PeakFileWriter(file, 256);
+        writer.open(8000, 1);
+        short[] block = new short[8000];
+        for (int n = 0; n < FRAMES / block.length; n++) {
+            for (int i = 0; i < block.length; i++) {
+                block[i] = sampleAt(n * block.length + i);
+            }
+            writer.write(block, block.length);
+        }
+        writer.close();
+        mPeaks = PeakFile.open(file);
+    }
+
+    private static short sampleAt(long frame) {
+        return (short) ((frame % 2000) * 10 - 10000);
+    }
+
+    @Test
+    public void fitsWholeFileByDefault() {
+        WaveformModel model = new WaveformModel();
+        model.setColumns(1000);
+        model.setData(mPeaks, null);
+        assertTrue(model.hasData());
+        assertFalse(model.isZoomed());
+        assertEquals(FRAMES / 1000.0, model.getFramesPerColumn(), 1e-9);
+        assertEquals(0, model.frameAt(0));
+        assertEquals(FRAMES, model.frameAt(1000));
+        assertEquals(30000, model.framesToMillis(model.frameAt(500)));
+    }
+
+    @Test
+    public void zoomKeepsFocusFrameUnderFinger() {
+        WaveformModel model = new WaveformModel();
+        model.setColumns(1000);
+        model.setData(mPeaks, null);
+        long focus = model.frameAt(250);
+        model.zoom(8, 250);
+        assertTrue(model.isZoomed());
+        assertEquals(FRAMES / 8000.0, model.getFramesPerColumn(), 1e-9);
+        assertEquals(focus, model.frameAt(250));
+
+        // 平移不会越过文件两端
+        model.scrollBy(-1000000);
+        assertEquals(0, model.frameAt(0));
+        model.scrollBy(1000000);
+        assertEquals(FRAMES, model.frameAt(1000));
+
+        // 缩小超过整个文件时回到适配状态
+        model.zoom(0.01, 500);
+        assertFalse(model.isZoomed());
+        assertEquals(0, model.frameAt(0));
+    }
+
+    @Test
+    public void zoomIsLimitedWithoutSamples() {
+        WaveformModel model = new WaveformModel();
+        model.setColumns(1000);
+        model.setData(mPeaks, null);
+        model.zoom(1e9, 0);
+        assertEquals(256 / 8.0, model.getFramesPerColumn(), 1e-9);
+    }
+
+    @Test
+    public void ensureVisiblePagesWhenZoomed() {
+        WaveformModel model = new WaveformModel();
+        model.setColumns(100);
+        model.setData(mPeaks, null);
+        assertFalse(model.ensureVisible(FRAMES / 2));
+        model.zoom(100, 0);
+        assertFalse(model.ensureVisible(1000));
+        assertTrue(model.ensureVisible(FRAMES / 2));
+        assertEquals(FRAMES / 2, model.frameAt(0));
+    }
+
+    @Test
+    public void readsSamplesAtHighZoom() {
+        FakeSampleSource samples = new FakeSampleSource();
+        WaveformModel model = new WaveformModel();
+        model.setColumns(200);
+        model.setData(mPeaks, samples);
+        model.zoom(1e9, 0);
+        assertEquals(1.0, model.getFramesPerColumn(), 1e-9);
+        model.scrollBy(12345);
+
+        int[] min = new int[200];
+        int[] max = new int[200];
+        model.computeColumns(min, max);
+        for (int column = 0; column < 200; column++) {
+            assertEquals(sampleAt(12345 + column), min[column]);
+            assertEquals(sampleAt(12345 + column), max[column]);
+        }
+        // 只读取可视范围内的采样
+        assertTrue(samples.mFramesRead <= 201);
+
+        // 缩小到峰值模式后不再读取采样
+        samples.mFramesRead = 0;
+        model.zoom(1.0 / 64, 100);
+        model.computeColumns(min, max);
+        assertEquals(0, samples.mFramesRead);
+    }
+
+    private static class FakeSampleSource implements SampleSource {
+
+        int mFramesRead;
+
+        @Override
+        public int getChannelCount() {
+            return 1;
+        }
+
+        @Override
+        public long getFrameCount() {
+            return FRAMES;
+        }
+
+        @Override
+        public int readFrames(long startFrame, short[] buffer, int frameCount) {
+            int count = (int) Math.min(frameCount, FRAMES - startFrame);
+            for (int i = 0; i < count; i++) {
+                buffer[i] = sampleAt(startFrame + i);
+            }
+            mFramesRead += count;
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.xp.soundrecorder;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WriteCounterTest {
+
+    private static final long MILLIS = 1000L * 1000;
+
+    @Test
+    public void headerStartsTheRateWindow() {
+        WriteCounter counter = new WriteCounter();
+        counter.add(44, 0);
+        assertEquals(44, counter.getBytes());
+        assertEquals(0, counter.getBytesPerSecond(), 0);
+
+        // 不满一秒不更新速度
+        counter.add(16000, 500 * MILLIS);
+        assertEquals(0, counter.getBytesPerSecond(), 0);
+        counter.add(16000, 1000 * MILLIS);
+        assertEquals(32000, counter.getBytesPerSecond(), 1);
+        assertEquals(32044, counter.getBytes());
+    }
+
+    @Test
+    public void smoothsRateChanges() {
+        WriteCounter counter = new WriteCounter();
+        long now = 0;
+        counter.add(0, now);
+        for (int i = 0; i < 10; i++) {
+            now += 1000 * MILLIS;
+            counter.add(32000, now);
+        }
+        assertEquals(32000, counter.getBytesPerSecond(), 1);
+
+        // 速度减半后一秒只移动一小部分，半分钟后基本收敛
+        now += 1000 * MILLIS;
+        counter.add(16000, now);
+        float rate = counter.getBytesPerSecond();
+        assertTrue(rate < 32000 && rate > 28000);
+        for (int i = 0; i < 30; i++) {
+            now += 1000 * MILLIS;
+            counter.add(16000, now);
+        }
+        assertEquals(16000, counter.getBytesPerSecond(), 100);
+    }
+
+    @Test
+    public void writersCountEverythingThatReachesTheFile() throws Exception {
+        short[] samples = FlacEncoderTest.voiceLike(44100, 1, 8);
+        File file = File.createTempFile("counter", ".wav");
+        file.deleteOnExit();
+
+        WriteCounter counter = new WriteCounter();
+        WavFileWriter wav = new WavFileWriter(file.getAbsolutePath());
+        wav.setWriteCounter(counter);
+        writeAll(wav, samples);
+        assertEquals(file.length(), counter.getBytes());
+
+        counter = new WriteCounter();
+        FlacFileWriter flac = new FlacFileWriter(file.getAbsolutePath(), FlacEncoder.DEFAULT_LEVEL);
+        flac.setWriteCounter(counter);
+        writeAll(flac, samples);
+        assertEquals(file.length(), counter.getBytes());
+
+        counter = new WriteCounter();
+        ImaAdpcmFileWriter adpcm = new ImaAdpcmFileWriter(file.getAbsolutePath());
+        adpcm.setWriteCounter(counter);
+        writeAll(adpcm, samples);
+        assertEquals(file.length(), counter.getBytes());
+        file.delete();
+    }
+
+    private static void writeAll(PcmSink sink, short[] samples) throws Exception {
+        sink.open(44100, 1);
+        short[] block = new short[1000];
+        for (int offset = 0; offset < samples.length; offset += block.length) {
+            int length = Math.min(block.length, samples.length - offset);
+            System.arraycopy(samples, offset, block, 0, length);
+            sink.write(block, length);
+        }
+        sink.close();
+    }
+}